@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.benchmarks;
+
+import com.github.shyiko.jwarpack.packager.CompressionPolicy;
+import com.github.shyiko.jwarpack.packager.Metadata;
+import com.github.shyiko.jwarpack.packager.Packager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Measures {@link Packager#pack(Metadata)} against synthetic WARs.
+ * <p/>
+ * Usage: java -jar jwarpack-benchmarks/target/benchmarks.jar [-p numberOfEntries=1000] [-prof gc]
+ * (-prof gc reports allocation rate per operation).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PackagerBenchmark {
+
+    public enum PackingMode {
+        /**
+         * No compression.
+         */
+        STORED,
+        /**
+         * Compression using single thread.
+         */
+        COMPRESSED,
+        /**
+         * Compression using all available processors.
+         */
+        COMPRESSED_PARALLEL,
+        /**
+         * Compression of the text-like entries only (already compressed formats are stored).
+         */
+        COMPRESSED_SELECTIVELY,
+        /**
+         * Repacking of the unchanged WAR (with compression on).
+         */
+        INCREMENTAL
+    }
+
+    @Param({"1000", "10000"})
+    private int numberOfEntries;
+
+    @Param({"64"})
+    private int totalSizeInMegabytes;
+
+    @Param({"TEXT", "RANDOM", "MIXED"})
+    private SyntheticArchive.Compressibility compressibility;
+
+    @Param({"true", "false"})
+    private boolean sourceCompressed;
+
+    @Param({"STORED", "COMPRESSED", "COMPRESSED_PARALLEL", "COMPRESSED_SELECTIVELY", "INCREMENTAL"})
+    private PackingMode mode;
+
+    private File workingDirectory;
+    private Metadata metadata;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workingDirectory = File.createTempFile("jwarpack-benchmark-", "");
+        if (!workingDirectory.delete() || !workingDirectory.mkdir()) {
+            throw new IOException("Failed to create " + workingDirectory);
+        }
+        File serverLauncherJar = new SyntheticArchive(2000, 8 * 1024 * 1024,
+                SyntheticArchive.Compressibility.TEXT, sourceCompressed).
+                writeTo(new File(workingDirectory, "server-launcher.jar"), "org/mortbay/", 1);
+        File applicationWar = new SyntheticArchive(numberOfEntries, totalSizeInMegabytes * 1024L * 1024L,
+                compressibility, sourceCompressed).
+                writeTo(new File(workingDirectory, "application.war"), "WEB-INF/classes/", 2);
+        metadata = new Metadata(serverLauncherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                new File(workingDirectory, "application-standalone.jar").getAbsolutePath(),
+                mode != PackingMode.STORED);
+        switch (mode) {
+            case COMPRESSED:
+                metadata.setThreads(1);
+                break;
+            case COMPRESSED_SELECTIVELY:
+                metadata.setCompressionPolicy(new CompressionPolicy(Deflater.DEFAULT_COMPRESSION,
+                        CompressionPolicy.COMPRESSED_FILE_EXTENSIONS));
+                break;
+            case INCREMENTAL:
+                new Packager().pack(metadata);
+                metadata.setIncremental(true);
+                break;
+            default:
+        }
+    }
+
+    @Benchmark
+    public File pack() throws IOException {
+        return new Packager().pack(metadata);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = workingDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        workingDirectory.delete();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates ZIP archives (WARs, JARs) with predictable structure and content.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class SyntheticArchive {
+
+    /**
+     * Kind of content archive entries are filled with.
+     */
+    public enum Compressibility {
+        /**
+         * Text-like content (deflates ~5x), similar to classes, HTML, CSS and JS.
+         */
+        TEXT,
+        /**
+         * Random bytes which don't deflate at all, similar to nested JARs and images (entries are named *.png).
+         */
+        RANDOM,
+        /**
+         * Every other entry is either TEXT or RANDOM.
+         */
+        MIXED
+    }
+
+    private static final String[] WORDS = {
+        "public", "class", "return", "static", "final", "void", "String", "import", "package", "private",
+        "<div>", "</div>", "function", "var", "color:", "margin:", "{", "}", "(", ")", ";", "\n"
+    };
+
+    private final int numberOfEntries;
+    private final long totalSize;
+    private final Compressibility compressibility;
+    private final boolean compress;
+
+    /**
+     * @param numberOfEntries number of file entries
+     * @param totalSize total uncompressed size of all the entries
+     * @param compressibility kind of content
+     * @param compress true if entries should be deflated, false if they should be stored
+     */
+    public SyntheticArchive(int numberOfEntries, long totalSize, Compressibility compressibility, boolean compress) {
+        this.numberOfEntries = numberOfEntries;
+        this.totalSize = totalSize;
+        this.compressibility = compressibility;
+        this.compress = compress;
+    }
+
+    /**
+     * @param file target file
+     * @param prefix prefix of entry names (e.g. "WEB-INF/classes/")
+     * @param seed seed of the random generator (same seed - same content)
+     */
+    public File writeTo(File file, String prefix, long seed) throws IOException {
+        Random random = new Random(seed);
+        ZipOutputStream outputStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            long entrySize = Math.max(1, totalSize / numberOfEntries);
+            byte[] buffer = new byte[(int) entrySize];
+            for (int i = 0; i < numberOfEntries; i++) {
+                boolean text = compressibility == Compressibility.TEXT ||
+                        (compressibility == Compressibility.MIXED && i % 2 == 0);
+                if (text) {
+                    fillWithText(buffer, random);
+                } else {
+                    random.nextBytes(buffer);
+                }
+                String name = String.format("%sdir-%s/entry-%s%s", prefix, i / 100, i, text ? ".txt" : ".png");
+                ZipEntry entry = new ZipEntry(name);
+                if (!compress) {
+                    CRC32 crc = new CRC32();
+                    crc.update(buffer);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(buffer.length);
+                    entry.setCrc(crc.getValue());
+                }
+                outputStream.putNextEntry(entry);
+                outputStream.write(buffer);
+                outputStream.closeEntry();
+            }
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private void fillWithText(byte[] buffer, Random random) {
+        int position = 0;
+        while (position < buffer.length) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            for (int i = 0; i < word.length() && position < buffer.length; i++) {
+                buffer[position++] = (byte) word.charAt(i);
+            }
+            if (position < buffer.length) {
+                buffer[position++] = ' ';
+            }
+        }
+    }
+}
@@ -15,44 +15,320 @@
  */
 package com.github.shyiko.jwarpack.cli;
 
+import com.github.shyiko.jwarpack.packager.CompressionPolicy;
 import com.github.shyiko.jwarpack.packager.Metadata;
 import com.github.shyiko.jwarpack.packager.Packager;
+import com.github.shyiko.jwarpack.packager.PackagingListener;
+import com.github.shyiko.jwarpack.packager.PackagingPhase;
+import com.github.shyiko.jwarpack.packager.PackagingResult;
+import com.github.shyiko.jwarpack.packager.PackagingStatistics;
 
-import java.io.IOException;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
 
 /**
  * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
  */
 public class EntryPoint {
 
+    private static final String STANDARD_STREAM = "-";
+
     public static void main(String[] args) {
+        if (args.length > 0 && "--batch".equalsIgnoreCase(args[0])) {
+            packBatch(args);
+        } else {
+            pack(args);
+        }
+    }
+
+    private static void pack(String[] args) {
         int numberOfArguments = args.length;
-        if (numberOfArguments != 3 && numberOfArguments != 4) {
+        if (numberOfArguments < 3) {
             printUsage();
             System.exit(1);
         }
         String serverLauncherJar = args[0];
         String applicationWar = args[1];
         String outputFile = args[2];
-        boolean useCompression = "--compress".equalsIgnoreCase(args.length == 4 ? args[3] : null);
-        Metadata metadata = null;
+        Options options = new Options();
+        for (int i = 3; i < numberOfArguments; i++) {
+            if (!options.parse(args[i])) {
+                printUsage();
+                System.exit(1);
+            }
+        }
+        if (STANDARD_STREAM.equals(serverLauncherJar) || STANDARD_STREAM.equals(applicationWar) ||
+            STANDARD_STREAM.equals(outputFile)) {
+            packStreams(serverLauncherJar, applicationWar, outputFile, options);
+            return;
+        }
+        Metadata metadata = createMetadata(serverLauncherJar, applicationWar, outputFile, options);
         try {
-            metadata = new Metadata(serverLauncherJar, applicationWar, outputFile, useCompression);
-        } catch (Exception e) {
-            System.err.println(e.getMessage());
+            Packager packager = new Packager();
+            packager.setListener(new PackagingListener() {
+
+                public void onPhaseCompleted(PackagingPhase phase, long durationInMillis) {}
+
+                public void onEntryWritten(String entryName, int entriesWritten, int totalEntries) {}
+
+                public void onPackagingCompleted(PackagingStatistics statistics) {
+                    System.out.println(statistics);
+                }
+            });
+            File result = packager.pack(metadata);
+            System.out.println(String.format("Created %s", result));
+        } catch (IOException e) {
+            System.err.println("Failed to complete packaging. Error: ");
+            e.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Any of the locations can be "-" (stdin for the archives, stdout for the output). As stdout might be occupied by
+     * the standalone JAR, summary goes to stderr.
+     */
+    private static void packStreams(String serverLauncherJar, String applicationWar, String outputFile,
+                                    Options options) {
+        if (STANDARD_STREAM.equals(serverLauncherJar) && STANDARD_STREAM.equals(applicationWar)) {
+            System.err.println("Server launcher JAR and application WAR cannot be both read from stdin");
+            System.exit(1);
+        }
+        if (options.classDataSharing) {
+            System.err.println("Class data sharing archive cannot be recorded when reading from/writing to a stream");
             System.exit(1);
         }
+        Metadata metadata = createMetadata(null, null, null, options);
         try {
-            new Packager().pack(metadata);
+            InputStream serverLauncherStream = openInputStream(serverLauncherJar);
+            try {
+                InputStream applicationStream = openInputStream(applicationWar);
+                try {
+                    OutputStream outputStream = openOutputStream(outputFile);
+                    try {
+                        PackagingStatistics statistics = new Packager().pack(serverLauncherStream,
+                                applicationStream, outputStream, metadata);
+                        System.err.println(statistics);
+                    } finally {
+                        outputStream.close();
+                    }
+                } finally {
+                    applicationStream.close();
+                }
+            } finally {
+                serverLauncherStream.close();
+            }
         } catch (IOException e) {
             System.err.println("Failed to complete packaging. Error: ");
             e.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+
+    private static InputStream openInputStream(String location) throws IOException {
+        if (STANDARD_STREAM.equals(location)) {
+            return new FileInputStream(FileDescriptor.in);
+        }
+        return new FileInputStream(location);
+    }
+
+    private static OutputStream openOutputStream(String location) throws IOException {
+        if (STANDARD_STREAM.equals(location)) {
+            // unlike System.out, doesn't swallow I/O errors
+            return new FileOutputStream(FileDescriptor.out);
+        }
+        File file = new File(location).getAbsoluteFile();
+        file.getParentFile().mkdirs();
+        return new FileOutputStream(file);
+    }
+
+    private static void packBatch(String[] args) {
+        String serverLauncherJar = null;
+        String outputDirectory = null;
+        List<String> applicationWars = new ArrayList<String>();
+        Options options = new Options();
+        Integer concurrency = null;
+        for (int i = 1; i < args.length; i++) {
+            String argument = args[i];
+            if (argument.startsWith("--concurrency=")) {
+                concurrency = parseInt(argument.substring("--concurrency=".length()));
+            } else
+            if (argument.startsWith("--")) {
+                if (!options.parse(argument)) {
+                    printUsage();
+                    System.exit(1);
+                }
+            } else
+            if (serverLauncherJar == null) {
+                serverLauncherJar = argument;
+            } else
+            if (outputDirectory == null) {
+                outputDirectory = argument.endsWith("/") || argument.endsWith("\\") ? argument : argument + "/";
+            } else {
+                applicationWars.add(argument);
+            }
+        }
+        if (applicationWars.isEmpty()) {
+            printUsage();
+            System.exit(1);
+        }
+        List<String> locations = new ArrayList<String>(applicationWars);
+        locations.add(serverLauncherJar);
+        locations.add(outputDirectory);
+        if (locations.contains(STANDARD_STREAM) || locations.contains(STANDARD_STREAM + "/")) {
+            System.err.println("Locations cannot be \"-\" (stdin/stdout) in --batch mode");
+            System.exit(1);
+        }
+        List<Metadata> batch = new ArrayList<Metadata>(applicationWars.size());
+        for (String applicationWar : applicationWars) {
+            batch.add(createMetadata(serverLauncherJar, applicationWar, outputDirectory, options));
+        }
+        List<PackagingResult> results = null;
+        try {
+            results = new Packager().pack(batch,
+                    concurrency == null ? Runtime.getRuntime().availableProcessors() : concurrency);
+        } catch (Exception e) {
+            System.err.println("Failed to complete packaging. Error: ");
+            e.printStackTrace(System.err);
+            System.exit(1);
+        }
+        int numberOfFailures = 0;
+        for (PackagingResult result : results) {
+            Metadata metadata = result.getMetadata();
+            if (result.isSuccessful()) {
+                System.out.println(String.format("OK     %s -> %s (%s)", metadata.getApplicationWar(),
+                        result.getOutputJar(), result.getStatistics()));
+            } else {
+                numberOfFailures++;
+                System.out.println(String.format("FAILED %s -> %s (%s)", metadata.getApplicationWar(),
+                        result.getOutputJar(), result.getFailure()));
+            }
+        }
+        System.out.println(String.format("%s of %s standalone JARs created", results.size() - numberOfFailures,
+                results.size()));
+        if (numberOfFailures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return metadata (without file locations if all of them are null)
+     */
+    private static Metadata createMetadata(String serverLauncherJar, String applicationWar, String outputFile,
+                                           Options options) {
+        Metadata metadata = null;
+        try {
+            metadata = serverLauncherJar == null && applicationWar == null && outputFile == null ?
+                    new Metadata(options.useCompression) :
+                    new Metadata(serverLauncherJar, applicationWar, outputFile, options.useCompression);
+            if (options.threads != null) {
+                metadata.setThreads(options.threads);
+            }
+            metadata.setCompressionPolicy(new CompressionPolicy(options.compressionLevel, options.storedExtensions));
+            metadata.setIncremental(options.incremental);
+            metadata.setPrecompileJsps(options.precompileJsps);
+            metadata.setPrecompressedExtensions(options.precompressedExtensions);
+            metadata.setIndexETags(options.indexETags);
+            metadata.setIndexTlds(options.indexTlds);
+            metadata.setClassDataSharing(options.classDataSharing);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        return metadata;
+    }
+
+    private static Integer parseInt(String value) {
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            System.err.println(String.format("%s is not a valid number", value));
+            System.exit(1);
+            return null;
         }
     }
 
     private static void printUsage() {
         System.err.println("Usage:");
-        System.err.println("java -jar jwarpack-cli.jar <jwarpack-<server-name>.jar location> <your-app.war location> <output dir or file>");
-        System.err.println("Adding --compress option to the end of command will enable JAR compression");
+        System.err.println("java -jar jwarpack-cli.jar <jwarpack-<server-name>.jar location> <your-app.war location> <output dir or file> [options]");
+        System.err.println("java -jar jwarpack-cli.jar --batch <jwarpack-<server-name>.jar location> <output dir> <app1.war location> <app2.war location> ... [options]");
+        System.err.println("Except for --batch mode, any of the locations can be \"-\" (stdin for JAR/WAR, stdout for output).");
+        System.err.println("Options:");
+        System.err.println("  --compress     enable JAR compression");
+        System.err.println("  --compression-level=N  deflate level (1-9)");
+        System.err.println("  --store[=.ext1,.ext2]  do not compress files with given extensions (default: " +
+                "list of commonly used compressed formats)");
+        System.err.println("  --threads=N    number of threads used for compression (default: number of available processors, " +
+                "divided between concurrently packed WARs in --batch mode)");
+        System.err.println("  --incremental  reuse unchanged entries of the existing output JAR");
+        System.err.println("  --precompile-jsps  compile JSPs into servlets (requires JSP-enabled server launcher JAR)");
+        System.err.println("  --precompress[=.ext1,.ext2]  add gzip-compressed copy (<name>.gz) of static resources with " +
+                "given extensions (default: list of common text formats)");
+        System.err.println("  --etags        record content hash of static resources (to be used as ETag by the server)");
+        System.err.println("  --index-tlds   list TLDs of WEB-INF/lib/*.jar (so that server doesn't have to open each of the JARs)");
+        System.err.println("  --cds          record class data sharing archive (<output>.jsa) by starting JAR once (Java 13+)");
+        System.err.println("  --concurrency=N  (--batch only) number of WARs packed at the same time (default: number of available processors)");
+    }
+
+    private static class Options {
+
+        private boolean useCompression;
+        private boolean incremental;
+        private boolean precompileJsps;
+        private boolean classDataSharing;
+        private boolean indexETags;
+        private boolean indexTlds;
+        private Integer threads;
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private List<String> storedExtensions = Collections.emptyList();
+        private List<String> precompressedExtensions = Collections.emptyList();
+
+        /**
+         * @return false if option is not recognized, true otherwise
+         */
+        public boolean parse(String option) {
+            if ("--compress".equalsIgnoreCase(option)) {
+                useCompression = true;
+            } else
+            if (option.startsWith("--compression-level=")) {
+                compressionLevel = parseInt(option.substring("--compression-level=".length()));
+            } else
+            if ("--store".equalsIgnoreCase(option)) {
+                storedExtensions = CompressionPolicy.COMPRESSED_FILE_EXTENSIONS;
+            } else
+            if (option.startsWith("--store=")) {
+                storedExtensions = Arrays.asList(option.substring("--store=".length()).split(","));
+            } else
+            if ("--precompress".equalsIgnoreCase(option)) {
+                precompressedExtensions = CompressionPolicy.TEXT_FILE_EXTENSIONS;
+            } else
+            if (option.startsWith("--precompress=")) {
+                precompressedExtensions = Arrays.asList(option.substring("--precompress=".length()).split(","));
+            } else
+            if ("--etags".equalsIgnoreCase(option)) {
+                indexETags = true;
+            } else
+            if ("--index-tlds".equalsIgnoreCase(option)) {
+                indexTlds = true;
+            } else
+            if ("--incremental".equalsIgnoreCase(option)) {
+                incremental = true;
+            } else
+            if ("--precompile-jsps".equalsIgnoreCase(option)) {
+                precompileJsps = true;
+            } else
+            if ("--cds".equalsIgnoreCase(option)) {
+                classDataSharing = true;
+            } else
+            if (option.startsWith("--threads=")) {
+                threads = parseInt(option.substring("--threads=".length()));
+            } else {
+                return false;
+            }
+            return true;
+        }
     }
 }
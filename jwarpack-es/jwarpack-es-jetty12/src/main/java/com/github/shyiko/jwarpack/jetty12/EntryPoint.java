@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty12;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Same command line contract as the one of jwarpack-es-jetty6 (except for the --browser option, as this module is
+ * meant for servers).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class EntryPoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(EntryPoint.class);
+
+    private static final String APPLICATION_NAME = "application.name";
+    private static final String APPLICATION_CONTEXT = "application.context";
+    private static final String MONITORING_TIMEOUT = "monitoring.timeout";
+
+    public static void main(String[] args) throws Throwable {
+        @Parameters(separators = "=")
+        class CLIParameters {
+            @Parameter(names = {"--host", "-h"}, arity = 1,
+                       description = "Hostname or IP Address, Jetty will be bounded to (default localhost)")
+            private String host = "localhost";
+            @Parameter(names = {"--port", "-p"}, arity = 1,
+                       description = "Port, Jetty will listen to (default 8080)")
+            private Integer port = 8080;
+            @Parameter(names = {"--monitoringPort", "-m"}, arity = 1,
+                       description = "Monitoring port (default 8888, -1 turns it of)")
+            private Integer monitoringPort = 8888;
+            @Parameter(names = {"--config", "-c"}, arity = 1,
+                       description = "Custom jetty.xml")
+            private File config;
+            @Parameter(description = "Target <start|stop|status|live|ready>", required = true)
+            private List<String> mode;
+        }
+        CLIParameters parameters = new CLIParameters();
+        JCommander commander = new JCommander(parameters);
+        try {
+            commander.parse(args);
+            if (parameters.mode == null || parameters.mode.size() != 1 ||
+                !Arrays.asList("start", "stop", "status", "live", "ready").contains(parameters.mode.get(0))) {
+                throw new ParameterException("Target is invalid.");
+            }
+        } catch (ParameterException e) {
+            System.err.println("Error: " + e.getMessage());
+            commander.usage();
+            System.exit(1);
+        }
+        String mode = parameters.mode.get(0);
+        if ("start".equals(mode)) {
+            startServer(parameters.host, parameters.port, parameters.config, parameters.monitoringPort);
+        } else {
+            MonitoringServer monitoringServer = new MonitoringServer();
+            monitoringServer.setPort(parameters.monitoringPort);
+            monitoringServer.setTimeout(getMonitoringTimeout());
+            if ("stop".equalsIgnoreCase(mode)) {
+                monitoringServer.sendShutdownRequest();
+            } else
+            if ("status".equalsIgnoreCase(mode)) {
+                monitoringServer.sendStatusRequest();
+            } else
+            if ("live".equalsIgnoreCase(mode)) {
+                System.exit(monitoringServer.sendLivenessRequest() ? 0 : 1);
+            } else
+            if ("ready".equalsIgnoreCase(mode)) {
+                System.exit(monitoringServer.sendReadinessRequest() ? 0 : 1);
+            }
+        }
+    }
+
+    private static void startServer(String host, int port, File configurationFile, int monitoringPort)
+            throws Throwable {
+        System.setProperty("java.awt.headless", "true");
+        File jettyHome = getJettyHome();
+        MonitoringServer monitoringServer = new MonitoringServer();
+        monitoringServer.setPort(monitoringPort);
+        monitoringServer.setTimeout(getMonitoringTimeout());
+        if (monitoringPort > -1) {
+            monitoringServer.startListeningThread();
+        }
+        JettyInstance jettyInstance = new JettyInstance(host, port, configurationFile);
+        jettyInstance.deploy(JWarPackBundle.get(APPLICATION_CONTEXT, "/"), getJarFileLocation(),
+                new File(jettyHome, "work"));
+        // stopped at shutdown by Jetty itself
+        jettyInstance.start();
+        monitoringServer.setReady(true);
+        logger.info("Requests are executed on {} threads",
+                jettyInstance.isUsingVirtualThreads() ? "virtual" : "platform (virtual ones require Java 21+)");
+    }
+
+    /**
+     * @return time (in milliseconds) given to each connection to the monitoring port
+     */
+    private static int getMonitoringTimeout() {
+        return Integer.parseInt(JWarPackBundle.get(MONITORING_TIMEOUT, "5000"));
+    }
+
+    private static File getJettyHome() {
+        String jettyHome = JWarPackBundle.get("jetty.home");
+        if (jettyHome == null) {
+            jettyHome = System.getProperty("user.home") + File.separator + "." + JWarPackBundle.get(APPLICATION_NAME);
+            System.setProperty("jetty.home", jettyHome);
+        }
+        return new File(jettyHome);
+    }
+
+    private static String getJarFileLocation() {
+        String path = EntryPoint.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+        try {
+            return URLDecoder.decode(path, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty12;
+
+import org.eclipse.jetty.ee8.webapp.WebAppContext;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.resource.ResourceFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.eclipse.jetty.xml.XmlConfiguration;
+
+import java.io.File;
+
+/**
+ * Jetty 12 (ee8 environment, i.e. Servlet 4.0 / javax.servlet) server. Unless turned off (virtualThreads=false),
+ * requests are executed on virtual threads (if JVM supports them, i.e. on Java 21+), so that the number of requests
+ * blocked on I/O is no longer limited by the size of the thread pool (which is then used by selectors and acceptors
+ * only).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class JettyInstance {
+
+    private static final String VIRTUAL_THREADS = "virtualThreads";
+    private static final String PRECOMPRESSED = "org.eclipse.jetty.servlet.Default.precompressed";
+
+    private Server server;
+
+    /**
+     * @param host host to bind to (null for all interfaces)
+     * @param port port to listen on (0 for ephemeral one)
+     * @param configurationFile custom jetty.xml (null for the default configuration)
+     * @throws Exception if configuration cannot be applied
+     */
+    public JettyInstance(String host, int port, File configurationFile) throws Exception {
+        if (configurationFile == null) {
+            // same as jetty.xml of jwarpack-es-jetty6 (but without parsing cost)
+            QueuedThreadPool threadPool = new QueuedThreadPool(200, 10);
+            threadPool.setName("jetty");
+            server = new Server(threadPool);
+            ServerConnector connector = new ServerConnector(server);
+            connector.setIdleTimeout(30000);
+            server.addConnector(connector);
+            server.setStopTimeout(1000);
+        } else {
+            server = (Server) new XmlConfiguration(ResourceFactory.root().newResource(configurationFile.toPath())).
+                    configure();
+        }
+        server.setStopAtShutdown(true);
+        configureVirtualThreads(server.getThreadPool());
+        Connector[] connectors = server.getConnectors();
+        if (connectors.length == 1 && connectors[0] instanceof ServerConnector) {
+            ServerConnector connector = (ServerConnector) connectors[0];
+            if (host != null && !host.isEmpty()) {
+                connector.setHost(host);
+            }
+            if (port >= 0) {
+                connector.setPort(port);
+            }
+        }
+    }
+
+    private void configureVirtualThreads(ThreadPool threadPool) {
+        if (!Boolean.valueOf(JWarPackBundle.get(VIRTUAL_THREADS, "true")) ||
+            !(threadPool instanceof QueuedThreadPool)) {
+            return;
+        }
+        QueuedThreadPool queuedThreadPool = (QueuedThreadPool) threadPool;
+        if (queuedThreadPool.getVirtualThreadsExecutor() == null) {
+            // null (i.e. platform threads) if JVM doesn't support virtual threads
+            queuedThreadPool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+        }
+    }
+
+    public boolean isUsingVirtualThreads() {
+        ThreadPool threadPool = server.getThreadPool();
+        return threadPool instanceof QueuedThreadPool &&
+            ((QueuedThreadPool) threadPool).getVirtualThreadsExecutor() != null;
+    }
+
+    /**
+     * @param context context path
+     * @param war WAR (standalone JAR) or unpacked web application
+     * @param tempDirectory directory WAR is unpacked into. It's kept between restarts, so that unchanged WAR is not
+     * unpacked again
+     */
+    public void deploy(String context, String war, File tempDirectory) {
+        WebAppContext webAppContext = new WebAppContext(war, context);
+        webAppContext.setLogUrlOnStart(true);
+        // <path>.br / <path>.gz (e.g. precompressed by jwarpack packager) are served to the clients accepting
+        // corresponding encoding (along with Vary: Accept-Encoding). Can be overridden with context-param of web.xml
+        webAppContext.setInitParameter(PRECOMPRESSED, "br=.br,gzip=.gz");
+        tempDirectory.mkdirs();
+        webAppContext.setTempDirectory(tempDirectory);
+        webAppContext.setPersistTempDirectory(true);
+        server.setHandler(webAppContext);
+    }
+
+    public void start() throws Exception {
+        server.start();
+    }
+
+    /**
+     * @return port the (first) connector is listening on
+     */
+    public int getLocalPort() {
+        Connector connector = server.getConnectors()[0];
+        return connector instanceof ServerConnector ? ((ServerConnector) connector).getLocalPort() : -1;
+    }
+
+    public void stop() throws Exception {
+        server.stop();
+    }
+}
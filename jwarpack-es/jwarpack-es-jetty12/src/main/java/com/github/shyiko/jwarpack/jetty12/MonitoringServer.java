@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty12;
+
+import com.github.shyiko.jwarpack.monitoring.AbstractMonitoringServer;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Monitoring port (see {@link AbstractMonitoringServer} for the protocol). Response to the "status" request is a
+ * single line JSON object, e.g. {"status":"ready","uptimeMs":5230} (status is either "starting" or "ready").
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class MonitoringServer extends AbstractMonitoringServer {
+
+    private volatile boolean ready;
+
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    @Override
+    protected String getStatus() {
+        return "{\"status\":\"" + getReadiness() + "\",\"uptimeMs\":" +
+                ManagementFactory.getRuntimeMXBean().getUptime() + "}";
+    }
+
+    @Override
+    protected String getReadiness() {
+        return ready ? "ready" : "starting";
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty12;
+
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class JettyInstanceTest {
+
+    private static final int LATENCY = 500;
+
+    private File webapp;
+    private CountDownLatch shutdownLatch;
+    private MonitoringServer monitoringServer;
+    private JettyInstance jettyInstance;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        webapp = File.createTempFile("jwarpack-jetty12-", "");
+        webapp.delete();
+        File webInf = new File(webapp, "WEB-INF");
+        webInf.mkdirs();
+        OutputStream outputStream = new FileOutputStream(new File(webInf, "web.xml"));
+        try {
+            outputStream.write(("<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"2.5\">" +
+                    "<servlet><servlet-name>blocking</servlet-name>" +
+                    "<servlet-class>" + BlockingServlet.class.getName() + "</servlet-class></servlet>" +
+                    "<servlet-mapping><servlet-name>blocking</servlet-name><url-pattern>/blocking</url-pattern>" +
+                    "</servlet-mapping></web-app>").getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        // same sequence as the one of EntryPoint (start target), except for the ports chosen by the system
+        shutdownLatch = new CountDownLatch(1);
+        monitoringServer = new MonitoringServer() {
+
+            @Override
+            protected void shutdown() {
+                try {
+                    jettyInstance.stop();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                shutdownLatch.countDown();
+            }
+        };
+        monitoringServer.setPort(0);
+        monitoringServer.setTimeout(5000);
+        monitoringServer.startListeningThread();
+        jettyInstance = new JettyInstance("localhost", 0, null);
+        jettyInstance.deploy("/", webapp.getPath(), new File(webapp.getPath() + ".work"));
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (shutdownLatch.getCount() != 0) {
+            assertEquals(request("stop:jwarpack"), "");
+            assertTrue(shutdownLatch.await(5, TimeUnit.SECONDS));
+        }
+        delete(webapp);
+        delete(new File(webapp.getPath() + ".work"));
+    }
+
+    @Test
+    public void testStartStatusStop() throws Exception {
+        assertTrue(request("status").matches("\\{\"status\":\"starting\",\"uptimeMs\":\\d+\\}\n"));
+        assertFalse(monitoringServer.sendReadinessRequest());
+        assertTrue(monitoringServer.sendLivenessRequest());
+        jettyInstance.start();
+        monitoringServer.setReady(true);
+        assertTrue(request("status").matches("\\{\"status\":\"ready\",\"uptimeMs\":\\d+\\}\n"));
+        assertTrue(monitoringServer.sendReadinessRequest());
+        assertEquals(get("/blocking?latency=0"), "ok");
+        int port = jettyInstance.getLocalPort();
+        // wrong key is ignored
+        assertEquals(request("stop:wrong-key"), "");
+        assertFalse(shutdownLatch.await(100, TimeUnit.MILLISECONDS));
+        monitoringServer.sendShutdownRequest();
+        assertTrue(shutdownLatch.await(5, TimeUnit.SECONDS));
+        // both server and monitoring port are closed
+        for (InetSocketAddress address : new InetSocketAddress[] {new InetSocketAddress("localhost", port),
+                new InetSocketAddress(InetAddress.getLocalHost(), monitoringServer.getPort())}) {
+            try {
+                new Socket(address.getAddress(), address.getPort()).close();
+                fail(address.toString());
+            } catch (ConnectException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testRequestsAreExecutedOnVirtualThreads() throws Exception {
+        if (!jettyInstance.isUsingVirtualThreads()) {
+            throw new SkipException("Virtual threads require Java 21+");
+        }
+        jettyInstance.start();
+        assertEquals(get("/blocking?latency=0&virtual"), "ok");
+    }
+
+    @Test
+    public void testBlockingRequestsAreExecutedConcurrently() throws Exception {
+        jettyInstance.start();
+        // below the size of the pool, as virtual threads are not available on Java 17
+        int numberOfRequests = 100;
+        ExecutorService executorService = Executors.newFixedThreadPool(numberOfRequests);
+        try {
+            List<Future<String>> responses = new ArrayList<Future<String>>();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < numberOfRequests; i++) {
+                responses.add(executorService.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception {
+                        return get("/blocking?latency=" + LATENCY);
+                    }
+                }));
+            }
+            for (Future<String> response : responses) {
+                assertEquals(response.get(), "ok");
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(elapsed < numberOfRequests * LATENCY / 10, Long.toString(elapsed));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://localhost:" + jettyInstance.getLocalPort() + path).openConnection();
+        connection.setReadTimeout(10000);
+        try {
+            assertEquals(connection.getResponseCode(), 200);
+            return readFully(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String request(String request) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLocalHost(), monitoringServer.getPort()), 5000);
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write((request + "\n").getBytes("UTF-8"));
+            socket.shutdownOutput();
+            return readFully(socket.getInputStream());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private String readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            result.write(buffer, 0, length);
+        }
+        return result.toString("UTF-8");
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Responds with "ok" after sleeping for "latency" milliseconds. Responds with 500 if "virtual" parameter is
+     * present and request is not executed on a virtual thread.
+     */
+    public static class BlockingServlet extends HttpServlet {
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            if (req.getParameter("virtual") != null && !isVirtual(Thread.currentThread())) {
+                resp.sendError(500, Thread.currentThread() + " is not virtual");
+                return;
+            }
+            try {
+                Thread.sleep(Long.parseLong(req.getParameter("latency")));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            resp.getWriter().write("ok");
+        }
+
+        private boolean isVirtual(Thread thread) {
+            try {
+                // Thread.isVirtual() (Java 21+), while module is compiled against Java 17
+                return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+}
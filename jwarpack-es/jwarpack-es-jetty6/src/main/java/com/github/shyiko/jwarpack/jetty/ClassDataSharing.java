@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Support for the class data sharing archive recorded by jwarpack packager (&lt;standalone JAR name&gt;.jsa, next
+ * to the JAR). Archive can only be specified on the JVM command line, so unless JVM was started with it, launcher
+ * logs the options to start it with. Only with "cds" property set to "relaunch" does launcher relaunch itself with
+ * the archive (at the cost of the second, idle, JVM). Relaunched JVM exits once the original one is gone (even if it
+ * was killed), as it watches its stdin (a pipe which gets closed along with the original JVM).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ClassDataSharing {
+
+    /**
+     * Set to "relaunch" to relaunch JVM with the archive, to "false" to ignore the archive altogether (which is also
+     * how relaunched JVM knows not to relaunch again).
+     */
+    public static final String CDS = "cds";
+    /**
+     * Set on the relaunched JVM (which is then expected to exit as soon as its stdin gets closed).
+     */
+    private static final String CDS_RELAUNCHED = "cds.relaunched";
+    /**
+     * Set (by packager) to make launcher stop right after the server is started and the first request is served.
+     */
+    public static final String CDS_TRAINING = "cds.training";
+
+    private ClassDataSharing() {}
+
+    public static boolean isTrainingRun() {
+        return Boolean.getBoolean(CDS_TRAINING);
+    }
+
+    /**
+     * @param jar standalone JAR
+     * @param args command line arguments
+     * @return exit code of the relaunched JVM or null if JVM wasn't relaunched (there is no archive, JVM was started
+     * with it or relaunching is not enabled, in which case options to start JVM with are logged)
+     * @throws IOException if JVM cannot be started
+     * @throws InterruptedException if interrupted while waiting for the relaunched JVM to exit
+     */
+    public static Integer relaunch(File jar, String[] args) throws IOException, InterruptedException {
+        if (Boolean.getBoolean(CDS_RELAUNCHED)) {
+            exitOnceParentIsGone();
+            return null;
+        }
+        File archive = getArchive(jar);
+        String mode = JWarPackBundle.get(CDS, "");
+        if (!archive.isFile() || "false".equalsIgnoreCase(mode) || getJavaVersion() < 13) {
+            return null;
+        }
+        List<String> inputArguments = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        for (String inputArgument : inputArguments) {
+            if (inputArgument.startsWith("-XX:SharedArchiveFile=") || inputArgument.startsWith("-Xshare:")) {
+                return null;
+            }
+        }
+        if (!"relaunch".equalsIgnoreCase(mode)) {
+            Log.info("Class data sharing archive is not used. To use it, start JVM with " +
+                    "-XX:SharedArchiveFile={} -Xshare:auto (or set -Dcds=relaunch)", archive.getAbsolutePath());
+            return null;
+        }
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(inputArguments);
+        command.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        // archive recorded by another JVM build is ignored (instead of failing the start)
+        command.add("-Xshare:auto");
+        command.add("-D" + CDS + "=false");
+        command.add("-D" + CDS_RELAUNCHED + "=true");
+        command.add("-jar");
+        command.add(jar.getAbsolutePath());
+        command.addAll(Arrays.asList(args));
+        // stdin is left a pipe, so that relaunched JVM could tell when this one is gone
+        final Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                // relaunched JVM stops the server on its own (on SIGTERM)
+                process.destroy();
+            }
+        });
+        return process.waitFor();
+    }
+
+    private static void exitOnceParentIsGone() {
+        Thread thread = new Thread("jwarpack-cds-parent-watch") {
+
+            @Override
+            public void run() {
+                try {
+                    while (System.in.read() != -1) {
+                        // nothing is ever written to the pipe
+                    }
+                } catch (IOException e) {
+                    // same as end of stream
+                }
+                Log.info("Parent JVM is gone, exiting");
+                System.exit(1);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Keep in sync with com.github.shyiko.jwarpack.packager.ClassDataSharingArchiver#getArchive.
+     */
+    private static File getArchive(File jar) {
+        String name = jar.getName();
+        if (name.toLowerCase().endsWith(".jar")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(jar.getAbsoluteFile().getParentFile(), name + ".jsa");
+    }
+
+    private static int getJavaVersion() {
+        String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+/**
+ * Additional listener (on top of the one(s) declared in jetty.xml), e.g. an internal port for health checks and
+ * admin traffic. Values which are not set are inherited from the server-wide configuration.
+ * <p/>
+ * Connector is specified as "[&lt;name&gt;@][&lt;host&gt;:]&lt;port&gt;" (e.g. "admin@127.0.0.1:8081") and tuned
+ * through "connector.&lt;name&gt;.acceptors", "connector.&lt;name&gt;.maxIdleTime" (ms),
+ * "connector.&lt;name&gt;.lowResourcesConnections", "connector.&lt;name&gt;.lowResourcesMaxIdleTime" (ms) and
+ * "connector.&lt;name&gt;.threads" (size of the dedicated thread pool), any of which can be set in
+ * jwarpack.properties or as system properties. Port is used as a name if none is given.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ConnectorConfig {
+
+    private static final String PREFIX = "connector.";
+
+    private String name;
+    private String host;
+    private int port;
+    private Integer acceptors;
+    private Integer maxIdleTime;
+    private Integer lowResourcesConnections;
+    private Integer lowResourcesMaxIdleTime;
+    private Integer threads;
+
+    public ConnectorConfig(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @param value "[&lt;name&gt;@][&lt;host&gt;:]&lt;port&gt;"
+     * @return connector configuration (along with the settings of jwarpack.properties / system properties)
+     * @throws IllegalArgumentException if value (or any of the settings) is malformed
+     */
+    public static ConnectorConfig fromBundle(String value) {
+        String address = value.trim();
+        String name = null;
+        int nameSeparatorIndex = address.indexOf('@');
+        if (nameSeparatorIndex > -1) {
+            name = address.substring(0, nameSeparatorIndex);
+            address = address.substring(nameSeparatorIndex + 1);
+        }
+        int portSeparatorIndex = address.lastIndexOf(':');
+        String host = portSeparatorIndex < 0 ? null : address.substring(0, portSeparatorIndex);
+        String port = address.substring(portSeparatorIndex + 1);
+        ConnectorConfig result = new ConnectorConfig(host == null || host.isEmpty() ? null : host,
+                parseInt("port", port));
+        if (name != null && !name.isEmpty()) {
+            result.setName(name);
+        }
+        String key = name != null && !name.isEmpty() ? name : port;
+        result.setAcceptors(getInteger(key, "acceptors"));
+        result.setMaxIdleTime(getInteger(key, "maxIdleTime"));
+        result.setLowResourcesConnections(getInteger(key, "lowResourcesConnections"));
+        result.setLowResourcesMaxIdleTime(getInteger(key, "lowResourcesMaxIdleTime"));
+        result.setThreads(getInteger(key, "threads"));
+        return result;
+    }
+
+    private static Integer getInteger(String connector, String setting) {
+        String key = PREFIX + connector + "." + setting;
+        String value = JWarPackBundle.get(key);
+        return value == null ? null : parseInt(key, value);
+    }
+
+    private static int parseInt(String key, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s must be a number (got \"%s\")", key, value));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Integer getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(Integer acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public Integer getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(Integer maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    public Integer getLowResourcesConnections() {
+        return lowResourcesConnections;
+    }
+
+    public void setLowResourcesConnections(Integer lowResourcesConnections) {
+        this.lowResourcesConnections = lowResourcesConnections;
+    }
+
+    public Integer getLowResourcesMaxIdleTime() {
+        return lowResourcesMaxIdleTime;
+    }
+
+    public void setLowResourcesMaxIdleTime(Integer lowResourcesMaxIdleTime) {
+        this.lowResourcesMaxIdleTime = lowResourcesMaxIdleTime;
+    }
+
+    public Integer getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads size of the thread pool dedicated to the connector (so that traffic it receives is served even
+     * if server-wide thread pool is exhausted), null if connector should share server-wide thread pool
+     */
+    public void setThreads(Integer threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    public String toString() {
+        return (name == null ? "" : name + "@") + (host == null ? "" : host + ":") + port;
+    }
+}
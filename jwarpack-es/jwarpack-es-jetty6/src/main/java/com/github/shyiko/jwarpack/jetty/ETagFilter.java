@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.servlet.DefaultServlet;
+import org.mortbay.jetty.servlet.PathMap;
+import org.mortbay.jetty.servlet.ServletHolder;
+import org.mortbay.jetty.webapp.WebAppContext;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives static resources listed in WEB-INF/jwarpack-etag.index (content hashes recorded by jwarpack packager) a
+ * strong ETag and answers If-None-Match straight from the index (with 304, if the client's copy is up to date),
+ * without touching the resource. Fingerprinted resources (the ones with a hash in the name) are also sent with
+ * "Cache-Control: public, max-age=31536000, immutable" (unless servlet is configured with cacheControl of its own).
+ * <p/>
+ * ETag of the gzip-encoded response is the hash of &lt;path&gt;.gz, which is what {@link DefaultServlet} sends to the
+ * clients accepting gzip encoding. Only GET and HEAD requests to the paths mapped to {@link DefaultServlet} are
+ * affected, everything else passes through untouched.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ETagFilter implements Filter {
+
+    private static final String INDEX = "/WEB-INF/jwarpack-etag.index";
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private final WebAppContext webAppContext;
+    private Map<String, ETag> eTags = Collections.emptyMap();
+
+    public ETagFilter(WebAppContext webAppContext) {
+        this.webAppContext = webAppContext;
+    }
+
+    public void init(FilterConfig filterConfig) throws ServletException {
+        InputStream inputStream = filterConfig.getServletContext().getResourceAsStream(INDEX);
+        if (inputStream == null) {
+            return;
+        }
+        Map<String, ETag> result = new HashMap<String, ETag>();
+        try {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] columns = line.split(" ", 3);
+                    if (columns.length == 3) {
+                        result.put(columns[2], new ETag("\"" + columns[0] + "\"", "immutable".equals(columns[1])));
+                    }
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            throw new ServletException("Failed to read " + INDEX, e);
+        }
+        eTags = result;
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (eTags.isEmpty() || !(request instanceof HttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String method = httpRequest.getMethod();
+        String pathInfo = httpRequest.getPathInfo();
+        String path = pathInfo == null ? httpRequest.getServletPath() : httpRequest.getServletPath() + pathInfo;
+        ETag eTag = eTags.get(path);
+        if (eTag == null || !"GET".equals(method) && !"HEAD".equals(method) || !isServedByDefaultServlet(path)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        ETag gzipETag = eTags.get(path + ".gz");
+        if (gzipETag != null) {
+            if (!httpResponse.containsHeader("Vary")) {
+                httpResponse.addHeader("Vary", ACCEPT_ENCODING);
+            }
+            String acceptEncoding = httpRequest.getHeader(ACCEPT_ENCODING);
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                if (PrecompressedContentFilter.acceptsGzip(acceptEncoding)) {
+                    eTag = new ETag(gzipETag.value, eTag.immutable);
+                } else {
+                    // otherwise servlet would send gzip-encoded content anyway
+                    httpRequest = new HeaderHidingRequest(httpRequest, ACCEPT_ENCODING);
+                }
+            }
+        }
+        httpResponse.setHeader("ETag", eTag.value);
+        if (eTag.immutable) {
+            httpResponse.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+        }
+        String ifNoneMatch = httpRequest.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            if (matches(ifNoneMatch, eTag.value)) {
+                httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            // If-Modified-Since must be ignored when If-None-Match is present (RFC 7232, section 3.3)
+            httpRequest = new HeaderHidingRequest(httpRequest, IF_MODIFIED_SINCE);
+        }
+        chain.doFilter(httpRequest, response);
+    }
+
+    private boolean isServedByDefaultServlet(String path) {
+        PathMap.Entry entry = webAppContext.getServletHandler().getHolderEntry(path);
+        return entry != null &&
+            DefaultServlet.class.getName().equals(((ServletHolder) entry.getValue()).getClassName());
+    }
+
+    /**
+     * @param ifNoneMatch value of the If-None-Match header (e.g. "*" or "\"a\", W/\"b\"")
+     * @param eTag ETag of the resource
+     * @return true if any of the listed ETags matches the given one (using weak comparison)
+     */
+    static boolean matches(String ifNoneMatch, String eTag) {
+        for (String value : ifNoneMatch.split(",")) {
+            String candidate = value.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || eTag.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void destroy() {
+    }
+
+    private static class ETag {
+
+        private final String value;
+        private final boolean immutable;
+
+        private ETag(String value, boolean immutable) {
+            this.value = value;
+            this.immutable = immutable;
+        }
+    }
+
+    private static class HeaderHidingRequest extends HttpServletRequestWrapper {
+
+        private final String hiddenHeader;
+
+        private HeaderHidingRequest(HttpServletRequest request, String hiddenHeader) {
+            super(request);
+            this.hiddenHeader = hiddenHeader;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return hiddenHeader.equalsIgnoreCase(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration getHeaders(String name) {
+            return hiddenHeader.equalsIgnoreCase(name) ? Collections.enumeration(Collections.emptySet()) :
+                    super.getHeaders(name);
+        }
+
+        @Override
+        public long getDateHeader(String name) {
+            return hiddenHeader.equalsIgnoreCase(name) ? -1 : super.getDateHeader(name);
+        }
+    }
+}
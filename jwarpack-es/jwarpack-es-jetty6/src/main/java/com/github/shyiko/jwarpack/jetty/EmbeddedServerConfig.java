@@ -16,6 +16,9 @@
 package com.github.shyiko.jwarpack.jetty;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
@@ -25,6 +28,12 @@ public class EmbeddedServerConfig {
     private String host;
     private int port;
     private File jettyXMLFile;
+    private boolean autoSizing;
+    private Integer minThreads;
+    private Integer maxThreads;
+    private Integer acceptors;
+    private Integer lowResourcesConnections;
+    private final List<ConnectorConfig> connectors = new ArrayList<ConnectorConfig>();
 
     public EmbeddedServerConfig(String host, int port, File jettyXMLFile) {
         this.host = host;
@@ -43,4 +52,64 @@ public class EmbeddedServerConfig {
     public File getJettyXMLFile() {
         return jettyXMLFile;
     }
+
+    public boolean isAutoSizing() {
+        return autoSizing;
+    }
+
+    /**
+     * @param autoSizing true if thread pool and connector should be sized according to the available CPUs and memory
+     * (see {@link ServerSizing}), false if values of the jetty.xml should be used as they are. Either way, explicitly
+     * set values (e.g. {@link #setMaxThreads(Integer)}) take precedence
+     */
+    public void setAutoSizing(boolean autoSizing) {
+        this.autoSizing = autoSizing;
+    }
+
+    public Integer getMinThreads() {
+        return minThreads;
+    }
+
+    public void setMinThreads(Integer minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    public Integer getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(Integer maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public Integer getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(Integer acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public Integer getLowResourcesConnections() {
+        return lowResourcesConnections;
+    }
+
+    public void setLowResourcesConnections(Integer lowResourcesConnections) {
+        this.lowResourcesConnections = lowResourcesConnections;
+    }
+
+    /**
+     * @return additional connectors (in the order they were added)
+     */
+    public List<ConnectorConfig> getConnectors() {
+        return Collections.unmodifiableList(connectors);
+    }
+
+    /**
+     * @param connector connector to open in addition to the one(s) declared in jetty.xml (host and port of which are
+     * controlled by {@link #getHost()} and {@link #getPort()})
+     */
+    public void addConnector(ConnectorConfig connector) {
+        connectors.add(connector);
+    }
 }
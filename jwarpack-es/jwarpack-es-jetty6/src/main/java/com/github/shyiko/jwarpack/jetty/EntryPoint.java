@@ -19,10 +19,16 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
+import org.mortbay.log.Log;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -33,9 +39,14 @@ public class EntryPoint {
 
     private static final String APPLICATION_NAME = "application.name";
     private static final String APPLICATION_CONTEXT = "application.context";
+    private static final String CACHE_MAX_SIZE = "cache.maxSize";
+    private static final String EXTRACT_WAR = "extractWAR";
+    private static final String AUTO_SIZING = "autoSizing";
+    private static final String CONNECTORS = "connectors";
+    private static final String MONITORING_TIMEOUT = "monitoring.timeout";
 
     public static void main(String[] args) throws Throwable {
-        @Parameters(separators = "=", optionPrefixes = "")
+        @Parameters(separators = "=")
         class CLIParameters {
             @Parameter(names = {"--host", "-h"}, arity = 1,
                        description = "Hostname or IP Address, Jetty will be bounded to (default localhost)")
@@ -56,17 +67,43 @@ public class EntryPoint {
                     description = "URL to open (applies only if --browser option is on) " +
                                   "(default http://<host>:<port>/<application.context>)")
             private String browserUrl;
-            @Parameter(description = "Target <start|stop|status>", required = true)
+            @Parameter(names = {"--autoSizing", "-a"}, arity = 1,
+                       description = "Size thread pool and connector according to the available CPUs and memory " +
+                                     "(cgroup limits included) (default false, can be set in jwarpack.properties)")
+            private boolean autoSizing = Boolean.valueOf(JWarPackBundle.get(AUTO_SIZING, "false"));
+            @Parameter(names = "--minThreads", arity = 1,
+                       description = "Minimum number of threads (overrides jetty.xml and auto sizing)")
+            private Integer minThreads;
+            @Parameter(names = "--maxThreads", arity = 1,
+                       description = "Maximum number of threads (overrides jetty.xml and auto sizing)")
+            private Integer maxThreads;
+            @Parameter(names = "--acceptors", arity = 1,
+                       description = "Number of acceptor threads (overrides jetty.xml and auto sizing)")
+            private Integer acceptors;
+            @Parameter(names = "--lowResourcesConnections", arity = 1,
+                       description = "Number of connections after which server considers itself low on resources " +
+                                     "(overrides jetty.xml and auto sizing)")
+            private Integer lowResourcesConnections;
+            @Parameter(names = "--connector", arity = 1,
+                       description = "Additional connector, [<name>@][<host>:]<port> (can be repeated, as well as " +
+                                     "set in jwarpack.properties as comma-separated \"connectors\"). " +
+                                     "Tuned through connector.<name>.(acceptors|maxIdleTime|lowResourcesConnections|" +
+                                     "lowResourcesMaxIdleTime|threads) of jwarpack.properties / system properties")
+            private List<String> connectors = new ArrayList<String>();
+            @Parameter(description = "Target <start|stop|status|metrics|live|ready>", required = true)
             private List<String> mode;
         }
         CLIParameters parameters = new CLIParameters();
         JCommander commander = new JCommander(parameters);
+        List<ConnectorConfig> connectors = new ArrayList<ConnectorConfig>();
         try {
             commander.parse(args);
             if (parameters.mode == null || parameters.mode.size() != 1 ||
-                !Arrays.asList("start", "stop", "status").contains(parameters.mode.get(0))) {
+                !Arrays.asList("start", "stop", "status", "metrics", "live", "ready").
+                        contains(parameters.mode.get(0))) {
                 throw new ParameterException("Target is invalid.");
             }
+            connectors = parseConnectors(parameters.connectors);
         } catch (ParameterException e) {
             System.err.println("Error: " + e.getMessage());
             commander.usage();
@@ -74,7 +111,23 @@ public class EntryPoint {
         }
         String mode = parameters.mode.get(0);
         EmbeddedServerConfig configuration = new EmbeddedServerConfig(parameters.host, parameters.port, parameters.config);
+        for (ConnectorConfig connector : connectors) {
+            configuration.addConnector(connector);
+        }
+        configuration.setAutoSizing(parameters.autoSizing);
+        configuration.setMinThreads(parameters.minThreads);
+        configuration.setMaxThreads(parameters.maxThreads);
+        configuration.setAcceptors(parameters.acceptors);
+        configuration.setLowResourcesConnections(parameters.lowResourcesConnections);
         if ("start".equals(mode)) {
+            Integer exitCode = ClassDataSharing.relaunch(new File(getJarFileLocation()), args);
+            if (exitCode != null) {
+                System.exit(exitCode);
+            }
+            if (ClassDataSharing.isTrainingRun()) {
+                runTraining(configuration);
+                System.exit(0);
+            }
             startServer(configuration, parameters.monitoringPort);
             if (parameters.startBrowser) {
                 String url = parameters.browserUrl;
@@ -87,20 +140,63 @@ public class EntryPoint {
         } else {
             MonitoringServer monitoringServer = new MonitoringServer();
             monitoringServer.setPort(parameters.monitoringPort);
+            monitoringServer.setTimeout(getMonitoringTimeout());
             if ("stop".equalsIgnoreCase(mode)) {
                 monitoringServer.sendShutdownRequest();
             } else 
             if ("status".equalsIgnoreCase(mode)) {
                 monitoringServer.sendStatusRequest();
+            } else
+            if ("metrics".equalsIgnoreCase(mode)) {
+                monitoringServer.sendMetricsRequest();
+            } else
+            if ("live".equalsIgnoreCase(mode)) {
+                System.exit(monitoringServer.sendLivenessRequest() ? 0 : 1);
+            } else
+            if ("ready".equalsIgnoreCase(mode)) {
+                System.exit(monitoringServer.sendReadinessRequest() ? 0 : 1);
+            }
+        }
+    }
+
+    /**
+     * @param values connectors specified on the command line (connectors of jwarpack.properties are used if none)
+     * @throws ParameterException if any of the connectors is malformed
+     */
+    private static List<ConnectorConfig> parseConnectors(List<String> values) {
+        List<String> specifications = new ArrayList<String>(values);
+        String bundledConnectors = JWarPackBundle.get(CONNECTORS);
+        if (specifications.isEmpty() && bundledConnectors != null) {
+            specifications.addAll(Arrays.asList(bundledConnectors.split(",")));
+        }
+        List<ConnectorConfig> result = new ArrayList<ConnectorConfig>();
+        for (String specification : specifications) {
+            if (specification.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                result.add(ConnectorConfig.fromBundle(specification));
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException(String.format("Connector %s is invalid: %s", specification,
+                        e.getMessage()));
             }
         }
+        return result;
     }
 
     private static void startServer(EmbeddedServerConfig configuration, int monitoringPort) throws Throwable {
-        prepareEnvironment();
+        final StartupTimings startupTimings = new StartupTimings();
+        startupTimings.recordJvmLaunch();
+        startupTimings.start(StartupPhase.PREPARING_ENVIRONMENT);
+        File jettyHome = prepareEnvironment();
+        startupTimings.start(StartupPhase.CONFIGURING_SERVER);
         final JettyInstance jettyInstance = new JettyInstance(configuration);
-        deployApplication(jettyInstance);
-        jettyInstance.start();
+        StaticResourceCache staticResourceCache = StaticResourceCache.fromBundle();
+        if (staticResourceCache != null) {
+            Log.info("Static resource cache: {}", staticResourceCache);
+            jettyInstance.setStaticResourceCache(staticResourceCache);
+        }
+        deployApplication(jettyInstance, jettyHome, startupTimings);
         Runtime.getRuntime().addShutdownHook(new Thread() {
 
             @Override
@@ -112,10 +208,74 @@ public class EntryPoint {
                 }
             }
         });
-        startMonitoringServer(monitoringPort);
+        // started before the server so that load balancer could tell that server is not ready yet
+        startupTimings.start(StartupPhase.STARTING_MONITORING);
+        final MonitoringServer monitoringServer = startMonitoringServer(monitoringPort, startupTimings);
+        monitoringServer.setStaticResourceCache(staticResourceCache);
+        monitoringServer.setServerMetrics(jettyInstance.getMetrics());
+        startServer(jettyInstance, WarmUp.fromBundle(), monitoringServer, startupTimings);
+        Log.info("Server {}", startupTimings);
     }
 
-    private static void prepareEnvironment() {
+    /**
+     * Starts the server (warming it up first, if there is a warm-up) and reports it as {@link ServerStatus#READY}
+     * once connectors are open. Status is left as is if server fails to start (or warm-up fails).
+     *
+     * @param warmUp warm-up, null if there is none
+     */
+    static void startServer(JettyInstance jettyInstance, WarmUp warmUp, final MonitoringServer monitoringServer,
+                            final StartupTimings startupTimings) throws Exception {
+        startupTimings.start(StartupPhase.STARTING_SERVER);
+        if (warmUp == null) {
+            jettyInstance.start();
+        } else {
+            jettyInstance.start(warmUp, new Runnable() {
+
+                public void run() {
+                    startupTimings.start(StartupPhase.WARMING_UP);
+                    monitoringServer.setStatus(ServerStatus.WARMING);
+                }
+            });
+        }
+        monitoringServer.setStatus(ServerStatus.READY);
+        startupTimings.complete();
+    }
+
+    /**
+     * Starts the server, serves a single request and stops it (see {@link ClassDataSharing}).
+     */
+    private static void runTraining(EmbeddedServerConfig configuration) throws Throwable {
+        File jettyHome = prepareEnvironment();
+        JettyInstance jettyInstance = new JettyInstance(configuration);
+        deployApplication(jettyInstance, jettyHome, new StartupTimings());
+        jettyInstance.start();
+        try {
+            String context = JWarPackBundle.get(APPLICATION_CONTEXT, "/");
+            URL url = new URL(String.format("http://%s:%s%s", configuration.getHost(), jettyInstance.getLocalPort(),
+                    context));
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            try {
+                InputStream inputStream = connection.getResponseCode() < 400 ? connection.getInputStream() :
+                        connection.getErrorStream();
+                if (inputStream != null) {
+                    try {
+                        byte[] buffer = new byte[8192];
+                        while (inputStream.read(buffer) != -1) {
+                            // response itself is of no interest
+                        }
+                    } finally {
+                        inputStream.close();
+                    }
+                }
+            } finally {
+                connection.disconnect();
+            }
+        } finally {
+            jettyInstance.stop();
+        }
+    }
+
+    private static File prepareEnvironment() {
         System.setProperty("java.awt.headless", "true");
         String jettyHome = JWarPackBundle.get("jetty.home");
         if (jettyHome == null) {
@@ -125,14 +285,44 @@ public class EntryPoint {
         File jettyWorkDirectory = new File(jettyHome, "work");
         jettyWorkDirectory.mkdirs();
         deleteDirectoryContent(jettyWorkDirectory);
+        return new File(jettyHome);
     }
 
-    private static void deployApplication(JettyInstance jettyInstance) {
+    private static void deployApplication(JettyInstance jettyInstance, File jettyHome, StartupTimings startupTimings)
+            throws IOException {
         String context = JWarPackBundle.get(APPLICATION_CONTEXT, "/");
         String path = getJarFileLocation();
+        File jarFile = new File(path);
+        if (jarFile.isFile() && !Boolean.valueOf(JWarPackBundle.get(EXTRACT_WAR, "true"))) {
+            startupTimings.start(StartupPhase.DEPLOYING_APPLICATION);
+            jettyInstance.deployPacked(context, jarFile);
+            return;
+        }
+        if (jarFile.isFile()) {
+            startupTimings.start(StartupPhase.EXTRACTING_APPLICATION);
+            // unpacked once per JAR version instead of on each start (by Jetty, into the work directory)
+            long maxSize = Long.parseLong(JWarPackBundle.get(CACHE_MAX_SIZE, "512")) * 1024 * 1024;
+            ExtractionCache extractionCache = new ExtractionCache(new File(jettyHome, "cache"), maxSize);
+            File webAppDirectory = extractionCache.extract(jarFile);
+            startCacheCleanupThread(extractionCache, webAppDirectory);
+            path = webAppDirectory.getPath();
+        }
+        startupTimings.start(StartupPhase.DEPLOYING_APPLICATION);
         jettyInstance.deploy(context, path);
     }
 
+    private static void startCacheCleanupThread(final ExtractionCache extractionCache, final File currentDirectory) {
+        Thread thread = new Thread("jwarpack-cache-cleanup") {
+
+            @Override
+            public void run() {
+                extractionCache.cleanUp(currentDirectory);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     private static String getJarFileLocation() {
         String path = EntryPoint.class.getProtectionDomain().getCodeSource().getLocation().getPath();
         try {
@@ -142,12 +332,25 @@ public class EntryPoint {
         }
     }
 
-    private static void startMonitoringServer(int monitoringPort) {
+    /**
+     * @return monitoring server (which is not listening if monitoringPort is -1)
+     */
+    private static MonitoringServer startMonitoringServer(int monitoringPort, StartupTimings startupTimings) {
+        MonitoringServer monitoringServer = new MonitoringServer();
+        monitoringServer.setPort(monitoringPort);
+        monitoringServer.setTimeout(getMonitoringTimeout());
+        monitoringServer.setStartupTimings(startupTimings);
         if (monitoringPort > -1) {
-            MonitoringServer monitoringServer = new MonitoringServer();
-            monitoringServer.setPort(monitoringPort);
             monitoringServer.startListeningThread();
         }
+        return monitoringServer;
+    }
+
+    /**
+     * @return time (in milliseconds) given to each connection to the monitoring port
+     */
+    private static int getMonitoringTimeout() {
+        return Integer.parseInt(JWarPackBundle.get(MONITORING_TIMEOUT, "5000"));
     }
 
     private static void deleteDirectoryContent(File dir) {
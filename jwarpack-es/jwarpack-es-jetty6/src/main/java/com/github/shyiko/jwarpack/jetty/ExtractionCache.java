@@ -0,0 +1,282 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import java.io.*;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps unpacked standalone JARs, each in a directory named after the hash of JAR's content, so that restart with
+ * the same JAR doesn't have to unpack anything. Hash is calculated over the central directory (names, CRCs, sizes
+ * and modification times of the entries), which is much cheaper than reading the whole JAR.
+ * <p/>
+ * Process using one of the directories holds a shared lock on the &lt;hash&gt;.lock file next to it (until it
+ * exits, even if killed), so that cleanup (which deletes directory only if it can lock the file exclusively) never
+ * removes directory of a running instance. Lock files themselves are never deleted (as otherwise lock could be
+ * taken on a file which is already unlinked).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ExtractionCache {
+
+    private static final String TEMPORARY_DIRECTORY_PREFIX = ".tmp-";
+    private static final String LOCK_FILE_SUFFIX = ".lock";
+    /**
+     * Locks held for the lifetime of the process (lock is released once its channel is garbage collected).
+     */
+    private static final List<FileLock> LOCKS = Collections.synchronizedList(new ArrayList<FileLock>());
+
+    private File directory;
+    private long maxSize;
+
+    /**
+     * @param directory directory to keep unpacked JARs in
+     * @param maxSize total size (in bytes) unpacked JARs are allowed to occupy. Directory which is currently in
+     * use is never removed, no matter how large it is
+     */
+    public ExtractionCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param jar JAR file
+     * @return directory containing unpacked JAR (either existing or just created one), which is protected from
+     * cleanup for as long as current process is running
+     * @throws IOException if JAR cannot be unpacked
+     */
+    public File extract(File jar) throws IOException {
+        ZipFile zipFile = new ZipFile(jar);
+        try {
+            File result = new File(directory, calculateHash(zipFile));
+            directory.mkdirs();
+            // taken before the directory is looked up, so that cleanup couldn't remove it in between
+            LOCKS.add(lock(result, true));
+            if (result.isDirectory()) {
+                // so that cleanup would treat it as the most recently used one
+                result.setLastModified(System.currentTimeMillis());
+                return result;
+            }
+            File temporaryDirectory = new File(directory, TEMPORARY_DIRECTORY_PREFIX + result.getName() + "-" +
+                    Long.toHexString(System.nanoTime()));
+            try {
+                extract(zipFile, temporaryDirectory);
+                if (!temporaryDirectory.renameTo(result) && !result.isDirectory()) {
+                    throw new IOException(String.format("Failed to move %s to %s", temporaryDirectory, result));
+                }
+            } finally {
+                // non-empty only if somebody else has extracted the same JAR concurrently (or extraction failed)
+                delete(temporaryDirectory);
+            }
+            return result;
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * @param shared true if lock should be shared, false if exclusive
+     * @return lock on the &lt;directory&gt;.lock file, null if exclusive lock is held by somebody else
+     */
+    private FileLock lock(File directory, boolean shared) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(this.directory, directory.getName() + LOCK_FILE_SUFFIX),
+                "rw");
+        try {
+            FileLock result = shared ? file.getChannel().lock(0, Long.MAX_VALUE, true) :
+                    file.getChannel().tryLock(0, Long.MAX_VALUE, false);
+            if (result != null) {
+                return result;
+            }
+        } catch (OverlappingFileLockException e) {
+            // held by current process
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        file.close();
+        return null;
+    }
+
+    private String calculateHash(ZipFile zipFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        DataOutputStream outputStream = new DataOutputStream(new MessageDigestOutputStream(digest));
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            outputStream.writeUTF(entry.getName());
+            outputStream.writeLong(entry.getCrc());
+            outputStream.writeLong(entry.getSize());
+            outputStream.writeLong(entry.getTime());
+        }
+        outputStream.flush();
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b & 0xFF));
+        }
+        return result.toString();
+    }
+
+    private void extract(ZipFile zipFile, File targetDirectory) throws IOException {
+        String targetPath = targetDirectory.getCanonicalPath() + File.separator;
+        byte[] buffer = new byte[8192];
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            File file = new File(targetDirectory, entry.getName());
+            if (!file.getCanonicalPath().startsWith(targetPath)) {
+                throw new IOException(String.format("Entry %s points outside of the target directory",
+                        entry.getName()));
+            }
+            if (entry.isDirectory()) {
+                file.mkdirs();
+                continue;
+            }
+            file.getParentFile().mkdirs();
+            InputStream inputStream = zipFile.getInputStream(entry);
+            try {
+                OutputStream outputStream = new FileOutputStream(file);
+                try {
+                    int size;
+                    while ((size = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, size);
+                    }
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+            if (entry.getTime() > 0) {
+                // used by Jetty for Last-Modified headers
+                file.setLastModified(entry.getTime());
+            }
+        }
+    }
+
+    /**
+     * Removes least recently used directories (except for the current one and the ones used by other running
+     * instances) until cache fits into max size. Also removes leftovers of interrupted extractions.
+     *
+     * @param currentDirectory directory which is currently in use
+     */
+    public void cleanUp(File currentDirectory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> directories = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().startsWith(TEMPORARY_DIRECTORY_PREFIX)) {
+                // might still be in use by concurrently starting instance, so only really old ones are removed
+                if (file.lastModified() < System.currentTimeMillis() - 24 * 60 * 60 * 1000) {
+                    delete(file);
+                }
+            } else
+            if (file.isDirectory() && !file.equals(currentDirectory)) {
+                directories.add(file);
+            }
+        }
+        Collections.sort(directories, new Comparator<File>() {
+
+            public int compare(File o1, File o2) {
+                long l1 = o1.lastModified(), l2 = o2.lastModified();
+                return l1 > l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+        long totalSize = currentDirectory == null ? 0 : calculateSize(currentDirectory);
+        for (File file : directories) {
+            long size = calculateSize(file);
+            totalSize += size;
+            if (totalSize > maxSize && deleteUnlessInUse(file)) {
+                totalSize -= size;
+            }
+        }
+    }
+
+    /**
+     * @return true if directory was deleted, false if it's in use
+     */
+    private boolean deleteUnlessInUse(File directory) {
+        try {
+            FileLock lock = lock(directory, false);
+            if (lock == null) {
+                return false;
+            }
+            try {
+                delete(directory);
+            } finally {
+                lock.channel().close();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private long calculateSize(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long result = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                result += calculateSize(child);
+            }
+        }
+        return result;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class MessageDigestOutputStream extends OutputStream {
+
+        private final MessageDigest digest;
+
+        private MessageDigestOutputStream(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            digest.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            digest.update(b, off, len);
+        }
+    }
+}
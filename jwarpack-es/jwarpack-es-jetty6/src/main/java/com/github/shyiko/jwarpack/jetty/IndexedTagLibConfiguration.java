@@ -0,0 +1,227 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.webapp.TagLibConfiguration;
+import org.mortbay.jetty.webapp.WebAppContext;
+import org.mortbay.log.Log;
+import org.mortbay.resource.Resource;
+import org.mortbay.util.Loader;
+import org.mortbay.xml.XmlParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+
+/**
+ * Same as {@link TagLibConfiguration} (looks for TLDs and registers listeners declared in them) except that TLDs of
+ * the WEB-INF/lib JARs are taken from the {@link ScanIndex} (if context has one) instead of opening each of the JARs.
+ * JARs which are not indexed (as well as the ones of the parent class loaders) are scanned as usual. Works with
+ * {@link PackedWebAppClassLoader} too, in which case WEB-INF/lib JARs are read from the standalone JAR.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class IndexedTagLibConfiguration extends TagLibConfiguration {
+
+    private static final String NO_TLD_JAR_PATTERN = "org.mortbay.jetty.webapp.NoTLDJarPattern";
+
+    @Override
+    public void configureWebApp() throws Exception {
+        WebAppContext context = getWebAppContext();
+        ScanIndex scanIndex = ScanIndex.get(context);
+        Set<Resource> tlds = new LinkedHashSet<Resource>();
+        // TLDs referenced from web.xml (which are registered as resource aliases)
+        Map<?, ?> resourceAliases = context.getResourceAliases();
+        if (resourceAliases != null && context.getBaseResource() != null && context.getBaseResource().exists()) {
+            for (Object value : resourceAliases.values()) {
+                String location = (String) value;
+                if (location != null && location.toLowerCase().endsWith(".tld")) {
+                    if (!location.startsWith("/")) {
+                        location = "/WEB-INF/" + location;
+                    }
+                    tlds.add(context.getBaseResource().addPath(location));
+                }
+            }
+        }
+        Resource webInf = context.getWebInf();
+        if (webInf != null) {
+            String[] contents = webInf.list();
+            for (int i = 0; contents != null && i < contents.length; i++) {
+                if (contents[i] != null && contents[i].toLowerCase().endsWith(".tld")) {
+                    tlds.add(webInf.addPath(contents[i]));
+                }
+            }
+        }
+        String noTldJarPattern = context.getInitParameter(NO_TLD_JAR_PATTERN);
+        Pattern noTldJars = noTldJarPattern == null ? null : Pattern.compile(noTldJarPattern);
+        Set<String> jars = new HashSet<String>();
+        boolean parent = false;
+        for (ClassLoader loader = Thread.currentThread().getContextClassLoader(); loader != null;
+             loader = loader.getParent(), parent = true) {
+            if (!(loader instanceof URLClassLoader)) {
+                continue;
+            }
+            URL[] urls = ((URLClassLoader) loader).getURLs();
+            for (int i = 0; urls != null && i < urls.length; i++) {
+                String url = urls[i].toString();
+                if (!url.toLowerCase().endsWith(".jar")) {
+                    continue;
+                }
+                String jar = url.substring(url.lastIndexOf('/') + 1);
+                if (parent && ((!context.isParentLoaderPriority() && jars.contains(jar)) ||
+                        (noTldJars != null && noTldJars.matcher(jar).matches()))) {
+                    continue;
+                }
+                jars.add(jar);
+                List<String> indexedTlds = !parent && scanIndex != null ? scanIndex.getTlds(jar) : null;
+                if (indexedTlds != null) {
+                    for (String name : indexedTlds) {
+                        tlds.add(newTldResource(urls[i], name));
+                    }
+                } else {
+                    scan(urls[i], tlds);
+                }
+            }
+        }
+        registerListeners(tlds);
+    }
+
+    /**
+     * @param jar URL of the JAR (which is jwarpack-nested: one if application is served straight from the
+     * standalone JAR, see {@link PackedWebAppClassLoader})
+     */
+    private Resource newTldResource(URL jar, String name) throws IOException {
+        if (PackedWebAppClassLoader.NESTED_PROTOCOL.equals(jar.getProtocol())) {
+            return Resource.newResource(new URL(jar, jar.getFile() + "!/" + name));
+        }
+        return Resource.newResource("jar:" + jar + "!/" + name);
+    }
+
+    private void scan(URL url, Set<Resource> tlds) throws Exception {
+        Log.debug("TLD search of {}", url);
+        if (PackedWebAppClassLoader.NESTED_PROTOCOL.equals(url.getProtocol())) {
+            scanNested(url, tlds);
+            return;
+        }
+        File file = Resource.newResource(url).getFile();
+        if (file == null || !file.exists() || !file.canRead()) {
+            return;
+        }
+        JarFile jarFile = null;
+        try {
+            jarFile = new JarFile(file);
+            Enumeration<? extends ZipEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.startsWith("META-INF/") && name.toLowerCase().endsWith(".tld")) {
+                    Resource tld = Resource.newResource("jar:" + url + "!/" + name);
+                    tlds.add(tld);
+                    Log.debug("TLD found {}", tld);
+                }
+            }
+        } catch (Exception e) {
+            Log.warn("Failed to read file: " + file, e);
+        } finally {
+            if (jarFile != null) {
+                jarFile.close();
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #scan(URL, Set)} except that (nested) JAR is read sequentially, as there is no file to open.
+     */
+    private void scanNested(URL url, Set<Resource> tlds) throws IOException {
+        JarInputStream inputStream = null;
+        try {
+            inputStream = new JarInputStream(url.openStream());
+            ZipEntry entry;
+            while ((entry = inputStream.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.startsWith("META-INF/") && name.toLowerCase().endsWith(".tld")) {
+                    Resource tld = newTldResource(url, name);
+                    tlds.add(tld);
+                    Log.debug("TLD found {}", tld);
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Failed to read file: " + url, e);
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+
+    private void registerListeners(Set<Resource> tlds) throws ClassNotFoundException {
+        XmlParser parser = new XmlParser(false);
+        redirectEntity(parser, "web-jsptaglib_1_1.dtd", "web-jsptaglibrary_1_1.dtd");
+        redirectEntity(parser, "web-jsptaglib_1_2.dtd", "web-jsptaglibrary_1_2.dtd");
+        redirectEntity(parser, "web-jsptaglib_2_0.xsd", "web-jsptaglibrary_2_0.xsd");
+        redirectEntity(parser, "web-jsptaglibrary_1_1.dtd", "web-jsptaglibrary_1_1.dtd");
+        redirectEntity(parser, "web-jsptaglibrary_1_2.dtd", "web-jsptaglibrary_1_2.dtd");
+        redirectEntity(parser, "web-jsptaglibrary_2_0.xsd", "web-jsptaglibrary_2_0.xsd");
+        parser.setXpath("/taglib/listener/listener-class");
+        for (Resource tld : tlds) {
+            try {
+                Log.debug("TLD={}", tld);
+                XmlParser.Node root;
+                try {
+                    root = parser.parse(tld.getInputStream());
+                } catch (Exception e) {
+                    root = parser.parse(tld.getURL().toString());
+                }
+                if (root == null) {
+                    Log.warn("No TLD root in {}", tld);
+                    continue;
+                }
+                for (int i = 0; i < root.size(); i++) {
+                    Object node = root.get(i);
+                    if (node instanceof XmlParser.Node && "listener".equals(((XmlParser.Node) node).getTag())) {
+                        registerListener(((XmlParser.Node) node).getString("listener-class", false, true));
+                    }
+                }
+            } catch (Exception e) {
+                Log.warn(e);
+            }
+        }
+    }
+
+    private void redirectEntity(XmlParser parser, String name, String resource) throws ClassNotFoundException {
+        parser.redirectEntity(name, Loader.getResource(TagLibConfiguration.class,
+                "javax/servlet/jsp/resources/" + resource, false));
+    }
+
+    private void registerListener(String className) {
+        Log.debug("listener={}", className);
+        try {
+            Class<?> listenerClass = getWebAppContext().loadClass(className);
+            getWebAppContext().addEventListener((EventListener) listenerClass.getDeclaredConstructor().newInstance());
+        } catch (Exception e) {
+            Log.warn("Could not instantiate listener " + className + ": " + e);
+            Log.debug(e);
+        } catch (Error e) {
+            Log.warn("Could not instantiate listener " + className + ": " + e);
+            Log.debug(e);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a ZIP archive held in a {@link ByteBuffer} (memory-mapped file or a region of it). Unlike
+ * {@link java.util.zip.ZipFile}, it doesn't need archive to be a separate file, which makes it possible to read JARs
+ * nested inside of another JAR in place (as long as they are stored uncompressed).
+ * <p/>
+ * ZIP64 archives are not supported.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class JarArchive {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private String name;
+    private ByteBuffer buffer;
+    private Map<String, Entry> entries;
+
+    /**
+     * @param name name of the archive (used in error messages)
+     * @param buffer content of the archive
+     * @throws IOException if buffer doesn't contain valid ZIP archive
+     */
+    public JarArchive(String name, ByteBuffer buffer) throws IOException {
+        this.name = name;
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = readCentralDirectory();
+    }
+
+    /**
+     * @param file JAR file (must not be larger than 2GB)
+     * @return memory-mapped archive
+     * @throws IOException if file cannot be mapped or it isn't a valid ZIP archive
+     */
+    public static JarArchive open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is too large to be mapped", file));
+            }
+            // mapping stays valid after channel is closed
+            return new JarArchive(file.getPath(), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return entries in the central directory order
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * @param entryName name of the entry (e.g. WEB-INF/web.xml)
+     * @return entry or null if there is no such entry
+     */
+    public Entry getEntry(String entryName) {
+        return entries.get(entryName);
+    }
+
+    /**
+     * @return uncompressed entry data
+     */
+    public InputStream getInputStream(Entry entry) throws IOException {
+        InputStream inputStream = new ByteBufferInputStream(getData(entry));
+        return entry.method == STORED ? inputStream : new EntryInflaterInputStream(inputStream);
+    }
+
+    /**
+     * @return uncompressed entry data
+     */
+    public byte[] read(Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Entry %s of %s is too large", entry.name, name));
+        }
+        byte[] result = new byte[(int) entry.size];
+        InputStream inputStream = getInputStream(entry);
+        try {
+            int offset = 0;
+            while (offset < result.length) {
+                int size = inputStream.read(result, offset, result.length - offset);
+                if (size == -1) {
+                    throw new EOFException(String.format("Entry %s of %s is truncated", entry.name, name));
+                }
+                offset += size;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return result;
+    }
+
+    /**
+     * @param entry entry which is a ZIP archive itself (e.g. WEB-INF/lib/library.jar)
+     * @return nested archive. Stored entries are read in place, compressed ones have to be inflated into memory
+     */
+    public JarArchive openNested(Entry entry) throws IOException {
+        String nestedName = name + "!/" + entry.name;
+        return entry.method == STORED ? new JarArchive(nestedName, getData(entry)) :
+                new JarArchive(nestedName, ByteBuffer.wrap(read(entry)));
+    }
+
+    private ByteBuffer getData(Entry entry) throws IOException {
+        if (entry.method != STORED && entry.method != DEFLATED) {
+            throw new ZipException(String.format("Entry %s of %s uses unsupported compression method %s",
+                    entry.name, name, entry.method));
+        }
+        int localHeaderOffset = (int) entry.localHeaderOffset;
+        if (localHeaderOffset + 30 > buffer.limit() ||
+            buffer.getInt(localHeaderOffset) != LOCAL_FILE_HEADER_SIGNATURE) {
+            throw new ZipException(String.format("Invalid local file header of %s in %s", entry.name, name));
+        }
+        long dataOffset = localHeaderOffset + 30L + getUnsignedShort(localHeaderOffset + 26) +
+                getUnsignedShort(localHeaderOffset + 28);
+        if (dataOffset + entry.compressedSize > buffer.limit()) {
+            throw new EOFException(String.format("Unexpected end of %s", name));
+        }
+        ByteBuffer result = buffer.duplicate();
+        result.position((int) dataOffset);
+        result.limit((int) (dataOffset + entry.compressedSize));
+        return result.slice();
+    }
+
+    private Map<String, Entry> readCentralDirectory() throws IOException {
+        int limit = buffer.limit();
+        int endOfCentralDirectory = -1;
+        int lowerBound = Math.max(0, limit - END_OF_CENTRAL_DIRECTORY_LENGTH - MAX_COMMENT_LENGTH);
+        for (int i = limit - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= lowerBound; i--) {
+            if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endOfCentralDirectory = i;
+                break;
+            }
+        }
+        if (endOfCentralDirectory == -1) {
+            throw new ZipException(String.format("%s is not a ZIP file", name));
+        }
+        int numberOfEntries = getUnsignedShort(endOfCentralDirectory + 10);
+        long centralDirectoryOffset = getUnsignedInt(endOfCentralDirectory + 16);
+        if (numberOfEntries == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL) {
+            throw new ZipException(String.format("%s is a ZIP64 archive, which is not supported", name));
+        }
+        Map<String, Entry> result = new LinkedHashMap<String, Entry>(numberOfEntries * 4 / 3 + 1);
+        int position = (int) centralDirectoryOffset;
+        for (int i = 0; i < numberOfEntries; i++) {
+            if (position + 46 > limit || buffer.getInt(position) != CENTRAL_FILE_HEADER_SIGNATURE) {
+                throw new ZipException(String.format("Invalid central directory of %s", name));
+            }
+            int nameLength = getUnsignedShort(position + 28);
+            byte[] rawName = new byte[nameLength];
+            ByteBuffer nameBuffer = buffer.duplicate();
+            nameBuffer.position(position + 46);
+            nameBuffer.get(rawName);
+            Entry entry = new Entry(new String(rawName, "UTF-8"), getUnsignedShort(position + 10),
+                    getUnsignedInt(position + 20), getUnsignedInt(position + 24), getUnsignedInt(position + 42));
+            result.put(entry.name, entry);
+            position += 46 + nameLength + getUnsignedShort(position + 30) + getUnsignedShort(position + 32);
+        }
+        return result;
+    }
+
+    private int getUnsignedShort(int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private long getUnsignedInt(int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Entry of the archive.
+     */
+    public static class Entry {
+
+        private String name;
+        private int method;
+        private long compressedSize;
+        private long size;
+        private long localHeaderOffset;
+
+        private Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public boolean isStored() {
+            return method == STORED;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int size = Math.min(len, buffer.remaining());
+            buffer.get(b, off, size);
+            return size;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            int size = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + size);
+            return size;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+    }
+
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+
+        private boolean eof;
+
+        private EntryInflaterInputStream(InputStream inputStream) {
+            super(inputStream, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // "nowrap" inflater may need an extra dummy byte to complete (same as java.util.zip.ZipFile does)
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
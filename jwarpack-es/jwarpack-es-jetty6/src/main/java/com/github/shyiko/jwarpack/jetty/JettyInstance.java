@@ -15,21 +15,39 @@
  */
 package com.github.shyiko.jwarpack.jetty;
 
+import org.mortbay.jetty.AbstractConnector;
 import org.mortbay.jetty.Connector;
 import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.LocalConnector;
 import org.mortbay.jetty.Server;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.mortbay.jetty.servlet.FilterHolder;
 import org.mortbay.jetty.webapp.WebAppContext;
+import org.mortbay.log.Log;
+import org.mortbay.thread.QueuedThreadPool;
+import org.mortbay.thread.ThreadPool;
 import org.mortbay.xml.XmlConfiguration;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
  */
 public class JettyInstance {
 
+    private static final String JSP_SERVLET_CLASS = "org.apache.jasper.servlet.JspServlet";
+    /**
+     * Package of the servlets generated by JspC.
+     */
+    private static final String PRECOMPILED_JSPS_DIRECTORY = "WEB-INF/classes/org/apache/jsp/";
+
     private Server server;
+    private ServerMetrics metrics;
+    private StaticResourceCache staticResourceCache;
 
     public JettyInstance(EmbeddedServerConfig config) throws Throwable {
         XmlConfiguration serverConfiguration;
@@ -41,7 +59,9 @@ public class JettyInstance {
             serverConfiguration = new XmlConfiguration(configurationFile.toURI().toURL());
         }
         server = (Server) serverConfiguration.configure();
-        Connector[] connectors = this.server.getConnectors();
+        metrics = new ServerMetrics(server);
+        // copied as Server#addConnector clears elements of the array it replaces
+        Connector[] connectors = this.server.getConnectors().clone();
         if (connectors.length == 1) {
             Connector connector = connectors[0];
             String host = config.getHost();
@@ -49,22 +69,288 @@ public class JettyInstance {
                 connector.setHost(host);
             }
             int port = config.getPort();
-            if (port > 0) {
+            if (port >= 0) {
                 connector.setPort(port);
             }
         }
+        Map<SelectChannelConnector, ConnectorConfig> additionalConnectors =
+                new LinkedHashMap<SelectChannelConnector, ConnectorConfig>();
+        for (ConnectorConfig connectorConfig : config.getConnectors()) {
+            SelectChannelConnector connector = createConnector(connectorConfig, connectors);
+            server.addConnector(connector);
+            additionalConnectors.put(connector, connectorConfig);
+        }
+        applySizing(config);
+        for (Map.Entry<SelectChannelConnector, ConnectorConfig> entry : additionalConnectors.entrySet()) {
+            configureConnector(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return connector with the settings (idle time, acceptors, low resource thresholds) of the first
+     * {@link SelectChannelConnector} declared in jetty.xml (if any)
+     */
+    private SelectChannelConnector createConnector(ConnectorConfig config, Connector[] declaredConnectors) {
+        SelectChannelConnector result = new MeteredSelectChannelConnector();
+        for (Connector connector : declaredConnectors) {
+            if (connector instanceof SelectChannelConnector) {
+                SelectChannelConnector template = (SelectChannelConnector) connector;
+                result.setMaxIdleTime(template.getMaxIdleTime());
+                result.setAcceptors(template.getAcceptors());
+                result.setLowResourcesConnections(template.getLowResourcesConnections());
+                result.setLowResourceMaxIdleTime((int) template.getLowResourcesMaxIdleTime());
+                result.setStatsOn(template.getStatsOn());
+                break;
+            }
+        }
+        result.setHost(config.getHost());
+        result.setPort(config.getPort());
+        return result;
+    }
+
+    /**
+     * Applies connector-specific values, which take precedence over both jetty.xml and {@link #applySizing}.
+     */
+    private void configureConnector(SelectChannelConnector connector, ConnectorConfig config) {
+        if (config.getAcceptors() != null) {
+            connector.setAcceptors(config.getAcceptors());
+        }
+        if (config.getMaxIdleTime() != null) {
+            connector.setMaxIdleTime(config.getMaxIdleTime());
+        }
+        if (config.getLowResourcesConnections() != null) {
+            connector.setLowResourcesConnections(config.getLowResourcesConnections());
+        }
+        if (config.getLowResourcesMaxIdleTime() != null) {
+            connector.setLowResourceMaxIdleTime(config.getLowResourcesMaxIdleTime());
+        }
+        if (config.getThreads() != null) {
+            // acceptors (selectors) are dispatched to the connector's thread pool too
+            if (config.getThreads() <= connector.getAcceptors()) {
+                throw new IllegalArgumentException(String.format("Connector %s needs more than %s threads " +
+                        "(as many are taken by acceptors)", config, connector.getAcceptors()));
+            }
+            QueuedThreadPool threadPool = new QueuedThreadPool(config.getThreads());
+            threadPool.setMinThreads(Math.min(threadPool.getMinThreads() + connector.getAcceptors(),
+                    config.getThreads()));
+            threadPool.setName("qtp-" + (config.getName() == null ? String.valueOf(config.getPort()) :
+                    config.getName()));
+            connector.setThreadPool(threadPool);
+        }
+        Log.info(String.format("Connector %s: acceptors %s, max idle time %s ms, low resources connections %s, %s",
+                config, connector.getAcceptors(), connector.getMaxIdleTime(), connector.getLowResourcesConnections(),
+                config.getThreads() == null ? "shared thread pool" : config.getThreads() + " dedicated threads"));
+    }
+
+    /**
+     * Applies explicitly configured values and (if {@link EmbeddedServerConfig#isAutoSizing()} is on) the ones
+     * derived from the available resources (see {@link ServerSizing}) to the thread pool and connectors.
+     */
+    private void applySizing(EmbeddedServerConfig config) {
+        ServerSizing sizing = config.isAutoSizing() ? ServerSizing.detect() : null;
+        StringBuilder summary = new StringBuilder();
+        ThreadPool threadPool = server.getThreadPool();
+        if (threadPool instanceof QueuedThreadPool) {
+            QueuedThreadPool queuedThreadPool = (QueuedThreadPool) threadPool;
+            Integer maxThreads = choose(config.getMaxThreads(), sizing == null ? null : sizing.getMaxThreads());
+            if (maxThreads != null) {
+                queuedThreadPool.setMaxThreads(maxThreads);
+                if (sizing != null) {
+                    queuedThreadPool.setLowThreads(Math.min(sizing.getLowThreads(), maxThreads / 2));
+                }
+            }
+            Integer minThreads = choose(config.getMinThreads(), sizing == null ? null : sizing.getMinThreads());
+            if (minThreads != null) {
+                queuedThreadPool.setMinThreads(Math.min(minThreads, queuedThreadPool.getMaxThreads()));
+            }
+            summary.append(String.format("threads %s..%s", queuedThreadPool.getMinThreads(),
+                    queuedThreadPool.getMaxThreads()));
+        }
+        Integer acceptors = choose(config.getAcceptors(), sizing == null ? null : sizing.getAcceptors());
+        Integer lowResourcesConnections = choose(config.getLowResourcesConnections(),
+                sizing == null ? null : sizing.getLowResourcesConnections());
+        for (Connector connector : server.getConnectors()) {
+            if (connector instanceof AbstractConnector) {
+                AbstractConnector abstractConnector = (AbstractConnector) connector;
+                if (acceptors != null) {
+                    abstractConnector.setAcceptors(acceptors);
+                }
+                if (sizing != null) {
+                    abstractConnector.setResponseBufferSize(
+                            sizing.getResponseBufferSize(abstractConnector.getResponseBufferSize()));
+                }
+            }
+            if (connector instanceof SelectChannelConnector && lowResourcesConnections != null) {
+                ((SelectChannelConnector) connector).setLowResourcesConnections(lowResourcesConnections);
+            }
+        }
+        if (sizing != null) {
+            summary.append(String.format(", acceptors %s, low resources connections %s", acceptors,
+                    lowResourcesConnections));
+            Log.info("Sized for {} ({})", sizing, summary);
+        }
+    }
+
+    private static Integer choose(Integer explicitValue, Integer derivedValue) {
+        return explicitValue != null ? explicitValue : derivedValue;
+    }
+
+    /**
+     * @return port the (first) connector is listening on (useful when it was configured to be 0, i.e. ephemeral)
+     */
+    public int getLocalPort() {
+        return server.getConnectors()[0].getLocalPort();
     }
 
     public void start() throws Exception {
         server.start();
     }
 
-    public void deploy(String context, String path) {
+    /**
+     * Starts server with the connectors closed, replays warm-up requests through the {@link LocalConnector} and only
+     * then opens connectors. Server is stopped (without ever opening connectors) if warm-up fails.
+     *
+     * @param warmUp warm-up
+     * @param listener notified once server is started and warm-up begins
+     * @throws Exception if server fails to start or warm-up fails
+     */
+    public void start(WarmUp warmUp, Runnable listener) throws Exception {
+        // opened once warm-up is over
+        Connector[] connectors = server.getConnectors().clone();
+        LocalConnector localConnector = new LocalConnector();
+        server.setConnectors(new Connector[] {localConnector});
+        boolean warmedUp = false;
+        try {
+            server.start();
+            listener.run();
+            warmUp.run(localConnector);
+            warmedUp = true;
+        } finally {
+            server.removeConnector(localConnector);
+            localConnector.stop();
+            if (!warmedUp) {
+                stopQuietly();
+            }
+        }
+        metrics.reset();
+        for (Connector connector : connectors) {
+            server.addConnector(connector);
+            connector.start();
+        }
+    }
+
+    private void stopQuietly() {
+        try {
+            server.stop();
+        } catch (Exception e) {
+            Log.warn("Failed to stop server", e);
+        }
+    }
+
+    /**
+     * @return metrics of the server (and the applications deployed on it)
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param staticResourceCache cache static resources of the applications deployed afterwards should be served
+     * from (see {@link StaticResourceCacheFilter}), null if there should be none
+     */
+    public void setStaticResourceCache(StaticResourceCache staticResourceCache) {
+        this.staticResourceCache = staticResourceCache;
+    }
+
+    /**
+     * @param context context path
+     * @param path WAR or unpacked web application. In the latter case, {@link ScanIndex} (if any) is applied
+     * @throws IOException if scan index cannot be read
+     */
+    public void deploy(String context, String path) throws IOException {
         WebAppContext webAppContext = new WebAppContext(path, context);
         webAppContext.setLogUrlOnStart(true);
+        addFilters(webAppContext);
+        File webAppDirectory = new File(path);
+        if (webAppDirectory.isDirectory()) {
+            ScanIndex scanIndex = ScanIndex.read(webAppDirectory);
+            if (scanIndex != null) {
+                scanIndex.applyTo(webAppContext);
+            }
+        }
+        server.addHandler(webAppContext);
+    }
+
+    /**
+     * Deploys standalone JAR without unpacking it (see {@link PackedWebAppClassLoader}). Static resources are served
+     * from the JAR as well. TLDs of WEB-INF/lib JARs are looked up in the {@link ScanIndex} (if any), the rest of
+     * the JARs are scanned in place.
+     *
+     * @param context context path
+     * @param jar standalone JAR
+     * @throws IOException if JAR (or scan index inside of it) cannot be read
+     * @throws IllegalArgumentException if JAR contains JSPs which are not precompiled and server supports JSP
+     * (Jasper can't compile them against the libraries nested inside the JAR)
+     */
+    public void deployPacked(String context, File jar) throws IOException {
+        WebAppContext webAppContext = new WebAppContext(jar.getPath(), context);
+        webAppContext.setExtractWAR(false);
+        webAppContext.setLogUrlOnStart(true);
+        addFilters(webAppContext);
+        PackedWebAppClassLoader classLoader = new PackedWebAppClassLoader(webAppContext, jar);
+        if (isJspSupported() && containsJspsToCompile(classLoader.getArchive())) {
+            throw new IllegalArgumentException(String.format("JSPs of %s cannot be compiled while application is " +
+                    "served straight from the JAR (Jasper doesn't see WEB-INF/lib/*.jar inside of it). Either " +
+                    "precompile them (--precompile-jsps) or start with -DextractWAR=true", jar));
+        }
+        webAppContext.setClassLoader(classLoader);
+        ScanIndex scanIndex = ScanIndex.read(classLoader.getArchive());
+        // empty one if there is no index, as TagLibConfiguration cannot scan JARs which are not files
+        (scanIndex != null ? scanIndex : new ScanIndex()).applyTo(webAppContext);
         server.addHandler(webAppContext);
     }
 
+    /**
+     * @return true if JSP servlet is available (i.e. this is JSP-enabled server launcher)
+     */
+    boolean isJspSupported() {
+        try {
+            Class.forName(JSP_SERVLET_CLASS, false, JettyInstance.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if archive contains JSPs and none of them has been precompiled
+     */
+    private boolean containsJspsToCompile(JarArchive archive) {
+        boolean containsJsps = false;
+        for (JarArchive.Entry entry : archive.getEntries()) {
+            String name = entry.getName();
+            if (name.startsWith(PRECOMPILED_JSPS_DIRECTORY)) {
+                return false;
+            }
+            name = name.toLowerCase();
+            containsJsps |= name.endsWith(".jsp") || name.endsWith(".jspx");
+        }
+        return containsJsps;
+    }
+
+    private void addFilters(WebAppContext webAppContext) {
+        // first in chain, so that time spent in the other filters is measured too
+        webAppContext.addFilter(new FilterHolder(new RequestMetricsFilter(metrics)), "/*", Handler.REQUEST);
+        webAppContext.addFilter(PrecompressedContentFilter.class, "/*", Handler.REQUEST);
+        // ahead of the cache, so that up-to-date copies are confirmed without looking resources up
+        webAppContext.addFilter(new FilterHolder(new ETagFilter(webAppContext)), "/*", Handler.REQUEST);
+        if (staticResourceCache != null) {
+            StaticResourceCacheFilter.disableDefaultServletCache(webAppContext);
+            webAppContext.addFilter(new FilterHolder(new StaticResourceCacheFilter(staticResourceCache,
+                    webAppContext)), "/*", Handler.REQUEST);
+        }
+    }
+
     public void undeploy(String context) {
         for (Handler handler : server.getHandlers()) {
             if (handler instanceof WebAppContext) {
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.io.Connection;
+import org.mortbay.io.nio.SelectChannelEndPoint;
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SelectChannelConnector} which keeps track of the open connections with atomic counters (as opposed to the
+ * statistics of the connector itself ("statsOn"), updated under a lock), so that they can be reported by the
+ * {@link ServerMetrics} at no cost to the request processing.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class MeteredSelectChannelConnector extends SelectChannelConnector {
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicLong acceptedConnections = new AtomicLong();
+
+    @Override
+    protected Connection newConnection(SocketChannel channel, SelectChannelEndPoint endpoint) {
+        return new MeteredHttpConnection(this, endpoint);
+    }
+
+    @Override
+    protected void connectionOpened(HttpConnection connection) {
+        openConnections.incrementAndGet();
+        acceptedConnections.incrementAndGet();
+        super.connectionOpened(connection);
+    }
+
+    @Override
+    protected void connectionClosed(HttpConnection connection) {
+        // Jetty may report the same connection closed more than once
+        if (!(connection instanceof MeteredHttpConnection) || ((MeteredHttpConnection) connection).markClosed()) {
+            openConnections.decrementAndGet();
+        }
+        super.connectionClosed(connection);
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * @return number of connections accepted since the connector was created
+     */
+    public long getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    private static class MeteredHttpConnection extends HttpConnection {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private MeteredHttpConnection(MeteredSelectChannelConnector connector, SelectChannelEndPoint endpoint) {
+            super(connector, endpoint, connector.getServer());
+        }
+
+        /**
+         * @return true if connection wasn't marked closed before
+         */
+        private boolean markClosed() {
+            return closed.compareAndSet(false, true);
+        }
+    }
+}
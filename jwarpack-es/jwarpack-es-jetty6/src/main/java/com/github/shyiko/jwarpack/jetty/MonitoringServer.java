@@ -15,113 +15,121 @@
  */
 package com.github.shyiko.jwarpack.jetty;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import com.github.shyiko.jwarpack.monitoring.AbstractMonitoringServer;
+
+import java.lang.management.ManagementFactory;
 
 /**
+ * Monitoring port (see {@link AbstractMonitoringServer} for the protocol). Response to the "status" request is a
+ * single line JSON object, e.g. {"status":"ready","uptimeMs":5230,"startup":{"completed":true,"durationMs":1200,
+ * "phases":{...}}} (see {@link StartupTimings#toJSON()}), followed by "staticCache" counters if static resource cache
+ * is on (see {@link StaticResourceCache#toJSON()}). Status is one of the {@link ServerStatus}es (in lower case).
+ * <p/>
+ * Live metrics of the server (see {@link ServerMetrics}) are available as "metrics" (single line JSON object) and
+ * "metrics:prometheus" (Prometheus text format) requests, as well as over plain HTTP (GET /metrics for Prometheus
+ * text format, GET /metrics.json for JSON), so that Prometheus can scrape them directly.
+ *
  * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
  */
-public class MonitoringServer {
+public class MonitoringServer extends AbstractMonitoringServer {
 
-    private static final String REQUEST_STATUS = "status";
-    private static final String REQUEST_SHUTDOWN = "stop";
+    private static final String REQUEST_METRICS = "metrics";
+    private static final String REQUEST_PROMETHEUS_METRICS = "metrics:prometheus";
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
 
-    private int port;
-    private String key = "jwarpack";
+    private StartupTimings startupTimings;
+    private volatile StaticResourceCache staticResourceCache;
+    private volatile ServerMetrics serverMetrics;
+    private volatile ServerStatus status = ServerStatus.STARTING;
 
-    public void setPort(int port) {
-        this.port = port;
+    /**
+     * @param startupTimings timings reported in response to the "status" request
+     */
+    public void setStartupTimings(StartupTimings startupTimings) {
+        this.startupTimings = startupTimings;
     }
 
-    public void setKey(String key) {
-        this.key = key;
+    /**
+     * @param staticResourceCache cache which counters are reported in response to the "status" request
+     */
+    public void setStaticResourceCache(StaticResourceCache staticResourceCache) {
+        this.staticResourceCache = staticResourceCache;
     }
 
-    public void startListeningThread() {
-        new ListeningThread().start();
+    /**
+     * @param serverMetrics metrics reported in response to the "metrics" requests
+     */
+    public void setServerMetrics(ServerMetrics serverMetrics) {
+        this.serverMetrics = serverMetrics;
     }
 
-    public void sendShutdownRequest() {
-        sendRequest(REQUEST_SHUTDOWN + ":" + key);
+    public void setStatus(ServerStatus status) {
+        this.status = status;
     }
 
-    public void sendStatusRequest() {
-        sendRequest(REQUEST_STATUS);
+    /**
+     * Prints server's metrics (see {@link ServerMetrics#toJSON()}) to stdout.
+     */
+    public void sendMetricsRequest() {
+        sendRequest(REQUEST_METRICS);
     }
 
-    private void sendRequest(String request) {
-        try {
-            Socket socket = new Socket(InetAddress.getLocalHost(), port);
-            try {
-                writeToSocket(socket, request);
-            } finally {
-                socket.close();
-            }
-            System.out.println("Connection established");
-        } catch (Exception e) {
-            e.printStackTrace(System.err);
+    @Override
+    protected String getStatus() {
+        StringBuilder result = new StringBuilder();
+        result.append("{\"status\":\"").append(status.name().toLowerCase()).append("\",\"uptimeMs\":").
+                append(getUptime());
+        if (startupTimings != null) {
+            result.append(",\"startup\":").append(startupTimings.toJSON());
+        }
+        StaticResourceCache staticResourceCache = this.staticResourceCache;
+        if (staticResourceCache != null) {
+            result.append(",\"staticCache\":").append(staticResourceCache.toJSON());
         }
+        return result.append("}").toString();
     }
 
-    private void writeToSocket(Socket socket, String request) throws IOException {
-        OutputStream outputStream = socket.getOutputStream();
-        try {
-            outputStream.write(request.getBytes());
-        } finally {
-            outputStream.close();
-        }
+    /**
+     * @return uptime of the JVM (in milliseconds)
+     */
+    long getUptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
     }
 
-    private class ListeningThread extends Thread {
+    @Override
+    protected String getReadiness() {
+        return status.name().toLowerCase();
+    }
 
-        private ServerSocket socket;
+    private String getMetrics() {
+        ServerMetrics serverMetrics = this.serverMetrics;
+        return serverMetrics == null ? "{}\n" : serverMetrics.toJSON() + "\n";
+    }
+
+    private String getPrometheusMetrics() {
+        ServerMetrics serverMetrics = this.serverMetrics;
+        return serverMetrics == null ? "" : serverMetrics.toPrometheus();
+    }
 
-        private ListeningThread() {
-            setName("MonitoringServer");
-            setDaemon(true);
+    @Override
+    protected String respond(String request) {
+        if (REQUEST_METRICS.equalsIgnoreCase(request)) {
+            return getMetrics();
+        } else
+        if (REQUEST_PROMETHEUS_METRICS.equalsIgnoreCase(request)) {
+            return getPrometheusMetrics();
         }
+        return super.respond(request);
+    }
 
-        public void run() {
-            try {
-                socket = new ServerSocket(port, 1, InetAddress.getLocalHost());
-                port = socket.getLocalPort();
-                try {
-                    loop:
-                    while (true) {
-                        Socket socket = this.socket.accept();
-                        try {
-                            BufferedReader inputStream = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                            try {
-                                String line;
-                                while ((line = inputStream.readLine()) != null) {
-                                    if (REQUEST_STATUS.equalsIgnoreCase(line)) {
-                                        OutputStream outputStream = socket.getOutputStream();
-                                        outputStream.write("Running...\n".getBytes());
-                                        outputStream.flush();
-                                    } else if ((REQUEST_SHUTDOWN + ":" + key).equalsIgnoreCase(line)) {
-                                        break loop;
-                                    }
-                                }
-                            } finally {
-                                inputStream.close();
-                            }
-                        } finally {
-                            socket.close();
-                        }
-                    }
-                } finally {
-                    socket.close();
-                }
-                System.exit(0);
-            } catch (Exception e) {
-                System.err.println("Monitoring thread failed.");
-                e.printStackTrace(System.err);
-            }
+    @Override
+    protected HTTPResponse respondOverHTTP(String path) {
+        if ("/metrics".equals(path)) {
+            return new HTTPResponse("200 OK", PROMETHEUS_CONTENT_TYPE, getPrometheusMetrics());
+        } else
+        if ("/metrics.json".equals(path)) {
+            return new HTTPResponse("200 OK", "application/json", getMetrics());
         }
+        return super.respondOverHTTP(path);
     }
 }
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.webapp.WebAppClassLoader;
+import org.mortbay.jetty.webapp.WebAppContext;
+import org.mortbay.resource.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSource;
+import java.security.cert.Certificate;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Web application class loader which reads WEB-INF/classes and WEB-INF/lib/*.jar straight from the (memory-mapped)
+ * standalone JAR, so that nothing has to be unpacked. Library JARs are expected to be stored uncompressed
+ * (compressed ones still work, but have to be inflated into memory first).
+ * <p/>
+ * Each of the library JARs is a code source of its own (with packages defined according to its manifest), addressed
+ * by jwarpack-nested: URL. These URLs are what {@link #getURLs()} returns, which is enough for TLD discovery but not
+ * for Jasper (which can neither compile JSPs against nor look for TLDs in anything but files), hence JSPs have to be
+ * precompiled for this class loader to be used.
+ * <p/>
+ * Delegation rules (system/server classes, parent loader priority) are inherited from {@link WebAppClassLoader}.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class PackedWebAppClassLoader extends WebAppClassLoader {
+
+    private static final String CLASSES_DIRECTORY = "WEB-INF/classes/";
+    private static final String LIB_DIRECTORY = "WEB-INF/lib/";
+    static final String NESTED_PROTOCOL = "jwarpack-nested";
+    /**
+     * ClassLoader#getDefinedPackage(String) (Java 9+), null on older JVMs.
+     */
+    private static final Method GET_DEFINED_PACKAGE = findGetDefinedPackageMethod();
+
+    private JarArchive archive;
+    private String archiveURL;
+    private String archivePath;
+    private CodeSource classesCodeSource;
+    /**
+     * WEB-INF/lib/*.jar by entry name.
+     */
+    private Map<String, Library> libraries = new LinkedHashMap<String, Library>();
+    private URLStreamHandler nestedURLStreamHandler = new NestedURLStreamHandler();
+
+    /**
+     * @param context web application context
+     * @param jar standalone JAR
+     * @throws IOException if JAR (or one of the library JARs inside it) cannot be read
+     */
+    public PackedWebAppClassLoader(WebAppContext context, File jar) throws IOException {
+        super(context);
+        this.archive = JarArchive.open(jar);
+        URL jarURL = jar.toURI().toURL();
+        this.archiveURL = jarURL.toString();
+        this.archivePath = jar.toURI().getRawPath();
+        this.classesCodeSource = new CodeSource(new URL("jar:" + archiveURL + "!/" + CLASSES_DIRECTORY),
+                (Certificate[]) null);
+        for (JarArchive.Entry entry : archive.getEntries()) {
+            String name = entry.getName();
+            if (name.startsWith(LIB_DIRECTORY) && name.endsWith(".jar") &&
+                name.indexOf('/', LIB_DIRECTORY.length()) == -1) {
+                libraries.put(name, new Library(archive.openNested(entry), getNestedURL(name)));
+            }
+        }
+    }
+
+    /**
+     * @return standalone JAR web application is served from
+     */
+    public JarArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * @return URLs of the WEB-INF/lib JARs (jwarpack-nested:&lt;standalone JAR&gt;!/WEB-INF/lib/&lt;name&gt;.jar),
+     * so that TLDs inside of them can be discovered (see {@link IndexedTagLibConfiguration}). Classes and resources
+     * are not looked up through these URLs but by this class loader itself
+     */
+    @Override
+    public URL[] getURLs() {
+        List<URL> result = new ArrayList<URL>();
+        for (Library library : libraries.values()) {
+            result.add(library.codeSource.getLocation());
+        }
+        return result.toArray(new URL[result.size()]);
+    }
+
+    /**
+     * No-op, as WEB-INF/classes are served by this class loader itself.
+     */
+    @Override
+    public void addClassPath(String classPath) throws IOException {}
+
+    /**
+     * No-op, as WEB-INF/lib/*.jar are served by this class loader itself.
+     */
+    @Override
+    public void addJars(Resource lib) {}
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String entryName = name.replace('.', '/') + ".class";
+        byte[] bytes = null;
+        Library library = null;
+        try {
+            JarArchive.Entry entry = archive.getEntry(CLASSES_DIRECTORY + entryName);
+            if (entry != null) {
+                bytes = archive.read(entry);
+            } else {
+                for (Library candidate : libraries.values()) {
+                    entry = candidate.jar.getEntry(entryName);
+                    if (entry != null) {
+                        bytes = candidate.jar.read(entry);
+                        library = candidate;
+                        break;
+                    }
+                }
+            }
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            definePackage(name, library);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        return defineClass(name, bytes, 0, bytes.length,
+                library == null ? classesCodeSource : library.codeSource);
+    }
+
+    /**
+     * Defines package of the class (unless it's defined already) the same way {@link java.net.URLClassLoader} does,
+     * i.e. with specification/implementation titles, versions, vendors and sealing taken from the manifest of the
+     * library JAR (if any).
+     *
+     * @param className name of the class
+     * @param library library JAR class is loaded from (null for WEB-INF/classes)
+     * @throws IOException if manifest of the library cannot be read
+     */
+    private void definePackage(String className, Library library) throws IOException {
+        int lastDot = className.lastIndexOf('.');
+        if (lastDot <= 0) {
+            return;
+        }
+        String packageName = className.substring(0, lastDot);
+        if (findDefinedPackage(packageName) != null) {
+            return;
+        }
+        Manifest manifest = library == null ? null : library.getManifest();
+        try {
+            if (manifest != null) {
+                definePackage(packageName, manifest, library.codeSource.getLocation());
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException e) {
+            // package has been defined concurrently
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+        List<URL> resources = findResourceList(name);
+        return resources.isEmpty() ? null : resources.get(0);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        return Collections.enumeration(findResourceList(name));
+    }
+
+    private List<URL> findResourceList(String name) {
+        List<URL> result = new ArrayList<URL>();
+        try {
+            if (archive.getEntry(CLASSES_DIRECTORY + name) != null) {
+                result.add(new URL("jar:" + archiveURL + "!/" + CLASSES_DIRECTORY + name));
+            }
+            for (Map.Entry<String, Library> library : libraries.entrySet()) {
+                if (library.getValue().jar.getEntry(name) != null) {
+                    result.add(getNestedURL(library.getKey() + "!/" + name));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+
+    /**
+     * @param path entry of the standalone JAR or &lt;library&gt;!/&lt;entry&gt;
+     */
+    private URL getNestedURL(String path) {
+        try {
+            return new URL(NESTED_PROTOCOL, null, -1, archivePath + "!/" + path, nestedURLStreamHandler);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return package defined by this class loader (or, on JVMs older than 9, by any of its ancestors)
+     */
+    @SuppressWarnings("deprecation")
+    private Package findDefinedPackage(String packageName) {
+        if (GET_DEFINED_PACKAGE != null) {
+            try {
+                return (Package) GET_DEFINED_PACKAGE.invoke(this, packageName);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        // deprecated since Java 9 (in favour of getDefinedPackage), the only option on older JVMs
+        return getPackage(packageName);
+    }
+
+    private static Method findGetDefinedPackageMethod() {
+        try {
+            return ClassLoader.class.getMethod("getDefinedPackage", String.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PackedWebAppClassLoader@" + Integer.toHexString(hashCode()) + "(" + archive + ")";
+    }
+
+    /**
+     * WEB-INF/lib JAR, which is its own code source (jwarpack-nested:&lt;standalone
+     * JAR&gt;!/WEB-INF/lib/&lt;name&gt;.jar).
+     */
+    private static class Library {
+
+        private final JarArchive jar;
+        private final CodeSource codeSource;
+        private Manifest manifest;
+        private boolean manifestRead;
+
+        private Library(JarArchive jar, URL url) {
+            this.jar = jar;
+            this.codeSource = new CodeSource(url, (Certificate[]) null);
+        }
+
+        /**
+         * @return manifest (read on first call) or null if JAR doesn't have one
+         */
+        public synchronized Manifest getManifest() throws IOException {
+            if (!manifestRead) {
+                JarArchive.Entry entry = jar.getEntry(JarFile.MANIFEST_NAME);
+                if (entry != null) {
+                    InputStream inputStream = jar.getInputStream(entry);
+                    try {
+                        manifest = new Manifest(inputStream);
+                    } finally {
+                        inputStream.close();
+                    }
+                }
+                manifestRead = true;
+            }
+            return manifest;
+        }
+    }
+
+    /**
+     * Handles jwarpack-nested:&lt;standalone JAR&gt;!/&lt;entry&gt; and jwarpack-nested:&lt;standalone
+     * JAR&gt;!/&lt;library&gt;!/&lt;entry&gt; URLs.
+     */
+    private class NestedURLStreamHandler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+            String file = url.getFile();
+            String prefix = archivePath + "!/";
+            String path = file.startsWith(prefix) ? file.substring(prefix.length()) : null;
+            int separator = path == null ? -1 : path.indexOf("!/");
+            Library library = separator == -1 ? null : libraries.get(path.substring(0, separator));
+            final JarArchive container = path == null ? null : separator == -1 ? archive :
+                    library == null ? null : library.jar;
+            final JarArchive.Entry entry = container == null ? null :
+                    container.getEntry(separator == -1 ? path : path.substring(separator + 2));
+            if (entry == null) {
+                throw new IOException(String.format("%s not found", url));
+            }
+            return new URLConnection(url) {
+
+                @Override
+                public void connect() throws IOException {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return container.getInputStream(entry);
+                }
+
+                @Override
+                public int getContentLength() {
+                    return (int) Math.min(entry.getSize(), Integer.MAX_VALUE);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.servlet.DefaultServlet;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Complements {@link DefaultServlet}, which serves &lt;path&gt;.gz (if there is one) to any client whose
+ * Accept-Encoding mentions gzip, for the static resources precompressed by jwarpack packager (listed in
+ * WEB-INF/jwarpack-precompressed.index): responses get "Vary: Accept-Encoding" (so that caches don't hand gzip-encoded
+ * content out to the clients which can't handle it) and Accept-Encoding which explicitly refuses gzip ("gzip;q=0") is
+ * hidden from the servlet. Everything else passes through untouched.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class PrecompressedContentFilter implements Filter {
+
+    private static final String INDEX = "/WEB-INF/jwarpack-precompressed.index";
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private Set<String> paths = Collections.emptySet();
+
+    public void init(FilterConfig filterConfig) throws ServletException {
+        InputStream inputStream = filterConfig.getServletContext().getResourceAsStream(INDEX);
+        if (inputStream == null) {
+            return;
+        }
+        Set<String> result = new HashSet<String>();
+        try {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        result.add(line);
+                    }
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            throw new ServletException("Failed to read " + INDEX, e);
+        }
+        paths = result;
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!paths.isEmpty() && request instanceof HttpServletRequest) {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            String pathInfo = httpRequest.getPathInfo();
+            String path = pathInfo == null ? httpRequest.getServletPath() : httpRequest.getServletPath() + pathInfo;
+            if (paths.contains(path)) {
+                ((HttpServletResponse) response).addHeader("Vary", ACCEPT_ENCODING);
+                String acceptEncoding = httpRequest.getHeader(ACCEPT_ENCODING);
+                if (acceptEncoding != null && acceptEncoding.contains("gzip") && !acceptsGzip(acceptEncoding)) {
+                    request = new HttpServletRequestWrapper(httpRequest) {
+
+                        @Override
+                        public String getHeader(String name) {
+                            return ACCEPT_ENCODING.equalsIgnoreCase(name) ? null : super.getHeader(name);
+                        }
+
+                        @Override
+                        public Enumeration getHeaders(String name) {
+                            return ACCEPT_ENCODING.equalsIgnoreCase(name) ? Collections.enumeration(
+                                    Collections.emptySet()) : super.getHeaders(name);
+                        }
+                    };
+                }
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * @param acceptEncoding value of the Accept-Encoding header (e.g. "gzip;q=0, deflate")
+     * @return true if gzip (or x-gzip) is listed with non-zero quality
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            if (!"gzip".equalsIgnoreCase(name) && !"x-gzip".equalsIgnoreCase(name)) {
+                continue;
+            }
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            return quality > 0;
+        }
+        return false;
+    }
+
+    public void destroy() {
+    }
+}
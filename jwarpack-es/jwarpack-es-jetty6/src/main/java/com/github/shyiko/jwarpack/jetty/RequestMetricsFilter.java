@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.HttpConnection;
+import org.mortbay.jetty.RetryRequest;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * Records duration and status of each request in {@link ServerMetrics}. Requests suspended by continuations are
+ * recorded once they are resumed (with the duration of the last dispatch). Requests failed with an exception are
+ * counted as 5xx.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class RequestMetricsFilter implements Filter {
+
+    private final ServerMetrics metrics;
+
+    public RequestMetricsFilter(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        metrics.requestStarted();
+        long startTime = System.nanoTime();
+        int status = 500;
+        try {
+            chain.doFilter(request, response);
+            HttpConnection connection = HttpConnection.getCurrentConnection();
+            status = connection == null ? 0 : connection.getResponse().getStatus();
+        } catch (RetryRequest e) {
+            // suspended, will be dispatched once again
+            status = -1;
+            throw e;
+        } finally {
+            if (status == -1) {
+                metrics.requestSuspended();
+            } else {
+                metrics.requestCompleted(System.nanoTime() - startTime, status);
+            }
+        }
+    }
+
+    public void destroy() {
+    }
+}
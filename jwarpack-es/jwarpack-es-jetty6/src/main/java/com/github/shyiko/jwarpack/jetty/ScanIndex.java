@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.webapp.TagLibConfiguration;
+import org.mortbay.jetty.webapp.WebAppContext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Index of the TLDs contained in each of the WEB-INF/lib JARs, created by jwarpack packager at packaging time (if
+ * requested with --index-tlds) as WEB-INF/jwarpack-scan.index, one "&lt;JAR name&gt;=&lt;comma-separated list of
+ * TLDs&gt;" line per JAR.
+ * <p/>
+ * Once applied to the {@link WebAppContext}, TLDs of the indexed JARs are looked up in the index (see
+ * {@link IndexedTagLibConfiguration}) instead of opening each of the JARs, so that startup time no longer depends
+ * on the number of libraries.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ScanIndex {
+
+    private static final String ENTRY_NAME = "WEB-INF/jwarpack-scan.index";
+    private static final String ATTRIBUTE_NAME = ScanIndex.class.getName();
+    /**
+     * Same as the (private) defaults of the {@link WebAppContext}.
+     */
+    private static final String[] DEFAULT_CONFIGURATION_CLASSES = {
+        "org.mortbay.jetty.webapp.WebInfConfiguration",
+        "org.mortbay.jetty.webapp.WebXmlConfiguration",
+        "org.mortbay.jetty.webapp.JettyWebXmlConfiguration",
+        "org.mortbay.jetty.webapp.TagLibConfiguration"
+    };
+
+    private final Map<String, List<String>> tldsByJar = new HashMap<String, List<String>>();
+
+    /**
+     * @param webAppDirectory unpacked web application
+     * @return index or null if web application doesn't have one (e.g. it was packaged by the older version of
+     * jwarpack)
+     * @throws IOException if index cannot be read
+     */
+    public static ScanIndex read(File webAppDirectory) throws IOException {
+        File file = new File(webAppDirectory, ENTRY_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        return read(new FileInputStream(file));
+    }
+
+    /**
+     * @param archive standalone JAR web application is served from (see {@link PackedWebAppClassLoader})
+     * @return index or null if web application doesn't have one
+     * @throws IOException if index cannot be read
+     */
+    public static ScanIndex read(JarArchive archive) throws IOException {
+        JarArchive.Entry entry = archive.getEntry(ENTRY_NAME);
+        if (entry == null) {
+            return null;
+        }
+        return read(archive.getInputStream(entry));
+    }
+
+    private static ScanIndex read(InputStream inputStream) throws IOException {
+        Properties properties = new Properties();
+        try {
+            properties.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        ScanIndex result = new ScanIndex();
+        for (String jar : properties.stringPropertyNames()) {
+            List<String> tlds = new ArrayList<String>();
+            for (String tld : properties.getProperty(jar).split(",")) {
+                tld = tld.trim();
+                if (!tld.isEmpty()) {
+                    tlds.add(tld);
+                }
+            }
+            result.tldsByJar.put(jar, tlds);
+        }
+        return result;
+    }
+
+    /**
+     * @param webAppContext context of the web application
+     * @return index previously applied to the context (null if there is none)
+     */
+    public static ScanIndex get(WebAppContext webAppContext) {
+        return (ScanIndex) webAppContext.getAttribute(ATTRIBUTE_NAME);
+    }
+
+    /**
+     * @param jar name of the WEB-INF/lib JAR
+     * @return names of the TLD entries or null if JAR is not indexed
+     */
+    public List<String> getTlds(String jar) {
+        List<String> result = tldsByJar.get(jar);
+        return result == null ? null : Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Replaces TagLibConfiguration of the context with {@link IndexedTagLibConfiguration}.
+     *
+     * @param webAppContext context of the web application index belongs to (not started yet)
+     */
+    public void applyTo(WebAppContext webAppContext) {
+        String[] configurationClasses = webAppContext.getConfigurationClasses();
+        if (configurationClasses == null) {
+            configurationClasses = DEFAULT_CONFIGURATION_CLASSES;
+        }
+        configurationClasses = configurationClasses.clone();
+        for (int i = 0; i < configurationClasses.length; i++) {
+            if (TagLibConfiguration.class.getName().equals(configurationClasses[i])) {
+                configurationClasses[i] = IndexedTagLibConfiguration.class.getName();
+            }
+        }
+        webAppContext.setConfigurationClasses(configurationClasses);
+        webAppContext.setAttribute(ATTRIBUTE_NAME, this);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.AbstractConnector;
+import org.mortbay.jetty.Connector;
+import org.mortbay.jetty.Server;
+import org.mortbay.thread.QueuedThreadPool;
+import org.mortbay.thread.ThreadPool;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live metrics of the server: request throughput, latency percentiles (see {@link LatencyHistogram}), responses by
+ * status class, thread pool saturation, open connections (of the {@link MeteredSelectChannelConnector}s, or of the
+ * connectors with "statsOn") and JVM memory / GC. Requests are recorded by {@link RequestMetricsFilter} with atomic
+ * counters only, everything else is read when metrics are requested (see {@link #toJSON()} and
+ * {@link #toPrometheus()}).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ServerMetrics {
+
+    private static final int RATE_WINDOW = 60;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final Server server;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicLongArray responsesByClass = new AtomicLongArray(5);
+    // number of requests completed in each of the last RATE_WINDOW seconds (slot = second % RATE_WINDOW)
+    private final AtomicLongArray requestsBySlot = new AtomicLongArray(RATE_WINDOW);
+    private final AtomicLongArray secondsBySlot = new AtomicLongArray(RATE_WINDOW);
+    private volatile long startedAt = System.currentTimeMillis() / 1000;
+
+    public ServerMetrics(Server server) {
+        this.server = server;
+    }
+
+    void requestStarted() {
+        activeRequests.incrementAndGet();
+    }
+
+    /**
+     * Undoes {@link #requestStarted()} of the request which is going to be dispatched once again.
+     */
+    void requestSuspended() {
+        activeRequests.decrementAndGet();
+    }
+
+    /**
+     * @param durationInNanos time it took to handle the request
+     * @param status response status (anything but 1xx..5xx is counted as a request but not as a response)
+     */
+    void requestCompleted(long durationInNanos, int status) {
+        activeRequests.decrementAndGet();
+        latencies.record(durationInNanos / 1000);
+        int statusClass = status / 100 - 1;
+        if (statusClass >= 0 && statusClass < 5) {
+            responsesByClass.incrementAndGet(statusClass);
+        }
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % RATE_WINDOW);
+        long slotSecond = secondsBySlot.get(slot);
+        // slot is taken over by the first request of the new second (counts of the concurrent ones may get lost)
+        if (slotSecond != second && secondsBySlot.compareAndSet(slot, slotSecond, second)) {
+            requestsBySlot.set(slot, 0);
+        }
+        requestsBySlot.incrementAndGet(slot);
+    }
+
+    /**
+     * Discards everything recorded so far (e.g. warm-up requests).
+     */
+    public void reset() {
+        latencies.reset();
+        for (int i = 0; i < 5; i++) {
+            responsesByClass.set(i, 0);
+        }
+        for (int i = 0; i < RATE_WINDOW; i++) {
+            requestsBySlot.set(i, 0);
+            secondsBySlot.set(i, 0);
+        }
+        startedAt = System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * @return average number of requests per second over the last (complete) {@link #RATE_WINDOW} seconds
+     */
+    private double getRequestRate() {
+        long currentSecond = System.currentTimeMillis() / 1000;
+        long window = Math.min(RATE_WINDOW, currentSecond - startedAt);
+        if (window <= 0) {
+            return 0;
+        }
+        long requests = 0;
+        for (int i = 0; i < RATE_WINDOW; i++) {
+            long second = secondsBySlot.get(i);
+            if (second < currentSecond && second >= currentSecond - window) {
+                requests += requestsBySlot.get(i);
+            }
+        }
+        return (double) requests / window;
+    }
+
+    /**
+     * @return {"requests":{"total":N,"active":N,"ratePerSecond":N,"responses":{"1xx":N,...}},
+     * "latencyMs":{"mean":N,"p50":N,"p90":N,"p99":N,"p999":N,"max":N},
+     * "threadPools":[{"name":"...","threads":N,"busy":N,"idle":N,"queued":N,"maxThreads":N}],
+     * "connectors":[{"name":"host:port","open":N,"accepted":N}],
+     * "jvm":{"heap":{"used":N,"committed":N,"max":N},"nonHeap":{...},"gc":[{"name":"...","count":N,"timeMs":N}]}}
+     */
+    public String toJSON() {
+        LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+        StringBuilder result = new StringBuilder();
+        result.append("{\"requests\":{\"total\":").append(snapshot.getCount()).
+                append(",\"active\":").append(activeRequests.get()).
+                append(",\"ratePerSecond\":").append(round(getRequestRate())).
+                append(",\"responses\":{");
+        for (int i = 0; i < 5; i++) {
+            result.append(i == 0 ? "" : ",").append("\"").append(i + 1).append("xx\":").
+                    append(responsesByClass.get(i));
+        }
+        result.append("}},\"latencyMs\":{\"mean\":").append(snapshot.getCount() == 0 ? 0 :
+                round(snapshot.getSum() / 1000.0 / snapshot.getCount()));
+        for (int i = 0; i < QUANTILES.length; i++) {
+            result.append(",\"").append(QUANTILE_NAMES[i]).append("\":").
+                    append(snapshot.getValueAt(QUANTILES[i]) / 1000.0);
+        }
+        result.append(",\"max\":").append(snapshot.getMax() / 1000.0).append("},\"threadPools\":[");
+        List<QueuedThreadPool> threadPools = getThreadPools();
+        for (int i = 0; i < threadPools.size(); i++) {
+            QueuedThreadPool threadPool = threadPools.get(i);
+            result.append(i == 0 ? "" : ",").append("{\"name\":\"").append(escape(threadPool.getName())).
+                    append("\",\"threads\":").append(threadPool.getThreads()).
+                    append(",\"busy\":").append(threadPool.getThreads() - threadPool.getIdleThreads()).
+                    append(",\"idle\":").append(threadPool.getIdleThreads()).
+                    append(",\"queued\":").append(threadPool.getQueueSize()).
+                    append(",\"maxThreads\":").append(threadPool.getMaxThreads()).append("}");
+        }
+        result.append("],\"connectors\":[");
+        boolean first = true;
+        for (Connector connector : server.getConnectors()) {
+            long[] connections = getConnections(connector);
+            if (connections != null) {
+                result.append(first ? "" : ",").append("{\"name\":\"").append(escape(connector.getName())).
+                        append("\",\"open\":").append(connections[0]).
+                        append(",\"accepted\":").append(connections[1]).append("}");
+                first = false;
+            }
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        result.append("],\"jvm\":{\"heap\":").append(toJSON(heap)).append(",\"nonHeap\":").append(toJSON(nonHeap)).
+                append(",\"gc\":[");
+        first = true;
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result.append(first ? "" : ",").append("{\"name\":\"").append(escape(garbageCollector.getName())).
+                    append("\",\"count\":").append(garbageCollector.getCollectionCount()).
+                    append(",\"timeMs\":").append(garbageCollector.getCollectionTime()).append("}");
+            first = false;
+        }
+        return result.append("]}}").toString();
+    }
+
+    private static String toJSON(MemoryUsage memoryUsage) {
+        return String.format("{\"used\":%s,\"committed\":%s,\"max\":%s}", memoryUsage.getUsed(),
+                memoryUsage.getCommitted(), memoryUsage.getMax());
+    }
+
+    /**
+     * @return metrics in Prometheus text exposition format (version 0.0.4)
+     */
+    public String toPrometheus() {
+        LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+        StringBuilder result = new StringBuilder();
+        appendHeader(result, "jwarpack_requests_total", "counter", "Completed requests");
+        result.append("jwarpack_requests_total ").append(snapshot.getCount()).append('\n');
+        appendHeader(result, "jwarpack_requests_active", "gauge", "Requests being handled");
+        result.append("jwarpack_requests_active ").append(activeRequests.get()).append('\n');
+        appendHeader(result, "jwarpack_request_rate", "gauge", "Requests per second (over the last minute)");
+        result.append("jwarpack_request_rate ").append(round(getRequestRate())).append('\n');
+        appendHeader(result, "jwarpack_responses_total", "counter", "Responses by status class");
+        for (int i = 0; i < 5; i++) {
+            result.append("jwarpack_responses_total{code=\"").append(i + 1).append("xx\"} ").
+                    append(responsesByClass.get(i)).append('\n');
+        }
+        appendHeader(result, "jwarpack_request_duration_seconds", "summary", "Request latency");
+        for (double quantile : QUANTILES) {
+            result.append("jwarpack_request_duration_seconds{quantile=\"").append(quantile).append("\"} ").
+                    append(snapshot.getValueAt(quantile) / 1e6).append('\n');
+        }
+        result.append("jwarpack_request_duration_seconds_sum ").append(snapshot.getSum() / 1e6).append('\n');
+        result.append("jwarpack_request_duration_seconds_count ").append(snapshot.getCount()).append('\n');
+        appendHeader(result, "jwarpack_request_duration_max_seconds", "gauge", "Longest request");
+        result.append("jwarpack_request_duration_max_seconds ").append(snapshot.getMax() / 1e6).append('\n');
+        List<QueuedThreadPool> threadPools = getThreadPools();
+        appendHeader(result, "jwarpack_threadpool_threads", "gauge", "Threads of the pool");
+        for (QueuedThreadPool threadPool : threadPools) {
+            appendSample(result, "jwarpack_threadpool_threads", "pool", threadPool.getName(),
+                    threadPool.getThreads());
+        }
+        appendHeader(result, "jwarpack_threadpool_busy_threads", "gauge", "Threads of the pool running a job");
+        for (QueuedThreadPool threadPool : threadPools) {
+            appendSample(result, "jwarpack_threadpool_busy_threads", "pool", threadPool.getName(),
+                    threadPool.getThreads() - threadPool.getIdleThreads());
+        }
+        appendHeader(result, "jwarpack_threadpool_queued_jobs", "gauge", "Jobs waiting for a thread");
+        for (QueuedThreadPool threadPool : threadPools) {
+            appendSample(result, "jwarpack_threadpool_queued_jobs", "pool", threadPool.getName(),
+                    threadPool.getQueueSize());
+        }
+        appendHeader(result, "jwarpack_threadpool_max_threads", "gauge", "Maximum number of threads of the pool");
+        for (QueuedThreadPool threadPool : threadPools) {
+            appendSample(result, "jwarpack_threadpool_max_threads", "pool", threadPool.getName(),
+                    threadPool.getMaxThreads());
+        }
+        StringBuilder openConnections = new StringBuilder();
+        StringBuilder acceptedConnections = new StringBuilder();
+        for (Connector connector : server.getConnectors()) {
+            long[] connections = getConnections(connector);
+            if (connections != null) {
+                appendSample(openConnections, "jwarpack_connections_open", "connector", connector.getName(),
+                        connections[0]);
+                appendSample(acceptedConnections, "jwarpack_connections_accepted_total", "connector",
+                        connector.getName(), connections[1]);
+            }
+        }
+        appendHeader(result, "jwarpack_connections_open", "gauge", "Open connections");
+        result.append(openConnections);
+        appendHeader(result, "jwarpack_connections_accepted_total", "counter", "Accepted connections");
+        result.append(acceptedConnections);
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        appendHeader(result, "jvm_memory_used_bytes", "gauge", "Used memory");
+        appendSample(result, "jvm_memory_used_bytes", "area", "heap", heap.getUsed());
+        appendSample(result, "jvm_memory_used_bytes", "area", "nonheap", nonHeap.getUsed());
+        appendHeader(result, "jvm_memory_committed_bytes", "gauge", "Committed memory");
+        appendSample(result, "jvm_memory_committed_bytes", "area", "heap", heap.getCommitted());
+        appendSample(result, "jvm_memory_committed_bytes", "area", "nonheap", nonHeap.getCommitted());
+        appendHeader(result, "jvm_memory_max_bytes", "gauge", "Maximum memory (-1 if undefined)");
+        appendSample(result, "jvm_memory_max_bytes", "area", "heap", heap.getMax());
+        appendSample(result, "jvm_memory_max_bytes", "area", "nonheap", nonHeap.getMax());
+        List<GarbageCollectorMXBean> garbageCollectors = ManagementFactory.getGarbageCollectorMXBeans();
+        appendHeader(result, "jvm_gc_collections_total", "counter", "Garbage collections");
+        for (GarbageCollectorMXBean garbageCollector : garbageCollectors) {
+            appendSample(result, "jvm_gc_collections_total", "gc", garbageCollector.getName(),
+                    garbageCollector.getCollectionCount());
+        }
+        appendHeader(result, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection");
+        for (GarbageCollectorMXBean garbageCollector : garbageCollectors) {
+            result.append("jvm_gc_collection_seconds_total{gc=\"").append(escape(garbageCollector.getName())).
+                    append("\"} ").append(garbageCollector.getCollectionTime() / 1000.0).append('\n');
+        }
+        return result.toString();
+    }
+
+    private static void appendHeader(StringBuilder result, String name, String type, String help) {
+        result.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        result.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendSample(StringBuilder result, String name, String label, String labelValue,
+                                     long value) {
+        result.append(name).append('{').append(label).append("=\"").append(escape(labelValue)).append("\"} ").
+                append(value).append('\n');
+    }
+
+    /**
+     * @return distinct (started) {@link QueuedThreadPool}s of the server and its connectors
+     */
+    private List<QueuedThreadPool> getThreadPools() {
+        List<QueuedThreadPool> result = new ArrayList<QueuedThreadPool>();
+        addThreadPool(result, server.getThreadPool());
+        for (Connector connector : server.getConnectors()) {
+            if (connector instanceof AbstractConnector) {
+                addThreadPool(result, ((AbstractConnector) connector).getThreadPool());
+            }
+        }
+        return result;
+    }
+
+    private static void addThreadPool(List<QueuedThreadPool> threadPools, ThreadPool threadPool) {
+        // QueuedThreadPool can't be asked for the number of threads until it's started
+        if (threadPool instanceof QueuedThreadPool && ((QueuedThreadPool) threadPool).isStarted()) {
+            for (QueuedThreadPool queuedThreadPool : threadPools) {
+                if (queuedThreadPool == threadPool) {
+                    return;
+                }
+            }
+            threadPools.add((QueuedThreadPool) threadPool);
+        }
+    }
+
+    /**
+     * @return {open, accepted} connections, null if connector doesn't keep track of them
+     */
+    private static long[] getConnections(Connector connector) {
+        if (connector instanceof MeteredSelectChannelConnector) {
+            MeteredSelectChannelConnector meteredConnector = (MeteredSelectChannelConnector) connector;
+            return new long[] {meteredConnector.getOpenConnections(), meteredConnector.getAcceptedConnections()};
+        }
+        if (connector.getStatsOn()) {
+            return new long[] {connector.getConnectionsOpen(), connector.getConnections() +
+                    connector.getConnectionsOpen()};
+        }
+        return null;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
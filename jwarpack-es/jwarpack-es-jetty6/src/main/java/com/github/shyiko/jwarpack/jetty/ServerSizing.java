@@ -0,0 +1,338 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thread pool / connector settings derived from the resources available to the JVM, i.e. number of processors and
+ * memory, taking cgroup (v1 and v2) CPU quota and memory limit into account (as older JVMs do not). Cgroup of the
+ * process is looked up in /proc/self/cgroup and /proc/self/mountinfo, so that nested cgroups (e.g. systemd services,
+ * containers without cgroup namespace) are covered too.
+ * <p/>
+ * Roughly, 50 threads per CPU (within 50..400, and no more than fits into half of the memory left outside of the
+ * heap, at 1 MB per thread stack), an acceptor per 8 CPUs (1..4) and 10 low-resources connections per MB of heap
+ * (500..20000). Response buffers are halved if heap is smaller than 256 MB.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ServerSizing {
+
+    private static final long MB = 1024 * 1024;
+    private static final long SMALL_HEAP = 256 * MB;
+    /**
+     * Values above this are what cgroup v1 reports for "no limit".
+     */
+    private static final long UNLIMITED = Long.MAX_VALUE / 2;
+
+    private final int processors;
+    private final long memoryLimit;
+    private final long maxHeap;
+
+    public ServerSizing(int processors, long memoryLimit, long maxHeap) {
+        this.processors = Math.max(1, processors);
+        this.memoryLimit = memoryLimit;
+        this.maxHeap = maxHeap;
+    }
+
+    public static ServerSizing detect() {
+        return detect(new File("/"), Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * @param root file system root, under which /proc/self/cgroup, /proc/self/mountinfo and cgroup mount points are
+     * looked up (exposed for testing)
+     */
+    static ServerSizing detect(File root, int processors, long maxHeap) {
+        List<String> cgroups = readLines(new File(root, "proc/self/cgroup"));
+        List<String> mounts = readLines(new File(root, "proc/self/mountinfo"));
+        int cpuLimit = getCpuLimit(root, cgroups, mounts);
+        if (cpuLimit > 0) {
+            processors = Math.min(processors, cpuLimit);
+        }
+        return new ServerSizing(processors, getMemoryLimit(root, cgroups, mounts), maxHeap);
+    }
+
+    /**
+     * @return lowest CPU quota (rounded up to whole CPUs) of the process's cgroup and its ancestors, -1 if there is
+     * none
+     */
+    private static int getCpuLimit(File root, List<String> cgroups, List<String> mounts) {
+        int result = -1;
+        List<File> directories = findCgroupDirectories(root, cgroups, mounts, null);
+        if (containsFile(directories, "cpu.max")) {
+            for (File directory : directories) {
+                result = min(result, parseCpuMax(readFirstLine(new File(directory, "cpu.max"))));
+            }
+            return result;
+        }
+        for (File directory : findCgroupDirectories(root, cgroups, mounts, "cpu")) {
+            result = min(result, parseCpuQuota(readFirstLine(new File(directory, "cpu.cfs_quota_us")),
+                    readFirstLine(new File(directory, "cpu.cfs_period_us"))));
+        }
+        return result;
+    }
+
+    /**
+     * @param cpuMax content of the cgroup v2 cpu.max ("&lt;quota|max&gt; &lt;period&gt;"), null if there is no such
+     * file
+     * @return CPU quota rounded up to whole CPUs, -1 if there is none
+     */
+    static int parseCpuMax(String cpuMax) {
+        if (cpuMax == null) {
+            return -1;
+        }
+        String[] values = cpuMax.trim().split("\\s+");
+        if ("max".equals(values[0]) || values.length < 2) {
+            return -1;
+        }
+        return parseCpuQuota(values[0], values[1]);
+    }
+
+    /**
+     * @param quota content of the cgroup v1 cpu.cfs_quota_us (-1 if there is no quota), null if there is no such file
+     * @param period content of the cgroup v1 cpu.cfs_period_us, null if there is no such file
+     * @return CPU quota rounded up to whole CPUs, -1 if there is none
+     */
+    static int parseCpuQuota(String quota, String period) {
+        long quotaValue = parseLong(quota), periodValue = parseLong(period);
+        if (quotaValue <= 0 || periodValue <= 0) {
+            return -1;
+        }
+        return (int) Math.max(1, (quotaValue + periodValue - 1) / periodValue);
+    }
+
+    /**
+     * @return lowest memory limit (in bytes) of the process's cgroup and its ancestors, -1 if there is none
+     */
+    private static long getMemoryLimit(File root, List<String> cgroups, List<String> mounts) {
+        long result = -1;
+        List<File> directories = findCgroupDirectories(root, cgroups, mounts, null);
+        if (containsFile(directories, "memory.max")) {
+            for (File directory : directories) {
+                result = min(result, parseMemoryLimit(readFirstLine(new File(directory, "memory.max"))));
+            }
+            return result;
+        }
+        for (File directory : findCgroupDirectories(root, cgroups, mounts, "memory")) {
+            result = min(result, parseMemoryLimit(readFirstLine(new File(directory, "memory.limit_in_bytes"))));
+        }
+        return result;
+    }
+
+    /**
+     * Limits may be set on any level of the hierarchy (e.g. on systemd slice or Kubernetes pod rather than on the
+     * cgroup process belongs to), hence the ancestors.
+     *
+     * @param cgroups lines of /proc/self/cgroup ("&lt;hierarchy ID&gt;:&lt;controllers&gt;:&lt;path&gt;")
+     * @param mounts lines of /proc/self/mountinfo
+     * @param controller cgroup v1 controller (e.g. "cpu"), null for cgroup v2 (unified hierarchy)
+     * @return directory of the process's cgroup followed by the ones of its ancestors (up to the mount point of the
+     * hierarchy), empty list if controller/hierarchy is not mounted
+     */
+    static List<File> findCgroupDirectories(File root, List<String> cgroups, List<String> mounts,
+                                            String controller) {
+        String path = null;
+        for (String line : cgroups) {
+            String[] fields = line.split(":", 3);
+            if (fields.length == 3 && (controller == null ? "0".equals(fields[0]) && fields[1].isEmpty() :
+                    Arrays.asList(fields[1].split(",")).contains(controller))) {
+                path = fields[2];
+                break;
+            }
+        }
+        if (path == null) {
+            return Collections.emptyList();
+        }
+        for (String line : mounts) {
+            // <ID> <parent ID> <major:minor> <root> <mount point> <options> [<optional fields>] - <type> <source>
+            // <super options>
+            List<String> fields = Arrays.asList(line.split(" "));
+            int separator = fields.indexOf("-");
+            if (separator < 6 || fields.size() < separator + 4) {
+                continue;
+            }
+            String type = fields.get(separator + 1);
+            if (controller == null ? !"cgroup2".equals(type) : !"cgroup".equals(type) ||
+                    !Arrays.asList(fields.get(separator + 3).split(",")).contains(controller)) {
+                continue;
+            }
+            String mountRoot = unescape(fields.get(3));
+            File mountPoint = new File(root, unescape(fields.get(4)));
+            String relativePath;
+            if ("/".equals(mountRoot)) {
+                relativePath = path;
+            } else
+            if (path.equals(mountRoot) || path.startsWith(mountRoot + "/")) {
+                // non-namespaced container, which sees its own cgroup only (mounted as the root of hierarchy)
+                relativePath = path.substring(mountRoot.length());
+            } else {
+                // cgroup namespace, in which process's cgroup is the root
+                relativePath = "";
+            }
+            List<File> result = new ArrayList<File>();
+            for (File directory = new File(mountPoint, relativePath); ; directory = directory.getParentFile()) {
+                result.add(directory);
+                if (directory.equals(mountPoint) || directory.getParentFile() == null) {
+                    break;
+                }
+            }
+            return result;
+        }
+        return Collections.emptyList();
+    }
+
+    private static boolean containsFile(List<File> directories, String name) {
+        for (File directory : directories) {
+            if (new File(directory, name).isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return lower of the limits, where -1 stands for "no limit"
+     */
+    private static int min(int limit, int anotherLimit) {
+        return limit < 0 ? anotherLimit : anotherLimit < 0 ? limit : Math.min(limit, anotherLimit);
+    }
+
+    private static long min(long limit, long anotherLimit) {
+        return limit < 0 ? anotherLimit : anotherLimit < 0 ? limit : Math.min(limit, anotherLimit);
+    }
+
+    /**
+     * @return mountinfo field with octal escapes (e.g. \040 for space) replaced
+     */
+    private static String unescape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 3 < value.length() && value.substring(i + 1, i + 4).matches("[0-7]{3}")) {
+                result.append((char) Integer.parseInt(value.substring(i + 1, i + 4), 8));
+                i += 3;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * @param value content of the cgroup v2 memory.max or v1 memory.limit_in_bytes, null if there is no such file
+     * @return memory limit in bytes, -1 if there is none
+     */
+    static long parseMemoryLimit(String value) {
+        long result = parseLong(value);
+        return result <= 0 || result > UNLIMITED ? -1 : result;
+    }
+
+    private static String readFirstLine(File file) {
+        List<String> lines = readLines(file);
+        return lines.isEmpty() ? null : lines.get(0);
+    }
+
+    /**
+     * @return lines of the file, empty list if there is no such file (or it cannot be read)
+     */
+    private static List<String> readLines(File file) {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>();
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    result.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+        return result;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value == null ? -1 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            // e.g. "max"
+            return -1;
+        }
+    }
+
+    public int getProcessors() {
+        return processors;
+    }
+
+    public int getMaxThreads() {
+        int result = clamp(50 * processors, 50, 400);
+        if (memoryLimit > 0) {
+            long threadsFittingIntoMemory = (memoryLimit - maxHeap) / 2 / MB;
+            result = (int) Math.max(20, Math.min(result, threadsFittingIntoMemory));
+        }
+        return result;
+    }
+
+    public int getMinThreads() {
+        return Math.min(getMaxThreads(), clamp(2 * processors, 4, 20));
+    }
+
+    public int getLowThreads() {
+        return Math.max(5, getMaxThreads() / 10);
+    }
+
+    public int getAcceptors() {
+        return clamp(processors / 8, 1, 4);
+    }
+
+    public int getLowResourcesConnections() {
+        return (int) clamp(maxHeap / MB * 10, 500, 20000);
+    }
+
+    /**
+     * @param defaultSize connector's default response buffer size
+     */
+    public int getResponseBufferSize(int defaultSize) {
+        return maxHeap < SMALL_HEAP ? defaultSize / 2 : defaultSize;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s CPU(s), %s memory limit, %s MB heap", processors,
+                memoryLimit > 0 ? (memoryLimit / MB) + " MB" : "no", maxHeap / MB);
+    }
+}
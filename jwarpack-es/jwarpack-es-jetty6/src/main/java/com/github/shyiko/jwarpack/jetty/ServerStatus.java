@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+/**
+ * Status reported by the {@link MonitoringServer}. Traffic should only be sent to the server once it's
+ * {@link #READY}.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public enum ServerStatus {
+
+    /**
+     * Server (and web application) is being started, connectors are closed.
+     */
+    STARTING,
+    /**
+     * Server is started but connectors are still closed while {@link WarmUp} is in progress.
+     */
+    WARMING,
+    /**
+     * Connectors are open.
+     */
+    READY
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+/**
+ * Stages of the server startup (see {@link StartupTimings}).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public enum StartupPhase {
+
+    /**
+     * From JVM start to the launcher's main method (JVM initialization, loading launcher classes).
+     */
+    LAUNCHING_JVM,
+    /**
+     * Setting up jetty.home and cleaning up the work directory.
+     */
+    PREPARING_ENVIRONMENT,
+    /**
+     * Parsing jetty.xml and creating server (XmlConfiguration#configure).
+     */
+    CONFIGURING_SERVER,
+    /**
+     * Unpacking web application into the extraction cache (only if it's not there already).
+     */
+    EXTRACTING_APPLICATION,
+    /**
+     * Creating web application context (reading scan index, if any).
+     */
+    DEPLOYING_APPLICATION,
+    /**
+     * Starting monitoring server.
+     */
+    STARTING_MONITORING,
+    /**
+     * Starting server, which includes web application initialization (web.xml, TLDs, listeners, servlets).
+     */
+    STARTING_SERVER,
+    /**
+     * Replaying requests before connectors are opened (only if {@link WarmUp} is configured).
+     */
+    WARMING_UP
+}
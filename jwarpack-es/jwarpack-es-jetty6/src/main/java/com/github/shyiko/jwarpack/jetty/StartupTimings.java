@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Time spent in each of the {@link StartupPhase}s. Phases are recorded one after another by the launcher and then
+ * read (concurrently) by the {@link MonitoringServer}.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class StartupTimings {
+
+    private final Map<StartupPhase, Long> phaseDurations = new EnumMap<StartupPhase, Long>(StartupPhase.class);
+    private StartupPhase phase;
+    private long phaseStartTime;
+    private boolean completed;
+
+    /**
+     * Records {@link StartupPhase#LAUNCHING_JVM} (time from JVM start till now).
+     */
+    public synchronized void recordJvmLaunch() {
+        phaseDurations.put(StartupPhase.LAUNCHING_JVM, Math.max(0, currentTimeMillis() - getJvmStartTime()));
+    }
+
+    /**
+     * Completes current phase (if any) and starts the given one.
+     */
+    public synchronized void start(StartupPhase phase) {
+        completePhase();
+        this.phase = phase;
+        this.phaseStartTime = currentTimeMillis();
+    }
+
+    /**
+     * Completes current phase (if any) and marks startup as completed.
+     */
+    public synchronized void complete() {
+        completePhase();
+        completed = true;
+    }
+
+    private void completePhase() {
+        if (phase != null) {
+            phaseDurations.put(phase, currentTimeMillis() - phaseStartTime);
+            phase = null;
+        }
+    }
+
+    long getJvmStartTime() {
+        return ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return sum of the durations of all the completed phases
+     */
+    public synchronized long getDuration() {
+        long result = 0;
+        for (Long duration : phaseDurations.values()) {
+            result += duration;
+        }
+        return result;
+    }
+
+    public synchronized Map<StartupPhase, Long> getPhaseDurations() {
+        return new EnumMap<StartupPhase, Long>(phaseDurations);
+    }
+
+    /**
+     * @return timings as JSON object, e.g. {"completed":true,"durationMs":1200,"phases":{"launching_jvm":150,...}}
+     */
+    public synchronized String toJSON() {
+        StringBuilder result = new StringBuilder();
+        result.append("{\"completed\":").append(completed).append(",\"durationMs\":").append(getDuration()).
+                append(",\"phases\":{");
+        String separator = "";
+        for (Map.Entry<StartupPhase, Long> entry : phaseDurations.entrySet()) {
+            result.append(separator).append('"').append(entry.getKey().name().toLowerCase()).append("\":").
+                    append(entry.getValue());
+            separator = ",";
+        }
+        return result.append("}}").toString();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("started in %s ms; ", getDuration()));
+        String separator = "";
+        for (Map.Entry<StartupPhase, Long> entry : phaseDurations.entrySet()) {
+            result.append(separator).append(entry.getKey().name().toLowerCase()).append(' ').
+                    append(entry.getValue()).append(" ms");
+            separator = ", ";
+        }
+        return result.toString();
+    }
+}
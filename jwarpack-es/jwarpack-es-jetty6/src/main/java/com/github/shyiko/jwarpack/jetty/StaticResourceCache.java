@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * In-memory cache of the static resources (see {@link StaticResourceCacheFilter}), bounded by the total size of the
+ * cached content. Once it's full, least recently ({@link Eviction#LRU}) or least frequently ({@link Eviction#LFU},
+ * ties are broken by recency) used resources are evicted to make room for the new ones.
+ * <p/>
+ * Configured through "staticCache.maxSize" (megabytes, cache is off unless it's set), "staticCache.maxFileSize"
+ * (kilobytes, 1024 by default, larger resources are never cached) and "staticCache.eviction" ("lru" (default) or
+ * "lfu"), any of which can be set in jwarpack.properties or as system properties.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class StaticResourceCache {
+
+    private static final String MAX_SIZE = "staticCache.maxSize";
+    private static final String MAX_FILE_SIZE = "staticCache.maxFileSize";
+    private static final String EVICTION = "staticCache.eviction";
+
+    public enum Eviction {
+        LRU, LFU
+    }
+
+    private final long maxSize;
+    private final long maxEntrySize;
+    private final Eviction eviction;
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+    private final TreeSet<Node> evictionOrder;
+    private long size;
+    private long accessSequence;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxSize maximum total size (in bytes) of the cached content
+     * @param maxEntrySize maximum size (in bytes) of a single resource (including its gzip-encoded variant)
+     * @param eviction eviction policy
+     */
+    public StaticResourceCache(long maxSize, long maxEntrySize, Eviction eviction) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.maxEntrySize = Math.min(maxEntrySize, maxSize);
+        this.eviction = eviction;
+        this.evictionOrder = new TreeSet<Node>(eviction == Eviction.LFU ? new Comparator<Node>() {
+
+            public int compare(Node o1, Node o2) {
+                return o1.frequency != o2.frequency ? (o1.frequency < o2.frequency ? -1 : 1) :
+                        compareAccessSequence(o1, o2);
+            }
+        } : new Comparator<Node>() {
+
+            public int compare(Node o1, Node o2) {
+                return compareAccessSequence(o1, o2);
+            }
+        });
+    }
+
+    private static int compareAccessSequence(Node o1, Node o2) {
+        return o1.lastAccess < o2.lastAccess ? -1 : (o1.lastAccess == o2.lastAccess ? 0 : 1);
+    }
+
+    /**
+     * @return cache configured in jwarpack.properties (or through system properties), null if there is none
+     * @throws IllegalArgumentException if any of the settings is malformed
+     */
+    public static StaticResourceCache fromBundle() {
+        long maxSize = parseLong(MAX_SIZE, JWarPackBundle.get(MAX_SIZE, "0"));
+        if (maxSize <= 0) {
+            return null;
+        }
+        long maxFileSize = parseLong(MAX_FILE_SIZE, JWarPackBundle.get(MAX_FILE_SIZE, "1024"));
+        String eviction = JWarPackBundle.get(EVICTION, "lru").trim();
+        try {
+            return new StaticResourceCache(maxSize * 1024 * 1024, maxFileSize * 1024,
+                    Eviction.valueOf(eviction.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("%s must be either lru or lfu (got \"%s\")",
+                    EVICTION, eviction));
+        }
+    }
+
+    private static long parseLong(String key, String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s must be a number (got \"%s\")", key, value));
+        }
+    }
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * @param path path of the resource (relative to the context root)
+     * @return cached resource or null if there is none (in which case miss is recorded)
+     */
+    public synchronized CachedResource get(String path) {
+        Node node = nodes.get(path);
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        evictionOrder.remove(node);
+        node.frequency++;
+        node.lastAccess = ++accessSequence;
+        evictionOrder.add(node);
+        return node.resource;
+    }
+
+    /**
+     * @param path path of the resource (relative to the context root)
+     * @param resource resource to cache. Resources larger than {@link #getMaxEntrySize()} are ignored
+     */
+    public synchronized void put(String path, CachedResource resource) {
+        long resourceSize = resource.getSize();
+        if (resourceSize > maxEntrySize) {
+            return;
+        }
+        Node previousNode = nodes.remove(path);
+        if (previousNode != null) {
+            evictionOrder.remove(previousNode);
+            size -= previousNode.resource.getSize();
+        }
+        while (size + resourceSize > maxSize && !evictionOrder.isEmpty()) {
+            Node evictedNode = evictionOrder.pollFirst();
+            nodes.remove(evictedNode.path);
+            size -= evictedNode.resource.getSize();
+            evictions++;
+        }
+        Node node = new Node(path, resource);
+        node.lastAccess = ++accessSequence;
+        nodes.put(path, node);
+        evictionOrder.add(node);
+        size += resourceSize;
+    }
+
+    /**
+     * @return {"entries":N,"sizeBytes":N,"maxSizeBytes":N,"eviction":"lru|lfu","hits":N,"misses":N,"evictions":N}
+     */
+    public synchronized String toJSON() {
+        return String.format("{\"entries\":%s,\"sizeBytes\":%s,\"maxSizeBytes\":%s,\"eviction\":\"%s\"," +
+                "\"hits\":%s,\"misses\":%s,\"evictions\":%s}", nodes.size(), size, maxSize,
+                eviction.name().toLowerCase(), hits, misses, evictions);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s MB (up to %s KB per resource, %s eviction)", maxSize / 1024 / 1024,
+                maxEntrySize / 1024, eviction);
+    }
+
+    /**
+     * Content of the static resource (along with its gzip-encoded variant, if there is one).
+     */
+    public static class CachedResource {
+
+        private final byte[] content;
+        private final byte[] gzipContent;
+        private final String contentType;
+        private final long lastModified;
+
+        public CachedResource(byte[] content, byte[] gzipContent, String contentType, long lastModified) {
+            this.content = content;
+            this.gzipContent = gzipContent;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * @return content of the &lt;path&gt;.gz (null if there is no such resource)
+         */
+        public byte[] getGzipContent() {
+            return gzipContent;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        long getSize() {
+            return content.length + (gzipContent == null ? 0 : gzipContent.length);
+        }
+    }
+
+    private static class Node {
+
+        private final String path;
+        private final CachedResource resource;
+        private long frequency = 1;
+        private long lastAccess;
+
+        private Node(String path, CachedResource resource) {
+            this.path = path;
+            this.resource = resource;
+        }
+    }
+}
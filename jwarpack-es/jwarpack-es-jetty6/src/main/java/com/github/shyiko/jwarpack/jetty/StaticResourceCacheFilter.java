@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import com.github.shyiko.jwarpack.jetty.StaticResourceCache.CachedResource;
+import org.mortbay.jetty.servlet.DefaultServlet;
+import org.mortbay.jetty.servlet.PathMap;
+import org.mortbay.jetty.servlet.ServletHolder;
+import org.mortbay.jetty.webapp.WebAppContext;
+import org.mortbay.resource.Resource;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Serves static resources (GET and HEAD requests to the paths mapped to {@link DefaultServlet}) out of the
+ * {@link StaticResourceCache}, so that cached resources are sent without touching the disk (or JAR), not even to
+ * check whether they have been modified. Resources are therefore expected to stay the same while server is running
+ * (which is the case for the application unpacked from (or served straight out of) the standalone JAR).
+ * <p/>
+ * &lt;path&gt;.gz (if there is one) is cached along with the resource and sent to the clients accepting gzip
+ * encoding (just like {@link DefaultServlet} does). Range requests, directories and resources which are missing or
+ * larger than {@link StaticResourceCache#getMaxEntrySize()} are left to the servlet.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class StaticResourceCacheFilter implements Filter {
+
+    private static final String DEFAULT_SERVLET_PREFIX = "org.mortbay.jetty.servlet.Default.";
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private final StaticResourceCache cache;
+    private final WebAppContext webAppContext;
+    private String cacheControl;
+
+    public StaticResourceCacheFilter(StaticResourceCache cache, WebAppContext webAppContext) {
+        this.cache = cache;
+        this.webAppContext = webAppContext;
+    }
+
+    /**
+     * Turns off {@link DefaultServlet}'s own cache (which checks modification time of the resource on each hit), as
+     * it would only hold a second copy of the resources.
+     */
+    @SuppressWarnings("unchecked") // Jetty 6 exposes init params as a raw Map
+    static void disableDefaultServletCache(WebAppContext webAppContext) {
+        webAppContext.getInitParams().put(DEFAULT_SERVLET_PREFIX + "maxCacheSize", "0");
+    }
+
+    public void init(FilterConfig filterConfig) throws ServletException {
+        cacheControl = filterConfig.getServletContext().getInitParameter(DEFAULT_SERVLET_PREFIX + "cacheControl");
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String method = httpRequest.getMethod();
+        boolean head = "HEAD".equals(method);
+        String pathInfo = httpRequest.getPathInfo();
+        String path = pathInfo == null ? httpRequest.getServletPath() : httpRequest.getServletPath() + pathInfo;
+        if (!head && !"GET".equals(method) || httpRequest.getHeader("Range") != null || !isCacheable(path)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        CachedResource resource = cache.get(path);
+        if (resource == null) {
+            resource = load(path);
+            if (resource == null) {
+                chain.doFilter(request, response);
+                return;
+            }
+            cache.put(path, resource);
+        }
+        send(httpRequest, (HttpServletResponse) response, resource, head);
+    }
+
+    private boolean isCacheable(String path) {
+        if (path.length() == 0 || path.endsWith("/")) {
+            return false;
+        }
+        String upperCasePath = path.toUpperCase();
+        if (upperCasePath.startsWith("/WEB-INF/") || upperCasePath.startsWith("/META-INF/")) {
+            return false;
+        }
+        PathMap.Entry entry = webAppContext.getServletHandler().getHolderEntry(path);
+        return entry != null &&
+            DefaultServlet.class.getName().equals(((ServletHolder) entry.getValue()).getClassName());
+    }
+
+    /**
+     * @return resource (null if it's missing, a directory or too large to be cached)
+     */
+    private CachedResource load(String path) throws IOException {
+        Resource resource = webAppContext.getResource(path);
+        if (resource == null || !resource.exists() || resource.isDirectory() ||
+            resource.length() > cache.getMaxEntrySize()) {
+            return null;
+        }
+        byte[] content = read(resource);
+        if (content == null) {
+            return null;
+        }
+        byte[] gzipContent = null;
+        Resource gzipResource = webAppContext.getResource(path + ".gz");
+        if (gzipResource != null && gzipResource.exists() && !gzipResource.isDirectory() &&
+            content.length + gzipResource.length() <= cache.getMaxEntrySize()) {
+            gzipContent = read(gzipResource);
+        }
+        String contentType = webAppContext.getServletContext().getMimeType(path);
+        return new CachedResource(content, gzipContent, contentType, resource.lastModified());
+    }
+
+    private static byte[] read(Resource resource) throws IOException {
+        long length = resource.length();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        byte[] result = new byte[(int) length];
+        InputStream inputStream = resource.getInputStream();
+        try {
+            int offset = 0;
+            while (offset < result.length) {
+                int count = inputStream.read(result, offset, result.length - offset);
+                if (count == -1) {
+                    return null;
+                }
+                offset += count;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return result;
+    }
+
+    private void send(HttpServletRequest request, HttpServletResponse response, CachedResource resource,
+                      boolean head) throws IOException {
+        byte[] gzipContent = resource.getGzipContent();
+        if (gzipContent != null && !response.containsHeader("Vary")) {
+            response.addHeader("Vary", ACCEPT_ENCODING);
+        }
+        long lastModified = resource.getLastModified();
+        if (lastModified > 0) {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            if (ifModifiedSince > -1 && lastModified / 1000 <= ifModifiedSince / 1000) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        if (resource.getContentType() != null) {
+            response.setContentType(resource.getContentType());
+        }
+        if (cacheControl != null) {
+            response.setHeader("Cache-Control", cacheControl);
+        }
+        response.setHeader("Accept-Ranges", "bytes");
+        byte[] content = resource.getContent();
+        String acceptEncoding = request.getHeader(ACCEPT_ENCODING);
+        if (gzipContent != null && acceptEncoding != null &&
+            PrecompressedContentFilter.acceptsGzip(acceptEncoding)) {
+            response.setHeader("Content-Encoding", "gzip");
+            content = gzipContent;
+        }
+        response.setContentLength(content.length);
+        if (!head) {
+            response.getOutputStream().write(content);
+        }
+    }
+
+    public void destroy() {
+    }
+}
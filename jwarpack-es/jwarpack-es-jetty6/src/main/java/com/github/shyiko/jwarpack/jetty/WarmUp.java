@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.LocalConnector;
+import org.mortbay.log.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays a list of requests against the application (through the {@link LocalConnector}, so that nothing goes over
+ * the network) before server starts accepting traffic. Requests are replayed in rounds (of at least
+ * {@link #MIN_REQUESTS_PER_ROUND} requests each) until p99 latency of the round settles (differs from the one of the
+ * previous round by less than 10% twice in a row), "warmup.maxRounds" (50 by default) rounds are done or
+ * "warmup.timeout" (60 seconds by default) expires (in the middle of the round, if need be), whichever comes first.
+ * <p/>
+ * Requests are taken from "warmup.requests" (comma-separated list of paths, e.g. "/,/login.jsp") and/or
+ * "warmup.file" (one "[&lt;method&gt; ]&lt;path&gt;" per line, lines starting with # are ignored), both of which can
+ * be set in jwarpack.properties or as system properties. Requests are sent without a body, so only GET and HEAD
+ * (the former being the default) are accepted.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class WarmUp {
+
+    private static final String REQUESTS = "warmup.requests";
+    private static final String FILE = "warmup.file";
+    private static final String MAX_ROUNDS = "warmup.maxRounds";
+    private static final String TIMEOUT = "warmup.timeout";
+    private static final int MIN_REQUESTS_PER_ROUND = 100;
+    private static final int MIN_ROUNDS = 3;
+    private static final double TOLERANCE = 0.1;
+
+    private final List<String> requests;
+    private final int maxRounds;
+    private final long timeoutInMillis;
+
+    public WarmUp(List<String> requests, int maxRounds, long timeoutInMillis) {
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("At least one request must be specified");
+        }
+        this.requests = requests;
+        this.maxRounds = maxRounds;
+        this.timeoutInMillis = timeoutInMillis;
+    }
+
+    /**
+     * @return warm-up configured in jwarpack.properties (or through system properties), null if there is none
+     * @throws IOException if warm-up file cannot be read
+     */
+    public static WarmUp fromBundle() throws IOException {
+        List<String> requests = new ArrayList<String>();
+        String paths = JWarPackBundle.get(REQUESTS);
+        if (paths != null) {
+            for (String path : paths.split(",")) {
+                path = path.trim();
+                if (!path.isEmpty()) {
+                    requests.add(toHttpRequest("GET", path));
+                }
+            }
+        }
+        String file = JWarPackBundle.get(FILE);
+        if (file != null) {
+            requests.addAll(readRequests(new File(file)));
+        }
+        if (requests.isEmpty()) {
+            return null;
+        }
+        return new WarmUp(requests, Integer.parseInt(JWarPackBundle.get(MAX_ROUNDS, "50")),
+                Long.parseLong(JWarPackBundle.get(TIMEOUT, "60")) * 1000);
+    }
+
+    /**
+     * @param file file with one "[&lt;method&gt; ]&lt;path&gt;" per line
+     * @return HTTP requests
+     * @throws IOException if file cannot be read
+     * @throws IllegalArgumentException if method of any of the requests is neither GET nor HEAD
+     */
+    static List<String> readRequests(File file) throws IOException {
+        List<String> result = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separatorIndex = line.indexOf(' ');
+                if (separatorIndex == -1) {
+                    result.add(toHttpRequest("GET", line));
+                    continue;
+                }
+                String method = line.substring(0, separatorIndex).toUpperCase();
+                if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                    throw new IllegalArgumentException(String.format("%s:%s: %s request cannot be replayed " +
+                            "(only GET and HEAD are supported)", file, lineNumber, method));
+                }
+                result.add(toHttpRequest(method, line.substring(separatorIndex + 1).trim()));
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    static String toHttpRequest(String method, String path) {
+        return method + " " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+    }
+
+    /**
+     * @param connector connector of the started server
+     * @return true if p99 latency settled, false if warm-up was cut short by either "warmup.maxRounds" or
+     * "warmup.timeout"
+     */
+    public boolean run(LocalConnector connector) {
+        int requestsPerRound = requests.size() * ((MIN_REQUESTS_PER_ROUND + requests.size() - 1) / requests.size());
+        long[] latencies = new long[requestsPerRound];
+        long deadline = System.currentTimeMillis() + timeoutInMillis;
+        long firstP99 = -1, previousP99 = -1;
+        int rounds = 0, failures = 0, settledRounds = 0;
+        boolean expired = false;
+        while (rounds < maxRounds && settledRounds < 2 && !expired) {
+            for (int i = 0; i < requestsPerRound; i++) {
+                if (System.currentTimeMillis() >= deadline) {
+                    expired = true;
+                    break;
+                }
+                long startTime = nanoTime();
+                if (!execute(connector, requests.get(i % requests.size()))) {
+                    failures++;
+                }
+                latencies[i] = nanoTime() - startTime;
+            }
+            if (expired) {
+                // incomplete round tells nothing about p99
+                break;
+            }
+            Arrays.sort(latencies);
+            long p99 = latencies[(int) Math.ceil(latencies.length * 0.99) - 1];
+            rounds++;
+            if (firstP99 == -1) {
+                firstP99 = p99;
+            }
+            if (rounds > MIN_ROUNDS && Math.abs(p99 - previousP99) < previousP99 * TOLERANCE) {
+                settledRounds++;
+            } else {
+                settledRounds = 0;
+            }
+            previousP99 = p99;
+        }
+        if (rounds == 0) {
+            Log.info(String.format("Warm-up stopped before the first round of %s requests was done (%s failed)",
+                    requestsPerRound, failures));
+        } else {
+            Log.info(String.format("Warm-up %s after %s rounds of %s requests (%s failed), p99 %.1f ms -> %.1f ms",
+                    settledRounds == 2 ? "settled" : "stopped", rounds, requestsPerRound, failures,
+                    firstP99 / 1e6, previousP99 / 1e6));
+        }
+        return settledRounds == 2;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} (source of the request latencies)
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return false if request failed (either with an exception or 5xx), true otherwise
+     */
+    private boolean execute(LocalConnector connector, String request) {
+        try {
+            // LocalConnector keeps appending to the same output otherwise
+            connector.reopen();
+            String response = connector.getResponses(request);
+            // "HTTP/1.1 200 OK..."
+            return response != null && response.length() > 9 && response.charAt(9) != '5';
+        } catch (Exception e) {
+            Log.debug(e);
+            return false;
+        }
+    }
+}
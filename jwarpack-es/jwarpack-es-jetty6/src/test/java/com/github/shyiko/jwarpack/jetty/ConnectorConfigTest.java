@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ConnectorConfigTest {
+
+    @Test
+    public void testNameHostAndPort() throws Exception {
+        System.setProperty("connector.admin-test.threads", "8");
+        System.setProperty("connector.admin-test.maxIdleTime", " 30000 ");
+        try {
+            ConnectorConfig config = ConnectorConfig.fromBundle(" admin-test@127.0.0.1:8081 ");
+            assertEquals(config.getName(), "admin-test");
+            assertEquals(config.getHost(), "127.0.0.1");
+            assertEquals(config.getPort(), 8081);
+            assertEquals(config.getThreads(), Integer.valueOf(8));
+            assertEquals(config.getMaxIdleTime(), Integer.valueOf(30000));
+            assertNull(config.getAcceptors());
+            assertNull(config.getLowResourcesConnections());
+            assertNull(config.getLowResourcesMaxIdleTime());
+            assertEquals(config.toString(), "admin-test@127.0.0.1:8081");
+        } finally {
+            System.clearProperty("connector.admin-test.threads");
+            System.clearProperty("connector.admin-test.maxIdleTime");
+        }
+    }
+
+    @Test
+    public void testIPv6Host() throws Exception {
+        ConnectorConfig config = ConnectorConfig.fromBundle("internal@[::1]:8082");
+        assertEquals(config.getHost(), "[::1]");
+        assertEquals(config.getPort(), 8082);
+        // port is whatever follows the last colon
+        config = ConnectorConfig.fromBundle("fe80::1:8083");
+        assertEquals(config.getHost(), "fe80::1");
+        assertEquals(config.getPort(), 8083);
+        assertNull(config.getName());
+    }
+
+    @Test
+    public void testPortOnly() throws Exception {
+        System.setProperty("connector.18084.acceptors", "2");
+        try {
+            ConnectorConfig config = ConnectorConfig.fromBundle("18084");
+            assertNull(config.getName());
+            assertNull(config.getHost());
+            assertEquals(config.getPort(), 18084);
+            // port is used as a name
+            assertEquals(config.getAcceptors(), Integer.valueOf(2));
+            assertEquals(config.toString(), "18084");
+            config = ConnectorConfig.fromBundle(":18085");
+            assertNull(config.getHost());
+            assertEquals(config.getPort(), 18085);
+        } finally {
+            System.clearProperty("connector.18084.acceptors");
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMissingPort() throws Exception {
+        ConnectorConfig.fromBundle("admin@127.0.0.1:");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMalformedPort() throws Exception {
+        ConnectorConfig.fromBundle("admin@localhost");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMalformedSetting() throws Exception {
+        System.setProperty("connector.malformed-test.lowResourcesConnections", "many");
+        try {
+            ConnectorConfig.fromBundle("malformed-test@8086");
+        } finally {
+            System.clearProperty("connector.malformed-test.lowResourcesConnections");
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.LocalConnector;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.servlet.FilterHolder;
+import org.mortbay.jetty.webapp.WebAppContext;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ETagFilterTest {
+
+    private static final String FUTURE = "If-Modified-Since: Fri, 01 Jan 2100 00:00:00 GMT";
+
+    private Server server;
+    private LocalConnector connector;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        File webAppDirectory = File.createTempFile("jwarpack-", "");
+        webAppDirectory.delete();
+        write(new File(webAppDirectory, "app.css"), "body {}");
+        write(new File(webAppDirectory, "app.css.gz"), "gzip");
+        write(new File(webAppDirectory, "app.0a1b2c.js"), "var a;");
+        write(new File(webAppDirectory, "other.css"), "body {}");
+        write(new File(webAppDirectory, "WEB-INF/jwarpack-etag.index"),
+                "aaa - /app.css\n" +
+                "bbb - /app.css.gz\n" +
+                "ccc immutable /app.0a1b2c.js\n");
+        server = new Server();
+        connector = new LocalConnector();
+        server.addConnector(connector);
+        WebAppContext webAppContext = new WebAppContext(webAppDirectory.getPath(), "/");
+        webAppContext.addFilter(new FilterHolder(new ETagFilter(webAppContext)), "/*", Handler.REQUEST);
+        server.addHandler(webAppContext);
+        server.start();
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        assertTrue(ETagFilter.matches("\"a\"", "\"a\""));
+        assertTrue(ETagFilter.matches("W/\"a\"", "\"a\""));
+        assertTrue(ETagFilter.matches("\"b\", W/\"a\"", "\"a\""));
+        assertTrue(ETagFilter.matches("\"b\",\"a\"", "\"a\""));
+        assertTrue(ETagFilter.matches("*", "\"a\""));
+        assertFalse(ETagFilter.matches("\"b\"", "\"a\""));
+        assertFalse(ETagFilter.matches("W/\"b\", \"c\"", "\"a\""));
+        // quotes are part of the ETag
+        assertFalse(ETagFilter.matches("a", "\"a\""));
+    }
+
+    @Test
+    public void testETagOfPlainContent() throws Exception {
+        String response = get("/app.css", null);
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        assertTrue(response.contains("ETag: \"aaa\""), response);
+        assertTrue(response.contains("Vary: Accept-Encoding"), response);
+        assertFalse(response.contains("Cache-Control"), response);
+        assertTrue(response.endsWith("body {}"), response);
+    }
+
+    @Test
+    public void testETagOfGzipEncodedContent() throws Exception {
+        String response = get("/app.css", "Accept-Encoding: gzip");
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        assertTrue(response.contains("ETag: \"bbb\""), response);
+        assertTrue(response.contains("Content-Encoding: gzip"), response);
+        assertTrue(response.endsWith("gzip"), response);
+    }
+
+    @Test
+    public void testRefusedGzipIsHiddenFromServlet() throws Exception {
+        String response = get("/app.css", "Accept-Encoding: gzip;q=0, deflate");
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        assertTrue(response.contains("ETag: \"aaa\""), response);
+        assertFalse(response.contains("Content-Encoding"), response);
+        assertTrue(response.endsWith("body {}"), response);
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        assertTrue(get("/app.css", "If-None-Match: \"aaa\"").startsWith("HTTP/1.1 304"));
+        assertTrue(get("/app.css", "If-None-Match: \"x\", W/\"aaa\"").startsWith("HTTP/1.1 304"));
+        assertTrue(get("/app.css", "If-None-Match: *").startsWith("HTTP/1.1 304"));
+        assertTrue(get("/app.css", "Accept-Encoding: gzip\r\nIf-None-Match: \"bbb\"").startsWith("HTTP/1.1 304"));
+        // ETag of the plain content doesn't match gzip-encoded one
+        String response = get("/app.css", "Accept-Encoding: gzip\r\nIf-None-Match: \"aaa\"");
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        assertTrue(response.contains("ETag: \"bbb\""), response);
+    }
+
+    @Test
+    public void testIfModifiedSinceIsIgnoredWhenETagDoesNotMatch() throws Exception {
+        assertTrue(get("/app.css", FUTURE).startsWith("HTTP/1.1 304"));
+        String response = get("/app.css", "If-None-Match: \"stale\"\r\n" + FUTURE);
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        assertTrue(response.endsWith("body {}"), response);
+    }
+
+    @Test
+    public void testImmutable() throws Exception {
+        String response = get("/app.0a1b2c.js", null);
+        assertTrue(response.contains("ETag: \"ccc\""), response);
+        assertTrue(response.contains("Cache-Control: public, max-age=31536000, immutable"), response);
+        assertFalse(response.contains("Vary"), response);
+    }
+
+    @Test
+    public void testResourceOutsideOfIndexIsNotAffected() throws Exception {
+        String response = get("/other.css", null);
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        assertFalse(response.contains("ETag"), response);
+        response = get("/missing.css", "If-None-Match: *");
+        assertTrue(response.startsWith("HTTP/1.1 404"), response);
+    }
+
+    private String get(String path, String headers) throws Exception {
+        // otherwise response is appended to the previous ones
+        connector.reopen();
+        return connector.getResponses("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n" +
+                (headers == null ? "" : headers + "\r\n") + "Connection: close\r\n\r\n");
+    }
+
+    private void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ExtractionCacheTest {
+
+    private static final long ENTRY_TIME = 1325376000000L;
+
+    @Test
+    public void testHashDependsOnContentOnly() throws Exception {
+        File cacheDirectory = createTempDirectory();
+        ExtractionCache cache = new ExtractionCache(cacheDirectory, Long.MAX_VALUE);
+        File directory = cache.extract(createJar("index.html", "<html/>"));
+        // same content written into a different file
+        assertEquals(cache.extract(createJar("index.html", "<html/>")), directory);
+        assertFalse(cache.extract(createJar("index.html", "<html></html>")).equals(directory));
+        assertFalse(cache.extract(createJar("home.html", "<html/>")).equals(directory));
+        assertEquals(new ExtractionCache(cacheDirectory, Long.MAX_VALUE).extract(createJar("index.html", "<html/>")),
+                directory);
+    }
+
+    @Test
+    public void testExtractReusesExistingDirectory() throws Exception {
+        File cacheDirectory = createTempDirectory();
+        ExtractionCache cache = new ExtractionCache(cacheDirectory, Long.MAX_VALUE);
+        File jar = createJar("index.html", "<html/>");
+        File directory = cache.extract(jar);
+        File file = new File(directory, "index.html");
+        assertEquals(file.length(), "<html/>".length());
+        assertEquals(file.lastModified(), ENTRY_TIME);
+        // would have been overwritten if JAR was unpacked again
+        assertTrue(file.delete());
+        assertTrue(directory.setLastModified(ENTRY_TIME));
+        assertEquals(cache.extract(jar), directory);
+        assertFalse(file.exists());
+        assertTrue(directory.lastModified() > ENTRY_TIME);
+        assertEquals(listDirectories(cacheDirectory), 1);
+    }
+
+    @Test
+    public void testCleanUpRemovesLeastRecentlyUsedDirectories() throws Exception {
+        File cacheDirectory = createTempDirectory();
+        File oldest = createDirectory(cacheDirectory, "oldest", 1000, ENTRY_TIME);
+        File older = createDirectory(cacheDirectory, "older", 1000, ENTRY_TIME + 1000);
+        File newer = createDirectory(cacheDirectory, "newer", 1000, ENTRY_TIME + 2000);
+        File current = createDirectory(cacheDirectory, "current", 1000, ENTRY_TIME);
+        File temporary = createDirectory(cacheDirectory, ".tmp-interrupted", 1000, ENTRY_TIME);
+        new ExtractionCache(cacheDirectory, 2500).cleanUp(current);
+        assertTrue(current.exists());
+        assertTrue(newer.exists());
+        assertFalse(older.exists());
+        assertFalse(oldest.exists());
+        assertFalse(temporary.exists());
+    }
+
+    @Test
+    public void testCleanUpKeepsDirectoriesInUse() throws Exception {
+        File cacheDirectory = createTempDirectory();
+        ExtractionCache cache = new ExtractionCache(cacheDirectory, 0);
+        File running = cache.extract(createJar("index.html", "<html/>"));
+        assertTrue(running.setLastModified(ENTRY_TIME));
+        File unused = createDirectory(cacheDirectory, "unused", 1000, ENTRY_TIME + 1000);
+        File current = cache.extract(createJar("index.html", "<html></html>"));
+        cache.cleanUp(current);
+        assertTrue(current.exists());
+        assertTrue(new File(running, "index.html").exists());
+        assertFalse(unused.exists());
+    }
+
+    private File createTempDirectory() throws IOException {
+        File result = File.createTempFile("jwarpack-", "");
+        assertTrue(result.delete() && result.mkdir());
+        return result;
+    }
+
+    private File createDirectory(File parent, String name, int size, long lastModified) throws IOException {
+        File result = new File(parent, name);
+        assertTrue(result.mkdir());
+        FileOutputStream outputStream = new FileOutputStream(new File(result, "content"));
+        try {
+            outputStream.write(new byte[size]);
+        } finally {
+            outputStream.close();
+        }
+        assertTrue(result.setLastModified(lastModified));
+        return result;
+    }
+
+    private File createJar(String entryName, String content) throws IOException {
+        File result = File.createTempFile("jwarpack-", ".jar");
+        result.deleteOnExit();
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(result));
+        try {
+            ZipEntry entry = new ZipEntry(entryName);
+            entry.setTime(ENTRY_TIME);
+            outputStream.putNextEntry(entry);
+            outputStream.write(content.getBytes("UTF-8"));
+            outputStream.closeEntry();
+        } finally {
+            outputStream.close();
+        }
+        return result;
+    }
+
+    private int listDirectories(File directory) {
+        int result = 0;
+        for (File file : directory.listFiles()) {
+            if (file.isDirectory()) {
+                result++;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.webapp.WebAppContext;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.EventListener;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class IndexedTagLibConfigurationTest {
+
+    @Test
+    public void testListenersOfIndexedAndNotIndexedJarsAreRegistered() throws Exception {
+        File webAppDirectory = File.createTempFile("jwarpack-", "");
+        webAppDirectory.delete();
+        File libDirectory = new File(webAppDirectory, "WEB-INF/lib");
+        libDirectory.mkdirs();
+        createJar(new File(libDirectory, "indexed.jar"), "META-INF/indexed.tld", IndexedListener.class,
+                "META-INF/ignored.tld", IgnoredListener.class);
+        createJar(new File(libDirectory, "not-indexed.jar"), "META-INF/not-indexed.tld", NotIndexedListener.class);
+        FileOutputStream outputStream = new FileOutputStream(new File(webAppDirectory,
+                "WEB-INF/jwarpack-scan.index"));
+        try {
+            // ignored.tld is left out on purpose, so that it's registered only if indexed.jar gets scanned
+            outputStream.write("indexed.jar=META-INF/indexed.tld\n".getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        WebAppContext webAppContext = new WebAppContext(webAppDirectory.getPath(), "/");
+        ScanIndex.read(webAppDirectory).applyTo(webAppContext);
+        assertListeners(webAppContext, IndexedListener.class, NotIndexedListener.class);
+    }
+
+    @Test
+    public void testListenersOfPackedApplicationAreRegistered() throws Exception {
+        File indexedJar = File.createTempFile("jwarpack-", ".jar");
+        createJar(indexedJar, "META-INF/indexed.tld", IndexedListener.class, "META-INF/ignored.tld",
+                IgnoredListener.class);
+        File notIndexedJar = File.createTempFile("jwarpack-", ".jar");
+        createJar(notIndexedJar, "META-INF/not-indexed.tld", NotIndexedListener.class);
+        File jar = File.createTempFile("jwarpack-", ".jar");
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            outputStream.putNextEntry(new ZipEntry("WEB-INF/lib/indexed.jar"));
+            outputStream.write(readFile(indexedJar));
+            outputStream.putNextEntry(new ZipEntry("WEB-INF/lib/not-indexed.jar"));
+            outputStream.write(readFile(notIndexedJar));
+            outputStream.putNextEntry(new ZipEntry("WEB-INF/jwarpack-scan.index"));
+            outputStream.write("indexed.jar=META-INF/indexed.tld\n".getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        try {
+            // same as JettyInstance#deployPacked
+            WebAppContext webAppContext = new WebAppContext(jar.getPath(), "/");
+            webAppContext.setExtractWAR(false);
+            PackedWebAppClassLoader classLoader = new PackedWebAppClassLoader(webAppContext, jar);
+            webAppContext.setClassLoader(classLoader);
+            ScanIndex.read(classLoader.getArchive()).applyTo(webAppContext);
+            assertListeners(webAppContext, IndexedListener.class, NotIndexedListener.class);
+        } finally {
+            indexedJar.delete();
+            notIndexedJar.delete();
+            jar.delete();
+        }
+    }
+
+    private void assertListeners(WebAppContext webAppContext, Class<?>... expectedListenerClasses)
+            throws Exception {
+        Server server = new Server();
+        server.addHandler(webAppContext);
+        server.start();
+        try {
+            Set<Class<?>> listenerClasses = new HashSet<Class<?>>();
+            for (EventListener listener : webAppContext.getEventListeners()) {
+                listenerClasses.add(listener.getClass());
+            }
+            assertEquals(listenerClasses, new HashSet<Class<?>>(Arrays.asList(expectedListenerClasses)));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                result.write(buffer, 0, length);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * @param tldNameListenerClassPairs TLD entry name followed by the class of the listener it declares
+     */
+    private void createJar(File file, Object... tldNameListenerClassPairs) throws IOException {
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < tldNameListenerClassPairs.length; i += 2) {
+                outputStream.putNextEntry(new ZipEntry((String) tldNameListenerClassPairs[i]));
+                outputStream.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                        "<taglib>\n" +
+                        "  <tlib-version>1.0</tlib-version>\n" +
+                        "  <short-name>test</short-name>\n" +
+                        "  <listener>\n" +
+                        "    <listener-class>" + ((Class<?>) tldNameListenerClassPairs[i + 1]).getName() +
+                        "</listener-class>\n" +
+                        "  </listener>\n" +
+                        "</taglib>\n").getBytes("UTF-8"));
+                outputStream.closeEntry();
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    public static class IndexedListener implements ServletContextListener {
+
+        public void contextInitialized(ServletContextEvent event) {}
+
+        public void contextDestroyed(ServletContextEvent event) {}
+    }
+
+    public static class IgnoredListener extends IndexedListener {
+    }
+
+    public static class NotIndexedListener extends IndexedListener {
+    }
+}
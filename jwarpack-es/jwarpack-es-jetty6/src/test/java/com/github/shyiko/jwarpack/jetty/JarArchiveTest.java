@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class JarArchiveTest {
+
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+
+    @Test
+    public void testReadDeflatedEntriesFollowedByDataDescriptor() throws Exception {
+        // same layout as the one ZipArchiveWriter emits for deflated entries (local header without crc/sizes,
+        // data, signed data descriptor)
+        byte[] library = createArchive(ZipEntry.DEFLATED, "Library.class", "library",
+                "large.txt", repeat("text", 10000));
+        JarArchive archive = new JarArchive("library.jar", ByteBuffer.wrap(library));
+        assertEquals(archive.getEntries().size(), 2);
+        JarArchive.Entry entry = archive.getEntry("large.txt");
+        assertFalse(entry.isStored());
+        assertEquals(entry.getSize(), 40000);
+        assertTrue((getLocalHeaderFlags(library, "large.txt") & DATA_DESCRIPTOR_FLAG) != 0);
+        assertEquals(new String(archive.read(entry), "UTF-8"), repeat("text", 10000));
+        assertEquals(readFully(archive.getInputStream(archive.getEntry("Library.class"))), "library");
+        assertNull(archive.getEntry("missing.txt"));
+    }
+
+    @Test
+    public void testOpenStoredAndDeflatedNestedArchives() throws Exception {
+        byte[] library = createArchive(ZipEntry.DEFLATED, "Library.class", "library",
+                "large.txt", repeat("text", 10000));
+        for (int method : new int[] {ZipEntry.STORED, ZipEntry.DEFLATED}) {
+            File war = File.createTempFile("jwarpack-", ".war");
+            war.deleteOnExit();
+            FileOutputStream outputStream = new FileOutputStream(war);
+            try {
+                outputStream.write(createArchive(method, "WEB-INF/web.xml", "<web-app/>",
+                        "WEB-INF/lib/library.jar", new String(library, "ISO-8859-1")));
+            } finally {
+                outputStream.close();
+            }
+            JarArchive archive = JarArchive.open(war);
+            assertEquals(new String(archive.read(archive.getEntry("WEB-INF/web.xml")), "UTF-8"), "<web-app/>");
+            JarArchive.Entry entry = archive.getEntry("WEB-INF/lib/library.jar");
+            assertEquals(entry.isStored(), method == ZipEntry.STORED);
+            JarArchive nestedArchive = archive.openNested(entry);
+            assertEquals(nestedArchive.getName(), war.getPath() + "!/WEB-INF/lib/library.jar");
+            assertEquals(new String(nestedArchive.read(nestedArchive.getEntry("large.txt")), "UTF-8"),
+                    repeat("text", 10000));
+            assertEquals(new String(nestedArchive.read(nestedArchive.getEntry("Library.class")), "UTF-8"),
+                    "library");
+        }
+    }
+
+    @Test(expectedExceptions = ZipException.class)
+    public void testZip64NumberOfEntriesIsRejected() throws Exception {
+        new JarArchive("zip64.jar", createEndOfCentralDirectory(0xFFFF, 0));
+    }
+
+    @Test(expectedExceptions = ZipException.class)
+    public void testZip64CentralDirectoryOffsetIsRejected() throws Exception {
+        new JarArchive("zip64.jar", createEndOfCentralDirectory(1, 0xFFFFFFFF));
+    }
+
+    @Test(expectedExceptions = ZipException.class)
+    public void testNonZipIsRejected() throws Exception {
+        new JarArchive("text.jar", ByteBuffer.wrap(repeat("text", 100).getBytes("UTF-8")));
+    }
+
+    /**
+     * @param nameContentPairs entry name followed by its content (bytes are taken as ISO-8859-1 chars)
+     */
+    private byte[] createArchive(int method, String... nameContentPairs) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ZipOutputStream outputStream = new ZipOutputStream(result);
+        try {
+            for (int i = 0; i < nameContentPairs.length; i += 2) {
+                byte[] content = nameContentPairs[i + 1].getBytes("ISO-8859-1");
+                ZipEntry entry = new ZipEntry(nameContentPairs[i]);
+                entry.setMethod(method);
+                if (method == ZipEntry.STORED) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setCrc(crc.getValue());
+                    entry.setSize(content.length);
+                    entry.setCompressedSize(content.length);
+                }
+                outputStream.putNextEntry(entry);
+                outputStream.write(content);
+                outputStream.closeEntry();
+            }
+        } finally {
+            outputStream.close();
+        }
+        return result.toByteArray();
+    }
+
+    private ByteBuffer createEndOfCentralDirectory(int numberOfEntries, int centralDirectoryOffset) {
+        ByteBuffer result = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        result.putInt(0x06054b50);
+        result.putShort((short) 0);
+        result.putShort((short) 0);
+        result.putShort((short) numberOfEntries);
+        result.putShort((short) numberOfEntries);
+        result.putInt(0);
+        result.putInt(centralDirectoryOffset);
+        result.putShort((short) 0);
+        result.flip();
+        return result;
+    }
+
+    private int getLocalHeaderFlags(byte[] archive, String entryName) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] name = entryName.getBytes("UTF-8");
+        for (int i = 0; i + 30 + name.length <= archive.length; i++) {
+            if (buffer.getInt(i) == 0x04034b50 && buffer.getShort(i + 26) == name.length &&
+                new String(archive, i + 30, name.length, "UTF-8").equals(entryName)) {
+                return buffer.getShort(i + 6) & 0xFFFF;
+            }
+        }
+        throw new IllegalArgumentException(entryName);
+    }
+
+    private String readFully(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int size;
+            while ((size = inputStream.read(buffer)) != -1) {
+                result.write(buffer, 0, size);
+            }
+            return new String(result.toByteArray(), "UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private String repeat(String value, int times) {
+        StringBuilder result = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++) {
+            result.append(value);
+        }
+        return result.toString();
+    }
+}
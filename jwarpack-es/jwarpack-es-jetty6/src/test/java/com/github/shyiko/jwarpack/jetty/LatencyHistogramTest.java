@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class LatencyHistogramTest {
+
+    private static final int LAST_BUCKET = LatencyHistogram.getBucket(Long.MAX_VALUE);
+
+    @Test
+    public void testBucketBoundaries() throws Exception {
+        for (int bucket = 0; bucket < LAST_BUCKET; bucket++) {
+            long upperBound = LatencyHistogram.getUpperBound(bucket);
+            assertEquals(LatencyHistogram.getBucket(upperBound), bucket);
+            assertEquals(LatencyHistogram.getBucket(upperBound + 1), bucket + 1);
+            if (bucket > 0) {
+                assertTrue(upperBound > LatencyHistogram.getUpperBound(bucket - 1));
+            }
+        }
+        assertEquals(LatencyHistogram.getBucket(LatencyHistogram.getUpperBound(LAST_BUCKET)), LAST_BUCKET);
+    }
+
+    @Test
+    public void testBucketPrecision() throws Exception {
+        for (long value = 0; value < 1 << 20; value++) {
+            long upperBound = LatencyHistogram.getUpperBound(LatencyHistogram.getBucket(value));
+            assertTrue(value <= upperBound && upperBound - value <= value / 8, value + " -> " + upperBound);
+        }
+        for (long value = 1 << 20; value < 1L << 37; value = value * 3 / 2 + 1) {
+            long upperBound = LatencyHistogram.getUpperBound(LatencyHistogram.getBucket(value));
+            assertTrue(value <= upperBound && upperBound - value <= value / 8, value + " -> " + upperBound);
+        }
+    }
+
+    @Test
+    public void testKnownDistribution() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1000; i > 0; i--) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(snapshot.getCount(), 1000);
+        assertEquals(snapshot.getSum(), 500500);
+        assertEquals(snapshot.getMax(), 1000);
+        assertEquals(snapshot.getValueAt(0), 1);
+        // upper bounds of the [480..511] and [896..959] buckets
+        assertEquals(snapshot.getValueAt(0.5), 511);
+        assertEquals(snapshot.getValueAt(0.9), 959);
+        // never above the largest recorded value
+        assertEquals(snapshot.getValueAt(0.99), 1000);
+        assertEquals(snapshot.getValueAt(1), 1000);
+        // values below 16 are exact
+        assertEquals(snapshot.getValueAt(0.01), 10);
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(LatencyHistogram.getBucket(1L << 40), LAST_BUCKET);
+        histogram.record(1L << 40);
+        histogram.record(-1);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(snapshot.getCount(), 2);
+        assertEquals(snapshot.getMax(), 1L << 40);
+        // negative values are recorded as 0
+        assertEquals(snapshot.getValueAt(0.5), 0);
+        assertEquals(snapshot.getValueAt(1), LatencyHistogram.getUpperBound(LAST_BUCKET));
+    }
+
+    @Test
+    public void testEmptyAndReset() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.snapshot().getValueAt(0.99), 0);
+        histogram.record(42);
+        histogram.reset();
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(snapshot.getCount(), 0);
+        assertEquals(snapshot.getSum(), 0);
+        assertEquals(snapshot.getMax(), 0);
+        assertEquals(snapshot.getValueAt(0.5), 0);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class MonitoringServerTest {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private CountDownLatch shutdownLatch;
+    private MonitoringServer monitoringServer;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        shutdownLatch = new CountDownLatch(1);
+        monitoringServer = new MonitoringServer() {
+
+            @Override
+            protected void shutdown() {
+                shutdownLatch.countDown();
+            }
+        };
+        monitoringServer.setPort(0);
+        monitoringServer.setTimeout(1000);
+        monitoringServer.startListeningThread();
+        assertTrue(monitoringServer.getPort() > 0);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (shutdownLatch.getCount() != 0) {
+            Socket socket = connect();
+            try {
+                socket.getOutputStream().write("stop:jwarpack\n".getBytes("UTF-8"));
+            } finally {
+                socket.close();
+            }
+            assertTrue(shutdownLatch.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testRequestsSplitAcrossReads() throws Exception {
+        Socket socket = connect();
+        try {
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write("sta".getBytes("UTF-8"));
+            outputStream.flush();
+            Thread.sleep(50);
+            outputStream.write("tus\r\nre".getBytes("UTF-8"));
+            outputStream.flush();
+            Thread.sleep(50);
+            outputStream.write("ady\nunknown\nLIVE\n".getBytes("UTF-8"));
+            socket.shutdownOutput();
+            String[] lines = readFully(socket).split("\n");
+            assertEquals(lines.length, 3, Arrays.toString(lines));
+            assertTrue(lines[0].startsWith("{\"status\":\"starting\",\"uptimeMs\":"), lines[0]);
+            assertEquals(lines[1], "starting");
+            assertEquals(lines[2], "live");
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testRequestsSpanningSeveralBufferFills() throws Exception {
+        monitoringServer.setStatus(ServerStatus.READY);
+        StringBuilder requests = new StringBuilder();
+        StringBuilder expectedResponses = new StringBuilder();
+        // 3 times the size of the buffer, with requests crossing its boundaries
+        while (requests.length() < 3 * MAX_LINE_LENGTH) {
+            requests.append("ready\nlive\n");
+            expectedResponses.append("ready\nlive\n");
+        }
+        // longest request which still fits
+        char[] longRequest = new char[MAX_LINE_LENGTH - 1];
+        Arrays.fill(longRequest, 'x');
+        requests.append(longRequest).append("\nlive\n");
+        expectedResponses.append("live\n");
+        Socket socket = connect();
+        try {
+            socket.getOutputStream().write(requests.toString().getBytes("UTF-8"));
+            socket.shutdownOutput();
+            assertEquals(readFully(socket), expectedResponses.toString());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testUnterminatedLastLine() throws Exception {
+        Socket socket = connect();
+        try {
+            socket.getOutputStream().write("live\nready".getBytes("UTF-8"));
+            socket.shutdownOutput();
+            assertEquals(readFully(socket), "live\nstarting\n");
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testConnectionIsClosedWhenRequestLineIsTooLong() throws Exception {
+        Socket socket = connect();
+        try {
+            byte[] request = new byte[MAX_LINE_LENGTH];
+            Arrays.fill(request, (byte) 'x');
+            socket.getOutputStream().write(request);
+            // output is not shut down, so that it's the server that closes connection
+            assertEquals(readFully(socket), "");
+        } finally {
+            socket.close();
+        }
+        assertEquals(request("live\n"), "live\n");
+    }
+
+    @Test
+    public void testHTTP() throws Exception {
+        String response = request("GET /ready HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.0 503 Service Unavailable\r\n"), response);
+        assertTrue(response.endsWith("\r\n\r\nstarting\n"), response);
+        monitoringServer.setStatus(ServerStatus.READY);
+        response = request("GET /ready HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.0 200 OK\r\n"), response);
+        assertTrue(response.contains("\r\nContent-Length: 6\r\n"), response);
+        assertTrue(response.endsWith("\r\n\r\nready\n"), response);
+        response = request("GET /live HTTP/1.0\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.0 200 OK\r\n"), response);
+        assertTrue(response.endsWith("\r\n\r\nlive\n"), response);
+        response = request("GET /metrics.json HTTP/1.0\r\n\r\n");
+        assertTrue(response.contains("\r\nContent-Type: application/json\r\n"), response);
+        assertTrue(response.endsWith("\r\n\r\n{}\n"), response);
+        response = request("GET /missing HTTP/1.0\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.0 404 Not Found\r\n"), response);
+    }
+
+    @Test
+    public void testIdleConnectionIsClosedAfterTimeout() throws Exception {
+        Socket idleSocket = connect();
+        try {
+            long start = System.currentTimeMillis();
+            // stuck client doesn't hold up the others
+            assertEquals(request("live\n"), "live\n");
+            assertEquals(readFully(idleSocket), "");
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(elapsed >= 900 && elapsed < 4000, Long.toString(elapsed));
+        } finally {
+            idleSocket.close();
+        }
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        Socket socket = connect();
+        try {
+            socket.getOutputStream().write("stop:wrong-key\nlive\n".getBytes("UTF-8"));
+            socket.shutdownOutput();
+            assertEquals(readFully(socket), "live\n");
+        } finally {
+            socket.close();
+        }
+        assertFalse(shutdownLatch.await(100, TimeUnit.MILLISECONDS));
+        socket = connect();
+        try {
+            // requests following the stop are ignored
+            socket.getOutputStream().write("STOP:jwarpack\nlive\n".getBytes("UTF-8"));
+            assertEquals(readFully(socket), "");
+        } finally {
+            socket.close();
+        }
+        assertTrue(shutdownLatch.await(5, TimeUnit.SECONDS));
+        try {
+            connect().close();
+            fail();
+        } catch (ConnectException e) {
+            // port is closed by the time shutdown() is called
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(InetAddress.getLocalHost(), monitoringServer.getPort()), 5000);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private String request(String request) throws IOException {
+        Socket socket = connect();
+        try {
+            socket.getOutputStream().write(request.getBytes("UTF-8"));
+            socket.shutdownOutput();
+            return readFully(socket);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * @return everything sent by the server until it closed the connection
+     */
+    private String readFully(Socket socket) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        InputStream inputStream = socket.getInputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        try {
+            while ((length = inputStream.read(buffer)) != -1) {
+                result.write(buffer, 0, length);
+            }
+        } catch (SocketException e) {
+            // connection reset (server closed connection without reading everything client sent)
+        }
+        return result.toString("UTF-8");
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.webapp.WebAppContext;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class PackedWebAppClassLoaderTest {
+
+    private static final String PACKED_CLASS_ENTRY = Packed.class.getName().replace('.', '/') + ".class";
+
+    @Test
+    public void testLoadingFromLibraries() throws Exception {
+        Map<String, byte[]> libraryEntries = new LinkedHashMap<String, byte[]>();
+        libraryEntries.put("META-INF/MANIFEST.MF", ("Manifest-Version: 1.0\n" +
+                "Specification-Title: packed\nSpecification-Version: 1.2\n" +
+                "Implementation-Vendor: jwarpack\n\n").getBytes("UTF-8"));
+        libraryEntries.put(PACKED_CLASS_ENTRY, readClass(Packed.class));
+        libraryEntries.put("resource.txt", "library".getBytes("UTF-8"));
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("WEB-INF/classes/resource.txt", "classes".getBytes("UTF-8"));
+        entries.put("WEB-INF/lib/library.jar", createJar(libraryEntries, true));
+        // compressed ones are inflated into memory
+        entries.put("WEB-INF/lib/other library.jar", createJar(Collections.singletonMap("resource.txt",
+                "other library".getBytes("UTF-8")), false));
+        File jar = createFile(createJar(entries, false));
+        try {
+            PackedWebAppClassLoader classLoader = new PackedWebAppClassLoader(new WebAppContext(), jar);
+            String prefix = "jwarpack-nested:" + jar.toURI().getRawPath() + "!/WEB-INF/lib/";
+            assertEquals(toStrings(classLoader.getURLs()),
+                    Arrays.asList(prefix + "library.jar", prefix + "other library.jar"));
+            Class<?> packedClass = classLoader.loadClass(Packed.class.getName());
+            assertSame(packedClass.getClassLoader(), classLoader);
+            assertEquals(packedClass.getProtectionDomain().getCodeSource().getLocation().toString(),
+                    prefix + "library.jar");
+            Package packedPackage = packedClass.getPackage();
+            assertEquals(packedPackage.getSpecificationTitle(), "packed");
+            assertEquals(packedPackage.getSpecificationVersion(), "1.2");
+            assertEquals(packedPackage.getImplementationVendor(), "jwarpack");
+            List<URL> resources = Collections.list(classLoader.findResources("resource.txt"));
+            assertEquals(toStrings(resources.toArray(new URL[resources.size()])), Arrays.asList(
+                    "jar:" + jar.toURI().toURL() + "!/WEB-INF/classes/resource.txt",
+                    prefix + "library.jar!/resource.txt", prefix + "other library.jar!/resource.txt"));
+            assertEquals(read(resources.get(0)), "classes");
+            assertEquals(read(resources.get(1)), "library");
+            assertEquals(read(resources.get(2)), "other library");
+            assertEquals(readFully(classLoader.getURLs()[1].openStream()),
+                    entries.get("WEB-INF/lib/other library.jar"));
+            assertNull(classLoader.findResource("missing.txt"));
+            try {
+                classLoader.loadClass("com.github.shyiko.jwarpack.jetty.Missing");
+                fail();
+            } catch (ClassNotFoundException e) {
+                // expected
+            }
+        } finally {
+            jar.delete();
+        }
+    }
+
+    @Test
+    public void testLoadingFromClasses() throws Exception {
+        File jar = createFile(createJar(Collections.singletonMap("WEB-INF/classes/" + PACKED_CLASS_ENTRY,
+                readClass(Packed.class)), false));
+        try {
+            PackedWebAppClassLoader classLoader = new PackedWebAppClassLoader(new WebAppContext(), jar);
+            assertEquals(classLoader.getURLs().length, 0);
+            Class<?> packedClass = classLoader.loadClass(Packed.class.getName());
+            assertSame(packedClass.getClassLoader(), classLoader);
+            assertEquals(packedClass.getProtectionDomain().getCodeSource().getLocation().toString(),
+                    "jar:" + jar.toURI().toURL() + "!/WEB-INF/classes/");
+            assertNull(packedClass.getPackage().getSpecificationTitle());
+        } finally {
+            jar.delete();
+        }
+    }
+
+    @Test
+    public void testJspsHaveToBePrecompiled() throws Throwable {
+        JettyInstance jettyInstance = new JettyInstance(new EmbeddedServerConfig("localhost", 0, null)) {
+
+            @Override
+            boolean isJspSupported() {
+                return true;
+            }
+        };
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("index.jsp", "<html></html>".getBytes("UTF-8"));
+        File jar = createFile(createJar(entries, false));
+        try {
+            jettyInstance.deployPacked("/", jar);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("JSPs of " + jar + " cannot be compiled"), e.getMessage());
+        } finally {
+            jar.delete();
+        }
+        entries.put("WEB-INF/classes/org/apache/jsp/index_jsp.class", readClass(Packed.class));
+        jar = createFile(createJar(entries, false));
+        try {
+            jettyInstance.deployPacked("/", jar);
+        } finally {
+            jar.delete();
+        }
+    }
+
+    private List<String> toStrings(URL[] urls) {
+        List<String> result = new ArrayList<String>();
+        for (URL url : urls) {
+            result.add(url.toString());
+        }
+        return result;
+    }
+
+    private String read(URL url) throws IOException {
+        return new String(readFully(url.openStream()), "UTF-8");
+    }
+
+    private byte[] readClass(Class<?> clazz) throws IOException {
+        return readFully(clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class"));
+    }
+
+    private byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                result.write(buffer, 0, length);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return result.toByteArray();
+    }
+
+    private byte[] createJar(Map<String, byte[]> entries, boolean stored) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ZipOutputStream outputStream = new ZipOutputStream(result);
+        try {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                outputStream.putNextEntry(zipEntry);
+                outputStream.write(entry.getValue());
+                outputStream.closeEntry();
+            }
+        } finally {
+            outputStream.close();
+        }
+        return result.toByteArray();
+    }
+
+    private File createFile(byte[] content) throws IOException {
+        File result = File.createTempFile("jwarpack-", ".jar");
+        FileOutputStream outputStream = new FileOutputStream(result);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+        return result;
+    }
+
+    public static class Packed {
+    }
+}
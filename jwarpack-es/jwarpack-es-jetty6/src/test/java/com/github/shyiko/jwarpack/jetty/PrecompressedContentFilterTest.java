@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.LocalConnector;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.webapp.WebAppContext;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class PrecompressedContentFilterTest {
+
+    @Test
+    public void testAcceptsGzip() throws Exception {
+        assertTrue(PrecompressedContentFilter.acceptsGzip("gzip"));
+        assertTrue(PrecompressedContentFilter.acceptsGzip("deflate, GZIP"));
+        assertTrue(PrecompressedContentFilter.acceptsGzip("gzip; q=0.5"));
+        assertTrue(PrecompressedContentFilter.acceptsGzip("x-gzip"));
+        assertFalse(PrecompressedContentFilter.acceptsGzip("gzip;q=0"));
+        assertFalse(PrecompressedContentFilter.acceptsGzip("gzip;q=0.000, deflate"));
+        assertFalse(PrecompressedContentFilter.acceptsGzip("x-gzip;q=0"));
+        assertFalse(PrecompressedContentFilter.acceptsGzip("gzip;q=none"));
+        assertFalse(PrecompressedContentFilter.acceptsGzip("deflate, br"));
+        assertFalse(PrecompressedContentFilter.acceptsGzip("gzipped"));
+    }
+
+    @Test
+    public void testGzipIsServedOnlyToClientsAcceptingIt() throws Exception {
+        File webAppDirectory = File.createTempFile("jwarpack-", "");
+        webAppDirectory.delete();
+        write(new File(webAppDirectory, "app.css"), "body {}");
+        write(new File(webAppDirectory, "app.css.gz"), "gzip");
+        write(new File(webAppDirectory, "other.css"), "body {}");
+        write(new File(webAppDirectory, "other.css.gz"), "gzip");
+        write(new File(webAppDirectory, "WEB-INF/jwarpack-precompressed.index"), "/app.css\n");
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector();
+        server.addConnector(connector);
+        WebAppContext webAppContext = new WebAppContext(webAppDirectory.getPath(), "/");
+        webAppContext.addFilter(PrecompressedContentFilter.class, "/*", Handler.REQUEST);
+        server.addHandler(webAppContext);
+        server.start();
+        try {
+            String response = get(connector, "/app.css", "Accept-Encoding: gzip");
+            assertTrue(response.contains("Content-Encoding: gzip"), response);
+            assertTrue(response.contains("Vary: Accept-Encoding"), response);
+            assertTrue(response.endsWith("gzip"), response);
+            response = get(connector, "/app.css", "Accept-Encoding: x-gzip");
+            assertTrue(response.contains("Content-Encoding: gzip"), response);
+            response = get(connector, "/app.css", "Accept-Encoding: gzip;q=0, deflate");
+            assertFalse(response.contains("Content-Encoding"), response);
+            assertTrue(response.contains("Vary: Accept-Encoding"), response);
+            assertTrue(response.endsWith("body {}"), response);
+            response = get(connector, "/app.css", null);
+            assertFalse(response.contains("Content-Encoding"), response);
+            assertTrue(response.contains("Vary: Accept-Encoding"), response);
+            // not in the index
+            response = get(connector, "/other.css", "Accept-Encoding: gzip;q=0");
+            assertFalse(response.contains("Vary"), response);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private String get(LocalConnector connector, String path, String header) throws Exception {
+        // otherwise response is appended to the previous ones
+        connector.reopen();
+        return connector.getResponses("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n" +
+                (header == null ? "" : header + "\r\n") + "Connection: close\r\n\r\n");
+    }
+
+    private void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
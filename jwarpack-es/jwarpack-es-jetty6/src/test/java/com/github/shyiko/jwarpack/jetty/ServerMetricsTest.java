@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.LocalConnector;
+import org.mortbay.jetty.Server;
+import org.mortbay.thread.QueuedThreadPool;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ServerMetricsTest {
+
+    private static final String SAMPLE = "[a-zA-Z_:][a-zA-Z0-9_:]*(\\{[a-z]+=\"([^\"\\\\]|\\\\.)*\"\\})? -?[0-9.E-]+";
+
+    @Test
+    public void testJSON() throws Exception {
+        QueuedThreadPool threadPool = newThreadPool();
+        threadPool.start();
+        String json;
+        try {
+            json = newMetrics(threadPool).toJSON();
+        } finally {
+            threadPool.stop();
+        }
+        assertTrue(json.startsWith("{\"requests\":{\"total\":4,\"active\":1,\"ratePerSecond\":"), json);
+        assertTrue(json.contains(",\"responses\":{\"1xx\":0,\"2xx\":2,\"3xx\":0,\"4xx\":1,\"5xx\":0}}"), json);
+        assertTrue(json.contains(",\"latencyMs\":{\"mean\":2.303,\"p50\":2.047,\"p90\":4.095,\"p99\":4.095," +
+                "\"p999\":4.095,\"max\":4.095}"), json);
+        assertTrue(json.contains(",\"threadPools\":[{\"name\":\"pool \\\"main\\\"\",\"threads\":"), json);
+        assertTrue(json.contains(",\"queued\":0,\"maxThreads\":10}]"), json);
+        assertTrue(json.contains(",\"connectors\":[{\"name\":\"local\",\"open\":0,\"accepted\":0}]"), json);
+        assertTrue(json.contains(",\"jvm\":{\"heap\":{\"used\":"), json);
+        assertTrue(json.endsWith("]}}"), json);
+    }
+
+    @Test
+    public void testPrometheus() throws Exception {
+        QueuedThreadPool threadPool = newThreadPool();
+        threadPool.start();
+        String text;
+        try {
+            text = newMetrics(threadPool).toPrometheus();
+        } finally {
+            threadPool.stop();
+        }
+        assertTrue(text.contains("# TYPE jwarpack_requests_total counter\njwarpack_requests_total 4\n"), text);
+        assertTrue(text.contains("\njwarpack_requests_active 1\n"), text);
+        assertTrue(text.contains("\njwarpack_responses_total{code=\"2xx\"} 2\n"), text);
+        assertTrue(text.contains("\njwarpack_responses_total{code=\"4xx\"} 1\n"), text);
+        assertTrue(text.contains("# TYPE jwarpack_request_duration_seconds summary\n" +
+                "jwarpack_request_duration_seconds{quantile=\"0.5\"} 0.002047\n" +
+                "jwarpack_request_duration_seconds{quantile=\"0.9\"} 0.004095\n"), text);
+        assertTrue(text.contains("\njwarpack_request_duration_seconds_sum 0.009212\n" +
+                "jwarpack_request_duration_seconds_count 4\n"), text);
+        assertTrue(text.contains("\njwarpack_threadpool_max_threads{pool=\"pool \\\"main\\\"\"} 10\n"), text);
+        assertTrue(text.contains("\njwarpack_connections_open{connector=\"local\"} 0\n"), text);
+        assertTrue(text.contains("\njvm_memory_used_bytes{area=\"heap\"} "), text);
+        for (String line : text.split("\n")) {
+            assertTrue(line.startsWith("# HELP ") || line.startsWith("# TYPE ") || line.matches(SAMPLE), line);
+        }
+    }
+
+    @Test
+    public void testMetricsOfServerNotStartedYet() throws Exception {
+        String json = newMetrics(newThreadPool()).toJSON();
+        assertTrue(json.contains(",\"threadPools\":[],"), json);
+        String text = newMetrics(newThreadPool()).toPrometheus();
+        assertTrue(text.contains("# TYPE jwarpack_threadpool_threads gauge\n# HELP "), text);
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        ServerMetrics metrics = newMetrics(newThreadPool());
+        metrics.reset();
+        String json = metrics.toJSON();
+        // active requests are still there
+        assertTrue(json.startsWith("{\"requests\":{\"total\":0,\"active\":1,\"ratePerSecond\":0.0,"), json);
+        assertTrue(json.contains(",\"responses\":{\"1xx\":0,\"2xx\":0,\"3xx\":0,\"4xx\":0,\"5xx\":0}}"), json);
+        assertTrue(json.contains(",\"latencyMs\":{\"mean\":0.0,\"p50\":0.0,"), json);
+    }
+
+    /**
+     * @return metrics of 4 completed requests (1.023, 2.047, 2.047 and 4.095 ms, the last one without a status) and
+     * one still being handled
+     */
+    private ServerMetrics newMetrics(QueuedThreadPool threadPool) {
+        Server server = new Server();
+        server.setThreadPool(threadPool);
+        LocalConnector connector = new LocalConnector();
+        connector.setName("local");
+        connector.setStatsOn(true);
+        server.addConnector(connector);
+        // not metered
+        server.addConnector(new LocalConnector());
+        ServerMetrics metrics = new ServerMetrics(server);
+        for (int i = 0; i < 5; i++) {
+            metrics.requestStarted();
+        }
+        metrics.requestCompleted(1023000, 200);
+        metrics.requestCompleted(2047000, 404);
+        metrics.requestCompleted(2047000, 200);
+        metrics.requestCompleted(4095000, 0);
+        return metrics;
+    }
+
+    private QueuedThreadPool newThreadPool() {
+        QueuedThreadPool result = new QueuedThreadPool(10);
+        result.setName("pool \"main\"");
+        return result;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ServerSizingTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testParseCpuMax() throws Exception {
+        assertEquals(ServerSizing.parseCpuMax("max 100000"), -1);
+        assertEquals(ServerSizing.parseCpuMax("200000 100000\n"), 2);
+        // rounded up to whole CPUs
+        assertEquals(ServerSizing.parseCpuMax("150000 100000"), 2);
+        assertEquals(ServerSizing.parseCpuMax("10000 100000"), 1);
+        assertEquals(ServerSizing.parseCpuMax("100000"), -1);
+        assertEquals(ServerSizing.parseCpuMax("garbage 100000"), -1);
+    }
+
+    @Test
+    public void testParseCpuQuota() throws Exception {
+        assertEquals(ServerSizing.parseCpuQuota("-1", "100000"), -1);
+        assertEquals(ServerSizing.parseCpuQuota("250000", "100000"), 3);
+        assertEquals(ServerSizing.parseCpuQuota("50000", "100000"), 1);
+        assertEquals(ServerSizing.parseCpuQuota("400000", "100000"), 4);
+        assertEquals(ServerSizing.parseCpuQuota("100000", "0"), -1);
+        assertEquals(ServerSizing.parseCpuQuota(null, null), -1);
+    }
+
+    @Test
+    public void testParseMemoryLimit() throws Exception {
+        assertEquals(ServerSizing.parseMemoryLimit("536870912"), 512 * MB);
+        assertEquals(ServerSizing.parseMemoryLimit("max"), -1);
+        // what cgroup v1 reports for "no limit" (page-aligned Long.MAX_VALUE)
+        assertEquals(ServerSizing.parseMemoryLimit("9223372036854771712"), -1);
+        assertEquals(ServerSizing.parseMemoryLimit("0"), -1);
+        assertEquals(ServerSizing.parseMemoryLimit(null), -1);
+    }
+
+    @Test
+    public void testSizingOfSingleCpuContainer() throws Exception {
+        ServerSizing sizing = new ServerSizing(1, -1, 64 * MB);
+        assertEquals(sizing.getMinThreads(), 4);
+        assertEquals(sizing.getMaxThreads(), 50);
+        assertEquals(sizing.getLowThreads(), 5);
+        assertEquals(sizing.getAcceptors(), 1);
+        assertEquals(sizing.getLowResourcesConnections(), 640);
+        assertEquals(sizing.getResponseBufferSize(32768), 16384);
+        assertEquals(new ServerSizing(0, -1, 64 * MB).getProcessors(), 1);
+    }
+
+    @Test
+    public void testSizingOfLargeMachine() throws Exception {
+        ServerSizing sizing = new ServerSizing(32, -1, 4096 * MB);
+        assertEquals(sizing.getMinThreads(), 20);
+        assertEquals(sizing.getMaxThreads(), 400);
+        assertEquals(sizing.getLowThreads(), 40);
+        assertEquals(sizing.getAcceptors(), 4);
+        assertEquals(sizing.getLowResourcesConnections(), 20000);
+        assertEquals(sizing.getResponseBufferSize(32768), 32768);
+    }
+
+    @Test
+    public void testSizingIsLimitedByMemory() throws Exception {
+        // 256 MB outside of the heap, half of which is given to 1 MB thread stacks
+        ServerSizing sizing = new ServerSizing(4, 512 * MB, 256 * MB);
+        assertEquals(sizing.getMaxThreads(), 128);
+        assertEquals(sizing.getMinThreads(), 8);
+        assertEquals(sizing.getLowThreads(), 12);
+        assertEquals(sizing.getAcceptors(), 1);
+        assertEquals(sizing.getLowResourcesConnections(), 2560);
+        // never goes below 20 threads
+        sizing = new ServerSizing(2, 270 * MB, 256 * MB);
+        assertEquals(sizing.getMaxThreads(), 20);
+        assertEquals(sizing.getMinThreads(), 4);
+        assertEquals(sizing.getLowThreads(), 5);
+    }
+
+    @Test
+    public void testSizingOfQuotaLimitedContainer() throws Exception {
+        ServerSizing sizing = new ServerSizing(Math.min(64, ServerSizing.parseCpuMax("250000 100000")),
+                ServerSizing.parseMemoryLimit("1073741824"), 512 * MB);
+        assertEquals(sizing.getProcessors(), 3);
+        assertEquals(sizing.getMinThreads(), 6);
+        assertEquals(sizing.getMaxThreads(), 150);
+        assertEquals(sizing.getLowThreads(), 15);
+        assertEquals(sizing.getAcceptors(), 1);
+    }
+
+    @Test
+    public void testDetectionOfNestedCgroupV2() throws Exception {
+        // systemd service, limits of which are set on the slice it belongs to
+        File root = createRoot("0::/system.slice/app.service\n",
+                "30 23 0:26 / /sys/fs/cgroup rw,nosuid,nodev,noexec,relatime shared:4 - cgroup2 cgroup2 rw\n",
+                "sys/fs/cgroup/system.slice/cpu.max", "200000 100000",
+                "sys/fs/cgroup/system.slice/memory.max", "1073741824",
+                "sys/fs/cgroup/system.slice/app.service/cpu.max", "max 100000",
+                "sys/fs/cgroup/system.slice/app.service/memory.max", "max");
+        try {
+            assertEquals(ServerSizing.detect(root, 16, 256 * MB).toString(),
+                    "2 CPU(s), 1024 MB memory limit, 256 MB heap");
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void testDetectionOfNonNamespacedPod() throws Exception {
+        // whole hierarchy is visible, CPU quota is set on the container while memory limit is on the pod
+        String pod = "/kubepods.slice/kubepods-burstable.slice/kubepods-burstable-pod1.slice";
+        File root = createRoot("0::" + pod + "/cri-containerd-1.scope\n",
+                "1 0 0:26 / /sys/fs/cgroup ro,nosuid,nodev,noexec,relatime - cgroup2 cgroup rw\n",
+                "sys/fs/cgroup/cpu.max", "max 100000",
+                "sys/fs/cgroup" + pod + "/memory.max", "536870912",
+                "sys/fs/cgroup" + pod + "/cri-containerd-1.scope/cpu.max", "150000 100000",
+                "sys/fs/cgroup" + pod + "/cri-containerd-1.scope/memory.max", "max");
+        try {
+            assertEquals(ServerSizing.detect(root, 16, 256 * MB).toString(),
+                    "2 CPU(s), 512 MB memory limit, 256 MB heap");
+        } finally {
+            delete(root);
+        }
+        // only container's own cgroup is mounted (as the root of hierarchy)
+        root = createRoot("0::" + pod + "/cri-containerd-1.scope\n",
+                "1 0 0:26 " + pod + "/cri-containerd-1.scope /sys/fs/cgroup ro,relatime - cgroup2 cgroup rw\n",
+                "sys/fs/cgroup/cpu.max", "150000 100000",
+                "sys/fs/cgroup/memory.max", "536870912");
+        try {
+            assertEquals(ServerSizing.detect(root, 16, 256 * MB).toString(),
+                    "2 CPU(s), 512 MB memory limit, 256 MB heap");
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void testDetectionOfCgroupV1() throws Exception {
+        // hybrid layout (unified hierarchy without controllers), cpu and cpuacct mounted together
+        File root = createRoot("12:memory:/docker/1\n4:cpu,cpuacct:/docker/1\n1:name=systemd:/docker/1\n0::/\n",
+                "30 25 0:26 / /sys/fs/cgroup/unified rw,nosuid - cgroup2 cgroup2 rw\n" +
+                "35 25 0:30 /docker/1 /sys/fs/cgroup/cpu,cpuacct ro,nosuid shared:9 - cgroup cgroup rw,cpu,cpuacct\n" +
+                "40 25 0:35 /docker/1 /sys/fs/cgroup/memory ro,nosuid shared:14 - cgroup cgroup rw,memory\n",
+                "sys/fs/cgroup/cpu,cpuacct/cpu.cfs_quota_us", "300000",
+                "sys/fs/cgroup/cpu,cpuacct/cpu.cfs_period_us", "100000",
+                "sys/fs/cgroup/memory/memory.limit_in_bytes", "268435456");
+        try {
+            assertEquals(ServerSizing.detect(root, 16, 128 * MB).toString(),
+                    "3 CPU(s), 256 MB memory limit, 128 MB heap");
+        } finally {
+            delete(root);
+        }
+        // systemd service on the host, memory limit of which is set on the slice
+        root = createRoot("9:memory:/system.slice/app.service\n3:cpu,cpuacct:/system.slice/app.service\n",
+                "35 25 0:30 / /sys/fs/cgroup/cpu,cpuacct rw,nosuid - cgroup cgroup rw,cpu,cpuacct\n" +
+                "40 25 0:35 / /sys/fs/cgroup/memory rw,nosuid - cgroup cgroup rw,memory\n",
+                "sys/fs/cgroup/cpu,cpuacct/system.slice/app.service/cpu.cfs_quota_us", "-1",
+                "sys/fs/cgroup/cpu,cpuacct/system.slice/app.service/cpu.cfs_period_us", "100000",
+                "sys/fs/cgroup/memory/memory.limit_in_bytes", "9223372036854771712",
+                "sys/fs/cgroup/memory/system.slice/memory.limit_in_bytes", "536870912",
+                "sys/fs/cgroup/memory/system.slice/app.service/memory.limit_in_bytes", "9223372036854771712");
+        try {
+            assertEquals(ServerSizing.detect(root, 16, 128 * MB).toString(),
+                    "16 CPU(s), 512 MB memory limit, 128 MB heap");
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void testDetectionWithoutCgroups() throws Exception {
+        File root = createRoot(null, null);
+        try {
+            assertEquals(ServerSizing.detect(root, 4, 128 * MB).toString(), "4 CPU(s), no memory limit, 128 MB heap");
+        } finally {
+            delete(root);
+        }
+    }
+
+    /**
+     * @param cgroup content of /proc/self/cgroup (null if there should be no such file)
+     * @param mountInfo content of /proc/self/mountinfo (null if there should be no such file)
+     * @param pathContentPairs path of the file (relative to the root) followed by its content
+     */
+    private File createRoot(String cgroup, String mountInfo, String... pathContentPairs) throws IOException {
+        File result = File.createTempFile("jwarpack-", "");
+        result.delete();
+        if (cgroup != null) {
+            write(new File(result, "proc/self/cgroup"), cgroup);
+        }
+        if (mountInfo != null) {
+            write(new File(result, "proc/self/mountinfo"), mountInfo);
+        }
+        for (int i = 0; i < pathContentPairs.length; i += 2) {
+            write(new File(result, pathContentPairs[i]), pathContentPairs[i + 1] + "\n");
+        }
+        return result;
+    }
+
+    private void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
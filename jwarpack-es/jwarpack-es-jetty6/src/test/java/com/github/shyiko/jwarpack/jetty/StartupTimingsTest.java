@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import com.github.shyiko.jwarpack.jetty.StaticResourceCache.Eviction;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class StartupTimingsTest {
+
+    @Test
+    public void testPhases() throws Exception {
+        // JVM started at 1000
+        SimulatedStartupTimings timings = new SimulatedStartupTimings(1000);
+        timings.at(1150).recordJvmLaunch();
+        timings.at(1150).start(StartupPhase.PREPARING_ENVIRONMENT);
+        timings.at(1160).start(StartupPhase.CONFIGURING_SERVER);
+        // application is in the extraction cache already, so there is no EXTRACTING_APPLICATION
+        timings.at(1200).start(StartupPhase.DEPLOYING_APPLICATION);
+        timings.at(1205).start(StartupPhase.STARTING_MONITORING);
+        timings.at(1206).start(StartupPhase.STARTING_SERVER);
+        timings.at(1806).start(StartupPhase.WARMING_UP);
+        assertFalse(timings.isCompleted());
+        timings.at(2806).complete();
+        assertTrue(timings.isCompleted());
+        assertEquals(timings.getPhaseDurations().keySet(), EnumSet.complementOf(EnumSet.of(
+                StartupPhase.EXTRACTING_APPLICATION)));
+        assertEquals(timings.getPhaseDurations().get(StartupPhase.STARTING_SERVER), Long.valueOf(600));
+        assertEquals(timings.getDuration(), 1806);
+        assertEquals(timings.toJSON(), "{\"completed\":true,\"durationMs\":1806,\"phases\":{\"launching_jvm\":150," +
+                "\"preparing_environment\":10,\"configuring_server\":40,\"deploying_application\":5," +
+                "\"starting_monitoring\":1,\"starting_server\":600,\"warming_up\":1000}}");
+        assertEquals(timings.toString(), "started in 1806 ms; launching_jvm 150 ms, preparing_environment 10 ms, " +
+                "configuring_server 40 ms, deploying_application 5 ms, starting_monitoring 1 ms, " +
+                "starting_server 600 ms, warming_up 1000 ms");
+    }
+
+    @Test
+    public void testPhaseInProgressIsNotReported() throws Exception {
+        SimulatedStartupTimings timings = new SimulatedStartupTimings(1000);
+        assertEquals(timings.toJSON(), "{\"completed\":false,\"durationMs\":0,\"phases\":{}}");
+        timings.at(1100).start(StartupPhase.PREPARING_ENVIRONMENT);
+        timings.at(1120).start(StartupPhase.EXTRACTING_APPLICATION);
+        timings.at(5000);
+        assertEquals(timings.toJSON(), "{\"completed\":false,\"durationMs\":20,\"phases\":" +
+                "{\"preparing_environment\":20}}");
+        // clock going backwards (e.g. NTP adjustment) doesn't make JVM launch negative
+        timings.at(900).recordJvmLaunch();
+        assertEquals(timings.getPhaseDurations().get(StartupPhase.LAUNCHING_JVM), Long.valueOf(0));
+    }
+
+    @Test
+    public void testStatus() throws Exception {
+        SimulatedStartupTimings timings = new SimulatedStartupTimings(1000);
+        timings.at(1150).recordJvmLaunch();
+        timings.at(1150).start(StartupPhase.PREPARING_ENVIRONMENT);
+        timings.at(1160).start(StartupPhase.STARTING_SERVER);
+        final CountDownLatch shutdownLatch = new CountDownLatch(1);
+        MonitoringServer monitoringServer = new MonitoringServer() {
+
+            @Override
+            long getUptime() {
+                return 5230;
+            }
+
+            @Override
+            protected void shutdown() {
+                shutdownLatch.countDown();
+            }
+        };
+        monitoringServer.setPort(0);
+        monitoringServer.setStartupTimings(timings);
+        monitoringServer.startListeningThread();
+        try {
+            assertEquals(request(monitoringServer, "status"), "{\"status\":\"starting\",\"uptimeMs\":5230," +
+                    "\"startup\":{\"completed\":false,\"durationMs\":160,\"phases\":{\"launching_jvm\":150," +
+                    "\"preparing_environment\":10}}}\n");
+            timings.at(1760).complete();
+            monitoringServer.setStatus(ServerStatus.READY);
+            monitoringServer.setStaticResourceCache(new StaticResourceCache(1024, 1024, Eviction.LRU));
+            assertEquals(request(monitoringServer, "status"), "{\"status\":\"ready\",\"uptimeMs\":5230," +
+                    "\"startup\":{\"completed\":true,\"durationMs\":760,\"phases\":{\"launching_jvm\":150," +
+                    "\"preparing_environment\":10,\"starting_server\":600}}," +
+                    "\"staticCache\":{\"entries\":0,\"sizeBytes\":0,\"maxSizeBytes\":1024,\"eviction\":\"lru\"," +
+                    "\"hits\":0,\"misses\":0,\"evictions\":0}}\n");
+        } finally {
+            request(monitoringServer, "stop:jwarpack");
+            assertTrue(shutdownLatch.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private String request(MonitoringServer monitoringServer, String request) throws Exception {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLocalHost(), monitoringServer.getPort()), 5000);
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write((request + "\n").getBytes("UTF-8"));
+            socket.shutdownOutput();
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            InputStream inputStream = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                result.write(buffer, 0, length);
+            }
+            return result.toString("UTF-8");
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Timings measured with the clock set explicitly.
+     */
+    private static class SimulatedStartupTimings extends StartupTimings {
+
+        private final long jvmStartTime;
+        private long currentTimeMillis;
+
+        private SimulatedStartupTimings(long jvmStartTime) {
+            this.jvmStartTime = jvmStartTime;
+        }
+
+        public SimulatedStartupTimings at(long currentTimeMillis) {
+            this.currentTimeMillis = currentTimeMillis;
+            return this;
+        }
+
+        @Override
+        long getJvmStartTime() {
+            return jvmStartTime;
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return currentTimeMillis;
+        }
+    }
+}
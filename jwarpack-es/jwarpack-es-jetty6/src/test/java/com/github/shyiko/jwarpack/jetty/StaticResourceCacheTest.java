@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import com.github.shyiko.jwarpack.jetty.StaticResourceCache.CachedResource;
+import com.github.shyiko.jwarpack.jetty.StaticResourceCache.Eviction;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class StaticResourceCacheTest {
+
+    @Test
+    public void testLRUEviction() throws Exception {
+        StaticResourceCache cache = new StaticResourceCache(30, 30, Eviction.LRU);
+        cache.put("/a", resource(10));
+        cache.put("/b", resource(10));
+        cache.put("/c", resource(10));
+        // /b becomes least recently used one
+        assertNotNull(cache.get("/a"));
+        cache.put("/d", resource(10));
+        assertNull(cache.get("/b"));
+        assertNotNull(cache.get("/c"));
+        assertNotNull(cache.get("/a"));
+        assertNotNull(cache.get("/d"));
+        // /c is the oldest now, even though it was accessed more often than /d
+        cache.put("/e", resource(10));
+        assertNull(cache.get("/c"));
+        assertNotNull(cache.get("/a"));
+        assertNotNull(cache.get("/d"));
+    }
+
+    @Test
+    public void testLFUEviction() throws Exception {
+        StaticResourceCache cache = new StaticResourceCache(30, 30, Eviction.LFU);
+        cache.put("/a", resource(10));
+        cache.put("/b", resource(10));
+        cache.put("/c", resource(10));
+        cache.get("/a");
+        cache.get("/a");
+        cache.get("/c");
+        // /b is both least frequently and least recently used one
+        cache.put("/d", resource(10));
+        assertNull(cache.get("/b"));
+        // /d was used once while /c twice (even though /c wasn't used since /d was added)
+        cache.put("/e", resource(10));
+        assertNull(cache.get("/d"));
+        assertNotNull(cache.get("/c"));
+        assertNotNull(cache.get("/a"));
+        assertNotNull(cache.get("/e"));
+    }
+
+    @Test
+    public void testLFUTiesAreBrokenByRecency() throws Exception {
+        StaticResourceCache cache = new StaticResourceCache(20, 20, Eviction.LFU);
+        cache.put("/a", resource(10));
+        cache.put("/b", resource(10));
+        cache.put("/c", resource(10));
+        assertNull(cache.get("/a"));
+        assertNotNull(cache.get("/b"));
+        assertNotNull(cache.get("/c"));
+    }
+
+    @Test
+    public void testEntriesLargerThanMaxEntrySizeAreRejected() throws Exception {
+        StaticResourceCache cache = new StaticResourceCache(100, 10, Eviction.LRU);
+        cache.put("/large", resource(11));
+        assertNull(cache.get("/large"));
+        // gzip-encoded variant counts too
+        cache.put("/large-with-gzip", new CachedResource(new byte[6], new byte[5], "text/plain", 0));
+        assertNull(cache.get("/large-with-gzip"));
+        CachedResource resource = new CachedResource(new byte[5], new byte[5], "text/plain", 0);
+        cache.put("/fit", resource);
+        assertSame(cache.get("/fit"), resource);
+        assertEquals(cache.toJSON(), "{\"entries\":1,\"sizeBytes\":10,\"maxSizeBytes\":100,\"eviction\":\"lru\"," +
+                "\"hits\":1,\"misses\":2,\"evictions\":0}");
+        // single entry can never be larger than the cache itself
+        assertEquals(new StaticResourceCache(10, 100, Eviction.LRU).getMaxEntrySize(), 10);
+    }
+
+    @Test
+    public void testReplacingEntry() throws Exception {
+        StaticResourceCache cache = new StaticResourceCache(30, 30, Eviction.LRU);
+        cache.put("/a", resource(10));
+        cache.put("/b", resource(10));
+        // size of the previous /a is given back before anything is evicted
+        CachedResource resource = resource(20);
+        cache.put("/a", resource);
+        assertEquals(cache.toJSON(), "{\"entries\":2,\"sizeBytes\":30,\"maxSizeBytes\":30,\"eviction\":\"lru\"," +
+                "\"hits\":0,\"misses\":0,\"evictions\":0}");
+        assertSame(cache.get("/a"), resource);
+        assertNotNull(cache.get("/b"));
+        cache.put("/a", resource(5));
+        assertEquals(cache.toJSON(), "{\"entries\":2,\"sizeBytes\":15,\"maxSizeBytes\":30,\"eviction\":\"lru\"," +
+                "\"hits\":2,\"misses\":0,\"evictions\":0}");
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        StaticResourceCache cache = new StaticResourceCache(20, 20, Eviction.LFU);
+        assertNull(cache.get("/a"));
+        cache.put("/a", resource(10));
+        cache.put("/b", resource(10));
+        cache.get("/a");
+        cache.get("/a");
+        cache.get("/b");
+        // both /a and /b have to go
+        cache.put("/c", resource(20));
+        assertNull(cache.get("/a"));
+        assertEquals(cache.toJSON(), "{\"entries\":1,\"sizeBytes\":20,\"maxSizeBytes\":20,\"eviction\":\"lfu\"," +
+                "\"hits\":3,\"misses\":2,\"evictions\":2}");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNonPositiveSize() throws Exception {
+        new StaticResourceCache(0, 10, Eviction.LRU);
+    }
+
+    private CachedResource resource(int size) {
+        return new CachedResource(new byte[size], null, "text/plain", 0);
+    }
+}
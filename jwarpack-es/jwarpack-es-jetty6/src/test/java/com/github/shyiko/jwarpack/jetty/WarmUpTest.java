@@ -0,0 +1,321 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.jetty;
+
+import org.mortbay.jetty.LocalConnector;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class WarmUpTest {
+
+    private Server server;
+    private LocalConnector connector;
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private volatile long latency;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        requestCounts.clear();
+        latency = 0;
+        server = new Server();
+        connector = new LocalConnector();
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+
+            public void handle(String target, HttpServletRequest request, HttpServletResponse response, int dispatch)
+                    throws IOException {
+                AtomicInteger count = requestCounts.get(request.getMethod() + " " + target);
+                if (count == null) {
+                    requestCounts.put(request.getMethod() + " " + target, count = new AtomicInteger());
+                }
+                count.incrementAndGet();
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setStatus(target.equals("/error") ? 500 : 200);
+                ((Request) request).setHandled(true);
+            }
+        });
+        server.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void testReadRequests() throws Exception {
+        File file = writeFile("# comment\n\n/\nhead /a\n  GET   /b?c=d  \n");
+        try {
+            assertEquals(WarmUp.readRequests(file), Arrays.asList(WarmUp.toHttpRequest("GET", "/"),
+                    WarmUp.toHttpRequest("HEAD", "/a"), WarmUp.toHttpRequest("GET", "/b?c=d")));
+            assertEquals(WarmUp.toHttpRequest("GET", "/"),
+                    "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRequestsWithBodyAreRejected() throws Exception {
+        File file = writeFile("/\nPOST /login\n");
+        try {
+            WarmUp.readRequests(file);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), file + ":2: POST request cannot be replayed (only GET and HEAD are " +
+                    "supported)");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRounds() throws Exception {
+        // 3 requests, so each round is 102 requests long (at least 100, multiple of 3)
+        List<String> requests = Arrays.asList(WarmUp.toHttpRequest("GET", "/a"), WarmUp.toHttpRequest("HEAD", "/b"),
+                WarmUp.toHttpRequest("GET", "/error"));
+        assertFalse(new WarmUp(requests, 2, 60000).run(connector));
+        assertEquals(requestCounts.size(), 3);
+        assertEquals(requestCounts.get("GET /a").get(), 68);
+        assertEquals(requestCounts.get("HEAD /b").get(), 68);
+        assertEquals(requestCounts.get("GET /error").get(), 68);
+    }
+
+    @Test
+    public void testSettles() throws Exception {
+        // p99 (in ms) of the rounds: it's compared to the previous one starting with the 4th round and has to be
+        // within 10% twice in a row
+        WarmUp warmUp = new SimulatedWarmUp(50, 10, 8, 6, 6, 5.5, 100);
+        assertTrue(warmUp.run(connector));
+        assertEquals(requestCounts.get("GET /").get(), 500);
+    }
+
+    @Test
+    public void testSettlingRequiresTwoRoundsInARow() throws Exception {
+        WarmUp warmUp = new SimulatedWarmUp(50, 10, 10, 10, 10, 5, 5, 10, 10.5, 10.5, 100);
+        assertTrue(warmUp.run(connector));
+        assertEquals(requestCounts.get("GET /").get(), 900);
+    }
+
+    @Test
+    public void testMaxRounds() throws Exception {
+        WarmUp warmUp = new SimulatedWarmUp(7, 10, 5, 10, 5, 10, 5, 10, 5);
+        assertFalse(warmUp.run(connector));
+        assertEquals(requestCounts.get("GET /").get(), 700);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        latency = 10;
+        long start = System.currentTimeMillis();
+        assertFalse(new WarmUp(Arrays.asList(WarmUp.toHttpRequest("GET", "/")), 50, 300).run(connector));
+        long elapsed = System.currentTimeMillis() - start;
+        // cut short in the middle of the first round
+        assertTrue(requestCounts.get("GET /").get() < 100);
+        assertTrue(elapsed >= 300 && elapsed < 1000, Long.toString(elapsed));
+    }
+
+    @Test
+    public void testReadinessIsReportedOnceConnectorsAreOpen() throws Throwable {
+        File webapp = createWebapp();
+        try {
+            final int port = getFreePort();
+            final JettyInstance jettyInstance = new JettyInstance(new EmbeddedServerConfig("localhost", port, null));
+            jettyInstance.deploy("/", webapp.getPath());
+            final MonitoringServer monitoringServer = new MonitoringServer();
+            final String[] readinessDuringWarmUp = new String[1];
+            WarmUp warmUp = new WarmUp(Arrays.asList(WarmUp.toHttpRequest("GET", "/index.html")), 5, 60000) {
+
+                @Override
+                public boolean run(LocalConnector connector) {
+                    readinessDuringWarmUp[0] = monitoringServer.getReadiness();
+                    assertFalse(isOpen(port));
+                    return super.run(connector);
+                }
+            };
+            assertEquals(monitoringServer.getReadiness(), "starting");
+            StartupTimings startupTimings = new StartupTimings();
+            EntryPoint.startServer(jettyInstance, warmUp, monitoringServer, startupTimings);
+            try {
+                assertEquals(readinessDuringWarmUp[0], "warming");
+                assertEquals(monitoringServer.getReadiness(), "ready");
+                assertTrue(startupTimings.isCompleted());
+                assertEquals(startupTimings.getPhaseDurations().keySet(),
+                        EnumSet.of(StartupPhase.STARTING_SERVER, StartupPhase.WARMING_UP));
+                // warm-up requests are not counted
+                assertTrue(jettyInstance.getMetrics().toJSON().startsWith("{\"requests\":{\"total\":0,"));
+                assertEquals(jettyInstance.getLocalPort(), port);
+                HttpURLConnection connection = (HttpURLConnection)
+                        new URL("http://localhost:" + port + "/index.html").openConnection();
+                try {
+                    assertEquals(connection.getResponseCode(), 200);
+                } finally {
+                    connection.disconnect();
+                }
+            } finally {
+                jettyInstance.stop();
+            }
+        } finally {
+            delete(webapp);
+        }
+    }
+
+    @Test
+    public void testConnectorsAreNotOpenedIfWarmUpFails() throws Throwable {
+        File webapp = createWebapp();
+        try {
+            int port = getFreePort();
+            JettyInstance jettyInstance = new JettyInstance(new EmbeddedServerConfig("localhost", port, null));
+            jettyInstance.deploy("/", webapp.getPath());
+            MonitoringServer monitoringServer = new MonitoringServer();
+            WarmUp warmUp = new WarmUp(Arrays.asList(WarmUp.toHttpRequest("GET", "/")), 5, 60000) {
+
+                @Override
+                public boolean run(LocalConnector connector) {
+                    throw new IllegalStateException("Warm-up failed");
+                }
+            };
+            StartupTimings startupTimings = new StartupTimings();
+            try {
+                EntryPoint.startServer(jettyInstance, warmUp, monitoringServer, startupTimings);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals(e.getMessage(), "Warm-up failed");
+            }
+            assertEquals(monitoringServer.getReadiness(), "warming");
+            assertFalse(startupTimings.isCompleted());
+            assertFalse(isOpen(port));
+        } finally {
+            delete(webapp);
+        }
+    }
+
+    /**
+     * Warm-up of 100 requests to "/" per round, latencies of which are simulated.
+     */
+    private static class SimulatedWarmUp extends WarmUp {
+
+        private final double[] roundLatencies;
+        private long nanoTime;
+        private int calls;
+
+        /**
+         * @param roundLatencies latency (in milliseconds) of all the requests of the corresponding round
+         */
+        private SimulatedWarmUp(int maxRounds, double... roundLatencies) {
+            super(Arrays.asList(WarmUp.toHttpRequest("GET", "/")), maxRounds, 60000);
+            this.roundLatencies = roundLatencies;
+        }
+
+        @Override
+        long nanoTime() {
+            // called before and after each request
+            if (calls % 2 == 1) {
+                nanoTime += (long) (roundLatencies[calls / 200] * 1000000);
+            }
+            calls++;
+            return nanoTime;
+        }
+    }
+
+    private boolean isOpen(int port) {
+        try {
+            new Socket("localhost", port).close();
+            return true;
+        } catch (ConnectException e) {
+            return false;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int getFreePort() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        try {
+            return serverSocket.getLocalPort();
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    private File createWebapp() throws IOException {
+        File result = File.createTempFile("jwarpack-warmup-", "");
+        result.delete();
+        new File(result, "WEB-INF").mkdirs();
+        OutputStream outputStream = new FileOutputStream(new File(result, "index.html"));
+        try {
+            outputStream.write("<html></html>".getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        return result;
+    }
+
+    private File writeFile(String content) throws IOException {
+        File result = File.createTempFile("jwarpack-warmup-", ".txt");
+        OutputStream outputStream = new FileOutputStream(result);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        return result;
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
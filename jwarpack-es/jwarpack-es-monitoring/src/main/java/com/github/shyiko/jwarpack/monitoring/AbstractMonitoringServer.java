@@ -0,0 +1,486 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.monitoring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Monitoring port of the embedded server (both the listening and the client side of it). Accepts "stop:&lt;key&gt;",
+ * "status", "live" and "ready" requests on the localhost (along with the ones subclass responds to, see
+ * {@link #respond(String)}). Response to "status" is a single line JSON object (see {@link #getStatus()}). "live" and
+ * "ready" are the cheap probes for the health checks: the former is answered with "live" as long as process is up,
+ * the latter - with "ready" once server accepts connections (with the current status otherwise).
+ * <p/>
+ * Probes are served over plain HTTP too (GET /live, GET /ready, the latter responds with 503 until server is ready),
+ * see {@link #respondOverHTTP(String)}.
+ * <p/>
+ * Requests are one per line, any number of them can be sent over the same connection (which is closed once client
+ * shuts down its output). Connections are served by a single thread (with non-blocking I/O), so that slow or stuck
+ * clients don't hold up the others. Each connection is closed after the timeout (5 seconds by default) no matter
+ * what.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public abstract class AbstractMonitoringServer {
+
+    private static final String REQUEST_STATUS = "status";
+    private static final String REQUEST_SHUTDOWN = "stop";
+    private static final String REQUEST_LIVENESS = "live";
+    private static final String REQUEST_READINESS = "ready";
+    private static final int BACKLOG = 128;
+    private static final int MAX_CONNECTIONS = 256;
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private volatile int port;
+    private String key = "jwarpack";
+    private int timeout = 5000;
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * @return port to connect to (once listening thread is started - the one server is actually bound to, which
+     * is how to find out the port chosen by the system if it was set to 0)
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @param timeout time (in milliseconds) given to each connection (client side - to connect and to get the
+     * response), 5000 by default
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Binds to the port and starts serving requests in the background. Failure to bind is reported to stderr (server
+     * goes on without the monitoring port).
+     */
+    public void startListeningThread() {
+        ListeningThread listeningThread = new ListeningThread();
+        try {
+            listeningThread.bind();
+        } catch (IOException e) {
+            System.err.println("Monitoring thread failed.");
+            e.printStackTrace(System.err);
+            return;
+        }
+        listeningThread.start();
+    }
+
+    public void sendShutdownRequest() {
+        try {
+            Socket socket = connect();
+            try {
+                writeToSocket(socket, REQUEST_SHUTDOWN + ":" + key);
+            } finally {
+                socket.close();
+            }
+            System.out.println("Connection established");
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Prints server's response (see {@link #getStatus()}) to stdout.
+     */
+    public void sendStatusRequest() {
+        sendRequest(REQUEST_STATUS);
+    }
+
+    /**
+     * Prints server's response ("live") to stdout.
+     *
+     * @return true if server responded
+     */
+    public boolean sendLivenessRequest() {
+        String response = sendRequest(REQUEST_LIVENESS);
+        return response != null && REQUEST_LIVENESS.equals(response.trim());
+    }
+
+    /**
+     * Prints server's response ("ready" or the current status) to stdout.
+     *
+     * @return true if server is ready
+     */
+    public boolean sendReadinessRequest() {
+        String response = sendRequest(REQUEST_READINESS);
+        return response != null && REQUEST_READINESS.equals(response.trim());
+    }
+
+    /**
+     * @return response (which is also printed to stdout), null if request failed
+     */
+    protected String sendRequest(String request) {
+        try {
+            Socket socket = connect();
+            try {
+                socket.getOutputStream().write((request + "\n").getBytes());
+                socket.shutdownOutput();
+                InputStream inputStream = socket.getInputStream();
+                StringBuilder result = new StringBuilder();
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = inputStream.read(buffer)) != -1) {
+                    System.out.write(buffer, 0, length);
+                    result.append(new String(buffer, 0, length, "UTF-8"));
+                }
+                System.out.flush();
+                return result.toString();
+            } finally {
+                socket.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+            return null;
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLocalHost(), port), timeout);
+            socket.setSoTimeout(timeout);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private void writeToSocket(Socket socket, String request) throws IOException {
+        OutputStream outputStream = socket.getOutputStream();
+        try {
+            outputStream.write(request.getBytes());
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * @return single line JSON object (without line terminator), e.g. {"status":"ready","uptimeMs":5230}
+     */
+    protected abstract String getStatus();
+
+    /**
+     * @return "ready" if server accepts connections, the current status (e.g. "starting") otherwise
+     */
+    protected abstract String getReadiness();
+
+    /**
+     * Called (by the listening thread) once "stop:&lt;key&gt;" is received. Exits JVM, so that server is stopped by
+     * the shutdown hooks.
+     */
+    protected void shutdown() {
+        System.exit(0);
+    }
+
+    /**
+     * @param request request (without line terminator)
+     * @return response (with line terminator), null if there is none
+     */
+    protected String respond(String request) {
+        if (REQUEST_STATUS.equalsIgnoreCase(request)) {
+            return getStatus() + "\n";
+        } else
+        if (REQUEST_LIVENESS.equalsIgnoreCase(request)) {
+            return REQUEST_LIVENESS + "\n";
+        } else
+        if (REQUEST_READINESS.equalsIgnoreCase(request)) {
+            return getReadiness() + "\n";
+        }
+        return null;
+    }
+
+    /**
+     * @param path path of the GET request, e.g. "/ready"
+     * @return response, null if there is no such resource (in which case 404 is sent)
+     */
+    protected HTTPResponse respondOverHTTP(String path) {
+        if ("/live".equals(path)) {
+            return new HTTPResponse("200 OK", "text/plain", REQUEST_LIVENESS + "\n");
+        } else
+        if ("/ready".equals(path)) {
+            String readiness = getReadiness();
+            return new HTTPResponse(REQUEST_READINESS.equals(readiness) ? "200 OK" : "503 Service Unavailable",
+                    "text/plain", readiness + "\n");
+        }
+        return null;
+    }
+
+    /**
+     * @param requestLine e.g. "GET /metrics HTTP/1.1"
+     * @return HTTP response
+     */
+    private byte[] toHTTP(String requestLine) throws IOException {
+        String[] requestLineParts = requestLine.split(" ");
+        HTTPResponse response = respondOverHTTP(requestLineParts.length > 1 ? requestLineParts[1] : "");
+        if (response == null) {
+            response = new HTTPResponse("404 Not Found", "text/plain", "Not Found\n");
+        }
+        byte[] content = response.body.getBytes("UTF-8");
+        byte[] head = String.format("HTTP/1.0 %s\r\nContent-Type: %s\r\nContent-Length: %s\r\n" +
+                "Connection: close\r\n\r\n", response.status, response.contentType, content.length).
+                getBytes("ISO-8859-1");
+        byte[] result = new byte[head.length + content.length];
+        System.arraycopy(head, 0, result, 0, head.length);
+        System.arraycopy(content, 0, result, head.length, content.length);
+        return result;
+    }
+
+    protected static class HTTPResponse {
+
+        private final String status;
+        private final String contentType;
+        private final String body;
+
+        /**
+         * @param status e.g. "200 OK"
+         * @param contentType e.g. "text/plain"
+         * @param body response body
+         */
+        public HTTPResponse(String status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private class ListeningThread extends Thread {
+
+        private Selector selector;
+        private ServerSocketChannel serverChannel;
+        private boolean shutdownRequested;
+
+        private ListeningThread() {
+            setName("MonitoringServer");
+            setDaemon(true);
+        }
+
+        private void bind() throws IOException {
+            selector = Selector.open();
+            try {
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.configureBlocking(false);
+                serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLocalHost(), port), BACKLOG);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                if (serverChannel != null) {
+                    serverChannel.close();
+                }
+                selector.close();
+                throw e;
+            }
+            port = serverChannel.socket().getLocalPort();
+        }
+
+        public void run() {
+            try {
+                try {
+                    long nextDeadline = 0;
+                    while (!shutdownRequested) {
+                        selector.select(nextDeadline == 0 ? 0 : Math.max(nextDeadline - System.currentTimeMillis(), 1));
+                        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                        while (iterator.hasNext()) {
+                            SelectionKey selectionKey = iterator.next();
+                            iterator.remove();
+                            if (selectionKey.isValid() && selectionKey.isAcceptable()) {
+                                accept();
+                            } else
+                            if (selectionKey.isValid()) {
+                                ((Connection) selectionKey.attachment()).handle(selectionKey);
+                            }
+                        }
+                        nextDeadline = closeExpiredConnections(System.currentTimeMillis());
+                    }
+                    for (SelectionKey selectionKey : selector.keys()) {
+                        closeQuietly(selectionKey);
+                    }
+                } finally {
+                    try {
+                        serverChannel.close();
+                    } finally {
+                        selector.close();
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Monitoring thread failed.");
+                e.printStackTrace(System.err);
+                return;
+            }
+            shutdown();
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                if (selector.keys().size() > MAX_CONNECTIONS) {
+                    channel.close();
+                    continue;
+                }
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ,
+                        new Connection(channel, System.currentTimeMillis() + timeout));
+            }
+        }
+
+        /**
+         * @return earliest deadline among the connections which are still open, 0 if there are none
+         */
+        private long closeExpiredConnections(long now) {
+            long result = 0;
+            for (SelectionKey selectionKey : new ArrayList<SelectionKey>(selector.keys())) {
+                Connection connection = (Connection) selectionKey.attachment();
+                if (connection == null || !selectionKey.isValid()) {
+                    continue;
+                }
+                if (connection.deadline <= now) {
+                    closeQuietly(selectionKey);
+                } else
+                if (result == 0 || connection.deadline < result) {
+                    result = connection.deadline;
+                }
+            }
+            return result;
+        }
+
+        private void closeQuietly(SelectionKey selectionKey) {
+            selectionKey.cancel();
+            try {
+                selectionKey.channel().close();
+            } catch (IOException e) {
+                // nothing to do about it
+            }
+        }
+
+        private class Connection {
+
+            private final SocketChannel channel;
+            private final long deadline;
+            private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE_LENGTH);
+            private final LinkedList<ByteBuffer> output = new LinkedList<ByteBuffer>();
+            private String httpRequestLine;
+            private boolean closeOnceWritten;
+
+            private Connection(SocketChannel channel, long deadline) {
+                this.channel = channel;
+                this.deadline = deadline;
+            }
+
+            private void handle(SelectionKey selectionKey) {
+                try {
+                    if (selectionKey.isReadable()) {
+                        read();
+                    }
+                    if (selectionKey.isWritable()) {
+                        write();
+                    }
+                } catch (IOException e) {
+                    closeQuietly(selectionKey);
+                    return;
+                }
+                if (closeOnceWritten && output.isEmpty()) {
+                    closeQuietly(selectionKey);
+                } else {
+                    selectionKey.interestOps((closeOnceWritten ? 0 : SelectionKey.OP_READ) |
+                            (output.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+                }
+            }
+
+            private void read() throws IOException {
+                int length = channel.read(input);
+                int lineStart = 0;
+                // bytes preceding the ones just read are known to contain no line terminators
+                int offset = input.position() - Math.max(length, 0);
+                for (int i = offset; i < input.position() && !closeOnceWritten; i++) {
+                    if (input.get(i) == '\n') {
+                        process(new String(input.array(), lineStart, i - lineStart, "UTF-8"));
+                        lineStart = i + 1;
+                    }
+                }
+                if (length == -1 && !closeOnceWritten) {
+                    // last line doesn't have to be terminated
+                    if (lineStart < input.position()) {
+                        process(new String(input.array(), lineStart, input.position() - lineStart, "UTF-8"));
+                    }
+                    closeOnceWritten = true;
+                }
+                input.limit(input.position()).position(lineStart);
+                input.compact();
+                if (!input.hasRemaining() && !closeOnceWritten) {
+                    throw new IOException("Request line is too long");
+                }
+            }
+
+            private void process(String line) throws IOException {
+                if (line.endsWith("\r")) {
+                    line = line.substring(0, line.length() - 1);
+                }
+                if (httpRequestLine != null) {
+                    // headers are of no interest
+                    if (line.isEmpty()) {
+                        output.add(ByteBuffer.wrap(toHTTP(httpRequestLine)));
+                        closeOnceWritten = true;
+                    }
+                } else
+                if (line.startsWith("GET ")) {
+                    httpRequestLine = line;
+                } else
+                if ((REQUEST_SHUTDOWN + ":" + key).equalsIgnoreCase(line)) {
+                    shutdownRequested = true;
+                    closeOnceWritten = true;
+                } else {
+                    String response = respond(line);
+                    if (response != null) {
+                        output.add(ByteBuffer.wrap(response.getBytes("UTF-8")));
+                    }
+                }
+            }
+
+            private void write() throws IOException {
+                while (!output.isEmpty()) {
+                    ByteBuffer buffer = output.getFirst();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return;
+                    }
+                    output.removeFirst();
+                }
+            }
+        }
+    }
+}
@@ -15,8 +15,12 @@
  */
 package com.github.shyiko.jwarpack.maven;
 
+import com.github.shyiko.jwarpack.packager.CompressionPolicy;
 import com.github.shyiko.jwarpack.packager.Metadata;
 import com.github.shyiko.jwarpack.packager.Packager;
+import com.github.shyiko.jwarpack.packager.PackagingListener;
+import com.github.shyiko.jwarpack.packager.PackagingPhase;
+import com.github.shyiko.jwarpack.packager.PackagingStatistics;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Plugin;
@@ -29,6 +33,8 @@ import org.apache.maven.project.MavenProject;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -68,6 +74,65 @@ public class PackMojo extends AbstractMojo {
      */
     private boolean useCompression;
 
+    /**
+     * Deflate level (1-9). Applies only if compression is used.
+     * @parameter expression="${jwarpack.compressionLevel}" default-value="-1"
+     */
+    private int compressionLevel;
+
+    /**
+     * Extensions of the files which should not be compressed (e.g. .jar, .png). Applies only if compression is used.
+     * @parameter expression="${jwarpack.storedExtensions}"
+     */
+    private String[] storedExtensions;
+
+    /**
+     * Number of threads used for compression (by default equals to the number of available processors).
+     * @parameter expression="${jwarpack.threads}"
+     */
+    private Integer threads;
+
+    /**
+     * True if unchanged entries of the existing output JAR should be reused, false otherwise.
+     * @parameter expression="${jwarpack.incremental}" default-value="false"
+     */
+    private boolean incremental;
+
+    /**
+     * True if JSPs should be compiled into servlets at packaging time (requires JSP-enabled embedded server),
+     * false otherwise.
+     * @parameter expression="${jwarpack.precompileJsps}" default-value="false"
+     */
+    private boolean precompileJsps;
+
+    /**
+     * True if class data sharing archive (&lt;output JAR name&gt;.jsa) should be recorded by starting standalone JAR
+     * once (requires Java 13+; archive is only valid for the JVM Maven runs on), false otherwise.
+     * @parameter expression="${jwarpack.cds}" default-value="false"
+     */
+    private boolean classDataSharing;
+
+    /**
+     * Extensions of the static resources gzip-compressed copy (&lt;name&gt;.gz) of which should be added at packaging
+     * time, so that embedded server doesn't have to compress them per request (none by default).
+     * @parameter expression="${jwarpack.precompressedExtensions}"
+     */
+    private String[] precompressedExtensions;
+
+    /**
+     * True if content hash of each static resource should be recorded at packaging time, so that embedded server
+     * could use it as ETag (and answer conditional requests without reading the resource), false otherwise.
+     * @parameter expression="${jwarpack.etags}" default-value="false"
+     */
+    private boolean indexETags;
+
+    /**
+     * True if TLDs of the WEB-INF/lib JARs should be listed at packaging time, so that embedded server could look
+     * them up in the index instead of opening each of the JARs on startup, false otherwise.
+     * @parameter expression="${jwarpack.indexTlds}" default-value="false"
+     */
+    private boolean indexTlds;
+
     private MavenProject getProject() {
         return (MavenProject) getPluginContext().get("project");
     }
@@ -144,7 +209,7 @@ public class PackMojo extends AbstractMojo {
     }
 
     public void execute() throws MojoExecutionException, MojoFailureException {
-        Log logger = getLog();
+        final Log logger = getLog();
         File esJar = getESJar();
         if (logger.isDebugEnabled()) {
             logger.debug(String.format("ES JAR location: %s", esJar));
@@ -157,8 +222,36 @@ public class PackMojo extends AbstractMojo {
             logger.debug(String.format("Output JAR location: %s", outputJar));
         }
         Metadata metadata = new Metadata(esJar.getAbsolutePath(), appWar.getAbsolutePath(), outputJar, useCompression);
+        if (threads != null) {
+            metadata.setThreads(threads);
+        }
+        metadata.setCompressionPolicy(new CompressionPolicy(compressionLevel,
+                storedExtensions == null ? Collections.<String>emptyList() : Arrays.asList(storedExtensions)));
+        metadata.setIncremental(incremental);
+        metadata.setPrecompileJsps(precompileJsps);
+        metadata.setClassDataSharing(classDataSharing);
+        metadata.setIndexETags(indexETags);
+        metadata.setIndexTlds(indexTlds);
+        if (precompressedExtensions != null) {
+            metadata.setPrecompressedExtensions(Arrays.asList(precompressedExtensions));
+        }
+        Packager packager = new Packager();
+        packager.setListener(new PackagingListener() {
+
+            public void onPhaseCompleted(PackagingPhase phase, long durationInMillis) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(String.format("Phase %s took %s ms", phase, durationInMillis));
+                }
+            }
+
+            public void onEntryWritten(String entryName, int entriesWritten, int totalEntries) {}
+
+            public void onPackagingCompleted(PackagingStatistics statistics) {
+                logger.info(String.format("Packaged %s", statistics));
+            }
+        });
         try {
-            new Packager().pack(metadata);
+            packager.pack(metadata);
         } catch (IOException e) {
             if (logger.isDebugEnabled()) {
                 logger.debug(e);
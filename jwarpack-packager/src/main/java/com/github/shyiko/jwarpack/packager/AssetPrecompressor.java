@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates gzip-compressed sibling (&lt;name&gt;.gz) of each static resource of the application WAR with one of the
+ * given extensions, so that embedded server can serve it to the clients which accept gzip encoding without
+ * compressing anything per request. Resources under WEB-INF/ and META-INF/, the ones smaller than
+ * {@link #MIN_SIZE} bytes, the ones which already have a sibling in WAR and the ones which don't shrink by at least
+ * 10% are left alone.
+ * <p/>
+ * Paths of the precompressed resources are listed (one per line, relative to the context root) in
+ * {@link #INDEX_ENTRY_NAME}.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+class AssetPrecompressor {
+
+    static final String INDEX_ENTRY_NAME = "WEB-INF/jwarpack-precompressed.index";
+    static final String SUFFIX = ".gz";
+
+    private static final int MIN_SIZE = 256;
+    private static final long MAX_SIZE = 16 * 1024 * 1024;
+    private static final double MAX_RATIO = 0.9;
+
+    private final Set<String> extensions;
+    private final int threads;
+
+    /**
+     * @param extensions extensions (in lower case, starting with ".") of the resources to precompress
+     * @param threads number of threads used for compression
+     */
+    AssetPrecompressor(Set<String> extensions, int threads) {
+        this.extensions = extensions;
+        this.threads = threads;
+    }
+
+    /**
+     * @param applicationWar application WAR
+     * @param outputStream stream compressed resources (STORED, as they are already compressed) and the index should
+     * be written to
+     * @return content of the written &lt;name&gt;.gz entries, by name (empty if nothing was precompressed, in which
+     * case nothing is written)
+     * @throws IOException if any of the resources cannot be read
+     */
+    Map<String, byte[]> precompress(ZipArchive applicationWar, ZipOutputStream outputStream) throws IOException {
+        List<ZipArchiveEntry> assets = getAssets(applicationWar);
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        if (assets.isEmpty()) {
+            return result;
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, assets.size()));
+        try {
+            List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(assets.size());
+            for (ZipArchiveEntry asset : assets) {
+                futures.add(executorService.submit(new Compression(applicationWar, asset)));
+            }
+            StringBuilder index = new StringBuilder();
+            for (int i = 0; i < assets.size(); i++) {
+                ZipArchiveEntry asset = assets.get(i);
+                byte[] compressedData = get(futures.get(i));
+                if (compressedData.length > asset.getSize() * MAX_RATIO) {
+                    continue;
+                }
+                String name = asset.getName() + SUFFIX;
+                writeStored(outputStream, name, compressedData);
+                index.append('/').append(asset.getName()).append('\n');
+                result.put(name, compressedData);
+            }
+            if (!result.isEmpty()) {
+                writeStored(outputStream, INDEX_ENTRY_NAME, index.toString().getBytes("UTF-8"));
+            }
+            return result;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private List<ZipArchiveEntry> getAssets(ZipArchive applicationWar) {
+        List<ZipArchiveEntry> result = new ArrayList<ZipArchiveEntry>();
+        for (ZipArchiveEntry entry : applicationWar.getEntries()) {
+            String name = entry.getName();
+            if (entry.isDirectory() || name.startsWith("WEB-INF/") || name.startsWith("META-INF/") ||
+                entry.getSize() < MIN_SIZE || entry.getSize() > MAX_SIZE || !hasExtension(name, extensions) ||
+                applicationWar.getEntry(name + SUFFIX) != null) {
+                continue;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    private static boolean hasExtension(String name, Collection<String> extensions) {
+        String lowerCaseName = name.toLowerCase();
+        for (String extension : extensions) {
+            if (lowerCaseName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the resources to be compressed");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void writeStored(ZipOutputStream outputStream, String name, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        outputStream.putNextEntry(entry);
+        outputStream.write(data);
+        outputStream.closeEntry();
+    }
+
+    private static class Compression implements Callable<byte[]> {
+
+        private final ZipArchive archive;
+        private final ZipArchiveEntry entry;
+
+        private Compression(ZipArchive archive, ZipArchiveEntry entry) {
+            this.archive = archive;
+            this.entry = entry;
+        }
+
+        public byte[] call() throws IOException {
+            ByteArrayOutputStream result = new ByteArrayOutputStream((int) (entry.getSize() / 3) + 64);
+            // compressed once, served many times - hence the best (however slow) compression
+            OutputStream outputStream = new GZIPOutputStream(result) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            };
+            InputStream inputStream = archive.getInputStream(entry);
+            try {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, length);
+                }
+            } finally {
+                inputStream.close();
+            }
+            outputStream.close();
+            return result.toByteArray();
+        }
+    }
+}
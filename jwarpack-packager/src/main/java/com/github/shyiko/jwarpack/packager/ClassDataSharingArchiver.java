@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records class data sharing (AppCDS) archive of the standalone JAR by starting it once (with a throwaway home
+ * directory and an ephemeral port) under -XX:ArchiveClassesAtExit. Server launcher picks archive up from the
+ * {@link #getArchive(File)} location on "start".
+ * <p/>
+ * Archive is only valid for the very same JVM build (and the very same JAR, which must not be modified afterwards).
+ * Any other JVM simply ignores it.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+class ClassDataSharingArchiver {
+
+    /**
+     * Makes launcher stop the server (and exit) right after the first request.
+     */
+    private static final String TRAINING_PROPERTY = "cds.training";
+    /**
+     * Keeps launcher from relaunching itself with an archive (as there is none yet).
+     */
+    private static final String CDS_PROPERTY = "cds";
+    private static final long TIMEOUT_IN_SECONDS = 300;
+    private static final int MAX_OUTPUT_LENGTH = 16 * 1024;
+
+    private ClassDataSharingArchiver() {}
+
+    /**
+     * @param standaloneJar standalone JAR
+     * @return location of the archive (standalone JAR name with .jar replaced by .jsa)
+     */
+    static File getArchive(File standaloneJar) {
+        String name = standaloneJar.getName();
+        if (name.toLowerCase().endsWith(".jar")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(standaloneJar.getParentFile(), name + ".jsa");
+    }
+
+    /**
+     * @param standaloneJar standalone JAR
+     * @return recorded archive
+     * @throws IOException if JVM doesn't support dynamic archives (Java 13+ is required) or training run fails
+     */
+    static File archive(File standaloneJar) throws IOException {
+        if (getJavaVersion() < 13) {
+            throw new IOException("Class data sharing archive requires Java 13+ (dynamic archiving)");
+        }
+        File archive = getArchive(standaloneJar);
+        if (archive.exists() && !archive.delete()) {
+            throw new IOException(String.format("Failed to delete %s", archive));
+        }
+        File home = createTemporaryDirectory();
+        try {
+            List<String> command = new ArrayList<String>();
+            command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+            command.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+            command.add("-Duser.home=" + home.getAbsolutePath());
+            command.add("-D" + TRAINING_PROPERTY + "=true");
+            command.add("-D" + CDS_PROPERTY + "=false");
+            command.add("-jar");
+            command.add(standaloneJar.getAbsolutePath());
+            command.add("--port=0");
+            command.add("--monitoringPort=-1");
+            command.add("start");
+            run(command, home);
+        } catch (IOException e) {
+            archive.delete();
+            throw e;
+        } finally {
+            delete(home);
+        }
+        if (!archive.isFile()) {
+            throw new IOException(String.format("Training run of %s didn't produce %s", standaloneJar, archive));
+        }
+        return archive;
+    }
+
+    private static void run(List<String> command, File workingDirectory) throws IOException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.directory(workingDirectory);
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(new File(workingDirectory, "training.log"));
+        Process process = processBuilder.start();
+        try {
+            if (!process.waitFor(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+                throw new IOException(String.format("Training run didn't complete within %s seconds%n%s",
+                        TIMEOUT_IN_SECONDS, readOutput(workingDirectory)));
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException(String.format("Training run failed (exit code %s)%n%s",
+                        process.exitValue(), readOutput(workingDirectory)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the training run to complete");
+        } finally {
+            process.destroy();
+        }
+    }
+
+    private static String readOutput(File workingDirectory) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        InputStream inputStream = new FileInputStream(new File(workingDirectory, "training.log"));
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1 && result.size() < MAX_OUTPUT_LENGTH) {
+                result.write(buffer, 0, length);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return result.toString();
+    }
+
+    private static int getJavaVersion() {
+        String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static File createTemporaryDirectory() throws IOException {
+        File result = File.createTempFile("jwarpack-cds-", "");
+        if (!result.delete() || !result.mkdir()) {
+            throw new IOException(String.format("Failed to create %s", result));
+        }
+        return result;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
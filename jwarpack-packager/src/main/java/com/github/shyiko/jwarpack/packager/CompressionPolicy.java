@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how each entry of the standalone JAR is stored (applies only if compression is turned on).
+ * <p/>
+ * Entries with one of the "stored" extensions are written without compression (which is usually what you want
+ * for content that is already compressed), while everything else gets deflated with the given level.
+ * Note that level has no effect on entries which are already deflated inside the source archives, as those are
+ * copied as is.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class CompressionPolicy {
+
+    /**
+     * Extensions of the commonly used file formats which are already compressed.
+     */
+    public static final List<String> COMPRESSED_FILE_EXTENSIONS = Collections.unmodifiableList(Arrays.asList(
+            ".jar", ".war", ".zip", ".gz", ".tgz", ".bz2", ".xz", ".7z",
+            ".png", ".jpg", ".jpeg", ".gif", ".webp", ".ico",
+            ".woff", ".woff2", ".mp3", ".mp4", ".ogg", ".pdf"
+    ));
+    /**
+     * Extensions of the commonly used text-based static resources (which compress well and are usually worth
+     * precompressing, see {@link Metadata#setPrecompressedExtensions(Collection)}).
+     */
+    public static final List<String> TEXT_FILE_EXTENSIONS = Collections.unmodifiableList(Arrays.asList(
+            ".html", ".htm", ".css", ".js", ".mjs", ".json", ".map", ".xml", ".svg", ".txt", ".csv", ".wasm"
+    ));
+
+    private final int level;
+    private final Set<String> storedExtensions;
+
+    /**
+     * Deflate everything with the default level.
+     */
+    public CompressionPolicy() {
+        this(Deflater.DEFAULT_COMPRESSION, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param level deflate level (1-9 or {@link Deflater#DEFAULT_COMPRESSION})
+     * @param storedExtensions extensions of the files which should not be compressed (e.g. ".jar", ".png")
+     */
+    public CompressionPolicy(int level, Collection<String> storedExtensions) {
+        if (level != Deflater.DEFAULT_COMPRESSION &&
+            (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Compression level must be within 1-9 range");
+        }
+        this.level = level;
+        this.storedExtensions = normalizeExtensions(storedExtensions);
+    }
+
+    /**
+     * @return given extensions in lower case, each starting with "." (blank ones are dropped)
+     */
+    static Set<String> normalizeExtensions(Collection<String> extensions) {
+        Set<String> result = new HashSet<String>();
+        for (String extension : extensions) {
+            extension = extension.trim().toLowerCase();
+            if (extension.isEmpty()) {
+                continue;
+            }
+            result.add(extension.startsWith(".") ? extension : "." + extension);
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public Set<String> getStoredExtensions() {
+        return storedExtensions;
+    }
+
+    /**
+     * @param entryName name of the entry (e.g. WEB-INF/lib/library.jar)
+     * @return true if entry should be deflated, false otherwise
+     */
+    public boolean shouldCompress(String entryName) {
+        if (entryName.endsWith("/")) {
+            return false;
+        }
+        String name = entryName.toLowerCase();
+        for (String extension : storedExtensions) {
+            if (name.endsWith(extension)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
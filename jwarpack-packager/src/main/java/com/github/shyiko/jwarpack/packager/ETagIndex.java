@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the static resources of the application WAR (everything but WEB-INF/, META-INF/ and JSPs), along with the
+ * ones generated at packaging time (precompressed &lt;name&gt;.gz), which embedded server uses to answer conditional
+ * requests without touching the resources. Stored as {@link #ENTRY_NAME}, one line per resource (sorted by path):
+ * <pre>
+ * &lt;content hash&gt; &lt;immutable|-&gt; /&lt;path&gt;
+ * </pre>
+ * Content hash (first 128 bits of SHA-256, hex-encoded) is meant to be used as a strong ETag. "immutable" marks the
+ * fingerprinted resources, i.e. the ones with a hash in the name (e.g. app.3f2a9c1b.js or app-3f2a9c1b.css), which
+ * clients can cache for good as any change to the content changes the name as well.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+class ETagIndex {
+
+    static final String ENTRY_NAME = "WEB-INF/jwarpack-etag.index";
+
+    private static final int HASH_LENGTH = 16;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Pattern FINGERPRINT = Pattern.compile("[.\\-_]([0-9a-fA-F]{8,})\\.");
+
+    private final Map<String, String> resources = new TreeMap<String, String>();
+
+    /**
+     * @param applicationWar application WAR
+     * @param generatedResources resources generated at packaging time (by name)
+     * @param threads number of threads used for hashing
+     * @return index of the static resources (null if there are none)
+     * @throws IOException if any of the resources cannot be read
+     */
+    static ETagIndex create(ZipArchive applicationWar, Map<String, byte[]> generatedResources, int threads)
+            throws IOException {
+        List<ZipArchiveEntry> entries = new ArrayList<ZipArchiveEntry>();
+        for (ZipArchiveEntry entry : applicationWar.getEntries()) {
+            if (isStaticResource(entry.getName()) && !entry.isDirectory() &&
+                !generatedResources.containsKey(entry.getName())) {
+                entries.add(entry);
+            }
+        }
+        ETagIndex result = new ETagIndex();
+        for (Map.Entry<String, byte[]> resource : generatedResources.entrySet()) {
+            if (isStaticResource(resource.getKey())) {
+                MessageDigest digest = createDigest();
+                digest.update(resource.getValue());
+                result.add(resource.getKey(), digest);
+            }
+        }
+        if (!entries.isEmpty()) {
+            ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, entries.size()));
+            try {
+                List<Future<MessageDigest>> futures = new ArrayList<Future<MessageDigest>>(entries.size());
+                for (ZipArchiveEntry entry : entries) {
+                    futures.add(executorService.submit(new Hashing(applicationWar, entry)));
+                }
+                for (int i = 0; i < entries.size(); i++) {
+                    result.add(entries.get(i).getName(), get(futures.get(i)));
+                }
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+        return result.resources.isEmpty() ? null : result;
+    }
+
+    private static boolean isStaticResource(String name) {
+        String lowerCaseName = name.toLowerCase();
+        return !lowerCaseName.startsWith("web-inf/") && !lowerCaseName.startsWith("meta-inf/") &&
+                !lowerCaseName.endsWith(".jsp") && !lowerCaseName.endsWith(".jspx");
+    }
+
+    /**
+     * @return true if name of the resource carries a hash (at least 8 hexadecimal characters, of which at least one
+     * is a digit and at least one is a letter, so that dates and version numbers don't count)
+     */
+    static boolean isFingerprinted(String name) {
+        Matcher matcher = FINGERPRINT.matcher(name.substring(name.lastIndexOf('/') + 1));
+        int start = 0;
+        while (matcher.find(start)) {
+            String hash = matcher.group(1);
+            boolean hasDigit = false, hasLetter = false;
+            for (int i = 0; i < hash.length(); i++) {
+                if (Character.isDigit(hash.charAt(i))) {
+                    hasDigit = true;
+                } else {
+                    hasLetter = true;
+                }
+            }
+            if (hasDigit && hasLetter) {
+                return true;
+            }
+            start = matcher.end(1);
+        }
+        return false;
+    }
+
+    private void add(String name, MessageDigest digest) {
+        byte[] hash = digest.digest();
+        char[] hexHash = new char[HASH_LENGTH * 2];
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            hexHash[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hexHash[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        resources.put("/" + name, new String(hexHash) + (isFingerprinted(name) ? " immutable" : " -"));
+    }
+
+    void writeTo(OutputStream outputStream) throws IOException {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, String> entry : resources.entrySet()) {
+            result.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        outputStream.write(result.toString().getBytes("UTF-8"));
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest get(Future<MessageDigest> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the resources to be hashed");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static class Hashing implements Callable<MessageDigest> {
+
+        private final ZipArchive archive;
+        private final ZipArchiveEntry entry;
+
+        private Hashing(ZipArchive archive, ZipArchiveEntry entry) {
+            this.archive = archive;
+            this.entry = entry;
+        }
+
+        public MessageDigest call() throws IOException {
+            MessageDigest result = createDigest();
+            InputStream inputStream = archive.getInputStream(entry);
+            try {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = inputStream.read(buffer)) != -1) {
+                    result.update(buffer, 0, length);
+                }
+            } finally {
+                inputStream.close();
+            }
+            return result;
+        }
+    }
+}
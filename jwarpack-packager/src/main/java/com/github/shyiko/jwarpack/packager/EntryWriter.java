@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * Transfers entries from source archives into {@link ZipArchiveWriter}. Entries which have to be deflated are
+ * compressed (in memory) by a pool of worker threads, while the output is still written sequentially in the order
+ * entries were added. Whether entry is compressed in memory or streamed depends only on its size, which makes
+ * resulting archive independent of the number of threads. Entries compressed in memory are bounded by their total
+ * (uncompressed) size, so that memory footprint doesn't grow with the number of threads.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+class EntryWriter implements Closeable {
+
+    /**
+     * Entries larger than this are deflated by the writing thread (in a streaming fashion) so that memory
+     * footprint stays bounded.
+     */
+    private static final long MAX_BUFFERED_ENTRY_SIZE = 16 * 1024 * 1024;
+    /**
+     * Default limit on the total size of the entries which are compressed in memory (and not yet written).
+     */
+    private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private final ZipArchiveWriter writer;
+    private final ZipArchive previousArchive;
+    private final PackagingStatistics statistics;
+    private final PackagingListener listener;
+    private final int totalEntries;
+    private final ExecutorService executorService;
+    private final int maxPendingEntries;
+    private final long maxPendingBytes;
+    private final Queue<PendingEntry> pendingEntries = new LinkedList<PendingEntry>();
+    private long pendingBytes;
+    private int entriesWritten;
+    private boolean failed;
+
+    /**
+     * @param writer target writer
+     * @param threads number of threads used for compression
+     * @param previousArchive previous version of the archive being written (if any). Unchanged entries which
+     * would otherwise have to be recompressed are copied from it as is
+     * @param statistics statistics to update
+     * @param listener listener to notify about each written entry
+     * @param totalEntries total number of entries which are going to be added
+     */
+    EntryWriter(ZipArchiveWriter writer, int threads, ZipArchive previousArchive, PackagingStatistics statistics,
+                PackagingListener listener, int totalEntries) {
+        this(writer, threads, previousArchive, statistics, listener, totalEntries, MAX_PENDING_BYTES);
+    }
+
+    /**
+     * @param maxPendingBytes limit on the total (uncompressed) size of the entries which are compressed in memory
+     * and not yet written. Entry larger than that is still compressed in memory, though not until all the
+     * preceding ones are written
+     * @see #EntryWriter(ZipArchiveWriter, int, ZipArchive, PackagingStatistics, PackagingListener, int)
+     */
+    EntryWriter(ZipArchiveWriter writer, int threads, ZipArchive previousArchive, PackagingStatistics statistics,
+                PackagingListener listener, int totalEntries, long maxPendingBytes) {
+        this.writer = writer;
+        this.previousArchive = previousArchive;
+        this.statistics = statistics;
+        this.listener = listener;
+        this.totalEntries = totalEntries;
+        this.executorService = threads > 1 ? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jwarpack-deflater");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+        this.maxPendingEntries = threads * 4;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * @param archive source archive
+     * @param entry entry of the source archive
+     * @param method compression method entry should be stored with
+     */
+    void add(final ZipArchive archive, final ZipArchiveEntry entry, int method) throws IOException {
+        PendingEntry pendingEntry = new PendingEntry(archive, entry, method);
+        if (entry.getMethod() != method && !entry.isDirectory() && previousArchive != null) {
+            ZipArchiveEntry previousEntry = previousArchive.getEntry(entry.getName());
+            if (previousEntry != null && previousEntry.getMethod() == method &&
+                previousEntry.getCrc() == entry.getCrc() && previousEntry.getSize() == entry.getSize()) {
+                pendingEntry.previousEntry = previousEntry;
+            }
+        }
+        boolean succeeded = false;
+        try {
+            if (pendingEntry.previousEntry == null && method == ZipArchiveEntry.DEFLATED &&
+                entry.getMethod() != method && !entry.isDirectory() && entry.getSize() <= MAX_BUFFERED_ENTRY_SIZE) {
+                while (!pendingEntries.isEmpty() && pendingBytes + entry.getSize() > maxPendingBytes) {
+                    write(pendingEntries.remove());
+                }
+                FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+                    public byte[] call() throws Exception {
+                        return deflate(archive, entry);
+                    }
+                });
+                if (executorService != null) {
+                    executorService.execute(task);
+                } else {
+                    task.run();
+                }
+                pendingEntry.compressedData = task;
+                pendingBytes += entry.getSize();
+            }
+            if (pendingEntry.compressedData == null && pendingEntries.isEmpty()) {
+                write(pendingEntry);
+            } else {
+                pendingEntries.add(pendingEntry);
+                while (pendingEntries.size() > maxPendingEntries) {
+                    write(pendingEntries.remove());
+                }
+            }
+            succeeded = true;
+        } finally {
+            failed |= !succeeded;
+        }
+    }
+
+    private byte[] deflate(ZipArchive archive, ZipArchiveEntry entry) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) (entry.getSize() / 2) + 64);
+        CRC32 crc = new CRC32();
+        InputStream inputStream = archive.getInputStream(entry);
+        try {
+            long size = ZipArchiveWriter.deflate(inputStream, outputStream, crc, writer.getLevel(),
+                    new byte[8192]);
+            if (size != entry.getSize() || crc.getValue() != entry.getCrc()) {
+                throw new ZipException(String.format("Entry %s is corrupted (crc or size mismatch)",
+                        entry.getName()));
+            }
+        } finally {
+            inputStream.close();
+        }
+        return outputStream.toByteArray();
+    }
+
+    private void write(PendingEntry pendingEntry) throws IOException {
+        ZipArchiveEntry entry = pendingEntry.entry;
+        ZipArchiveEntry previousEntry = pendingEntry.previousEntry;
+        if (pendingEntry.compressedData != null) {
+            byte[] compressedData = getCompressedData(pendingEntry);
+            pendingBytes -= entry.getSize();
+            writer.writeRaw(entry.withMethod(ZipArchiveEntry.DEFLATED, compressedData.length),
+                    ByteBuffer.wrap(compressedData));
+            statistics.entryCompressed(entry.getCompressedSize(), entry.getSize());
+        } else
+        if (previousEntry != null) {
+            writer.writeRaw(entry.withMethod(previousEntry.getMethod(), previousEntry.getCompressedSize()),
+                    previousArchive, previousEntry);
+            statistics.entryReused(previousEntry.getCompressedSize(), entry.getSize());
+        } else {
+            ZipArchive archive = pendingEntry.archive;
+            boolean copyAsIs = entry.getMethod() == pendingEntry.method || entry.isDirectory();
+            if (copyAsIs) {
+                writer.writeRaw(entry, archive, entry);
+            } else {
+                InputStream inputStream = archive.getInputStream(entry);
+                try {
+                    writer.write(entry, pendingEntry.method, inputStream);
+                } finally {
+                    inputStream.close();
+                }
+            }
+            if (copyAsIs) {
+                statistics.entryCopied(entry.getCompressedSize(), entry.getSize());
+            } else
+            if (pendingEntry.method == ZipArchiveEntry.DEFLATED) {
+                statistics.entryCompressed(entry.getCompressedSize(), entry.getSize());
+            } else {
+                statistics.entryDecompressed(entry.getCompressedSize(), entry.getSize());
+            }
+        }
+        listener.onEntryWritten(entry.getName(), ++entriesWritten, totalEntries);
+    }
+
+    private byte[] getCompressedData(PendingEntry pendingEntry) throws IOException {
+        try {
+            return pendingEntry.compressedData.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing " + pendingEntry.entry.getName());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return total (uncompressed) size of the entries which are compressed in memory and not yet written
+     */
+    long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Writes out all pending entries.
+     */
+    void flush() throws IOException {
+        boolean succeeded = false;
+        try {
+            while (!pendingEntries.isEmpty()) {
+                write(pendingEntries.remove());
+            }
+            succeeded = true;
+        } finally {
+            failed |= !succeeded;
+        }
+    }
+
+    /**
+     * Flushes pending entries (unless one of the previous writes has failed) and closes underlying writer.
+     */
+    public void close() throws IOException {
+        try {
+            if (!failed) {
+                flush();
+            }
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+            writer.close();
+        }
+    }
+
+    private static class PendingEntry {
+
+        private final ZipArchive archive;
+        private final ZipArchiveEntry entry;
+        private final int method;
+        private ZipArchiveEntry previousEntry;
+        private Future<byte[]> compressedData;
+
+        private PendingEntry(ZipArchive archive, ZipArchiveEntry entry, int method) {
+            this.archive = archive;
+            this.entry = entry;
+            this.method = method;
+        }
+    }
+}
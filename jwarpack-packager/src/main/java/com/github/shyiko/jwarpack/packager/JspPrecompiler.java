@@ -0,0 +1,471 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Translates JSPs of the application WAR into servlets (with the JspC bundled into JSP-enabled server launcher JAR)
+ * and compiles them (with the system Java compiler, for the Java release server launcher JAR is built for), so
+ * that embedded server doesn't have to do that on the first request. Result is the compiled classes (under
+ * WEB-INF/classes/) and WEB-INF/web.xml which maps each of the JSPs to the corresponding servlet.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+class JspPrecompiler {
+
+    private static final String JSPC_CLASS = "org.apache.jasper.JspC";
+    private static final String WEB_XML = "WEB-INF/web.xml";
+    private static final String CLASSES = "WEB-INF/classes/";
+    private static final String LIB = "WEB-INF/lib/";
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    /**
+     * Class files of Java release N (1.2 and later) have major version N + 44.
+     */
+    private static final int CLASS_FILE_VERSION_OFFSET = 44;
+    /**
+     * Local names of the elements which (according to the Servlet 2.3 DTD) must follow servlet definitions. Servlets
+     * generated by JspC are inserted right before the first of them (or before the closing tag of the root element).
+     */
+    private static final List<String> ELEMENTS_FOLLOWING_SERVLETS = Arrays.asList(
+            "servlet-mapping", "session-config", "mime-mapping", "welcome-file-list", "error-page", "taglib",
+            "resource-env-ref", "resource-ref", "security-constraint", "login-config", "security-role", "env-entry",
+            "ejb-ref", "ejb-local-ref"
+    );
+
+    private final ZipArchive serverLauncherJar;
+    private final File serverLauncherFile;
+
+    /**
+     * @param serverLauncherJar server launcher JAR (must contain JspC)
+     * @param serverLauncherFile file server launcher JAR was read from (null if it was read from a stream)
+     */
+    JspPrecompiler(ZipArchive serverLauncherJar, File serverLauncherFile) {
+        this.serverLauncherJar = serverLauncherJar;
+        this.serverLauncherFile = serverLauncherFile;
+    }
+
+    /**
+     * @param applicationWar application WAR
+     * @param outputStream stream WEB-INF/web.xml and compiled classes should be written to
+     * @return false if application WAR doesn't contain any JSPs (in which case nothing is written)
+     * @throws IOException if JSPs cannot be translated or compiled
+     */
+    boolean precompile(ZipArchive applicationWar, ZipOutputStream outputStream) throws IOException {
+        if (!containsJsps(applicationWar)) {
+            return false;
+        }
+        File workingDirectory = createTemporaryDirectory();
+        try {
+            File webAppDirectory = new File(workingDirectory, "webapp");
+            File outputDirectory = new File(workingDirectory, "output");
+            File webIncFile = new File(workingDirectory, "webinc.xml");
+            extract(applicationWar, webAppDirectory);
+            List<File> classPath = new ArrayList<File>();
+            classPath.add(serverLauncherFile != null ? serverLauncherFile :
+                    copy(serverLauncherJar, new File(workingDirectory, "server-launcher.jar")));
+            classPath.add(new File(webAppDirectory, CLASSES));
+            File[] libraries = new File(webAppDirectory, LIB).listFiles();
+            if (libraries != null) {
+                Arrays.sort(libraries);
+                classPath.addAll(Arrays.asList(libraries));
+            }
+            translate(classPath, workingDirectory, webAppDirectory, outputDirectory, webIncFile);
+            compile(classPath, outputDirectory, getTargetRelease());
+            String webXml = mergeWebXml(readWebXml(applicationWar), read(webIncFile));
+            outputStream.putNextEntry(new ZipEntry(WEB_XML));
+            outputStream.write(webXml.getBytes("UTF-8"));
+            outputStream.closeEntry();
+            writeClasses(outputDirectory, CLASSES, outputStream);
+            return true;
+        } finally {
+            delete(workingDirectory);
+        }
+    }
+
+    private boolean containsJsps(ZipArchive applicationWar) {
+        for (ZipArchiveEntry entry : applicationWar.getEntries()) {
+            String name = entry.getName().toLowerCase();
+            if (name.endsWith(".jsp") || name.endsWith(".jspx")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void translate(List<File> classPath, File workingDirectory, File webAppDirectory, File outputDirectory,
+                           File webIncFile) throws IOException {
+        // Jasper's ClassLoaderUtil reports (harmless) failures through a resource bundle which is not packaged
+        // along with it, so an empty one is provided to keep that from failing the translation
+        File bundleDirectory = new File(workingDirectory, "bundle");
+        File bundle = new File(bundleDirectory, "com/sun/common/util/logging/LogStrings.properties");
+        bundle.getParentFile().mkdirs();
+        new FileOutputStream(bundle).close();
+        List<URL> urls = new ArrayList<URL>();
+        for (File file : classPath) {
+            urls.add(file.toURI().toURL());
+        }
+        urls.add(bundleDirectory.toURI().toURL());
+        URLClassLoader classLoader = new URLClassLoader(urls.toArray(new URL[urls.size()]),
+                ClassLoader.getSystemClassLoader().getParent());
+        Thread currentThread = Thread.currentThread();
+        ClassLoader contextClassLoader = currentThread.getContextClassLoader();
+        currentThread.setContextClassLoader(classLoader);
+        try {
+            Class<?> jspcClass;
+            try {
+                jspcClass = classLoader.loadClass(JSPC_CLASS);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("JSPs can be precompiled only with JSP-enabled server launcher JAR", e);
+            }
+            Object jspc = jspcClass.getDeclaredConstructor().newInstance();
+            jspcClass.getMethod("setArgs", String[].class).invoke(jspc, (Object) new String[] {
+                    "-uriroot", webAppDirectory.getAbsolutePath(),
+                    "-d", outputDirectory.getAbsolutePath(),
+                    "-webinc", webIncFile.getAbsolutePath()
+            });
+            Method execute = jspcClass.getMethod("execute");
+            // JspC keeps some of its state in static fields, so it's not safe to run it concurrently (e.g. in batch)
+            synchronized (JspPrecompiler.class) {
+                execute.invoke(jspc);
+            }
+        } catch (InvocationTargetException e) {
+            throw new IOException("Failed to translate JSPs", e.getCause());
+        } catch (InstantiationException e) {
+            throw new IOException("Failed to instantiate " + JSPC_CLASS, e);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Failed to instantiate " + JSPC_CLASS, e);
+        } catch (NoSuchMethodException e) {
+            throw new IOException("Unsupported version of " + JSPC_CLASS, e);
+        } finally {
+            currentThread.setContextClassLoader(contextClassLoader);
+            classLoader.close();
+        }
+    }
+
+    /**
+     * @return Java release server launcher JAR is built for (derived from the class file version of its main class),
+     * null if it cannot be determined
+     */
+    private Integer getTargetRelease() throws IOException {
+        ZipArchiveEntry manifestEntry = serverLauncherJar.getEntry(MANIFEST);
+        if (manifestEntry == null) {
+            return null;
+        }
+        Manifest manifest;
+        InputStream inputStream = serverLauncherJar.getInputStream(manifestEntry);
+        try {
+            manifest = new Manifest(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        String mainClass = manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+        ZipArchiveEntry mainClassEntry = mainClass == null ? null :
+                serverLauncherJar.getEntry(mainClass.trim().replace('.', '/') + ".class");
+        if (mainClassEntry == null) {
+            return null;
+        }
+        DataInputStream dataInputStream = new DataInputStream(serverLauncherJar.getInputStream(mainClassEntry));
+        try {
+            if (dataInputStream.readInt() != 0xCAFEBABE) {
+                return null;
+            }
+            dataInputStream.readUnsignedShort(); // minor version
+            return dataInputStream.readUnsignedShort() - CLASS_FILE_VERSION_OFFSET;
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            dataInputStream.close();
+        }
+    }
+
+    /**
+     * @param targetRelease Java release classes should be compiled for (null for the one of the compiler)
+     */
+    private void compile(List<File> classPath, File outputDirectory, Integer targetRelease) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("JSPs can be precompiled only on JDK (Java compiler is not available)");
+        }
+        List<File> sources = new ArrayList<File>();
+        collectSources(outputDirectory, sources);
+        if (sources.isEmpty()) {
+            return;
+        }
+        StringBuilder classPathBuilder = new StringBuilder();
+        for (File file : classPath) {
+            if (classPathBuilder.length() != 0) {
+                classPathBuilder.append(File.pathSeparatorChar);
+            }
+            classPathBuilder.append(file.getAbsolutePath());
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        try {
+            List<String> options = new ArrayList<String>(Arrays.asList("-classpath", classPathBuilder.toString(),
+                    "-d", outputDirectory.getAbsolutePath(), "-encoding", "UTF-8", "-nowarn", "-g"));
+            if (targetRelease != null) {
+                String release = targetRelease.toString();
+                // --release (which also checks API usage against the target release) is not available prior to JDK 9
+                options.addAll(compiler.isSupportedOption("--release") != -1 ? Arrays.asList("--release", release) :
+                        Arrays.asList("-source", release, "-target", release));
+            }
+            JavaCompiler.CompilationTask task;
+            try {
+                task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                        fileManager.getJavaFileObjectsFromFiles(sources));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(String.format("Java compiler cannot compile JSPs for Java %s (release server " +
+                        "launcher JAR is built for)", targetRelease), e);
+            }
+            boolean succeeded = task.call();
+            if (!succeeded) {
+                StringBuilder message = new StringBuilder("Failed to compile JSPs:");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                        message.append('\n').append(diagnostic);
+                    }
+                }
+                throw new IOException(message.toString());
+            }
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    private void collectSources(File directory, List<File> result) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectSources(file, result);
+            } else
+            if (file.getName().endsWith(".java")) {
+                result.add(file);
+            }
+        }
+    }
+
+    private String readWebXml(ZipArchive applicationWar) throws IOException {
+        ZipArchiveEntry entry = applicationWar.getEntry(WEB_XML);
+        if (entry == null) {
+            return null;
+        }
+        InputStream inputStream = applicationWar.getInputStream(entry);
+        try {
+            return read(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @param webXml content of the WEB-INF/web.xml (null if application doesn't have one)
+     * @param fragment servlet definitions and mappings generated by JspC
+     * @return web.xml with servlet definitions and mappings inserted before the first of the top-level elements
+     * which must follow them (elements of fragment get the prefix of the &lt;web-app&gt;, if it has one)
+     * @throws IllegalArgumentException if web.xml is not well-formed
+     */
+    static String mergeWebXml(String webXml, String fragment) {
+        if (webXml == null) {
+            return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                   "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"2.5\">\n" +
+                   fragment + "\n</web-app>\n";
+        }
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(webXml));
+            try {
+                String prefix = null;
+                boolean found = false;
+                int depth = 0;
+                while (!found && reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        if (depth == 0) {
+                            prefix = reader.getPrefix();
+                        }
+                        found = depth == 1 && ELEMENTS_FOLLOWING_SERVLETS.contains(reader.getLocalName());
+                        depth++;
+                    } else
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                        found = depth == 0;
+                    }
+                }
+                if (!found) {
+                    throw new IllegalArgumentException("WEB-INF/web.xml is missing closing </web-app> tag");
+                }
+                String name = isEmpty(reader.getPrefix()) ? reader.getLocalName() :
+                        reader.getPrefix() + ":" + reader.getLocalName();
+                String tag = (reader.isEndElement() ? "</" : "<") + name;
+                // reader may have looked ahead (through the text and the '<' of the next markup) past the tag,
+                // text can't contain unescaped '<', so the tag is the last one before that
+                int index = reader.getLocation().getCharacterOffset() - 2;
+                do {
+                    index = webXml.lastIndexOf(tag, index - 1);
+                } while (index != -1 && isNameCharacter(webXml.charAt(index + tag.length())));
+                if (!isEmpty(prefix)) {
+                    fragment = fragment.replaceAll("<(/?)([A-Za-z])", "<$1" + prefix + ":$2");
+                }
+                return webXml.substring(0, index) + fragment + "\n" + webXml.substring(index);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("WEB-INF/web.xml is not well-formed: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+
+    private static boolean isNameCharacter(char c) {
+        return !Character.isWhitespace(c) && c != '>' && c != '/';
+    }
+
+    private void writeClasses(File directory, String prefix, ZipOutputStream outputStream) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                writeClasses(file, prefix + file.getName() + "/", outputStream);
+            } else
+            if (file.getName().endsWith(".class")) {
+                outputStream.putNextEntry(new ZipEntry(prefix + file.getName()));
+                InputStream inputStream = new FileInputStream(file);
+                try {
+                    copy(inputStream, outputStream);
+                } finally {
+                    inputStream.close();
+                }
+                outputStream.closeEntry();
+            }
+        }
+    }
+
+    private void extract(ZipArchive archive, File directory) throws IOException {
+        String root = directory.getCanonicalPath() + File.separator;
+        for (ZipArchiveEntry entry : archive.getEntries()) {
+            File file = new File(directory, entry.getName());
+            if (!file.getCanonicalPath().startsWith(root)) {
+                throw new IOException(String.format("Entry %s points outside of the target directory",
+                        entry.getName()));
+            }
+            if (entry.isDirectory()) {
+                file.mkdirs();
+                continue;
+            }
+            file.getParentFile().mkdirs();
+            InputStream inputStream = archive.getInputStream(entry);
+            try {
+                OutputStream outputStream = new FileOutputStream(file);
+                try {
+                    copy(inputStream, outputStream);
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+
+    private File copy(ZipArchive archive, File file) throws IOException {
+        ZipArchiveWriter writer = new ZipArchiveWriter(new FileOutputStream(file).getChannel(),
+                Deflater.DEFAULT_COMPRESSION);
+        try {
+            for (ZipArchiveEntry entry : archive.getEntries()) {
+                writer.writeRaw(entry, archive, entry);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return read(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        copy(inputStream, outputStream);
+        return outputStream.toString("UTF-8");
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        int size;
+        while ((size = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, size);
+        }
+    }
+
+    private static File createTemporaryDirectory() throws IOException {
+        File file = File.createTempFile("jwarpack-jspc-", "");
+        if (!file.delete() || !file.mkdir()) {
+            throw new IOException("Failed to create temporary directory " + file);
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -16,6 +16,9 @@
 package com.github.shyiko.jwarpack.packager;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
@@ -26,6 +29,14 @@ public class Metadata {
     private File applicationWar;
     private File outputJar;
     private boolean useCompression;
+    private CompressionPolicy compressionPolicy = new CompressionPolicy();
+    private int threads;
+    private boolean incremental;
+    private boolean precompileJsps;
+    private boolean classDataSharing;
+    private boolean indexETags;
+    private boolean indexTlds;
+    private Set<String> precompressedExtensions = Collections.emptySet();
 
     /**
      * @param serverLauncherJar server launcher JAR provided by jwarpack
@@ -66,6 +77,16 @@ public class Metadata {
         this.useCompression = useCompression;
     }
 
+    /**
+     * Metadata without file locations, meant to be used with the stream-based {@link Packager} methods
+     * (e.g. {@link Packager#pack(java.io.InputStream, java.io.InputStream, java.io.OutputStream, Metadata)}).
+     *
+     * @param useCompression true if compression should be used, false otherwise
+     */
+    public Metadata(boolean useCompression) {
+        this.useCompression = useCompression;
+    }
+
     private String generateOutputJarName(File applicationWar) {
         String result = applicationWar.getName().toLowerCase();
         if (result.endsWith(".war")) {
@@ -89,4 +110,119 @@ public class Metadata {
     public boolean isUseCompression() {
         return useCompression;
     }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * @param compressionPolicy policy which decides how each entry is stored (applies only if compression is on)
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        if (compressionPolicy == null) {
+            throw new IllegalArgumentException("Compression policy must be specified");
+        }
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * @return number of threads used to compress entries (defaults to the number of available processors, which in
+     * case of {@link Packager#pack(java.util.List, int)} are divided between concurrently packed JARs)
+     */
+    public int getThreads() {
+        return threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    /**
+     * @return true if number of threads was set explicitly, false if it's the default one
+     */
+    boolean isThreadsSpecified() {
+        return threads != 0;
+    }
+
+    /**
+     * @param threads number of threads used to compress entries. Resulting JAR does not depend on this value.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+        this.threads = threads;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param incremental true if unchanged entries should be copied from the existing output JAR (if any)
+     * instead of being recompressed, false otherwise
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isPrecompileJsps() {
+        return precompileJsps;
+    }
+
+    /**
+     * @param precompileJsps true if JSPs of the application WAR should be compiled into servlets at packaging time
+     * (requires JSP-enabled server launcher JAR and JDK), false otherwise
+     */
+    public void setPrecompileJsps(boolean precompileJsps) {
+        this.precompileJsps = precompileJsps;
+    }
+
+    public boolean isClassDataSharing() {
+        return classDataSharing;
+    }
+
+    /**
+     * @param classDataSharing true if class data sharing archive (&lt;output JAR name&gt;.jsa) should be recorded by
+     * starting standalone JAR once (requires Java 13+, archive is only valid for the JVM packager runs on), false
+     * otherwise. Applies only to file-based packaging
+     */
+    public void setClassDataSharing(boolean classDataSharing) {
+        this.classDataSharing = classDataSharing;
+    }
+
+    public boolean isIndexETags() {
+        return indexETags;
+    }
+
+    /**
+     * @param indexETags true if content hash of each static resource should be recorded at packaging time, so that
+     * embedded server could use it as ETag (and answer conditional requests without reading the resource), false
+     * otherwise
+     */
+    public void setIndexETags(boolean indexETags) {
+        this.indexETags = indexETags;
+    }
+
+    public boolean isIndexTlds() {
+        return indexTlds;
+    }
+
+    /**
+     * @param indexTlds true if TLDs of the WEB-INF/lib JARs should be listed at packaging time, so that embedded
+     * server could look them up in the index instead of opening each of the JARs on startup, false otherwise
+     */
+    public void setIndexTlds(boolean indexTlds) {
+        this.indexTlds = indexTlds;
+    }
+
+    public Set<String> getPrecompressedExtensions() {
+        return precompressedExtensions;
+    }
+
+    /**
+     * @param precompressedExtensions extensions of the static resources (e.g. ".css", ".js", see
+     * {@link CompressionPolicy#TEXT_FILE_EXTENSIONS}) gzip-compressed copy (&lt;name&gt;.gz) of which should be added
+     * at packaging time, so that embedded server could serve it to the clients accepting gzip encoding without
+     * compressing anything per request. Empty (default) if nothing should be precompressed
+     */
+    public void setPrecompressedExtensions(Collection<String> precompressedExtensions) {
+        this.precompressedExtensions = CompressionPolicy.normalizeExtensions(precompressedExtensions);
+    }
 }
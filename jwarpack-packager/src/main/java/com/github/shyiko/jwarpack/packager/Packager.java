@@ -16,9 +16,13 @@
 package com.github.shyiko.jwarpack.packager;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 /**
@@ -28,107 +32,475 @@ import java.util.zip.ZipOutputStream;
  */
 public class Packager {
 
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final String COMPRESSION_LEVEL_COMMENT_PREFIX = "jwarpack deflate level ";
+    private static final PackagingListener NO_OP_LISTENER = new PackagingListener() {
+
+        public void onPhaseCompleted(PackagingPhase phase, long durationInMillis) {}
+
+        public void onEntryWritten(String entryName, int entriesWritten, int totalEntries) {}
+
+        public void onPackagingCompleted(PackagingStatistics statistics) {}
+    };
+
+    private PackagingListener listener = NO_OP_LISTENER;
+
+    /**
+     * @param listener listener which should be notified about packaging progress (null to remove current one)
+     */
+    public void setListener(PackagingListener listener) {
+        this.listener = listener == null ? NO_OP_LISTENER : listener;
+    }
+
     /**
      * Merge server launcher jar and application war into one JAR file.
+     * Entries are streamed from both archives directly into the output, so no intermediate files are created.
+     * Entry data is copied without recompression unless its compression method differs from the requested one.
+     * Source archives are memory-mapped and data of the entries which are copied as is is transferred with
+     * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so it
+     * doesn't have to pass through the Java heap.
+     * Entries which need to be deflated (see {@link Metadata#getCompressionPolicy()}) are compressed in parallel
+     * (see {@link Metadata#getThreads()}).
+     * In case of a name clash, entry from the application war wins (except for META-INF/MANIFEST.MF, which is
+     * always taken from the server launcher jar).
+     * <p/>
+     * If {@link Metadata#isIncremental()} is on and output JAR already exists, entries which have not changed since
+     * previous run (same name, CRC and size) are copied from the existing output JAR instead of being recompressed.
+     * Deflate level is recorded in the comment of each output JAR, so that nothing is reused if the level has changed
+     * since then (or previous output doesn't have it recorded).
+     * <p/>
+     * If {@link Metadata#isPrecompileJsps()} is on, JSPs of the application war are compiled into servlets (with the
+     * JspC bundled into JSP-enabled server launcher JAR), which are then added to WEB-INF/classes along with the
+     * corresponding servlet mappings in WEB-INF/web.xml.
+     * <p/>
+     * If {@link Metadata#getPrecompressedExtensions()} is not empty, gzip-compressed copy (&lt;name&gt;.gz) of each
+     * static resource with one of the extensions is added next to it (see {@link AssetPrecompressor}).
+     * <p/>
+     * If {@link Metadata#isIndexETags()} is on, content hash of each static resource (including precompressed ones)
+     * is recorded (see {@link ETagIndex}), so that embedded server can answer conditional requests without reading
+     * the resources.
+     * <p/>
+     * If {@link Metadata#isIndexTlds()} is on, the TLDs of all the WEB-INF/lib JARs are indexed (see
+     * {@link ScanIndex}), so that embedded server doesn't have to open each of the JARs on startup.
+     * <p/>
+     * If {@link Metadata#isClassDataSharing()} is on, resulting JAR is then started once (on an ephemeral port) to
+     * record class data sharing archive next to it, which server launcher uses to cut class loading time on startup.
      *
      * @param metadata metadata
      * @return standalone JAR file
      * @throws IOException if anything goes wrong during standalone JAR file creation
      */
     public File pack(Metadata metadata) throws IOException {
-        File tempDirectory = new File(System.getProperty("java.io.tmpdir"), "jwarpack-" + System.currentTimeMillis());
-        tempDirectory.mkdir();
-        extract(metadata.getServerLauncherJar(), tempDirectory, Collections.<String>emptySet());
-        extract(metadata.getApplicationWar(), tempDirectory, Arrays.asList("META-INF/MANIFEST.MF"));
+        pack(metadata, null, metadata.getThreads());
+        return metadata.getOutputJar();
+    }
+
+    /**
+     * Packs a number of application WARs concurrently (see {@link #pack(Metadata)}). Each distinct server launcher
+     * JAR is read only once and then shared by all the tasks which use it. Unless {@link Metadata#setThreads(int)}
+     * is called explicitly, available processors are divided between the tasks packed at the same time (i.e. each
+     * of them gets max(1, processors / concurrency) threads for compression).
+     * <p/>
+     * Failure to pack one of the WARs doesn't affect the others. Listener (if any) is notified from the worker
+     * threads, possibly concurrently.
+     *
+     * @param batch metadata of each standalone JAR (output JARs must be distinct)
+     * @param concurrency maximum number of standalone JARs which are packed at the same time
+     * @return result for each element of the batch (in the same order)
+     * @throws InterruptedIOException if current thread was interrupted while waiting for the tasks to complete
+     * @throws IOException if server launcher JAR cannot be closed
+     */
+    public List<PackagingResult> pack(List<Metadata> batch, int concurrency) throws IOException {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        Set<File> outputJars = new HashSet<File>();
+        for (Metadata metadata : batch) {
+            if (!outputJars.add(metadata.getOutputJar().getAbsoluteFile())) {
+                throw new IllegalArgumentException(
+                        String.format("%s is used as output JAR more than once", metadata.getOutputJar()));
+            }
+        }
+        Map<File, ZipArchive> serverLauncherJars = new HashMap<File, ZipArchive>();
+        int numberOfThreads = Math.max(1, Math.min(concurrency, batch.size()));
+        // otherwise each of the tasks would compress on all the processors
+        int threadsPerTask = Math.max(1, Runtime.getRuntime().availableProcessors() / numberOfThreads);
+        ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<PackagingStatistics>> futures = new ArrayList<Future<PackagingStatistics>>(batch.size());
+            for (final Metadata metadata : batch) {
+                final ZipArchive serverLauncherJar = getServerLauncherJar(metadata, serverLauncherJars);
+                final int threads = metadata.isThreadsSpecified() ? metadata.getThreads() : threadsPerTask;
+                futures.add(executorService.submit(new Callable<PackagingStatistics>() {
+
+                    public PackagingStatistics call() throws Exception {
+                        return pack(metadata, serverLauncherJar, threads);
+                    }
+                }));
+            }
+            List<PackagingResult> result = new ArrayList<PackagingResult>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Metadata metadata = batch.get(i);
+                try {
+                    result.add(new PackagingResult(metadata, futures.get(i).get(), null));
+                } catch (ExecutionException e) {
+                    result.add(new PackagingResult(metadata, null, e.getCause()));
+                }
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the batch to complete");
+        } finally {
+            executorService.shutdownNow();
+            awaitTermination(executorService);
+            for (ZipArchive serverLauncherJar : serverLauncherJars.values()) {
+                if (serverLauncherJar != null) {
+                    serverLauncherJar.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return shared server launcher JAR or null if it cannot be opened (in which case each task is going to try to
+     * open it on its own and fail)
+     */
+    private ZipArchive getServerLauncherJar(Metadata metadata, Map<File, ZipArchive> serverLauncherJars) {
+        File file = metadata.getServerLauncherJar().getAbsoluteFile();
+        if (!serverLauncherJars.containsKey(file)) {
+            ZipArchive serverLauncherJar = null;
+            try {
+                serverLauncherJar = ZipArchive.open(file, true);
+            } catch (IOException e) {
+                // reported as a failure of each affected task
+            }
+            serverLauncherJars.put(file, serverLauncherJar);
+        }
+        return serverLauncherJars.get(file);
+    }
+
+    private void awaitTermination(ExecutorService executorService) {
+        // shared archives must not be closed while there are still tasks using them
+        boolean interrupted = false;
+        while (!executorService.isTerminated()) {
+            try {
+                executorService.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Same as {@link #pack(Metadata)} except that archives are read from/written to the streams. As ZIP file cannot
+     * be read sequentially, input streams are loaded into memory (unless they are {@link FileInputStream}s).
+     * None of the streams are closed.
+     *
+     * @param serverLauncherJar server launcher JAR
+     * @param applicationWar application WAR
+     * @param outputJar stream standalone JAR should be written to
+     * @param metadata packaging settings (file locations and {@link Metadata#isIncremental()} are ignored)
+     * @return statistics of the packaging
+     * @throws IOException if anything goes wrong during standalone JAR creation
+     */
+    public PackagingStatistics pack(InputStream serverLauncherJar, InputStream applicationWar,
+                                    OutputStream outputJar, Metadata metadata) throws IOException {
+        PhaseTracker phaseTracker = new PhaseTracker(new PackagingStatistics());
+        phaseTracker.start(PackagingPhase.READING_ARCHIVES);
+        ZipArchive serverLauncherArchive = ZipArchive.open(serverLauncherJar, "server launcher JAR");
+        ZipArchive applicationArchive = ZipArchive.open(applicationWar, "application WAR");
+        return pack(metadata, serverLauncherArchive, applicationArchive, outputJar, phaseTracker);
+    }
+
+    /**
+     * Same as {@link #pack(Metadata)} except that archives are read from the channels and written to the stream.
+     * Channels are accessed with absolute positioning and (unless they are {@link java.nio.channels.FileChannel}s)
+     * serially. None of the channels/streams are closed.
+     *
+     * @param serverLauncherJar server launcher JAR
+     * @param applicationWar application WAR
+     * @param outputJar stream standalone JAR should be written to
+     * @param metadata packaging settings (file locations and {@link Metadata#isIncremental()} are ignored)
+     * @return statistics of the packaging
+     * @throws IOException if anything goes wrong during standalone JAR creation
+     */
+    public PackagingStatistics pack(SeekableByteChannel serverLauncherJar, SeekableByteChannel applicationWar,
+                                    OutputStream outputJar, Metadata metadata) throws IOException {
+        PhaseTracker phaseTracker = new PhaseTracker(new PackagingStatistics());
+        phaseTracker.start(PackagingPhase.READING_ARCHIVES);
+        ZipArchive serverLauncherArchive = ZipArchive.open(serverLauncherJar, "server launcher JAR");
+        ZipArchive applicationArchive = ZipArchive.open(applicationWar, "application WAR");
+        return pack(metadata, serverLauncherArchive, applicationArchive, outputJar, phaseTracker);
+    }
+
+    private PackagingStatistics pack(Metadata metadata, ZipArchive serverLauncherJar, ZipArchive applicationWar,
+                                     OutputStream outputJar, PhaseTracker phaseTracker) throws IOException {
+        // underlying stream belongs to the caller, so channel is not allowed to close it
+        WritableByteChannel outputChannel = Channels.newChannel(new FilterOutputStream(outputJar) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+        pack(metadata, serverLauncherJar, applicationWar, outputChannel, null, phaseTracker, metadata.getThreads());
+        phaseTracker.complete();
+        listener.onPackagingCompleted(phaseTracker.statistics);
+        return phaseTracker.statistics;
+    }
+
+    /**
+     * @param threads number of threads used for compression (overrides {@link Metadata#getThreads()})
+     */
+    private PackagingStatistics pack(Metadata metadata, ZipArchive sharedServerLauncherJar, int threads)
+            throws IOException {
+        if (metadata.getOutputJar() == null) {
+            throw new IllegalArgumentException("File locations must be specified (or stream-based pack used instead)");
+        }
+        PackagingStatistics statistics = new PackagingStatistics();
+        PhaseTracker phaseTracker = new PhaseTracker(statistics);
+        phaseTracker.start(PackagingPhase.READING_ARCHIVES);
         File outputJar = metadata.getOutputJar();
-        jar(tempDirectory, outputJar, metadata.isUseCompression());
-        delete(tempDirectory);
-        return outputJar;
-    }
-    
-    private void extract(File archiveFile, File targetDirectory, Collection<String> filesToSkip) throws IOException {
-        ZipFile zipFile = new ZipFile(archiveFile);
-        Enumeration zipFileEntries = zipFile.entries();
-        while (zipFileEntries.hasMoreElements()) {
-            ZipEntry zipEntry = (ZipEntry) zipFileEntries.nextElement();
-            String zipEntryName = zipEntry.getName();
-            if (filesToSkip.contains(zipEntryName)) {
-                continue;
-            }
-            File outputFile = new File(targetDirectory, zipEntryName);
-            if (zipEntry.isDirectory()) {
-                outputFile.mkdirs();
-            } else {
-                InputStream inputStream = new BufferedInputStream(zipFile.getInputStream(zipEntry));
+        ZipArchive previousOutputJar = metadata.isIncremental() ? openPreviousOutput(outputJar) : null;
+        if (previousOutputJar == null) {
+            pack(metadata, sharedServerLauncherJar, outputJar, null, phaseTracker, threads);
+        } else {
+            File temporaryJar = File.createTempFile(outputJar.getName() + "-", ".tmp", outputJar.getParentFile());
+            try {
                 try {
-                    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile));
-                    try {
-                        copyStream(inputStream, outputStream);
-                    } finally {
-                        outputStream.close();
-                    }
+                    pack(metadata, sharedServerLauncherJar, temporaryJar, previousOutputJar, phaseTracker, threads);
                 } finally {
-                    inputStream.close();
+                    previousOutputJar.close();
                 }
+                if (!temporaryJar.renameTo(outputJar)) {
+                    if (!outputJar.delete() || !temporaryJar.renameTo(outputJar)) {
+                        throw new IOException(String.format("Failed to replace %s", outputJar));
+                    }
+                }
+            } finally {
+                temporaryJar.delete();
             }
         }
+        if (metadata.isClassDataSharing()) {
+            phaseTracker.start(PackagingPhase.RECORDING_CDS_ARCHIVE);
+            ClassDataSharingArchiver.archive(outputJar);
+        }
+        phaseTracker.complete();
+        listener.onPackagingCompleted(statistics);
+        return statistics;
     }
 
-    private void copyStream(InputStream inputStream, OutputStream outputStream) throws IOException {
-        byte[] buffer = new byte[4096];
-        int size;
-        while ((size = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, size);
+    private ZipArchive openPreviousOutput(File outputJar) {
+        if (!outputJar.isFile()) {
+            return null;
+        }
+        try {
+            return ZipArchive.open(outputJar);
+        } catch (IOException e) {
+            // previous output is unusable, so it's just going to be overwritten
+            return null;
         }
     }
-    
-    private void jar(File sourceDirectory, File archiveFile, boolean useCompression) throws IOException {
-        ZipOutputStream outputStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile)));
+
+    private void pack(Metadata metadata, ZipArchive sharedServerLauncherJar, File outputJar,
+                      ZipArchive previousOutputJar, PhaseTracker phaseTracker, int threads) throws IOException {
+        ZipArchive serverLauncherJar = sharedServerLauncherJar != null ? sharedServerLauncherJar :
+                ZipArchive.open(metadata.getServerLauncherJar(), true);
         try {
-            if (useCompression) {
-                outputStream.setMethod(ZipOutputStream.DEFLATED);
-            }
-            Stack<File> stack = new Stack<File>();
-            stack.push(sourceDirectory);
-            while (!stack.empty()) {
-                File file = stack.pop();
-                if (file.isDirectory()) {
-                    File[] children = file.listFiles();
-                    if (children != null) {
-                        for (File child : children) {
-                            stack.push(child);
-                        }
-                    }
-                } else {
-                    String zipEntryName = extractEntryName(sourceDirectory, file);
-                    ZipEntry zipEntry = new ZipEntry(zipEntryName);
-                    outputStream.putNextEntry(zipEntry);
-                    InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-                    try {
-                        copyStream(inputStream, outputStream);
-                    } finally {
-                        inputStream.close();
-                    }
-                }
+            ZipArchive applicationWar = ZipArchive.open(metadata.getApplicationWar(), true);
+            try {
+                pack(metadata, serverLauncherJar, applicationWar, new FileOutputStream(outputJar).getChannel(),
+                        previousOutputJar, phaseTracker, threads);
+            } finally {
+                applicationWar.close();
             }
         } finally {
-            outputStream.close();
+            if (serverLauncherJar != sharedServerLauncherJar) {
+                serverLauncherJar.close();
+            }
         }
     }
-    
-    private String extractEntryName(File rootDirectory, File file) {
-        return file.getAbsolutePath().substring(rootDirectory.getAbsolutePath().length() + 1).replace("\\", "/");
+
+    private void pack(Metadata metadata, ZipArchive serverLauncherJar, ZipArchive applicationWar,
+                      WritableByteChannel outputChannel, ZipArchive previousOutputJar, PhaseTracker phaseTracker,
+                      int threads) throws IOException {
+        ZipArchive generatedArchive;
+        try {
+            generatedArchive = generateEntries(metadata, serverLauncherJar, applicationWar, phaseTracker, threads);
+        } catch (IOException e) {
+            outputChannel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            outputChannel.close();
+            throw e;
+        }
+        pack(metadata, serverLauncherJar, applicationWar, generatedArchive, outputChannel, previousOutputJar,
+                phaseTracker, threads);
     }
 
-    private void delete(File file) {
-        if (file.isDirectory()) {
-            File[] children = file.listFiles();
-            if (children != null) {
-                for (File child : children) {
-                    delete(child);
+    /**
+     * @return (in-memory) archive with the {@link ScanIndex}, precompiled JSPs, precompressed static resources and
+     * {@link ETagIndex} (whichever are requested) or null if there is nothing to add
+     */
+    private ZipArchive generateEntries(Metadata metadata, ZipArchive serverLauncherJar, ZipArchive applicationWar,
+                                       PhaseTracker phaseTracker, int threads) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        boolean empty = true;
+        try {
+            if (metadata.isIndexTlds()) {
+                phaseTracker.start(PackagingPhase.INDEXING_TLDS);
+                ScanIndex scanIndex = ScanIndex.create(applicationWar);
+                if (scanIndex != null) {
+                    zipOutputStream.putNextEntry(new ZipEntry(ScanIndex.ENTRY_NAME));
+                    scanIndex.writeTo(zipOutputStream);
+                    zipOutputStream.closeEntry();
+                    empty = false;
+                }
+            }
+            if (metadata.isPrecompileJsps()) {
+                phaseTracker.start(PackagingPhase.PRECOMPILING_JSPS);
+                JspPrecompiler jspPrecompiler = new JspPrecompiler(serverLauncherJar, metadata.getServerLauncherJar());
+                empty &= !jspPrecompiler.precompile(applicationWar, zipOutputStream);
+            }
+            Map<String, byte[]> precompressedAssets = Collections.emptyMap();
+            if (!metadata.getPrecompressedExtensions().isEmpty()) {
+                phaseTracker.start(PackagingPhase.PRECOMPRESSING_ASSETS);
+                AssetPrecompressor assetPrecompressor =
+                        new AssetPrecompressor(metadata.getPrecompressedExtensions(), threads);
+                precompressedAssets = assetPrecompressor.precompress(applicationWar, zipOutputStream);
+                empty &= precompressedAssets.isEmpty();
+            }
+            if (metadata.isIndexETags()) {
+                phaseTracker.start(PackagingPhase.INDEXING_ETAGS);
+                ETagIndex eTagIndex = ETagIndex.create(applicationWar, precompressedAssets, threads);
+                if (eTagIndex != null) {
+                    zipOutputStream.putNextEntry(new ZipEntry(ETagIndex.ENTRY_NAME));
+                    eTagIndex.writeTo(zipOutputStream);
+                    zipOutputStream.closeEntry();
+                    empty = false;
                 }
             }
+        } finally {
+            zipOutputStream.close();
+        }
+        if (empty) {
+            return null;
+        }
+        return ZipArchive.open(new ByteArrayInputStream(outputStream.toByteArray()), "generated entries");
+    }
+
+    /**
+     * @param generatedArchive archive with the entries generated at packaging time (null if there are none). Its
+     * entries take precedence over the ones of the application WAR (which is how servlet mappings of the
+     * precompiled JSPs make it into web.xml)
+     */
+    private void pack(Metadata metadata, ZipArchive serverLauncherJar, ZipArchive applicationWar,
+                      ZipArchive generatedArchive, WritableByteChannel outputChannel, ZipArchive previousOutputJar,
+                      PhaseTracker phaseTracker, int threads) throws IOException {
+        Set<String> applicationEntryNames = getEntryNames(applicationWar);
+        applicationEntryNames.remove(MANIFEST);
+        Set<String> selectedEntryNames = new HashSet<String>();
+        List<ZipArchiveEntry> generatedEntries = generatedArchive == null ?
+                Collections.<ZipArchiveEntry>emptyList() :
+                selectEntries(generatedArchive, Collections.<String>emptySet(), selectedEntryNames);
+        List<ZipArchiveEntry> serverLauncherEntries =
+                selectEntries(serverLauncherJar, applicationEntryNames, selectedEntryNames);
+        List<ZipArchiveEntry> applicationEntries =
+                selectEntries(applicationWar, Collections.singleton(MANIFEST), selectedEntryNames);
+        phaseTracker.start(PackagingPhase.WRITING_ENTRIES);
+        CompressionPolicy compressionPolicy = metadata.isUseCompression() ? metadata.getCompressionPolicy() : null;
+        int level = compressionPolicy == null ? Deflater.DEFAULT_COMPRESSION : compressionPolicy.getLevel();
+        ZipArchiveWriter zipArchiveWriter = new ZipArchiveWriter(outputChannel, level);
+        String comment = COMPRESSION_LEVEL_COMMENT_PREFIX + level;
+        zipArchiveWriter.setComment(comment);
+        // entries deflated with a different level are not reused, otherwise output would depend on the history
+        ZipArchive reusableOutputJar = previousOutputJar != null && comment.equals(previousOutputJar.getComment()) ?
+                previousOutputJar : null;
+        EntryWriter writer = new EntryWriter(zipArchiveWriter, threads, reusableOutputJar,
+                phaseTracker.statistics, listener, selectedEntryNames.size());
+        try {
+            write(serverLauncherJar, serverLauncherEntries, writer, compressionPolicy, false);
+            write(applicationWar, applicationEntries, writer, compressionPolicy, false);
+            if (generatedArchive != null) {
+                // precompressed resources are generated STORED, so that they don't get deflated once again
+                write(generatedArchive, generatedEntries, writer, compressionPolicy, true);
+            }
+            writer.flush();
+            phaseTracker.start(PackagingPhase.FINISHING);
+        } finally {
+            writer.close();
+        }
+        phaseTracker.statistics.setBytesWritten(zipArchiveWriter.getPosition());
+    }
+
+    private Set<String> getEntryNames(ZipArchive archive) {
+        Set<String> result = new HashSet<String>();
+        for (ZipArchiveEntry entry : archive.getEntries()) {
+            if (!entry.isDirectory()) {
+                result.add(entry.getName());
+            }
+        }
+        return result;
+    }
+
+    private List<ZipArchiveEntry> selectEntries(ZipArchive archive, Collection<String> entriesToSkip,
+                                                Set<String> selectedEntries) {
+        List<ZipArchiveEntry> result = new ArrayList<ZipArchiveEntry>(archive.getEntries().size());
+        for (ZipArchiveEntry entry : archive.getEntries()) {
+            String entryName = entry.getName();
+            if (!entriesToSkip.contains(entryName) && selectedEntries.add(entryName)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param keepStored true if entries which are STORED in the source archive should stay that way regardless of
+     * the compression policy
+     */
+    private void write(ZipArchive archive, List<ZipArchiveEntry> entries, EntryWriter writer,
+                       CompressionPolicy compressionPolicy, boolean keepStored) throws IOException {
+        for (ZipArchiveEntry entry : entries) {
+            boolean compress = compressionPolicy != null && compressionPolicy.shouldCompress(entry.getName()) &&
+                    !(keepStored && entry.getMethod() == ZipArchiveEntry.STORED);
+            writer.add(archive, entry, compress ? ZipArchiveEntry.DEFLATED : ZipArchiveEntry.STORED);
+        }
+    }
+
+    private class PhaseTracker {
+
+        private final PackagingStatistics statistics;
+        private PackagingPhase phase;
+        private long phaseStartTime;
+
+        private PhaseTracker(PackagingStatistics statistics) {
+            this.statistics = statistics;
+        }
+
+        public void start(PackagingPhase phase) {
+            complete();
+            this.phase = phase;
+            this.phaseStartTime = System.currentTimeMillis();
+        }
+
+        public void complete() {
+            if (phase != null) {
+                long duration = System.currentTimeMillis() - phaseStartTime;
+                statistics.addPhaseDuration(phase, duration);
+                listener.onPhaseCompleted(phase, duration);
+                phase = null;
+            }
         }
-        file.delete();
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+/**
+ * Receives progress notifications from the {@link Packager}. All the methods are called from the thread which
+ * invoked {@link Packager#pack(Metadata)} (or, in case of {@link Packager#pack(java.util.List, int)}, from the worker
+ * thread which packs particular WAR).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public interface PackagingListener {
+
+    /**
+     * @param phase phase which has just been completed
+     * @param durationInMillis time spent in the phase
+     */
+    void onPhaseCompleted(PackagingPhase phase, long durationInMillis);
+
+    /**
+     * @param entryName name of the entry which has just been written to the output JAR
+     * @param entriesWritten number of entries written so far
+     * @param totalEntries total number of entries in the output JAR
+     */
+    void onEntryWritten(String entryName, int entriesWritten, int totalEntries);
+
+    /**
+     * @param statistics statistics of the completed packaging
+     */
+    void onPackagingCompleted(PackagingStatistics statistics);
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+/**
+ * Stages of the {@link Packager#pack(Metadata)}.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public enum PackagingPhase {
+
+    /**
+     * Reading central directories of the server launcher JAR, application WAR (and previous output JAR, if any).
+     */
+    READING_ARCHIVES,
+    /**
+     * Listing TLDs of the WEB-INF/lib JARs (only if {@link Metadata#isIndexTlds()} is on).
+     */
+    INDEXING_TLDS,
+    /**
+     * Translating and compiling JSPs of the application WAR (only if {@link Metadata#isPrecompileJsps()} is on).
+     */
+    PRECOMPILING_JSPS,
+    /**
+     * Creating gzip-compressed copies of the static resources (only if
+     * {@link Metadata#getPrecompressedExtensions()} is not empty).
+     */
+    PRECOMPRESSING_ASSETS,
+    /**
+     * Hashing static resources (only if {@link Metadata#isIndexETags()} is on).
+     */
+    INDEXING_ETAGS,
+    /**
+     * Copying, compressing and writing entries into the output JAR.
+     */
+    WRITING_ENTRIES,
+    /**
+     * Writing central directory and moving output JAR in place.
+     */
+    FINISHING,
+    /**
+     * Starting standalone JAR once to record class data sharing archive (only if
+     * {@link Metadata#isClassDataSharing()} is on).
+     */
+    RECORDING_CDS_ARCHIVE
+}
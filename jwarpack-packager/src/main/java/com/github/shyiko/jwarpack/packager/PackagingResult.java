@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.io.File;
+
+/**
+ * Outcome of packaging single application WAR as part of the batch (see {@link Packager#pack(java.util.List, int)}).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class PackagingResult {
+
+    private final Metadata metadata;
+    private final PackagingStatistics statistics;
+    private final Throwable failure;
+
+    PackagingResult(Metadata metadata, PackagingStatistics statistics, Throwable failure) {
+        this.metadata = metadata;
+        this.statistics = statistics;
+        this.failure = failure;
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    public File getOutputJar() {
+        return metadata.getOutputJar();
+    }
+
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+
+    /**
+     * @return statistics of the packaging (null if packaging failed)
+     */
+    public PackagingStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return reason of the failure (null if packaging succeeded)
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Numbers collected during single {@link Packager#pack(Metadata)} run.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class PackagingStatistics {
+
+    private final Map<PackagingPhase, Long> phaseDurations = new EnumMap<PackagingPhase, Long>(PackagingPhase.class);
+    private int copiedEntries;
+    private int compressedEntries;
+    private int decompressedEntries;
+    private int reusedEntries;
+    private long bytesRead;
+    private long uncompressedBytes;
+    private long bytesWritten;
+
+    void addPhaseDuration(PackagingPhase phase, long durationInMillis) {
+        Long duration = phaseDurations.get(phase);
+        phaseDurations.put(phase, duration == null ? durationInMillis : duration + durationInMillis);
+    }
+
+    void entryCopied(long bytesRead, long uncompressedBytes) {
+        copiedEntries++;
+        addBytes(bytesRead, uncompressedBytes);
+    }
+
+    void entryCompressed(long bytesRead, long uncompressedBytes) {
+        compressedEntries++;
+        addBytes(bytesRead, uncompressedBytes);
+    }
+
+    void entryDecompressed(long bytesRead, long uncompressedBytes) {
+        decompressedEntries++;
+        addBytes(bytesRead, uncompressedBytes);
+    }
+
+    void entryReused(long bytesRead, long uncompressedBytes) {
+        reusedEntries++;
+        addBytes(bytesRead, uncompressedBytes);
+    }
+
+    private void addBytes(long bytesRead, long uncompressedBytes) {
+        this.bytesRead += bytesRead;
+        this.uncompressedBytes += uncompressedBytes;
+    }
+
+    void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * @return time spent in each of the phases (in milliseconds)
+     */
+    public Map<PackagingPhase, Long> getPhaseDurations() {
+        return Collections.unmodifiableMap(phaseDurations);
+    }
+
+    /**
+     * @return total time spent (in milliseconds)
+     */
+    public long getDuration() {
+        long result = 0;
+        for (Long duration : phaseDurations.values()) {
+            result += duration;
+        }
+        return result;
+    }
+
+    /**
+     * @return total number of entries in the output JAR
+     */
+    public int getEntries() {
+        return copiedEntries + compressedEntries + decompressedEntries + reusedEntries;
+    }
+
+    /**
+     * @return number of entries copied from the source archives as is
+     */
+    public int getCopiedEntries() {
+        return copiedEntries;
+    }
+
+    /**
+     * @return number of entries deflated by the packager
+     */
+    public int getCompressedEntries() {
+        return compressedEntries;
+    }
+
+    /**
+     * @return number of entries inflated by the packager (in order to be stored uncompressed)
+     */
+    public int getDecompressedEntries() {
+        return decompressedEntries;
+    }
+
+    /**
+     * @return number of entries copied from the previous output JAR (applies only to incremental packaging)
+     */
+    public int getReusedEntries() {
+        return reusedEntries;
+    }
+
+    /**
+     * @return number of (possibly compressed) bytes read from the source archives
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return total uncompressed size of the entries
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * @return size of the output JAR
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return ratio of uncompressed size of the entries to the size of the output JAR (e.g. 2.5 means that output
+     * is 2.5 times smaller than its uncompressed content)
+     */
+    public double getCompressionRatio() {
+        return bytesWritten == 0 ? 1 : (double) uncompressedBytes / bytesWritten;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%s entries (%s copied, %s compressed, %s decompressed, %s reused) in %s ms; ",
+                getEntries(), copiedEntries, compressedEntries, decompressedEntries, reusedEntries, getDuration()));
+        result.append(String.format("read %s, wrote %s (compression ratio %.2f); ",
+                formatSize(bytesRead), formatSize(bytesWritten), getCompressionRatio()));
+        String separator = "";
+        for (Map.Entry<PackagingPhase, Long> entry : phaseDurations.entrySet()) {
+            result.append(separator).append(entry.getKey().name().toLowerCase()).append(' ').
+                    append(entry.getValue()).append(" ms");
+            separator = ", ";
+        }
+        return result.toString();
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of the descriptors (TLDs) which embedded server would otherwise look for in each of the WEB-INF/lib JARs on
+ * startup. Stored as {@link #ENTRY_NAME} in properties-like format (one line per JAR, sorted by name):
+ * <pre>
+ * &lt;JAR name&gt;=&lt;comma-separated list of META-INF/**.tld entries (empty if there are none)&gt;
+ * </pre>
+ * JARs which cannot be read are not listed (so that server still scans them on its own).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+class ScanIndex {
+
+    static final String ENTRY_NAME = "WEB-INF/jwarpack-scan.index";
+
+    private static final String LIB = "WEB-INF/lib/";
+
+    private final Map<String, String> descriptorsByJar = new TreeMap<String, String>();
+
+    /**
+     * @param applicationWar application WAR
+     * @return index of the WEB-INF/lib JARs (null if there are none)
+     */
+    static ScanIndex create(ZipArchive applicationWar) {
+        ScanIndex result = new ScanIndex();
+        for (ZipArchiveEntry entry : applicationWar.getEntries()) {
+            String name = entry.getName();
+            if (!name.startsWith(LIB) || name.indexOf('/', LIB.length()) != -1 ||
+                !name.toLowerCase().endsWith(".jar")) {
+                continue;
+            }
+            try {
+                result.descriptorsByJar.put(name.substring(LIB.length()), getDescriptors(applicationWar, entry));
+            } catch (IOException e) {
+                // not indexed, hence going to be scanned by the server
+            }
+        }
+        return result.descriptorsByJar.isEmpty() ? null : result;
+    }
+
+    private static String getDescriptors(ZipArchive applicationWar, ZipArchiveEntry jarEntry) throws IOException {
+        StringBuilder result = new StringBuilder();
+        InputStream inputStream = applicationWar.getInputStream(jarEntry);
+        try {
+            ZipArchive jar = ZipArchive.open(inputStream, jarEntry.getName());
+            for (ZipArchiveEntry entry : jar.getEntries()) {
+                String name = entry.getName();
+                if (name.startsWith("META-INF/") && name.toLowerCase().endsWith(".tld")) {
+                    if (result.length() != 0) {
+                        result.append(',');
+                    }
+                    result.append(name);
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+        return result.toString();
+    }
+
+    void writeTo(OutputStream outputStream) throws IOException {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, String> entry : descriptorsByJar.entrySet()) {
+            result.append(escape(entry.getKey())).append('=').append(escape(entry.getValue())).append('\n');
+        }
+        outputStream.write(result.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * Escapes characters which have special meaning in {@link java.util.Properties} format.
+     */
+    private static String escape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '=' || c == ':' || c == '\\' || c == '#' || c == '!' || c == ' ') {
+                result.append('\\');
+            }
+            if (c > 0x7e) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a ZIP file which (in addition to regular decompressing access) provides access to the raw
+ * (compressed) entry data. All reads are positional, so single instance can be shared between threads.
+ * <p/>
+ * Archive can optionally be memory-mapped, in which case entry data is read straight from the page cache instead of
+ * being copied into the heap by the {@link FileChannel#read(ByteBuffer, long)} calls. Note that mapping stays valid
+ * until it's garbage collected (even after archive is closed), which on some platforms (e.g. Windows) prevents file
+ * from being deleted or replaced. So only archives which are not going to be modified should be mapped.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+class ZipArchive implements Closeable {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH = 20;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    private final String name;
+    private final SeekableByteChannel channel;
+    private final ByteBuffer[] segments;
+    private final int segmentSize;
+    private final Closeable resource;
+    private final long size;
+    private final List<ZipArchiveEntry> entries;
+    private final Map<String, ZipArchiveEntry> entriesByName;
+    private String comment = "";
+
+    /**
+     * @param name name of the archive (used in error messages)
+     * @param channel channel archive is read from (null if archive is kept in memory)
+     * @param segments memory-mapped or in-memory content of the archive (null if data should be read from channel),
+     * each segment (except for the last one) must be exactly segmentSize bytes long
+     * @param segmentSize size of the segment
+     * @param resource resource which should be released on {@link #close()} (null if caller owns the source)
+     */
+    private ZipArchive(String name, SeekableByteChannel channel, ByteBuffer[] segments, int segmentSize,
+                       Closeable resource) throws IOException {
+        this.name = name;
+        this.channel = channel;
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        this.resource = resource;
+        this.size = segments == null ? channel.size() : (segments.length == 0 ? 0 :
+                (long) (segments.length - 1) * segmentSize + segments[segments.length - 1].limit());
+        this.entries = Collections.unmodifiableList(readCentralDirectory());
+        this.entriesByName = new HashMap<String, ZipArchiveEntry>(entries.size() * 4 / 3 + 1);
+        for (ZipArchiveEntry entry : entries) {
+            entriesByName.put(entry.getName(), entry);
+        }
+    }
+
+    static ZipArchive open(File file) throws IOException {
+        return open(file, false);
+    }
+
+    /**
+     * @param file ZIP file
+     * @param memoryMapped true if file should be memory-mapped, false otherwise
+     */
+    static ZipArchive open(File file, boolean memoryMapped) throws IOException {
+        return open(file, memoryMapped, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize size of the mapping segment (exposed for testing, so that segment boundaries can be
+     * crossed without GBs of data)
+     * @see #open(File, boolean)
+     */
+    static ZipArchive open(File file, boolean memoryMapped, int segmentSize) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return new ZipArchive(file.getPath(), channel, memoryMapped ? map(channel, segmentSize) : null,
+                    segmentSize, randomAccessFile);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param channel channel to read archive from (it's not closed by the {@link #close()}). Unless it's a
+     * {@link FileChannel}, reads are serialized
+     * @param name name of the archive (used in error messages)
+     */
+    static ZipArchive open(SeekableByteChannel channel, String name) throws IOException {
+        return new ZipArchive(name, channel, null, SEGMENT_SIZE, null);
+    }
+
+    /**
+     * As central directory is located at the end of ZIP file, stream is read into memory as a whole
+     * (the only exception being {@link FileInputStream} of a regular (seekable) file, which is read through its
+     * channel).
+     * Stream is not closed by the {@link #close()}.
+     *
+     * @param inputStream stream to read archive from
+     * @param name name of the archive (used in error messages)
+     */
+    static ZipArchive open(InputStream inputStream, String name) throws IOException {
+        return open(inputStream, name, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize size of the in-memory segment (exposed for testing)
+     * @see #open(InputStream, String)
+     */
+    static ZipArchive open(InputStream inputStream, String name, int segmentSize) throws IOException {
+        if (inputStream instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) inputStream).getChannel();
+            boolean regularFile;
+            try {
+                // pipes (e.g. stdin) are not seekable, which is the only reliable tell, as their size is whatever
+                // OS reports (number of bytes buffered on macOS)
+                channel.position();
+                regularFile = channel.size() > 0;
+            } catch (IOException e) {
+                regularFile = false;
+            }
+            if (regularFile) {
+                return open(channel, name);
+            }
+        }
+        List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+        int initialSegmentSize = Math.min(64 * 1024, segmentSize);
+        byte[] segment = new byte[initialSegmentSize];
+        int length = 0;
+        int size;
+        while ((size = inputStream.read(segment, length, segment.length - length)) != -1) {
+            length += size;
+            if (length == segment.length) {
+                if (segment.length < segmentSize) {
+                    segment = Arrays.copyOf(segment, (int) Math.min(segment.length * 2L, segmentSize));
+                } else {
+                    segments.add(ByteBuffer.wrap(segment));
+                    segment = new byte[initialSegmentSize];
+                    length = 0;
+                }
+            }
+        }
+        segments.add(ByteBuffer.wrap(segment, 0, length).slice());
+        return new ZipArchive(name, null, segments.toArray(new ByteBuffer[segments.size()]), segmentSize, null);
+    }
+
+    /**
+     * Files larger than 2GB cannot be mapped by a single {@link java.nio.MappedByteBuffer}, hence the segments.
+     */
+    private static ByteBuffer[] map(FileChannel channel, int segmentSize) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer[] result = new ByteBuffer[(int) ((fileSize + segmentSize - 1) / segmentSize)];
+        for (int i = 0; i < result.length; i++) {
+            long offset = (long) i * segmentSize;
+            result[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(segmentSize, fileSize - offset));
+        }
+        return result;
+    }
+
+    /**
+     * @return entries in the central directory order
+     */
+    List<ZipArchiveEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return archive comment (empty string if there is none)
+     */
+    String getComment() {
+        return comment;
+    }
+
+    ZipArchiveEntry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    /**
+     * @return entry data exactly as it is stored in the archive (i.e. compressed with entry's method)
+     */
+    InputStream getRawInputStream(ZipArchiveEntry entry) throws IOException {
+        return new EntryDataInputStream(getDataOffset(entry), entry.getCompressedSize());
+    }
+
+    /**
+     * Transfers entry data (exactly as it is stored in the archive) to the target channel. Depending on the target,
+     * data may never be copied into the JVM (see {@link FileChannel#transferTo(long, long, WritableByteChannel)}).
+     *
+     * @return number of bytes transferred (always equal to the compressed size of the entry)
+     */
+    long transferTo(ZipArchiveEntry entry, WritableByteChannel target) throws IOException {
+        long position = getDataOffset(entry);
+        long remaining = entry.getCompressedSize();
+        if (position + remaining > size) {
+            throw new EOFException(String.format("Unexpected end of %s", name));
+        }
+        if (channel instanceof FileChannel) {
+            while (remaining > 0) {
+                long transferred = ((FileChannel) channel).transferTo(position, remaining, target);
+                position += transferred;
+                remaining -= transferred;
+            }
+        } else {
+            byte[] buffer = new byte[(int) Math.min(remaining, 64 * 1024)];
+            while (remaining > 0) {
+                int read = read(position, buffer, 0, (int) Math.min(remaining, buffer.length));
+                if (read == -1) {
+                    throw new EOFException(String.format("Unexpected end of %s", name));
+                }
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    target.write(byteBuffer);
+                }
+                position += read;
+                remaining -= read;
+            }
+        }
+        return entry.getCompressedSize();
+    }
+
+    /**
+     * @return uncompressed entry data
+     */
+    InputStream getInputStream(ZipArchiveEntry entry) throws IOException {
+        InputStream inputStream = getRawInputStream(entry);
+        switch (entry.getMethod()) {
+            case ZipArchiveEntry.STORED:
+                return inputStream;
+            case ZipArchiveEntry.DEFLATED:
+                return new EntryInflaterInputStream(inputStream);
+            default:
+                inputStream.close();
+                throw new ZipException(String.format("Entry %s of %s uses unsupported compression method %s",
+                        entry.getName(), name, entry.getMethod()));
+        }
+    }
+
+    private long getDataOffset(ZipArchiveEntry entry) throws IOException {
+        ByteBuffer buffer = read(entry.getLocalHeaderOffset(), 30);
+        if (buffer.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+            throw new ZipException(String.format("Invalid local file header of %s in %s", entry.getName(), name));
+        }
+        return entry.getLocalHeaderOffset() + 30 + getUnsignedShort(buffer, 26) + getUnsignedShort(buffer, 28);
+    }
+
+    private List<ZipArchiveEntry> readCentralDirectory() throws IOException {
+        long fileSize = size;
+        int tailLength = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_COMMENT_LENGTH);
+        ByteBuffer tail = read(fileSize - tailLength, tailLength);
+        int endOfCentralDirectory = -1;
+        for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endOfCentralDirectory = i;
+                break;
+            }
+        }
+        if (endOfCentralDirectory == -1) {
+            throw new ZipException(String.format("%s is not a ZIP file", name));
+        }
+        int archiveCommentLength = Math.min(getUnsignedShort(tail, endOfCentralDirectory + 20),
+                tailLength - endOfCentralDirectory - END_OF_CENTRAL_DIRECTORY_LENGTH);
+        byte[] rawComment = new byte[archiveCommentLength];
+        tail.position(endOfCentralDirectory + END_OF_CENTRAL_DIRECTORY_LENGTH);
+        tail.get(rawComment);
+        comment = new String(rawComment, "UTF-8");
+        long numberOfEntries = getUnsignedShort(tail, endOfCentralDirectory + 10);
+        long centralDirectorySize = getUnsignedInt(tail, endOfCentralDirectory + 12);
+        long centralDirectoryOffset = getUnsignedInt(tail, endOfCentralDirectory + 16);
+        long locatorOffset = fileSize - tailLength + endOfCentralDirectory -
+                ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH;
+        if (locatorOffset >= 0) {
+            ByteBuffer locator = read(locatorOffset, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH);
+            if (locator.getInt(0) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+                ByteBuffer zip64EndOfCentralDirectory = read(locator.getLong(8), 56);
+                if (zip64EndOfCentralDirectory.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new ZipException(String.format("Invalid ZIP64 end of central directory in %s", name));
+                }
+                numberOfEntries = zip64EndOfCentralDirectory.getLong(32);
+                centralDirectorySize = zip64EndOfCentralDirectory.getLong(40);
+                centralDirectoryOffset = zip64EndOfCentralDirectory.getLong(48);
+            }
+        }
+        if (centralDirectorySize > Integer.MAX_VALUE || numberOfEntries > Integer.MAX_VALUE) {
+            throw new ZipException(String.format("Central directory of %s is too large", name));
+        }
+        ByteBuffer buffer = read(centralDirectoryOffset, (int) centralDirectorySize);
+        List<ZipArchiveEntry> result = new ArrayList<ZipArchiveEntry>((int) numberOfEntries);
+        int position = 0;
+        for (long i = 0; i < numberOfEntries; i++) {
+            if (buffer.getInt(position) != CENTRAL_FILE_HEADER_SIGNATURE) {
+                throw new ZipException(String.format("Invalid central directory of %s", name));
+            }
+            int versionMadeBy = getUnsignedShort(buffer, position + 4);
+            int flags = getUnsignedShort(buffer, position + 8);
+            int method = getUnsignedShort(buffer, position + 10);
+            int dosTime = buffer.getInt(position + 12);
+            long crc = getUnsignedInt(buffer, position + 16);
+            long compressedSize = getUnsignedInt(buffer, position + 20);
+            long size = getUnsignedInt(buffer, position + 24);
+            int nameLength = getUnsignedShort(buffer, position + 28);
+            int extraLength = getUnsignedShort(buffer, position + 30);
+            int commentLength = getUnsignedShort(buffer, position + 32);
+            long externalAttributes = getUnsignedInt(buffer, position + 38);
+            long localHeaderOffset = getUnsignedInt(buffer, position + 42);
+            byte[] rawName = new byte[nameLength];
+            buffer.position(position + 46);
+            buffer.get(rawName);
+            byte[] extra = new byte[extraLength];
+            buffer.get(extra);
+            ByteArrayOutputStream retainedExtra = new ByteArrayOutputStream(extraLength);
+            ByteBuffer extraBuffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+            while (extraBuffer.remaining() >= 4) {
+                int id = extraBuffer.getShort() & 0xFFFF;
+                int length = extraBuffer.getShort() & 0xFFFF;
+                if (length > extraBuffer.remaining()) {
+                    break;
+                }
+                int next = extraBuffer.position() + length;
+                if (id == ZIP64_EXTRA_FIELD_ID) {
+                    if (size == 0xFFFFFFFFL && extraBuffer.position() + 8 <= next) {
+                        size = extraBuffer.getLong();
+                    }
+                    if (compressedSize == 0xFFFFFFFFL && extraBuffer.position() + 8 <= next) {
+                        compressedSize = extraBuffer.getLong();
+                    }
+                    if (localHeaderOffset == 0xFFFFFFFFL && extraBuffer.position() + 8 <= next) {
+                        localHeaderOffset = extraBuffer.getLong();
+                    }
+                } else {
+                    // zip64 field is regenerated on write, everything else is preserved as is
+                    retainedExtra.write(extra, extraBuffer.position() - 4, length + 4);
+                }
+                extraBuffer.position(next);
+            }
+            String name = new String(rawName, "UTF-8");
+            result.add(new ZipArchiveEntry(name, rawName, versionMadeBy, flags, method, dosTime, crc,
+                    compressedSize, size, retainedExtra.toByteArray(), externalAttributes, localHeaderOffset));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int size = read(position + buffer.position(), buffer.array(), buffer.position(), buffer.remaining());
+            if (size == -1) {
+                throw new EOFException(String.format("Unexpected end of %s", name));
+            }
+            buffer.position(buffer.position() + size);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return number of bytes read (might be less than requested) or -1 if position is beyond the end of file
+     */
+    private int read(long position, byte[] b, int off, int len) throws IOException {
+        if (segments == null) {
+            if (channel instanceof FileChannel) {
+                return ((FileChannel) channel).read(ByteBuffer.wrap(b, off, len), position);
+            }
+            synchronized (channel) {
+                channel.position(position);
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        }
+        int segmentIndex = (int) (position / segmentSize);
+        if (position < 0 || segmentIndex >= segments.length) {
+            return -1;
+        }
+        ByteBuffer segment = segments[segmentIndex].duplicate();
+        segment.position((int) (position % segmentSize));
+        if (!segment.hasRemaining()) {
+            return -1;
+        }
+        int size = Math.min(len, segment.remaining());
+        segment.get(b, off, size);
+        return size;
+    }
+
+    private static int getUnsignedShort(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long getUnsignedInt(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+
+    public void close() throws IOException {
+        if (resource != null) {
+            resource.close();
+        }
+    }
+
+    private class EntryDataInputStream extends InputStream {
+
+        private long position;
+        private long remaining;
+
+        private EntryDataInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int size = ZipArchive.this.read(position, b, off, (int) Math.min(len, remaining));
+            if (size == -1) {
+                throw new EOFException("Unexpected end of ZIP entry");
+            }
+            position += size;
+            remaining -= size;
+            return size;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long size = Math.max(0, Math.min(n, remaining));
+            position += size;
+            remaining -= size;
+            return size;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+
+        private boolean eof;
+
+        private EntryInflaterInputStream(InputStream inputStream) {
+            super(inputStream, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // "nowrap" inflater may need an extra dummy byte to complete (same as java.util.zip.ZipFile does)
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+/**
+ * Central directory record of a single ZIP entry. Unlike {@link java.util.zip.ZipEntry} it keeps everything
+ * needed to copy entry data without decompressing it (raw name, flags, DOS timestamp, attributes and offset
+ * of the local file header).
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+class ZipArchiveEntry {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private final String name;
+    private final byte[] rawName;
+    private final int versionMadeBy;
+    private final int flags;
+    private final int method;
+    private final int dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final byte[] extra;
+    private final long externalAttributes;
+    private final long localHeaderOffset;
+
+    ZipArchiveEntry(String name, byte[] rawName, int versionMadeBy, int flags, int method, int dosTime,
+                    long crc, long compressedSize, long size, byte[] extra, long externalAttributes,
+                    long localHeaderOffset) {
+        this.name = name;
+        this.rawName = rawName;
+        this.versionMadeBy = versionMadeBy;
+        this.flags = flags;
+        this.method = method;
+        this.dosTime = dosTime;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.extra = extra;
+        this.externalAttributes = externalAttributes;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    /**
+     * @param method compression method of the new entry
+     * @param compressedSize size of the data compressed with given method
+     * @return copy of this entry which describes the same content stored using different compression method
+     */
+    ZipArchiveEntry withMethod(int method, long compressedSize) {
+        return new ZipArchiveEntry(name, rawName, versionMadeBy, flags, method, dosTime,
+                crc, compressedSize, size, extra, externalAttributes, -1);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    byte[] getRawName() {
+        return rawName;
+    }
+
+    int getVersionMadeBy() {
+        return versionMadeBy;
+    }
+
+    int getFlags() {
+        return flags;
+    }
+
+    int getMethod() {
+        return method;
+    }
+
+    int getDosTime() {
+        return dosTime;
+    }
+
+    long getCrc() {
+        return crc;
+    }
+
+    long getCompressedSize() {
+        return compressedSize;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    byte[] getExtra() {
+        return extra;
+    }
+
+    long getExternalAttributes() {
+        return externalAttributes;
+    }
+
+    long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Sequential ZIP writer which, unlike {@link java.util.zip.ZipOutputStream}, accepts already compressed entry data.
+ * ZIP64 extensions are used only when sizes, offsets or number of entries require them.
+ * <p/>
+ * Output goes to a channel, so that data of the entries which are copied as is can be transferred directly from
+ * the source archive (see {@link ZipArchive#transferTo(ZipArchiveEntry, WritableByteChannel)}). Everything else
+ * (headers, central directory, deflated data) is accumulated in an internal buffer.
+ *
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+class ZipArchiveWriter implements Closeable {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+    private static final int DEFLATE_OPTION_FLAGS = (1 << 1) | (1 << 2);
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final int level;
+    private final List<CentralDirectoryRecord> centralDirectory = new ArrayList<CentralDirectoryRecord>();
+    private final byte[] scratch = new byte[8];
+    private final byte[] buffer = new byte[8192];
+    private final ByteBuffer outputBuffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+    private long position;
+    private byte[] comment = new byte[0];
+    private boolean closed;
+
+    /**
+     * @param channel target channel
+     * @param level deflate level used for the entries which are compressed by this writer
+     */
+    ZipArchiveWriter(WritableByteChannel channel, int level) {
+        this.channel = channel;
+        this.level = level;
+    }
+
+    /**
+     * @param comment archive comment (written on {@link #close()})
+     */
+    void setComment(String comment) throws IOException {
+        byte[] rawComment = comment.getBytes("UTF-8");
+        if (rawComment.length > 0xFFFF) {
+            throw new IllegalArgumentException("Comment is too long");
+        }
+        this.comment = rawComment;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Writes entry data as is.
+     *
+     * @param entry entry which describes the data (method, crc and sizes must match it)
+     * @param rawData data compressed with the entry's method
+     */
+    void writeRaw(ZipArchiveEntry entry, ByteBuffer rawData) throws IOException {
+        if (rawData.remaining() != entry.getCompressedSize()) {
+            throw new ZipException(String.format("Entry %s is truncated (expected %s bytes, got %s)",
+                    entry.getName(), entry.getCompressedSize(), rawData.remaining()));
+        }
+        CentralDirectoryRecord record = writeRawLocalFileHeader(entry);
+        position += rawData.remaining();
+        if (rawData.remaining() <= outputBuffer.remaining()) {
+            outputBuffer.put(rawData);
+        } else {
+            flushOutputBuffer();
+            writeFully(rawData);
+        }
+        centralDirectory.add(record);
+    }
+
+    /**
+     * Transfers data of the source entry as is.
+     *
+     * @param entry entry which describes the data (method, crc and sizes must match it)
+     * @param source archive containing the data
+     * @param sourceEntry entry of the source archive (its compressed size must be equal to the entry's one)
+     */
+    void writeRaw(ZipArchiveEntry entry, ZipArchive source, ZipArchiveEntry sourceEntry) throws IOException {
+        if (sourceEntry.getCompressedSize() != entry.getCompressedSize()) {
+            throw new ZipException(String.format("Entry %s is truncated (expected %s bytes, got %s)",
+                    entry.getName(), entry.getCompressedSize(), sourceEntry.getCompressedSize()));
+        }
+        CentralDirectoryRecord record = writeRawLocalFileHeader(entry);
+        flushOutputBuffer();
+        position += source.transferTo(sourceEntry, channel);
+        centralDirectory.add(record);
+    }
+
+    private CentralDirectoryRecord writeRawLocalFileHeader(ZipArchiveEntry entry) throws IOException {
+        long localHeaderOffset = position;
+        int flags = entry.getFlags() & ~DATA_DESCRIPTOR_FLAG;
+        boolean zip64 = entry.getSize() >= ZIP64_MAGIC || entry.getCompressedSize() >= ZIP64_MAGIC;
+        writeLocalFileHeader(entry, flags, entry.getMethod(), entry.getCrc(), entry.getCompressedSize(),
+                entry.getSize(), zip64);
+        return new CentralDirectoryRecord(entry, flags, entry.getMethod(), entry.getCrc(),
+                entry.getCompressedSize(), entry.getSize(), localHeaderOffset);
+    }
+
+    /**
+     * Compresses data with the given method and writes it out.
+     *
+     * @param entry entry which describes uncompressed data (crc and size must match it)
+     * @param method target compression method
+     * @param data uncompressed data
+     */
+    void write(ZipArchiveEntry entry, int method, InputStream data) throws IOException {
+        long localHeaderOffset = position;
+        int flags = entry.getFlags() & ~DATA_DESCRIPTOR_FLAG & ~DEFLATE_OPTION_FLAGS;
+        CRC32 crc = new CRC32();
+        long size, compressedSize;
+        boolean zip64;
+        if (method == ZipArchiveEntry.STORED) {
+            zip64 = entry.getSize() >= ZIP64_MAGIC;
+            writeLocalFileHeader(entry, flags, method, entry.getCrc(), entry.getSize(), entry.getSize(), zip64);
+            size = compressedSize = copy(data, crc);
+        } else
+        if (method == ZipArchiveEntry.DEFLATED) {
+            flags |= DATA_DESCRIPTOR_FLAG;
+            // deflated data can be slightly larger than the original one
+            zip64 = entry.getSize() >= ZIP64_MAGIC - (entry.getSize() >> 8) - 1024;
+            writeLocalFileHeader(entry, flags, method, 0, 0, 0, zip64);
+            long dataOffset = position;
+            size = deflate(data, crc);
+            compressedSize = position - dataOffset;
+            writeInt(DATA_DESCRIPTOR_SIGNATURE);
+            writeInt(crc.getValue());
+            if (zip64) {
+                writeLong(compressedSize);
+                writeLong(size);
+            } else {
+                writeInt(compressedSize);
+                writeInt(size);
+            }
+        } else {
+            throw new ZipException("Unsupported compression method " + method);
+        }
+        if (size != entry.getSize() || crc.getValue() != entry.getCrc()) {
+            throw new ZipException(String.format("Entry %s is corrupted (crc or size mismatch)", entry.getName()));
+        }
+        centralDirectory.add(new CentralDirectoryRecord(entry, flags, method, crc.getValue(), compressedSize,
+                size, localHeaderOffset));
+    }
+
+    private long deflate(InputStream inputStream, CRC32 crc) throws IOException {
+        return deflate(inputStream, new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ZipArchiveWriter.this.write(b, off, len);
+            }
+        }, crc, level, buffer);
+    }
+
+    /**
+     * Deflates (raw, no zlib header) data from the input stream into the output stream.
+     *
+     * @return number of uncompressed bytes
+     */
+    static long deflate(InputStream inputStream, OutputStream outputStream, CRC32 crc, int level, byte[] buffer)
+            throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            byte[] output = new byte[buffer.length];
+            long result = 0;
+            int size;
+            while ((size = inputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, size);
+                result += size;
+                deflater.setInput(buffer, 0, size);
+                while (!deflater.needsInput()) {
+                    outputStream.write(output, 0, deflater.deflate(output));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                outputStream.write(output, 0, deflater.deflate(output));
+            }
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private long copy(InputStream inputStream, CRC32 crc) throws IOException {
+        long result = 0;
+        int size;
+        while ((size = inputStream.read(buffer)) != -1) {
+            crc.update(buffer, 0, size);
+            write(buffer, 0, size);
+            result += size;
+        }
+        return result;
+    }
+
+    private void writeLocalFileHeader(ZipArchiveEntry entry, int flags, int method, long crc,
+                                      long compressedSize, long size, boolean zip64) throws IOException {
+        byte[] rawName = entry.getRawName();
+        writeInt(LOCAL_FILE_HEADER_SIGNATURE);
+        writeShort(zip64 ? VERSION_ZIP64 : getVersionNeeded(method));
+        writeShort(flags);
+        writeShort(method);
+        writeInt(entry.getDosTime() & ZIP64_MAGIC);
+        writeInt(crc);
+        writeInt(zip64 ? ZIP64_MAGIC : compressedSize);
+        writeInt(zip64 ? ZIP64_MAGIC : size);
+        writeShort(rawName.length);
+        writeShort(zip64 ? 20 : 0);
+        write(rawName, rawName.length);
+        if (zip64) {
+            writeShort(ZIP64_EXTRA_FIELD_ID);
+            writeShort(16);
+            writeLong(size);
+            writeLong(compressedSize);
+        }
+    }
+
+    private static int getVersionNeeded(int method) {
+        return method == ZipArchiveEntry.DEFLATED ? VERSION_DEFLATED : VERSION_STORED;
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralDirectoryOffset = position;
+        for (CentralDirectoryRecord record : centralDirectory) {
+            ZipArchiveEntry entry = record.entry;
+            byte[] rawName = entry.getRawName();
+            byte[] extra = entry.getExtra();
+            boolean zip64Size = record.size >= ZIP64_MAGIC;
+            boolean zip64CompressedSize = record.compressedSize >= ZIP64_MAGIC;
+            boolean zip64Offset = record.localHeaderOffset >= ZIP64_MAGIC;
+            int zip64ExtraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+            boolean zip64 = zip64ExtraLength > 0;
+            int versionNeeded = zip64 ? VERSION_ZIP64 : getVersionNeeded(record.method);
+            int versionMadeBy = entry.getVersionMadeBy();
+            writeInt(CENTRAL_FILE_HEADER_SIGNATURE);
+            writeShort((versionMadeBy & 0xFF00) | Math.max(versionMadeBy & 0xFF, versionNeeded));
+            writeShort(versionNeeded);
+            writeShort(record.flags);
+            writeShort(record.method);
+            writeInt(entry.getDosTime() & ZIP64_MAGIC);
+            writeInt(record.crc);
+            writeInt(zip64CompressedSize ? ZIP64_MAGIC : record.compressedSize);
+            writeInt(zip64Size ? ZIP64_MAGIC : record.size);
+            writeShort(rawName.length);
+            writeShort(extra.length + (zip64 ? zip64ExtraLength + 4 : 0));
+            writeShort(0); // comment length
+            writeShort(0); // disk number
+            writeShort(0); // internal attributes
+            writeInt(entry.getExternalAttributes());
+            writeInt(zip64Offset ? ZIP64_MAGIC : record.localHeaderOffset);
+            write(rawName, rawName.length);
+            if (zip64) {
+                writeShort(ZIP64_EXTRA_FIELD_ID);
+                writeShort(zip64ExtraLength);
+                if (zip64Size) {
+                    writeLong(record.size);
+                }
+                if (zip64CompressedSize) {
+                    writeLong(record.compressedSize);
+                }
+                if (zip64Offset) {
+                    writeLong(record.localHeaderOffset);
+                }
+            }
+            write(extra, extra.length);
+        }
+        long centralDirectorySize = position - centralDirectoryOffset;
+        int numberOfEntries = centralDirectory.size();
+        if (numberOfEntries >= ZIP64_MAGIC_SHORT || centralDirectorySize >= ZIP64_MAGIC ||
+            centralDirectoryOffset >= ZIP64_MAGIC) {
+            long zip64EndOfCentralDirectoryOffset = position;
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            writeLong(44);
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0);
+            writeInt(0);
+            writeLong(numberOfEntries);
+            writeLong(numberOfEntries);
+            writeLong(centralDirectorySize);
+            writeLong(centralDirectoryOffset);
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+            writeInt(0);
+            writeLong(zip64EndOfCentralDirectoryOffset);
+            writeInt(1);
+        }
+        writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(numberOfEntries, ZIP64_MAGIC_SHORT));
+        writeShort(Math.min(numberOfEntries, ZIP64_MAGIC_SHORT));
+        writeInt(Math.min(centralDirectorySize, ZIP64_MAGIC));
+        writeInt(Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+        writeShort(comment.length);
+        write(comment, comment.length);
+    }
+
+    private void writeShort(int value) throws IOException {
+        scratch[0] = (byte) value;
+        scratch[1] = (byte) (value >>> 8);
+        write(scratch, 2);
+    }
+
+    private void writeInt(long value) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            scratch[i] = (byte) (value >>> (i * 8));
+        }
+        write(scratch, 4);
+    }
+
+    private void writeLong(long value) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            scratch[i] = (byte) (value >>> (i * 8));
+        }
+        write(scratch, 8);
+    }
+
+    private void write(byte[] bytes, int length) throws IOException {
+        write(bytes, 0, length);
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > outputBuffer.remaining()) {
+            flushOutputBuffer();
+        }
+        if (length > outputBuffer.remaining()) {
+            writeFully(ByteBuffer.wrap(bytes, offset, length));
+        } else {
+            outputBuffer.put(bytes, offset, length);
+        }
+        position += length;
+    }
+
+    private void flushOutputBuffer() throws IOException {
+        outputBuffer.flip();
+        writeFully(outputBuffer);
+        outputBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer byteBuffer) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+    }
+
+    /**
+     * Writes central directory and closes underlying channel.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeCentralDirectory();
+            flushOutputBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static class CentralDirectoryRecord {
+
+        private final ZipArchiveEntry entry;
+        private final int flags;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        private CentralDirectoryRecord(ZipArchiveEntry entry, int flags, int method, long crc,
+                                       long compressedSize, long size, long localHeaderOffset) {
+            this.entry = entry;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+}
@@ -15,10 +15,26 @@
  */
 package com.github.shyiko.jwarpack.packager;
 
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
-import java.io.File;
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.*;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
 /**
@@ -26,6 +42,15 @@ import static org.testng.Assert.assertTrue;
  */
 public class PackagerTest {
 
+    private static final PackagingListener NO_OP_LISTENER = new PackagingListener() {
+
+        public void onPhaseCompleted(PackagingPhase phase, long durationInMillis) {}
+
+        public void onEntryWritten(String entryName, int entriesWritten, int totalEntries) {}
+
+        public void onPackagingCompleted(PackagingStatistics statistics) {}
+    };
+
     @Test
     public void testPack() throws Exception {
         File outputFile = File.createTempFile("jwarpack-", ".jar");
@@ -38,4 +63,755 @@ public class PackagerTest {
         new Packager().pack(metadata);
         assertTrue(outputFile.exists());
     }
+
+    @Test
+    public void testPackMergesLauncherAndApplicationEntries() throws Exception {
+        Map<String, String> launcherEntries = new LinkedHashMap<String, String>();
+        launcherEntries.put("META-INF/MANIFEST.MF", "Main-Class: Launcher\n");
+        launcherEntries.put("Launcher.class", "launcher");
+        launcherEntries.put("shared.txt", "launcher");
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        applicationEntries.put("META-INF/MANIFEST.MF", "Created-By: test\n");
+        applicationEntries.put("WEB-INF/web.xml", "<web-app/>");
+        applicationEntries.put("shared.txt", "application");
+        for (boolean useCompression : new boolean[] {false, true}) {
+            File outputFile = File.createTempFile("jwarpack-", ".jar");
+            Metadata metadata = new Metadata(
+                    createArchive(launcherEntries).getAbsolutePath(),
+                    createArchive(applicationEntries).getAbsolutePath(),
+                    outputFile.getAbsolutePath(),
+                    useCompression
+            );
+            new Packager().pack(metadata);
+            ZipFile zipFile = new ZipFile(outputFile);
+            try {
+                assertEquals(zipFile.size(), 4);
+                assertEquals(readEntry(zipFile, "META-INF/MANIFEST.MF"), "Main-Class: Launcher\n");
+                assertEquals(readEntry(zipFile, "Launcher.class"), "launcher");
+                assertEquals(readEntry(zipFile, "WEB-INF/web.xml"), "<web-app/>");
+                assertEquals(readEntry(zipFile, "shared.txt"), "application");
+                assertEquals(zipFile.getEntry("WEB-INF/web.xml").getMethod(),
+                        useCompression ? ZipEntry.DEFLATED : ZipEntry.STORED);
+            } finally {
+                zipFile.close();
+            }
+        }
+    }
+
+    @Test
+    public void testPackCopiesEntriesWithoutRecompression() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        applicationEntries.put("WEB-INF/classes/text.txt", text.toString());
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"), ZipEntry.STORED);
+        File applicationWar = createArchive(applicationEntries);
+        ZipFile sourceFile = new ZipFile(applicationWar);
+        long sourceCompressedSize;
+        try {
+            sourceCompressedSize = sourceFile.getEntry("WEB-INF/classes/text.txt").getCompressedSize();
+        } finally {
+            sourceFile.close();
+        }
+        for (boolean useCompression : new boolean[] {false, true}) {
+            File outputFile = File.createTempFile("jwarpack-", ".jar");
+            new Packager().pack(new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                    outputFile.getAbsolutePath(), useCompression));
+            ZipFile zipFile = new ZipFile(outputFile);
+            try {
+                ZipEntry textEntry = zipFile.getEntry("WEB-INF/classes/text.txt");
+                assertEquals(textEntry.getCompressedSize(),
+                        useCompression ? sourceCompressedSize : text.length());
+                assertEquals(readEntry(zipFile, "WEB-INF/classes/text.txt"), text.toString());
+                assertEquals(zipFile.getEntry("Launcher.class").getMethod(),
+                        useCompression ? ZipEntry.DEFLATED : ZipEntry.STORED);
+                assertEquals(readEntry(zipFile, "Launcher.class"), "launcher");
+            } finally {
+                zipFile.close();
+            }
+            // sequential reader relies on local headers (and data descriptors) instead of central directory
+            ZipInputStream inputStream = new ZipInputStream(new FileInputStream(outputFile));
+            try {
+                int numberOfEntries = 0;
+                while (inputStream.getNextEntry() != null) {
+                    while (inputStream.read() != -1) {
+                        // draining entry so that crc gets verified
+                    }
+                    numberOfEntries++;
+                }
+                assertEquals(numberOfEntries, 2);
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+
+    @Test
+    public void testParallelCompressionIsDeterministic() throws Exception {
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < i * 10; j++) {
+                content.append(i).append(' ').append(j).append('\n');
+            }
+            applicationEntries.put("static/file-" + i + ".txt", content.toString());
+        }
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"), ZipEntry.STORED);
+        File applicationWar = createArchive(applicationEntries, ZipEntry.STORED);
+        byte[] expected = null;
+        for (int threads : new int[] {1, 2, 8}) {
+            File outputFile = File.createTempFile("jwarpack-", ".jar");
+            Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                    outputFile.getAbsolutePath(), true);
+            metadata.setThreads(threads);
+            new Packager().pack(metadata);
+            byte[] actual = readFile(outputFile);
+            if (expected == null) {
+                expected = actual;
+                ZipFile zipFile = new ZipFile(outputFile);
+                try {
+                    for (Map.Entry<String, String> entry : applicationEntries.entrySet()) {
+                        assertEquals(readEntry(zipFile, entry.getKey()), entry.getValue());
+                    }
+                } finally {
+                    zipFile.close();
+                }
+            } else {
+                assertTrue(Arrays.equals(actual, expected), "Output differs for " + threads + " threads");
+            }
+        }
+    }
+
+    @Test
+    public void testEntryWriterBoundsBufferedBytes() throws Exception {
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 50; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < 1000; j++) {
+                content.append(i).append(' ').append(j).append('\n');
+            }
+            applicationEntries.put("static/file-" + i + ".txt", content.toString());
+        }
+        File applicationWar = createArchive(applicationEntries, ZipEntry.STORED);
+        long maxPendingBytes = 20 * 1024;
+        byte[] expected = null;
+        for (long limit : new long[] {Long.MAX_VALUE, maxPendingBytes}) {
+            File outputFile = File.createTempFile("jwarpack-", ".jar");
+            ZipArchive archive = ZipArchive.open(applicationWar);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(outputFile, "rw");
+            try {
+                EntryWriter writer = new EntryWriter(new ZipArchiveWriter(randomAccessFile.getChannel(),
+                        Deflater.DEFAULT_COMPRESSION), 8, null, new PackagingStatistics(), NO_OP_LISTENER,
+                        archive.getEntries().size(), limit);
+                try {
+                    for (ZipArchiveEntry entry : archive.getEntries()) {
+                        writer.add(archive, entry, ZipArchiveEntry.DEFLATED);
+                        if (limit == maxPendingBytes) {
+                            assertTrue(writer.getPendingBytes() <= maxPendingBytes, writer.getPendingBytes() + "");
+                        }
+                    }
+                } finally {
+                    writer.close();
+                }
+            } finally {
+                randomAccessFile.close();
+                archive.close();
+            }
+            byte[] actual = readFile(outputFile);
+            if (expected == null) {
+                expected = actual;
+            } else {
+                assertTrue(Arrays.equals(actual, expected));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalPackReusesUnchangedEntries() throws Exception {
+        String text = "The quick brown fox jumps over the lazy dog\n";
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        applicationEntries.put("unchanged.txt", text + text + text);
+        applicationEntries.put("changed.txt", text + text);
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"), ZipEntry.STORED);
+        // "previous" output which stores entries using deflate without actual compression, so that reused entries
+        // can be told apart from recompressed ones
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(outputFile));
+        try {
+            outputStream.setComment("jwarpack deflate level " + Deflater.DEFAULT_COMPRESSION);
+            outputStream.setLevel(Deflater.NO_COMPRESSION);
+            for (Map.Entry<String, String> entry : applicationEntries.entrySet()) {
+                outputStream.putNextEntry(new ZipEntry(entry.getKey()));
+                outputStream.write(entry.getValue().getBytes("UTF-8"));
+                outputStream.closeEntry();
+            }
+        } finally {
+            outputStream.close();
+        }
+        applicationEntries.put("changed.txt", text + text + text + text);
+        File applicationWar = createArchive(applicationEntries, ZipEntry.STORED);
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setIncremental(true);
+        new Packager().pack(metadata);
+        ZipFile zipFile = new ZipFile(outputFile);
+        try {
+            assertEquals(zipFile.size(), 3);
+            assertEquals(readEntry(zipFile, "Launcher.class"), "launcher");
+            ZipEntry unchangedEntry = zipFile.getEntry("unchanged.txt");
+            assertTrue(unchangedEntry.getCompressedSize() > unchangedEntry.getSize());
+            assertEquals(readEntry(zipFile, "unchanged.txt"), applicationEntries.get("unchanged.txt"));
+            ZipEntry changedEntry = zipFile.getEntry("changed.txt");
+            assertTrue(changedEntry.getCompressedSize() < changedEntry.getSize());
+            assertEquals(readEntry(zipFile, "changed.txt"), applicationEntries.get("changed.txt"));
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void testIncrementalPackDoesNotReuseEntriesDeflatedWithDifferentLevel() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"), ZipEntry.STORED);
+        File applicationWar = createArchive(Collections.singletonMap("text.txt", text.toString()), ZipEntry.STORED);
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setIncremental(true);
+        metadata.setCompressionPolicy(new CompressionPolicy(Deflater.BEST_SPEED, Collections.<String>emptyList()));
+        assertEquals(new Packager().pack(Collections.singletonList(metadata), 1).get(0).getStatistics()
+                .getReusedEntries(), 0);
+        byte[] fastOutput = readFile(outputFile);
+        // same level - everything is reused
+        assertEquals(new Packager().pack(Collections.singletonList(metadata), 1).get(0).getStatistics()
+                .getReusedEntries(), 2);
+        assertTrue(Arrays.equals(readFile(outputFile), fastOutput));
+        // different level - nothing is, so that output is the same as the one packed from scratch
+        metadata.setCompressionPolicy(new CompressionPolicy(Deflater.BEST_COMPRESSION,
+                Collections.<String>emptyList()));
+        assertEquals(new Packager().pack(Collections.singletonList(metadata), 1).get(0).getStatistics()
+                .getReusedEntries(), 0);
+        byte[] incrementalOutput = readFile(outputFile);
+        assertTrue(outputFile.delete());
+        new Packager().pack(metadata);
+        assertTrue(Arrays.equals(incrementalOutput, readFile(outputFile)));
+        assertFalse(Arrays.equals(incrementalOutput, fastOutput));
+    }
+
+    @Test
+    public void testPackagingListener() throws Exception {
+        String text = "The quick brown fox jumps over the lazy dog\n";
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"), ZipEntry.STORED);
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        applicationEntries.put("index.html", text + text + text);
+        applicationEntries.put("logo.png", text);
+        File applicationWar = createArchive(applicationEntries, ZipEntry.DEFLATED);
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setCompressionPolicy(new CompressionPolicy(Deflater.BEST_SPEED, Arrays.asList(".png")));
+        final List<PackagingPhase> phases = new ArrayList<PackagingPhase>();
+        final List<String> entries = new ArrayList<String>();
+        final PackagingStatistics[] result = new PackagingStatistics[1];
+        Packager packager = new Packager();
+        packager.setListener(new PackagingListener() {
+
+            public void onPhaseCompleted(PackagingPhase phase, long durationInMillis) {
+                phases.add(phase);
+            }
+
+            public void onEntryWritten(String entryName, int entriesWritten, int totalEntries) {
+                entries.add(entryName);
+                assertEquals(entriesWritten, entries.size());
+                assertEquals(totalEntries, 3);
+            }
+
+            public void onPackagingCompleted(PackagingStatistics statistics) {
+                result[0] = statistics;
+            }
+        });
+        packager.pack(metadata);
+        assertEquals(phases, Arrays.asList(PackagingPhase.READING_ARCHIVES, PackagingPhase.WRITING_ENTRIES,
+                PackagingPhase.FINISHING));
+        assertEquals(entries, Arrays.asList("Launcher.class", "index.html", "logo.png"));
+        PackagingStatistics statistics = result[0];
+        assertNotNull(statistics);
+        assertEquals(statistics.getEntries(), 3);
+        assertEquals(statistics.getCompressedEntries(), 1);
+        assertEquals(statistics.getCopiedEntries(), 1);
+        assertEquals(statistics.getDecompressedEntries(), 1);
+        assertEquals(statistics.getReusedEntries(), 0);
+        assertEquals(statistics.getUncompressedBytes(), "launcher".length() + text.length() * 4);
+        assertEquals(statistics.getBytesWritten(), outputFile.length());
+        assertEquals(statistics.getPhaseDurations().keySet(), EnumSet.complementOf(
+                EnumSet.of(PackagingPhase.INDEXING_TLDS, PackagingPhase.PRECOMPILING_JSPS,
+                        PackagingPhase.PRECOMPRESSING_ASSETS, PackagingPhase.INDEXING_ETAGS,
+                        PackagingPhase.RECORDING_CDS_ARCHIVE)));
+    }
+
+    @Test
+    public void testBatchPack() throws Exception {
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"));
+        File outputDirectory = File.createTempFile("jwarpack-", "");
+        assertTrue(outputDirectory.delete() && outputDirectory.mkdir());
+        List<Metadata> batch = new ArrayList<Metadata>();
+        for (int i = 0; i < 3; i++) {
+            File applicationWar = createArchive(Collections.singletonMap("index.html", "application #" + i));
+            batch.add(new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                    outputDirectory.getAbsolutePath(), true));
+        }
+        File corruptedWar = File.createTempFile("jwarpack-", ".war");
+        FileOutputStream outputStream = new FileOutputStream(corruptedWar);
+        try {
+            outputStream.write("not a zip".getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        batch.add(1, new Metadata(launcherJar.getAbsolutePath(), corruptedWar.getAbsolutePath(),
+                outputDirectory.getAbsolutePath(), true));
+        List<PackagingResult> results = new Packager().pack(batch, 2);
+        assertEquals(results.size(), 4);
+        for (int i = 0; i < results.size(); i++) {
+            PackagingResult result = results.get(i);
+            assertEquals(result.getMetadata(), batch.get(i));
+            if (i == 1) {
+                assertFalse(result.isSuccessful());
+                assertTrue(result.getFailure() instanceof ZipException);
+                continue;
+            }
+            assertTrue(result.isSuccessful());
+            assertEquals(result.getStatistics().getEntries(), 2);
+            ZipFile zipFile = new ZipFile(result.getOutputJar());
+            try {
+                assertEquals(readEntry(zipFile, "Launcher.class"), "launcher");
+                assertEquals(readEntry(zipFile, "index.html"), "application #" + (i == 0 ? 0 : i - 1));
+            } finally {
+                zipFile.close();
+            }
+        }
+    }
+
+    @Test
+    public void testPackStreams() throws Exception {
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"));
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        applicationEntries.put("index.html", "The quick brown fox jumps over the lazy dog");
+        applicationEntries.put("WEB-INF/web.xml", "<web-app/>");
+        File applicationWar = createArchive(applicationEntries, ZipEntry.STORED);
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        new Packager().pack(metadata);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PackagingStatistics statistics = new Packager().pack(new ByteArrayInputStream(readFile(launcherJar)),
+                new ByteArrayInputStream(readFile(applicationWar)), outputStream, new Metadata(true));
+        assertEquals(outputStream.toByteArray(), readFile(outputFile));
+        assertEquals(statistics.getEntries(), 3);
+        assertEquals(statistics.getBytesWritten(), outputFile.length());
+    }
+
+    @Test
+    public void testPackFromPipe() throws Exception {
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"));
+        File applicationWar = createArchive(Collections.singletonMap("index.html", "The quick brown fox"));
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        new Packager().pack(new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true));
+        final File pipe = File.createTempFile("jwarpack-", ".pipe");
+        pipe.delete();
+        pipe.deleteOnExit();
+        try {
+            if (new ProcessBuilder("mkfifo", pipe.getPath()).start().waitFor() != 0) {
+                throw new IOException();
+            }
+        } catch (IOException e) {
+            throw new SkipException("mkfifo is not available");
+        }
+        final byte[] content = readFile(applicationWar);
+        Thread writer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    OutputStream outputStream = new FileOutputStream(pipe);
+                    try {
+                        // in two chunks, so that the second one isn't there yet when reading starts
+                        outputStream.write(content, 0, content.length / 2);
+                        outputStream.flush();
+                        Thread.sleep(100);
+                        outputStream.write(content, content.length / 2, content.length - content.length / 2);
+                    } finally {
+                        outputStream.close();
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        writer.start();
+        // FileInputStream (just like stdin), which has to be read to the end instead of through its channel
+        InputStream inputStream = new FileInputStream(pipe);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            new Packager().pack(new ByteArrayInputStream(readFile(launcherJar)), inputStream, outputStream,
+                    new Metadata(true));
+            assertEquals(outputStream.toByteArray(), readFile(outputFile));
+        } finally {
+            inputStream.close();
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testScanIndex() throws Exception {
+        Map<String, String> taglibEntries = new LinkedHashMap<String, String>();
+        taglibEntries.put("META-INF/c.tld", "<taglib/>");
+        taglibEntries.put("META-INF/tags/fmt.TLD", "<taglib/>");
+        taglibEntries.put("c/Tag.class", "tag");
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"));
+        File applicationWar = File.createTempFile("jwarpack-", ".war");
+        applicationWar.deleteOnExit();
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(applicationWar));
+        try {
+            outputStream.putNextEntry(new ZipEntry("WEB-INF/lib/taglib.jar"));
+            outputStream.write(readFile(createArchive(taglibEntries)));
+            outputStream.putNextEntry(new ZipEntry("WEB-INF/lib/library 1.jar"));
+            outputStream.write(readFile(createArchive(Collections.singletonMap("META-INF/MANIFEST.MF", "1"))));
+            outputStream.putNextEntry(new ZipEntry("WEB-INF/lib/corrupted.jar"));
+            outputStream.write("corrupted".getBytes("UTF-8"));
+            outputStream.putNextEntry(new ZipEntry("WEB-INF/lib/nested/library.jar"));
+            outputStream.write(readFile(createArchive(taglibEntries)));
+        } finally {
+            outputStream.close();
+        }
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        new Packager().pack(metadata);
+        ZipFile zipFile = new ZipFile(outputFile);
+        try {
+            // off by default
+            assertNull(zipFile.getEntry(ScanIndex.ENTRY_NAME));
+        } finally {
+            zipFile.close();
+        }
+        metadata.setIndexTlds(true);
+        new Packager().pack(metadata);
+        zipFile = new ZipFile(outputFile);
+        try {
+            Properties index = new Properties();
+            index.load(new StringReader(readEntry(zipFile, ScanIndex.ENTRY_NAME)));
+            assertEquals(index.size(), 2);
+            assertEquals(index.getProperty("taglib.jar"), "META-INF/c.tld,META-INF/tags/fmt.TLD");
+            assertEquals(index.getProperty("library 1.jar"), "");
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void testPrecompressAssets() throws Exception {
+        StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            css.append(".c").append(i).append(" { color: red; }\n");
+        }
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        applicationEntries.put("css/app.css", css.toString());
+        applicationEntries.put("css/small.css", ".c { color: red; }");
+        applicationEntries.put("js/app.js", css.toString());
+        applicationEntries.put("js/app.js.gz", "provided");
+        applicationEntries.put("WEB-INF/web.xml", css.toString());
+        applicationEntries.put("image.png", css.toString());
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"));
+        File applicationWar = createArchive(applicationEntries);
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setPrecompressedExtensions(Arrays.asList("CSS", ".js", ".xml"));
+        new Packager().pack(metadata);
+        ZipFile zipFile = new ZipFile(outputFile);
+        try {
+            ZipEntry entry = zipFile.getEntry("css/app.css.gz");
+            assertNotNull(entry);
+            assertEquals(entry.getMethod(), ZipEntry.STORED);
+            InputStream inputStream = new GZIPInputStream(zipFile.getInputStream(entry));
+            try {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int size;
+                while ((size = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, size);
+                }
+                assertEquals(outputStream.toString("UTF-8"), css.toString());
+            } finally {
+                inputStream.close();
+            }
+            assertEquals(readEntry(zipFile, "js/app.js.gz"), "provided");
+            assertEquals(zipFile.getEntry("css/small.css.gz"), null);
+            assertEquals(zipFile.getEntry("WEB-INF/web.xml.gz"), null);
+            assertEquals(zipFile.getEntry("image.png.gz"), null);
+            assertEquals(readEntry(zipFile, AssetPrecompressor.INDEX_ENTRY_NAME), "/css/app.css\n");
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void testETagIndex() throws Exception {
+        StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            css.append(".c").append(i).append(" { color: red; }\n");
+        }
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        applicationEntries.put("css/app.css", css.toString());
+        applicationEntries.put("js/app.3f2a9c1b.js", "var a;");
+        applicationEntries.put("js/report-20120101.js", "var a;");
+        applicationEntries.put("index.jsp", "<html/>");
+        applicationEntries.put("WEB-INF/web.xml", "<web-app/>");
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"));
+        File applicationWar = createArchive(applicationEntries);
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setPrecompressedExtensions(Arrays.asList(".css"));
+        metadata.setIndexETags(true);
+        new Packager().pack(metadata);
+        ZipFile zipFile = new ZipFile(outputFile);
+        try {
+            String[] lines = readEntry(zipFile, ETagIndex.ENTRY_NAME).split("\n");
+            assertEquals(lines.length, 4);
+            assertTrue(lines[0].matches("[0-9a-f]{32} - /css/app\\.css"), lines[0]);
+            assertTrue(lines[1].matches("[0-9a-f]{32} - /css/app\\.css\\.gz"), lines[1]);
+            assertTrue(lines[2].matches("[0-9a-f]{32} immutable /js/app\\.3f2a9c1b\\.js"), lines[2]);
+            assertTrue(lines[3].matches("[0-9a-f]{32} - /js/report-20120101\\.js"), lines[3]);
+            // same content, same hash
+            assertEquals(lines[2].substring(0, 32), lines[3].substring(0, 32));
+            assertFalse(lines[0].substring(0, 32).equals(lines[1].substring(0, 32)));
+        } finally {
+            zipFile.close();
+        }
+        assertTrue(ETagIndex.isFingerprinted("static/main.a1b2c3d4e5f6.chunk.js"));
+        assertTrue(ETagIndex.isFingerprinted("app_0123abcd.css"));
+        assertFalse(ETagIndex.isFingerprinted("deadbeef.1a2b3c4d/app.js"));
+        assertFalse(ETagIndex.isFingerprinted("jquery-1.12.4.min.js"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testPrecompileJspsRequiresJspEnabledLauncher() throws Exception {
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"));
+        File applicationWar = createArchive(Collections.singletonMap("index.jsp", "<%= 1 + 2 %>"));
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setPrecompileJsps(true);
+        new Packager().pack(metadata);
+    }
+
+    @Test
+    public void testPrecompileJsps() throws Exception {
+        URL jspcURL = getClass().getClassLoader().getResource("org/apache/jasper/JspC.class");
+        if (jspcURL == null || !"jar".equals(jspcURL.getProtocol())) {
+            throw new SkipException("JSP-enabled server launcher JAR is not available");
+        }
+        File launcherJar = new File(((JarURLConnection) jspcURL.openConnection()).getJarFileURL().toURI());
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        applicationEntries.put("WEB-INF/web.xml", "<web-app version=\"2.5\">\n" +
+                "<servlet><servlet-name>s</servlet-name><servlet-class>S</servlet-class></servlet>\n" +
+                "<servlet-mapping><servlet-name>s</servlet-name><url-pattern>/s</url-pattern></servlet-mapping>\n" +
+                "</web-app>");
+        applicationEntries.put("index.jsp", "<%= 1 + 2 %>");
+        File applicationWar = createArchive(applicationEntries);
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setPrecompileJsps(true);
+        new Packager().pack(metadata);
+        ZipFile zipFile = new ZipFile(outputFile);
+        try {
+            String webXml = readEntry(zipFile, "WEB-INF/web.xml");
+            assertTrue(webXml.contains("<servlet-class>org.apache.jsp.index_jsp</servlet-class>"), webXml);
+            assertTrue(webXml.contains("<url-pattern>/index.jsp</url-pattern>"), webXml);
+            // generated servlets go before the servlet mappings of the application
+            assertTrue(webXml.indexOf("org.apache.jsp.index_jsp") < webXml.indexOf("<url-pattern>/s<"), webXml);
+            DataInputStream inputStream = new DataInputStream(zipFile.getInputStream(
+                    zipFile.getEntry("WEB-INF/classes/org/apache/jsp/index_jsp.class")));
+            try {
+                assertEquals(inputStream.readInt(), 0xCAFEBABE);
+                inputStream.readUnsignedShort();
+                // same as the one of the launcher (built for Java 8), no matter which JDK packager runs on
+                assertEquals(inputStream.readUnsignedShort(), 52);
+            } finally {
+                inputStream.close();
+            }
+            assertEquals(readEntry(zipFile, "index.jsp"), "<%= 1 + 2 %>");
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testClassDataSharingRequiresRunnableJar() throws Exception {
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"));
+        File applicationWar = createArchive(Collections.singletonMap("index.html", "index"));
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setClassDataSharing(true);
+        new Packager().pack(metadata);
+    }
+
+    @Test
+    public void testPrecompileJspsIsNoOpWithoutJsps() throws Exception {
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"));
+        File applicationWar = createArchive(Collections.singletonMap("index.html", "index"));
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setPrecompileJsps(true);
+        new Packager().pack(metadata);
+        ZipFile zipFile = new ZipFile(outputFile);
+        try {
+            assertEquals(zipFile.size(), 2);
+            assertEquals(readEntry(zipFile, "index.html"), "index");
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void testMergeWebXml() throws Exception {
+        String fragment = "<servlet>jsp</servlet><servlet-mapping>jsp</servlet-mapping>";
+        assertEquals(JspPrecompiler.mergeWebXml(
+                "<web-app><servlet>s</servlet><servlet-mapping-x/><servlet-mapping>s</servlet-mapping></web-app>",
+                fragment),
+                "<web-app><servlet>s</servlet><servlet-mapping-x/>" + fragment +
+                "\n<servlet-mapping>s</servlet-mapping></web-app>");
+        assertEquals(JspPrecompiler.mergeWebXml("<web-app version=\"2.5\">\n</web-app>", fragment),
+                "<web-app version=\"2.5\">\n" + fragment + "\n</web-app>");
+        assertTrue(JspPrecompiler.mergeWebXml(null, fragment).contains(fragment + "\n</web-app>"));
+        assertEquals(JspPrecompiler.mergeWebXml("<web-app><servlet>s</servlet><welcome-file-list/></web-app>",
+                fragment), "<web-app><servlet>s</servlet>" + fragment + "\n<welcome-file-list/></web-app>");
+    }
+
+    @Test
+    public void testMergeWebXmlIgnoresCommentsAndText() throws Exception {
+        String webXml = "<?xml version=\"1.0\"?>\n" +
+                "<!DOCTYPE j2ee:web-app PUBLIC \"-//Sun Microsystems, Inc.//DTD Web Application 2.3//EN\" " +
+                "\"http://java.sun.com/dtd/web-app_2_3.dtd\">\n" +
+                "<j2ee:web-app xmlns:j2ee=\"http://java.sun.com/xml/ns/j2ee\" version=\"2.4\">\n" +
+                "  <!-- <servlet-mapping> goes after </web-app> -->\n" +
+                "  <j2ee:display-name>&lt;servlet-mapping> <![CDATA[<error-page>]]></j2ee:display-name>\n" +
+                "  <j2ee:servlet><j2ee:servlet-name a=\"<\">s</j2ee:servlet-name></j2ee:servlet>\n" +
+                "  <j2ee:servlet-mapping><j2ee:servlet-name>s</j2ee:servlet-name></j2ee:servlet-mapping>\n" +
+                "</j2ee:web-app>\n";
+        String merged = JspPrecompiler.mergeWebXml(webXml.replace("a=\"<\"", "a=\"&lt;>\""),
+                "<!-- jsp --><servlet>jsp</servlet>");
+        assertEquals(merged, webXml.replace("a=\"<\"", "a=\"&lt;>\"").replace("  <j2ee:servlet-mapping>",
+                "  <!-- jsp --><j2ee:servlet>jsp</j2ee:servlet>\n<j2ee:servlet-mapping>"));
+        assertEquals(JspPrecompiler.mergeWebXml("<web-app><!-- </web-app> --></web-app><!-- <web-app> -->", "<s/>"),
+                "<web-app><!-- </web-app> --><s/>\n</web-app><!-- <web-app> -->");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeMalformedWebXml() throws Exception {
+        JspPrecompiler.mergeWebXml("<web-app><servlet></web-app>", "<servlet>jsp</servlet>");
+    }
+
+    @Test
+    public void testCompressionPolicy() throws Exception {
+        Map<String, String> applicationEntries = new LinkedHashMap<String, String>();
+        applicationEntries.put("WEB-INF/lib/library.jar", "library library library library library");
+        applicationEntries.put("images/logo.PNG", "logo logo logo logo logo logo logo logo");
+        applicationEntries.put("css/style.css", "body {} body {} body {} body {} body {}");
+        File launcherJar = createArchive(Collections.singletonMap("Launcher.class", "launcher"), ZipEntry.STORED);
+        File applicationWar = createArchive(applicationEntries);
+        File outputFile = File.createTempFile("jwarpack-", ".jar");
+        Metadata metadata = new Metadata(launcherJar.getAbsolutePath(), applicationWar.getAbsolutePath(),
+                outputFile.getAbsolutePath(), true);
+        metadata.setCompressionPolicy(new CompressionPolicy(Deflater.BEST_COMPRESSION, Arrays.asList("jar", ".png")));
+        new Packager().pack(metadata);
+        ZipFile zipFile = new ZipFile(outputFile);
+        try {
+            assertEquals(zipFile.getEntry("WEB-INF/lib/library.jar").getMethod(), ZipEntry.STORED);
+            assertEquals(zipFile.getEntry("images/logo.PNG").getMethod(), ZipEntry.STORED);
+            assertEquals(zipFile.getEntry("css/style.css").getMethod(), ZipEntry.DEFLATED);
+            assertEquals(zipFile.getEntry("Launcher.class").getMethod(), ZipEntry.DEFLATED);
+            for (Map.Entry<String, String> entry : applicationEntries.entrySet()) {
+                assertEquals(readEntry(zipFile, entry.getKey()), entry.getValue());
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCompressionPolicyRejectsInvalidLevel() throws Exception {
+        new CompressionPolicy(10, Collections.<String>emptyList());
+    }
+
+    static File createArchive(Map<String, String> entries) throws IOException {
+        return createArchive(entries, ZipEntry.DEFLATED);
+    }
+
+    static File createArchive(Map<String, String> entries, int method) throws IOException {
+        File file = File.createTempFile("jwarpack-", ".zip");
+        file.deleteOnExit();
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                byte[] content = entry.getValue().getBytes("UTF-8");
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setMethod(method);
+                if (method == ZipEntry.STORED) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    zipEntry.setSize(content.length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                outputStream.putNextEntry(zipEntry);
+                outputStream.write(content);
+                outputStream.closeEntry();
+            }
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    static String readEntry(ZipFile zipFile, String name) throws IOException {
+        ZipEntry zipEntry = zipFile.getEntry(name);
+        assertNotNull(zipEntry, name);
+        InputStream inputStream = zipFile.getInputStream(zipEntry);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int size;
+            while ((size = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, size);
+            }
+            return outputStream.toString("UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    static byte[] readFile(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int size;
+            while ((size = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, size);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
 }
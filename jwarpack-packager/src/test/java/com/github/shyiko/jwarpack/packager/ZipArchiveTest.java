@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 Stanley Shyiko
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.shyiko.jwarpack.packager;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:stanley.shyiko@gmail.com">Stanley Shyiko</a>
+ */
+public class ZipArchiveTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Test
+    public void testEntriesSpanningSegments() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("first.txt", text(1000));
+        entries.put("random.bin", random(3 * SEGMENT_SIZE + 17));
+        entries.put("text.txt", text(5 * SEGMENT_SIZE));
+        entries.put("last.txt", text(100));
+        for (int method : new int[] {ZipEntry.STORED, ZipEntry.DEFLATED}) {
+            File file = createArchive(entries, method);
+            assertTrue(file.length() > 2 * SEGMENT_SIZE);
+            byte[] content = PackagerTest.readFile(file);
+            ZipArchive[] archives = {
+                ZipArchive.open(file, true, SEGMENT_SIZE),
+                ZipArchive.open(new ByteArrayInputStream(content), file.getName(), SEGMENT_SIZE)
+            };
+            for (ZipArchive archive : archives) {
+                try {
+                    assertEquals(archive.getEntries().size(), entries.size());
+                    boolean crossesBoundary = false;
+                    for (ZipArchiveEntry entry : archive.getEntries()) {
+                        assertEquals(read(archive.getInputStream(entry)), entries.get(entry.getName()),
+                                entry.getName());
+                        byte[] rawData = read(archive.getRawInputStream(entry));
+                        assertEquals(rawData.length, entry.getCompressedSize());
+                        long dataOffset = indexOf(content, rawData);
+                        crossesBoundary |= dataOffset / SEGMENT_SIZE !=
+                                (dataOffset + rawData.length - 1) / SEGMENT_SIZE;
+                        // FileChannel-to-FileChannel transfer (if archive is backed by file)
+                        File target = File.createTempFile("jwarpack-", ".bin");
+                        target.deleteOnExit();
+                        RandomAccessFile randomAccessFile = new RandomAccessFile(target, "rw");
+                        try {
+                            FileChannel channel = randomAccessFile.getChannel();
+                            assertEquals(archive.transferTo(entry, channel), rawData.length);
+                        } finally {
+                            randomAccessFile.close();
+                        }
+                        assertEquals(PackagerTest.readFile(target), rawData);
+                        // transfer to arbitrary channel
+                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                        assertEquals(archive.transferTo(entry, Channels.newChannel(outputStream)), rawData.length);
+                        assertEquals(outputStream.toByteArray(), rawData);
+                    }
+                    assertTrue(crossesBoundary);
+                } finally {
+                    archive.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCopyEntriesSpanningSegments() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("random.bin", random(2 * SEGMENT_SIZE + 1));
+        entries.put("text.txt", text(3 * SEGMENT_SIZE));
+        File file = createArchive(entries, ZipEntry.DEFLATED);
+        ZipArchive archive = ZipArchive.open(file, true, SEGMENT_SIZE);
+        File outputFile = File.createTempFile("jwarpack-", ".zip");
+        outputFile.deleteOnExit();
+        try {
+            ZipArchiveWriter writer = new ZipArchiveWriter(new FileOutputStream(outputFile).getChannel(), -1);
+            try {
+                for (ZipArchiveEntry entry : archive.getEntries()) {
+                    writer.writeRaw(entry, archive, entry);
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            archive.close();
+        }
+        ZipArchive copy = ZipArchive.open(outputFile, true, SEGMENT_SIZE);
+        try {
+            for (ZipArchiveEntry entry : copy.getEntries()) {
+                assertEquals(read(copy.getInputStream(entry)), entries.get(entry.getName()));
+            }
+        } finally {
+            copy.close();
+        }
+    }
+
+    private static File createArchive(Map<String, byte[]> entries, int method) throws IOException {
+        File file = File.createTempFile("jwarpack-", ".zip");
+        file.deleteOnExit();
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                byte[] content = entry.getValue();
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setMethod(method);
+                if (method == ZipEntry.STORED) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    zipEntry.setSize(content.length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                outputStream.putNextEntry(zipEntry);
+                outputStream.write(content);
+                outputStream.closeEntry();
+            }
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private static byte[] text(int length) throws IOException {
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; result.length() < length; i++) {
+            result.append("line ").append(i).append('\n');
+        }
+        return result.substring(0, length).getBytes("UTF-8");
+    }
+
+    private static byte[] random(int length) {
+        byte[] result = new byte[length];
+        new Random(length).nextBytes(result);
+        return result;
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int size;
+            while ((size = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, size);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static int indexOf(byte[] array, byte[] subarray) {
+        for (int i = 0; i <= array.length - subarray.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(array, i, i + subarray.length), subarray)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not found");
+    }
+}